@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview
+
+import graphics.scenery.utils.LazyLogger
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.function.LongSupplier
+
+/**
+ * Handle to an animation scheduled by an [AnimationEngine]. The action runs at a fixed rate: ticks are aligned to
+ * the time the animation was started rather than to the end of the previous run, so the rate does not drift with the
+ * duration of the action. If the action overruns and a tick is already more than one period late when it comes due,
+ * the tick is skipped instead of being run back-to-back with the previous one.
+ */
+class Animation internal constructor(
+        /** Rate in ticks per second this animation was scheduled with */
+        val requestedRate: Double,
+        private val action: Runnable,
+        private val engine: AnimationEngine,
+        private val clock: LongSupplier) : Future<Any?> {
+    private val logger by LazyLogger()
+
+    internal val periodNanos = (1e9 / requestedRate).toLong().coerceAtLeast(1L)
+    @Volatile
+    private var stopped = false
+
+    internal var future: ScheduledFuture<*>? = null
+        set(value) {
+            field = value
+            // the first tick runs right away and may already have stopped the animation
+            if (stopped) value?.cancel(false)
+        }
+
+    private var nextTick = 0L
+    private var lastRun = 0L
+    private var averageInterval = 0.0
+
+    /** Whether the action is currently suspended, see [pause] and [resume] */
+    @Volatile
+    var isPaused = false
+        private set
+
+    /** Number of times the action has run */
+    @Volatile
+    var ticks = 0L
+        private set
+
+    /** Number of ticks that were skipped because the action overran its period */
+    @Volatile
+    var skippedTicks = 0L
+        private set
+
+    /** Rate in ticks per second the action actually ran at recently, 0 until it has run twice */
+    val achievedRate: Double
+        get() = averageInterval.let { if (it > 0.0) 1e9 / it else 0.0 }
+
+    /** Suspends the action until [resume] is called. */
+    fun pause() {
+        isPaused = true
+    }
+
+    /** Continues a paused animation with the next tick. */
+    fun resume() {
+        isPaused = false
+    }
+
+    /** Stops the animation for good. */
+    fun stop() {
+        cancel(false)
+    }
+
+    internal fun start(startTime: Long) {
+        nextTick = startTime
+    }
+
+    internal fun tick() {
+        if (stopped) return
+        val due = nextTick
+        nextTick += periodNanos
+        if (isPaused) {
+            lastRun = 0L
+            return
+        }
+
+        val now = clock.asLong
+        if (now - due > periodNanos) {
+            skippedTicks++
+            return
+        }
+
+        if (lastRun != 0L) {
+            val interval = (now - lastRun).toDouble()
+            averageInterval = if (averageInterval == 0.0) interval else 0.9 * averageInterval + 0.1 * interval
+        }
+        lastRun = now
+
+        try {
+            action.run()
+            ticks++
+        } catch (e: Throwable) {
+            logger.error("Animation stopped after an exception in its action: $e")
+            stop()
+        }
+    }
+
+    override fun cancel(mayInterruptIfRunning: Boolean): Boolean {
+        stopped = true
+        engine.remove(this)
+        return future?.cancel(mayInterruptIfRunning) ?: true
+    }
+
+    override fun isCancelled(): Boolean = stopped
+
+    override fun isDone(): Boolean = stopped
+
+    @Throws(InterruptedException::class, ExecutionException::class)
+    override fun get(): Any? = future!!.get()
+
+    @Throws(InterruptedException::class, ExecutionException::class, TimeoutException::class)
+    override fun get(timeout: Long, unit: TimeUnit): Any? = future!!.get(timeout, unit)
+
+    override fun toString(): String {
+        return String.format("Animation[requested %.1f/s, achieved %.1f/s, %d ticks, %d skipped%s]",
+                requestedRate, achievedRate, ticks, skippedTicks, if (isPaused) ", paused" else "")
+    }
+}
@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.function.LongSupplier
+
+/**
+ * Runs [Animation]s on a small pool of shared scheduler threads instead of one sleeping thread per animation.
+ *
+ * The scheduler and the clock ticks are timed with can be passed in, e.g. to drive animations step by step.
+ */
+class AnimationEngine(private val executor: ScheduledExecutorService, private val clock: LongSupplier) {
+    private val running = CopyOnWriteArrayList<Animation>()
+
+    /**
+     * @param threads number of shared scheduler threads, timed with [System.nanoTime]
+     */
+    @JvmOverloads
+    constructor(threads: Int = Math.min(4, Runtime.getRuntime().availableProcessors())) : this(newExecutor(threads), LongSupplier { System.nanoTime() })
+
+    /** The animations that have been scheduled and not stopped yet */
+    val animations: List<Animation>
+        get() = ArrayList(running)
+
+    /**
+     * Runs [action] [rate] times per second until the returned [Animation] is stopped.
+     */
+    fun schedule(rate: Double, action: Runnable): Animation {
+        require(rate > 0.0) { "Animation rate must be positive, got $rate" }
+        val animation = Animation(rate, action, this, clock)
+        running.add(animation)
+        animation.start(clock.asLong)
+        animation.future = executor.scheduleAtFixedRate({ animation.tick() }, 0, animation.periodNanos, TimeUnit.NANOSECONDS)
+        return animation
+    }
+
+    /** Pauses all running animations. */
+    fun pauseAll() = running.forEach { it.pause() }
+
+    /** Resumes all paused animations. */
+    fun resumeAll() = running.forEach { it.resume() }
+
+    /** Stops all animations. */
+    fun stopAll() = running.forEach { it.stop() }
+
+    /** Stops all animations and the scheduler threads. */
+    fun close() {
+        stopAll()
+        executor.shutdownNow()
+    }
+
+    internal fun remove(animation: Animation) {
+        running.remove(animation)
+    }
+
+    companion object {
+        private fun newExecutor(threads: Int): ScheduledExecutorService {
+            val executor = ScheduledThreadPoolExecutor(threads) { r ->
+                val t = Thread(r, "SciView-Animation")
+                t.isDaemon = true
+                t
+            }
+            executor.removeOnCancelPolicy = true
+            return executor
+        }
+    }
+}
@@ -3,7 +3,6 @@ package sc.iview
 import graphics.scenery.*
 import graphics.scenery.controls.behaviours.FPSCameraControl
 import graphics.scenery.controls.behaviours.MovementCommand
-import graphics.scenery.controls.behaviours.SelectCommand
 import graphics.scenery.numerics.Random
 import graphics.scenery.utils.LazyLogger
 import graphics.scenery.utils.extensions.plus
@@ -412,17 +411,11 @@ open class Controls(val sciview: SciView) {
 
     fun setObjectSelectionMode(selectAction: Function3<Scene.RaycastResult, Int, Int, Unit>?) {
         val h = inputHandler
-        val ignoredObjects = ArrayList<Class<*>>()
-        ignoredObjects.add(BoundingGrid::class.java)
-        ignoredObjects.add(Camera::class.java) //do not mess with "scene params", allow only "scene data" to be selected
-        ignoredObjects.add(DetachedHeadCamera::class.java)
-        ignoredObjects.add(DirectionalLight::class.java)
-        ignoredObjects.add(PointLight::class.java)
+        //do not mess with "scene params", allow only "scene data" to be selected
+        val ignoredObjects = SceneBVH.DEFAULT_IGNORED
         
         h.addBehaviour("node: choose one from the view panel",
-                SelectCommand("objectSelector", sciview.getSceneryRenderer()!!, sciview.currentScene,
-                        { sciview.currentScene.findObserver() }, false, ignoredObjects,
-                        selectAction!!))
+                PickCommand(sciview, ignoredObjects, selectAction!!))
         h.addKeyBinding("node: choose one from the view panel", "double-click button1")
     }
 
@@ -447,11 +440,9 @@ open class Controls(val sciview: SciView) {
                 }
             } else {
                 if (sciview.activeNode != null) {
-                    sciview.allSceneNodes.forEach {
-                        if(it.name == "DistanceMeasureTextBoard" || it.name == "distanceMeasureLine") {
-                            sciview.deleteNode(it)
-                        }
-                    }
+                    (sciview.sceneIndex.findAll("DistanceMeasureTextBoard") + sciview.sceneIndex.findAll("distanceMeasureLine"))
+                            .filter { it.parent === sciview.currentScene }
+                            .forEach { sciview.deleteNode(it) }
                     val position0 = lastNode.position
                     val position1 = sciview.activeNode!!.position
                     val lastToPresent = Vector3f()
@@ -486,17 +477,11 @@ open class Controls(val sciview: SciView) {
 
     fun setDistanceMeasurer(selectAction: Function3<Scene.RaycastResult, Int, Int, Unit>?) {
         val h = inputHandler
-        val ignoredObjects = ArrayList<Class<*>>()
-        ignoredObjects.add(BoundingGrid::class.java)
-        ignoredObjects.add(Camera::class.java) //do not mess with "scene params", allow only "scene data" to be selected
-        ignoredObjects.add(DetachedHeadCamera::class.java)
-        ignoredObjects.add(DirectionalLight::class.java)
-        ignoredObjects.add(PointLight::class.java)
+        //do not mess with "scene params", allow only "scene data" to be selected
+        val ignoredObjects = SceneBVH.DEFAULT_IGNORED
 
         h.addBehaviour("distanceMeasurement: click, choose first node, click again and choose second node",
-                SelectCommand("DistanceMeasurer", sciview.getSceneryRenderer()!!, sciview.currentScene,
-                        { sciview.currentScene.findObserver() }, false, ignoredObjects,
-                        selectAction!!))
+                PickCommand(sciview, ignoredObjects, selectAction!!))
         h.addKeyBinding("distanceMeasurement: click, choose first node, click again and choose second node",
                 "M")
     }
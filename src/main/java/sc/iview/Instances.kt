@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview
+
+import graphics.scenery.BufferUtils
+import graphics.scenery.Material
+import graphics.scenery.Node
+import graphics.scenery.ShaderMaterial
+import graphics.scenery.backends.ShaderType
+import org.joml.Matrix4f
+import org.joml.Vector4f
+import java.nio.FloatBuffer
+
+/**
+ * Many instances of one template node, e.g. glyphs for cells or tracked particles.
+ *
+ * Positions, rotations (as xyzw quaternions), scales and colors of all instances are kept in four direct buffers,
+ * one array per attribute, which can be written in bulk or in place. Writes only take effect for the ranges passed to
+ * [markDirty]; the bulk setters do that themselves. Instance transforms are in world coordinates.
+ *
+ * The renderer still expects one node per instance, so every instance has a small proxy node that is not part of the
+ * scene graph. A proxy rebuilds its model matrix and color from the buffers only when its range was marked dirty, so
+ * a frame in which nothing changed costs no allocations and no matrix updates.
+ */
+class Instances(val template: Node, val count: Int) {
+    val positions: FloatBuffer = BufferUtils.allocateFloat(3 * count)
+    val rotations: FloatBuffer = BufferUtils.allocateFloat(4 * count)
+    val scales: FloatBuffer = BufferUtils.allocateFloat(3 * count)
+    val colors: FloatBuffer = BufferUtils.allocateFloat(4 * count)
+
+    /** Version of every chunk of [CHUNK_SIZE] instances, bumped by [markDirty] */
+    private val versions = IntArray((count + CHUNK_SIZE - 1) / CHUNK_SIZE)
+    private var version = 0
+
+    init {
+        for (i in 0 until count) {
+            rotations.put(4 * i + 3, 1.0f)
+            scales.put(3 * i, 1.0f).put(3 * i + 1, 1.0f).put(3 * i + 2, 1.0f)
+            colors.put(4 * i, 1.0f).put(4 * i + 1, 1.0f).put(4 * i + 2, 1.0f).put(4 * i + 3, 1.0f)
+        }
+
+        template.material = instancedMaterial(template.material)
+        template.instancedProperties["ModelMatrix"] = { template.model }
+        template.instancedProperties["Color"] = { Vector4f(1.0f) }
+        template.instances.addAll(List(count) { Instance(it) })
+    }
+
+    /** Copies xyz triples from [source] into the positions, starting at instance [first]. */
+    fun setPositions(first: Int, source: FloatBuffer) = set(positions, 3, first, source)
+
+    /** Copies xyzw quaternions from [source] into the rotations, starting at instance [first]. */
+    fun setRotations(first: Int, source: FloatBuffer) = set(rotations, 4, first, source)
+
+    /** Copies xyz triples from [source] into the scales, starting at instance [first]. */
+    fun setScales(first: Int, source: FloatBuffer) = set(scales, 3, first, source)
+
+    /** Copies rgba quadruples from [source] into the colors, starting at instance [first]. */
+    fun setColors(first: Int, source: FloatBuffer) = set(colors, 4, first, source)
+
+    fun setPosition(i: Int, x: Float, y: Float, z: Float) {
+        positions.put(3 * i, x).put(3 * i + 1, y).put(3 * i + 2, z)
+        markDirty(i, i + 1)
+    }
+
+    fun setColor(i: Int, r: Float, g: Float, b: Float, a: Float) {
+        colors.put(4 * i, r).put(4 * i + 1, g).put(4 * i + 2, b).put(4 * i + 3, a)
+        markDirty(i, i + 1)
+    }
+
+    /**
+     * Marks instances [from] (inclusive) to [to] (exclusive) as changed after their buffers were written in place.
+     */
+    @Synchronized
+    fun markDirty(from: Int, to: Int) {
+        if (from >= to) return
+        version++
+        for (chunk in from / CHUNK_SIZE..(to - 1) / CHUNK_SIZE) {
+            versions[chunk] = version
+        }
+        template.needsUpdate = true
+    }
+
+    private fun set(target: FloatBuffer, stride: Int, first: Int, source: FloatBuffer) {
+        val values = source.duplicate()
+        val changed = values.remaining() / stride
+        val dst = target.duplicate()
+        dst.position(stride * first)
+        dst.put(values)
+        markDirty(first, first + changed)
+    }
+
+    /** Proxy the renderer reads the instance attributes from */
+    private inner class Instance(private val index: Int) : Node(INSTANCE_NAME) {
+        private val modelMatrix = Matrix4f()
+        private val color = Vector4f()
+        private var seen = -1
+
+        init {
+            instancedProperties["ModelMatrix"] = { refresh(); modelMatrix }
+            instancedProperties["Color"] = { refresh(); color }
+        }
+
+        private fun refresh() {
+            val current = versions[index / CHUNK_SIZE]
+            if (current == seen) return
+            seen = current
+            val p = 3 * index
+            val r = 4 * index
+            modelMatrix.translationRotateScale(
+                    positions[p], positions[p + 1], positions[p + 2],
+                    rotations[r], rotations[r + 1], rotations[r + 2], rotations[r + 3],
+                    scales[p], scales[p + 1], scales[p + 2])
+            color.set(colors[r], colors[r + 1], colors[r + 2], colors[r + 3])
+        }
+    }
+
+    companion object {
+        const val CHUNK_SIZE = 1024
+
+        /** Name of every proxy node, which is never shown in the scene tree */
+        const val INSTANCE_NAME = "instance"
+
+        /** A material with the instancing shaders and the colors of [material] */
+        private fun instancedMaterial(material: Material): Material {
+            val instanced = ShaderMaterial.fromClass(Instances::class.java, listOf(ShaderType.VertexShader, ShaderType.FragmentShader))
+            instanced.ambient = material.ambient
+            instanced.diffuse = material.diffuse
+            instanced.specular = material.specular
+            instanced.metallic = material.metallic
+            instanced.roughness = material.roughness
+            return instanced
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview
+
+import graphics.scenery.BufferUtils
+import graphics.scenery.GeometryType
+import graphics.scenery.Mesh
+import graphics.scenery.utils.LazyLogger
+import sc.iview.process.GeometryCache.Geometry
+import sc.iview.process.MeshConverter
+import sc.iview.process.MeshDecimator
+import java.io.IOException
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import java.nio.IntBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Level of detail for large meshes.
+ *
+ * Meshes with at least [minTriangles] triangles are decimated into a series of levels on background threads as they
+ * are added, see [MeshDecimator]. Every frame, [update] estimates the projected size of each mesh on screen, picks
+ * the coarsest level that still has [trianglesPerPixel] triangles per pixel of its projected area, and then coarsens
+ * the smallest meshes further until all of them fit into [triangleBudget]. Switching a level swaps the buffers of the
+ * mesh, so a mesh is only uploaded again when its level changes.
+ *
+ * The full resolution stays authoritative: code that reads the geometry of a mesh, e.g. to export or convert it,
+ * gets it from [fullResolution] rather than from the buffers of the mesh, which may hold a coarser level. A mesh
+ * whose buffers are replaced by others than the ones its current level was shown with is taken as edited: it keeps
+ * the new buffers, and its levels are generated again. Buffers that are modified in place must be [release]d first.
+ *
+ * Levels of meshes read from a file are cached next to it, see [SOURCE_KEY].
+ */
+class LevelOfDetail(private val sciView: SciView) {
+    private val logger by LazyLogger()
+
+    /** Meshes with fewer triangles are always drawn at full resolution */
+    @Volatile
+    var minTriangles = 100_000
+
+    /** Fraction of the triangles of the previous level each level is decimated to */
+    @Volatile
+    var levelRatio = 0.25
+
+    /** No levels with fewer triangles are generated */
+    @Volatile
+    var minLevelTriangles = 1_000
+
+    /** Maximum number of levels per mesh, including the full resolution */
+    @Volatile
+    var maxLevels = 5
+
+    /** Triangles per pixel of projected area a mesh is drawn with, if the budget allows it */
+    @Volatile
+    var trianglesPerPixel = 1.0
+
+    /** Maximum number of triangles submitted per frame by meshes with levels */
+    @Volatile
+    var triangleBudget = 10_000_000L
+
+    /** If false, all meshes are drawn at full resolution */
+    @Volatile
+    var enabled = true
+
+    /** Triangles submitted by meshes with levels in the last frame */
+    var trianglesSubmitted = 0L
+        private set
+
+    /** Level switches in the last frame */
+    var switches = 0
+        private set
+
+    private class Entry(val mesh: Mesh, val levels: List<Geometry>) {
+        val triangles = IntArray(levels.size) { triangleCount(levels[it].vertices, levels[it].indices) }
+        // buffers the current level was shown with
+        var vertices: FloatBuffer = mesh.vertices
+        var indices: IntBuffer = mesh.indices
+        var current = 0
+        var chosen = 0
+        var pixels = 0.0
+    }
+
+    private val entries = CopyOnWriteArrayList<Entry>()
+    private val pending = Collections.synchronizedSet(Collections.newSetFromMap(IdentityHashMap<Mesh, Boolean>()))
+
+    private val executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) { r ->
+        val t = Thread(r, "SciView-LOD")
+        t.isDaemon = true
+        t.priority = Thread.MIN_PRIORITY
+        t
+    }
+
+    /** Number of meshes that currently have levels */
+    val meshCount: Int
+        get() = entries.size
+
+    /**
+     * Generates levels for [mesh] in the background if it is large enough.
+     * @return the background task, or null if [mesh] does not get levels
+     */
+    fun manage(mesh: Mesh): Future<*>? {
+        if (mesh.geometryType != GeometryType.TRIANGLES || triangleCount(mesh) < minTriangles) return null
+        if (entries.any { it.mesh === mesh } || !pending.add(mesh)) return null
+        return executor.submit {
+            try {
+                val levels = load(mesh) ?: generate(mesh).also { save(mesh, it) }
+                if (levels.size > 1) {
+                    entries.add(Entry(mesh, levels))
+                }
+            } catch (e: Exception) {
+                logger.error("Could not generate levels of detail for ${mesh.name}: $e")
+            } finally {
+                pending.remove(mesh)
+            }
+        }
+    }
+
+    /** Restores [mesh] to full resolution and stops switching its levels, e.g. before modifying its buffers in place. */
+    fun release(mesh: Mesh) {
+        entries.filter { it.mesh === mesh }.forEach { drop(it) }
+    }
+
+    /** Decimates [mesh] into levels, the first of which is the mesh itself. */
+    fun generate(mesh: Mesh): List<Geometry> {
+        val levels = arrayListOf(Geometry.of(mesh))
+        var vertices = mesh.vertices
+        var indices = mesh.indices
+        var triangles = triangleCount(mesh)
+        while (levels.size < maxLevels) {
+            val target = (triangles * levelRatio).toInt()
+            if (target < minLevelTriangles) break
+            val result = MeshDecimator.decimate(vertices.duplicate(), indices.duplicate(), target)
+            // stop once the surface cannot be simplified much further
+            if (result.triangleCount > 0.9 * triangles) break
+
+            val normals = BufferUtils.allocateFloat(result.vertices.limit())
+            MeshConverter.computeVertexNormals(result.vertices, result.indices, normals)
+            levels.add(Geometry(result.vertices, normals, BufferUtils.allocateFloat(result.vertices.limit() / 3 * 2),
+                    result.indices, null, null))
+            vertices = result.vertices
+            indices = result.indices
+            triangles = result.triangleCount
+        }
+        return levels
+    }
+
+    /**
+     * Chooses the level of every mesh for the current camera and swaps the buffers of the meshes whose level changed.
+     * Called once per frame before rendering.
+     */
+    fun update() {
+        if (entries.isEmpty()) return
+        val camera = sciView.camera ?: return
+        val cameraPosition = camera.position
+        val pixelsPerRadian = sciView.windowHeight / 2.0 / Math.tan(Math.toRadians(camera.fov / 2.0))
+
+        val visible = ArrayList<Entry>(entries.size)
+        var total = 0L
+        for (entry in entries) {
+            if (entry.mesh.vertices !== entry.vertices || entry.mesh.indices !== entry.indices) {
+                edited(entry)
+                continue
+            }
+            if (entry.mesh.parent == null) {
+                drop(entry)
+                continue
+            }
+            entry.chosen = 0
+            if (!entry.mesh.visible) continue
+            visible.add(entry)
+            val sphere = if (enabled) sciView.worldBounds.boundingSphere(entry.mesh) else null
+            if (sphere != null) {
+                // projected radius in pixels, and the finest level that does not exceed the wanted triangle density
+                val (origin, radius) = sphere
+                val distance = Math.max(origin.distance(cameraPosition) - radius, camera.nearPlaneDistance)
+                entry.pixels = radius / distance * pixelsPerRadian
+                val wanted = Math.PI * entry.pixels * entry.pixels * trianglesPerPixel
+                while (entry.chosen + 1 < entry.levels.size && entry.triangles[entry.chosen] > wanted) {
+                    entry.chosen++
+                }
+            }
+            total += entry.triangles[entry.chosen]
+        }
+
+        // coarsen the smallest meshes first until everything fits into the budget
+        if (enabled && total > triangleBudget) {
+            visible.sortBy { it.pixels }
+            var coarsened = true
+            while (total > triangleBudget && coarsened) {
+                coarsened = false
+                for (entry in visible) {
+                    if (entry.chosen + 1 == entry.levels.size) continue
+                    total -= entry.triangles[entry.chosen] - entry.triangles[entry.chosen + 1]
+                    entry.chosen++
+                    coarsened = true
+                    if (total <= triangleBudget) break
+                }
+            }
+        }
+
+        var switched = 0
+        for (entry in visible) {
+            if (entry.chosen != entry.current) {
+                show(entry, entry.chosen)
+                switched++
+            }
+        }
+        trianglesSubmitted = total
+        switches = switched
+        val stats = sciView.getSceneryStatistics()
+        stats.add("LOD.trianglesSubmitted", total.toFloat(), false)
+        stats.add("LOD.switches", switched.toFloat(), false)
+    }
+
+    /** Stops generating levels. */
+    fun close() {
+        executor.shutdownNow()
+    }
+
+    private fun drop(entry: Entry) {
+        entries.remove(entry)
+        if (entry.current != 0) {
+            show(entry, 0)
+        }
+    }
+
+    /** Keeps the buffers [entry] was given from outside, and generates its levels again from them. */
+    private fun edited(entry: Entry) {
+        entries.remove(entry)
+        val mesh = entry.mesh
+        mesh.metadata.remove(FULL_RESOLUTION_KEY)
+        // the cached levels were made from the file, not from the edited mesh
+        mesh.metadata.remove(SOURCE_KEY)
+        manage(mesh)
+    }
+
+    private fun show(entry: Entry, level: Int) {
+        val geometry = entry.levels[level]
+        val mesh = entry.mesh
+        mesh.vertices = geometry.vertices.duplicate()
+        mesh.normals = geometry.normals.duplicate()
+        mesh.texcoords = geometry.texcoords.duplicate()
+        mesh.indices = geometry.indices.duplicate()
+        mesh.dirty = true
+        entry.vertices = mesh.vertices
+        entry.indices = mesh.indices
+        entry.current = level
+        if (level == 0) {
+            mesh.metadata.remove(FULL_RESOLUTION_KEY)
+        } else {
+            mesh.metadata[FULL_RESOLUTION_KEY] = Shown(entry.levels[0], mesh.vertices, mesh.indices)
+        }
+    }
+
+    /** Reads the cached levels of [mesh], if they are newer than its source file and were made from the same mesh. */
+    private fun load(mesh: Mesh): List<Geometry>? {
+        val source = mesh.metadata[SOURCE_KEY] as? Path ?: return null
+        val file = cacheFile(source)
+        try {
+            if (!Files.exists(file) || !Files.exists(source)
+                    || Files.getLastModifiedTime(file) < Files.getLastModifiedTime(source)) return null
+            FileChannel.open(file, StandardOpenOption.READ).use { channel ->
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN)
+                if (buffer.int != CACHE_MAGIC || buffer.int != CACHE_VERSION) return null
+                if (buffer.int != mesh.vertices.limit() || buffer.int != mesh.indices.limit()) return null
+                val count = buffer.int
+                if (count < 0 || count > buffer.remaining() / 8) return null
+                val sizes = Array(count) { intArrayOf(buffer.int, buffer.int) }
+                // a truncated or corrupt file is a cache miss, the levels are generated again and overwrite it
+                val bytes = sizes.fold(0L) { sum, (vertexFloats, indexCount) ->
+                    if (vertexFloats < 0 || indexCount < 0) return null
+                    sum + 4L * (2L * vertexFloats + indexCount)
+                }
+                if (bytes != buffer.remaining().toLong()) return null
+                val levels = arrayListOf(Geometry.of(mesh))
+                for ((vertexFloats, indexCount) in sizes) {
+                    val vertices = getFloats(buffer, vertexFloats)
+                    val normals = getFloats(buffer, vertexFloats)
+                    val indices = getInts(buffer, indexCount)
+                    levels.add(Geometry(vertices, normals, BufferUtils.allocateFloat(vertexFloats / 3 * 2), indices, null, null))
+                }
+                return levels
+            }
+        } catch (e: IOException) {
+            logger.warn("Could not read levels of detail from $file: $e")
+            return null
+        } catch (e: BufferUnderflowException) {
+            return null
+        }
+    }
+
+    /** Writes all but the first of [levels] next to the source file of [mesh], if it has one. */
+    private fun save(mesh: Mesh, levels: List<Geometry>) {
+        val source = mesh.metadata[SOURCE_KEY] as? Path ?: return
+        val file = cacheFile(source)
+        val coarse = levels.drop(1)
+        var bytes = 4L * (5 + 2 * coarse.size)
+        for (level in coarse) {
+            bytes += 4L * (2 * level.vertices.limit() + level.indices.limit())
+        }
+        try {
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE).use { channel ->
+                val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.LITTLE_ENDIAN)
+                buffer.putInt(CACHE_MAGIC).putInt(CACHE_VERSION)
+                buffer.putInt(mesh.vertices.limit()).putInt(mesh.indices.limit()).putInt(coarse.size)
+                for (level in coarse) {
+                    buffer.putInt(level.vertices.limit()).putInt(level.indices.limit())
+                }
+                for (level in coarse) {
+                    putFloats(buffer, level.vertices)
+                    putFloats(buffer, level.normals)
+                    putInts(buffer, level.indices)
+                }
+            }
+        } catch (e: IOException) {
+            logger.warn("Could not cache levels of detail in $file: $e")
+        }
+    }
+
+    companion object {
+        /**
+         * Metadata key of the [Path] of the file a mesh was read from. The levels of such meshes are cached in
+         * [cacheFile] next to it, and reused as long as the cache is newer than the source.
+         */
+        const val SOURCE_KEY = "sciview.LODSource"
+
+        // full resolution geometry of a mesh that shows a coarser level, see fullResolution
+        private const val FULL_RESOLUTION_KEY = "sciview.LODFullResolution"
+
+        private const val CACHE_MAGIC = 0x53444f4c // "LODS" in little endian
+        private const val CACHE_VERSION = 1
+
+        /** Full resolution geometry of a mesh and the buffers of the coarser level it is shown with */
+        private class Shown(val geometry: Geometry, val vertices: FloatBuffer, val indices: IntBuffer)
+
+        /**
+         * @return the full resolution geometry of [mesh], which shares the buffers of the mesh unless it currently
+         * shows a coarser level of detail. The buffers must not be modified.
+         */
+        @JvmStatic
+        fun fullResolution(mesh: Mesh): Geometry {
+            val shown = mesh.metadata[FULL_RESOLUTION_KEY] as? Shown
+            if (shown != null && shown.vertices === mesh.vertices && shown.indices === mesh.indices) {
+                return shown.geometry
+            }
+            return Geometry(mesh.vertices, mesh.normals, mesh.texcoords, mesh.indices, null, null)
+        }
+
+        /** The file the levels of a mesh read from [source] are cached in */
+        @JvmStatic
+        fun cacheFile(source: Path): Path = source.resolveSibling(source.fileName.toString() + ".lod")
+
+        private fun triangleCount(mesh: Mesh) = triangleCount(mesh.vertices, mesh.indices)
+
+        private fun triangleCount(vertices: FloatBuffer, indices: IntBuffer): Int {
+            return if (indices.limit() > 0) indices.limit() / 3 else vertices.limit() / 9
+        }
+
+        private fun getFloats(buffer: ByteBuffer, count: Int): FloatBuffer {
+            val view = buffer.asFloatBuffer()
+            view.limit(count)
+            val floats = BufferUtils.allocateFloat(count)
+            floats.put(view)
+            floats.flip()
+            buffer.position(buffer.position() + 4 * count)
+            return floats
+        }
+
+        private fun getInts(buffer: ByteBuffer, count: Int): IntBuffer {
+            val view = buffer.asIntBuffer()
+            view.limit(count)
+            val ints = BufferUtils.allocateInt(count)
+            ints.put(view)
+            ints.flip()
+            buffer.position(buffer.position() + 4 * count)
+            return ints
+        }
+
+        private fun putFloats(buffer: ByteBuffer, floats: FloatBuffer) {
+            val source = floats.duplicate()
+            source.position(0)
+            buffer.asFloatBuffer().put(source)
+            buffer.position(buffer.position() + 4 * source.limit())
+        }
+
+        private fun putInts(buffer: ByteBuffer, ints: IntBuffer) {
+            val source = ints.duplicate()
+            source.position(0)
+            buffer.asIntBuffer().put(source)
+            buffer.position(buffer.position() + 4 * source.limit())
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview
+
+import graphics.scenery.BoundingGrid
+import graphics.scenery.Camera
+import graphics.scenery.DetachedHeadCamera
+import graphics.scenery.DirectionalLight
+import graphics.scenery.GeometryType
+import graphics.scenery.Mesh
+import graphics.scenery.Node
+import graphics.scenery.OrientedBoundingBox
+import graphics.scenery.PointLight
+import graphics.scenery.Scene
+import org.joml.Matrix4f
+import org.joml.Vector3f
+import sc.iview.process.BoundingVolumeHierarchy
+import sc.iview.process.MeshBVH
+import java.util.*
+
+/**
+ * Bounding volume hierarchy over the world-space bounding boxes of the nodes of a scene, for picking and other ray
+ * queries without testing every node.
+ *
+ * The hierarchy is rebuilt on the first query after nodes were added or removed, see [invalidate], so adding many
+ * nodes costs a single rebuild. Nodes added or removed without [invalidate] are noticed by [update] when the child
+ * count of the scene or of an indexed node changes, or an indexed node loses its parent; until then, queries skip
+ * indexed nodes that are no longer part of the scene. Every frame, [update] compares the world matrix and bounding box of every node with
+ * the ones it was indexed with and refits the boxes of the nodes that moved, which only touches their ancestors in
+ * the hierarchy.
+ *
+ * Exact queries intersect the triangles of meshes through a [MeshBVH] per mesh, built on the first exact query that
+ * reaches the mesh and rebuilt when its buffers are swapped.
+ */
+class SceneBVH(private val scene: Scene) {
+    @Volatile
+    private var structureDirty = true
+
+    private var leaves: Array<Node> = emptyArray()
+    private var worlds: Array<Matrix4f> = emptyArray()
+    private var boxes: Array<OrientedBoundingBox?> = emptyArray()
+    private var childCounts = IntArray(0)
+    private var sceneChildCount = 0
+    private var hierarchy: BoundingVolumeHierarchy? = null
+
+    private val meshes = WeakHashMap<Mesh, MeshBVH>()
+
+    private val min = Vector3f()
+    private val max = Vector3f()
+
+    /** Nodes whose boxes were refitted in the last [update] */
+    var refitted = 0
+        private set
+
+    /**
+     * Mark the hierarchy for a rebuild, after nodes were added to or removed from the scene
+     */
+    fun invalidate() {
+        structureDirty = true
+    }
+
+    /**
+     * Refit the boxes of nodes that moved or changed their bounding box. Called once per frame from the scene update.
+     */
+    @Synchronized
+    fun update() {
+        refitted = 0
+        val h = hierarchy
+        if (structureDirty || h == null) {
+            return
+        }
+        if (scene.children.size != sceneChildCount) {
+            structureDirty = true
+            return
+        }
+        for (i in leaves.indices) {
+            val node = leaves[i]
+            if (node.parent == null || node.children.size != childCounts[i]) {
+                structureDirty = true
+                return
+            }
+            val box = node.boundingBox ?: continue
+            if (box === boxes[i] && node.world == worlds[i]) {
+                continue
+            }
+            boxes[i] = box
+            worlds[i].set(node.world)
+            worldBounds(node.world, box)
+            h.setItemBounds(i, min.x, min.y, min.z, max.x, max.y, max.z)
+            refitted++
+        }
+    }
+
+    private fun rebuild() {
+        structureDirty = false
+        val nodes = scene.discover(scene, { it.boundingBox != null }, false)
+        leaves = nodes.toTypedArray()
+        worlds = Array(leaves.size) { Matrix4f(leaves[it].world) }
+        boxes = Array(leaves.size) { leaves[it].boundingBox }
+        childCounts = IntArray(leaves.size) { leaves[it].children.size }
+        sceneChildCount = scene.children.size
+        val bounds = FloatArray(leaves.size * 6)
+        for (i in leaves.indices) {
+            worldBounds(worlds[i], boxes[i]!!)
+            bounds[i * 6] = min.x
+            bounds[i * 6 + 1] = min.y
+            bounds[i * 6 + 2] = min.z
+            bounds[i * 6 + 3] = max.x
+            bounds[i * 6 + 4] = max.y
+            bounds[i * 6 + 5] = max.z
+        }
+        hierarchy = BoundingVolumeHierarchy(bounds, leaves.size)
+        meshes.keys.retainAll(leaves.filterIsInstance<Mesh>().toSet())
+    }
+
+    private fun worldBounds(world: Matrix4f, box: OrientedBoundingBox) {
+        world.transformAab(box.min, box.max, min, max)
+    }
+
+    /**
+     * Cast a ray into the scene.
+     * @param origin start of the ray in world space
+     * @param direction direction of the ray in world space
+     * @param ignoredObjects nodes that are instances of one of these classes are skipped
+     * @param exact if true, meshes are only hit where the ray hits one of their triangles, at the distance of that
+     * triangle; otherwise nodes are hit where the ray enters their bounding box
+     * @return all visible nodes hit by the ray, nearest first
+     */
+    @Synchronized
+    @JvmOverloads
+    fun raycast(origin: Vector3f, direction: Vector3f, ignoredObjects: List<Class<*>> = DEFAULT_IGNORED, exact: Boolean = false): Scene.RaycastResult {
+        if (structureDirty || hierarchy == null) {
+            rebuild()
+        }
+        val dir = Vector3f(direction).normalize()
+        val matches = ArrayList<Scene.RaycastMatch>()
+        hierarchy!!.raycastAll(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z,
+                { item, boxDistance -> intersect(leaves[item], boxDistance, origin, dir, ignoredObjects, exact) },
+                { item, distance -> matches.add(Scene.RaycastMatch(leaves[item], distance)) })
+        matches.sortBy { it.distance }
+        return Scene.RaycastResult(matches, Vector3f(origin), dir)
+    }
+
+    private fun intersect(node: Node, boxDistance: Float, origin: Vector3f, dir: Vector3f, ignoredObjects: List<Class<*>>, exact: Boolean): Float {
+        if (!node.visible || ignoredObjects.any { it.isAssignableFrom(node.javaClass) } || !isAttached(node)) {
+            return Float.POSITIVE_INFINITY
+        }
+        if (!exact || !isSurface(node)) {
+            return boxDistance
+        }
+        node as Mesh
+
+        // the full resolution, not the level of detail currently drawn
+        val geometry = LevelOfDetail.fullResolution(node)
+        var bvh = meshes[node]
+        if (bvh == null || !bvh.isBuiltFrom(geometry.vertices, geometry.indices)) {
+            bvh = MeshBVH(geometry.vertices, geometry.indices)
+            meshes[node] = bvh
+        }
+        // the ray parameter is preserved by the affine transform, so the local distance is the world distance
+        val inverse = Matrix4f(node.world).invert()
+        val o = inverse.transformPosition(Vector3f(origin))
+        val d = inverse.transformDirection(Vector3f(dir))
+        return bvh.raycast(o.x, o.y, o.z, d.x, d.y, d.z)
+    }
+
+    // detached since the last rebuild, without [invalidate]
+    private fun isAttached(node: Node): Boolean {
+        var n: Node? = node
+        while (n != null) {
+            if (n === scene) {
+                return true
+            }
+            n = n.parent
+        }
+        return false
+    }
+
+    companion object {
+        /** Nodes skipped by picking: cameras, lights and bounding grids, so that only scene data is selected */
+        @JvmField
+        val DEFAULT_IGNORED: List<Class<*>> = listOf(BoundingGrid::class.java, Camera::class.java,
+                DetachedHeadCamera::class.java, DirectionalLight::class.java, PointLight::class.java)
+
+        /**
+         * @return true if exact queries hit the node at its triangles; other nodes are always hit at their bounding box
+         */
+        @JvmStatic
+        fun isSurface(node: Node): Boolean {
+            return node is Mesh && node.geometryType == GeometryType.TRIANGLES
+        }
+    }
+}
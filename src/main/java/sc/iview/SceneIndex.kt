@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview
+
+import graphics.scenery.Node
+import graphics.scenery.Scene
+import java.util.Collections
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Index of the nodes of a scene by name, by class and by metadata key, so that lookups do not walk the scene graph.
+ *
+ * The index is kept up to date by [SciView.addNode], [SciView.deleteNode] and [SciView.removeMesh], which call [add]
+ * and [remove]. Renaming a node or changing its metadata keys is picked up by [refresh]; names are also checked on
+ * every lookup, so a node renamed behind the index's back is re-indexed on the next [find]. Nodes attached to the
+ * scene directly are found by a fallback walk of the graph the first time they are looked up by name, and nodes
+ * detached from it directly are dropped from the index when a lookup comes across them.
+ *
+ * Nodes sharing a name, class or metadata key are kept in the order they were indexed, so that [find] returns the
+ * earliest indexed node of a name and the other lookups list nodes in a stable order.
+ *
+ * New nodes get a readiness future, see [ready], which completes on the first frame the node is part of the scene.
+ */
+class SceneIndex(private val scene: Scene) {
+    private val byName = ConcurrentHashMap<String, MutableSet<Node>>()
+    private val byClass = ConcurrentHashMap<Class<*>, MutableSet<Node>>()
+    private val byMetadataKey = ConcurrentHashMap<String, MutableSet<Node>>()
+
+    // name and metadata keys each node is currently indexed under
+    private val indexedNames = ConcurrentHashMap<Node, String>()
+    private val indexedKeys = ConcurrentHashMap<Node, Set<String>>()
+
+    private val pending = ConcurrentHashMap<Node, CompletableFuture<Node>>()
+
+    @Volatile
+    private var updateThread: Thread? = null
+
+    @Volatile
+    private var topLevel: Array<Node>? = null
+
+    init {
+        addSubtree(scene, false)
+    }
+
+    /** Number of indexed nodes */
+    val size: Int
+        get() = indexedNames.size
+
+    /**
+     * Index a node and its subtree, and create its readiness future
+     * @param node root of the subtree that was added to the scene
+     */
+    fun add(node: Node) {
+        addSubtree(node, true)
+        topLevel = null
+    }
+
+    private fun addSubtree(node: Node, awaitReady: Boolean) {
+        index(node)
+        // before the first frame there is nothing to wait for, see [ready]
+        if (awaitReady && updateThread != null) {
+            pending.computeIfAbsent(node) { CompletableFuture() }
+        }
+        for (child in node.children) {
+            addSubtree(child, false)
+        }
+    }
+
+    /**
+     * Drop a node and its subtree from the index. Pending readiness futures of the nodes are cancelled.
+     * @param node node that was removed from the scene
+     */
+    fun remove(node: Node) {
+        drop(node)
+        for (child in node.children) {
+            remove(child)
+        }
+        topLevel = null
+    }
+
+    private fun drop(node: Node) {
+        indexedNames.remove(node)?.let { byName[it]?.remove(node) }
+        indexedKeys.remove(node)?.forEach { byMetadataKey[it]?.remove(node) }
+        for (type in typesOf(node.javaClass)) {
+            byClass[type]?.remove(node)
+        }
+        pending.remove(node)?.cancel(false)
+    }
+
+    /**
+     * @return false, after dropping the node from the index, if it has been detached from the scene
+     */
+    private fun retain(node: Node): Boolean {
+        if (isAttached(node)) {
+            return true
+        }
+        drop(node)
+        return false
+    }
+
+    /**
+     * Re-index the name and metadata keys of a node after they have changed
+     * @param node indexed node
+     */
+    fun refresh(node: Node) {
+        if (!indexedNames.containsKey(node)) {
+            return
+        }
+        index(node)
+    }
+
+    private fun index(node: Node) {
+        val name = node.name
+        val previousName = indexedNames.put(node, name)
+        if (previousName != name) {
+            previousName?.let { byName[it]?.remove(node) }
+            byName.computeIfAbsent(name) { newNodeSet() }.add(node)
+        }
+
+        val keys = HashSet(node.metadata.keys)
+        val previousKeys = indexedKeys.put(node, keys) ?: emptySet()
+        previousKeys.filter { it !in keys }.forEach { byMetadataKey[it]?.remove(node) }
+        keys.filter { it !in previousKeys }.forEach { byMetadataKey.computeIfAbsent(it) { newNodeSet() }.add(node) }
+
+        if (previousName == null) {
+            for (type in typesOf(node.javaClass)) {
+                byClass.computeIfAbsent(type) { newNodeSet() }.add(node)
+            }
+        }
+    }
+
+    /**
+     * @param name name of the node
+     * @return a node with the given name, or null if there is none
+     */
+    fun find(name: String): Node? {
+        byName[name]?.let { candidates ->
+            for (node in snapshot(candidates)) {
+                if (!retain(node)) {
+                    continue
+                }
+                if (node.name == name) {
+                    return node
+                }
+                // renamed without the index knowing
+                index(node)
+            }
+        }
+        val node = scene.find(name) ?: return null
+        addSubtree(node, false)
+        return node
+    }
+
+    /**
+     * @param name name of the nodes
+     * @return all indexed nodes with the given name
+     */
+    fun findAll(name: String): List<Node> {
+        val candidates = byName[name] ?: return emptyList()
+        return snapshot(candidates).filter { it.name == name && retain(it) }
+    }
+
+    /**
+     * @param type class of the nodes, including super classes and interfaces
+     * @return all indexed nodes that are instances of the given type
+     */
+    fun <T> findByClass(type: Class<T>): List<T> {
+        val nodes = byClass[type] ?: return emptyList()
+        return snapshot(nodes).filter { retain(it) }.map { type.cast(it) }
+    }
+
+    /**
+     * @param key metadata key
+     * @return all indexed nodes whose metadata contained the key when they were indexed or last refreshed
+     */
+    fun findByMetadataKey(key: String): List<Node> {
+        val nodes = byMetadataKey[key] ?: return emptyList()
+        return snapshot(nodes).filter { retain(it) }
+    }
+
+    /**
+     * @return a snapshot of the direct children of the scene, rebuilt only after nodes were added or removed
+     */
+    fun topLevelNodes(): Array<Node> {
+        val snapshot = topLevel
+        if (snapshot != null && sameChildren(snapshot)) {
+            return snapshot
+        }
+        return scene.children.toTypedArray().also { topLevel = it }
+    }
+
+    // catches children attached to or detached from the scene directly, without allocating
+    private fun sameChildren(snapshot: Array<Node>): Boolean {
+        val children = scene.children
+        if (snapshot.size != children.size) {
+            return false
+        }
+        for (i in snapshot.indices) {
+            if (snapshot[i] !== children[i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * @param node a node added to the scene
+     * @return a future completed with the node on the first frame it is part of the scene, or cancelled if it is
+     * removed before. Nodes that are not waited for, including those added before the scene was first updated, are
+     * considered ready.
+     */
+    fun ready(node: Node): CompletableFuture<Node> {
+        val future = pending[node] ?: return CompletableFuture.completedFuture(node)
+        // waiting for the next frame on the thread that renders it would never return
+        if (Thread.currentThread() == updateThread && isAttached(node)) {
+            pending.remove(node)
+            future.complete(node)
+        }
+        return future
+    }
+
+    /**
+     * Complete the readiness futures of nodes that have become part of the scene. Called once per frame from the
+     * scene update.
+     */
+    fun update() {
+        updateThread = Thread.currentThread()
+        if (pending.isEmpty()) {
+            return
+        }
+        val iterator = pending.entries.iterator()
+        while (iterator.hasNext()) {
+            val (node, future) = iterator.next()
+            iterator.remove()
+            if (isAttached(node)) {
+                future.complete(node)
+            } else {
+                // detached without going through [remove]
+                future.cancel(false)
+            }
+        }
+    }
+
+    /**
+     * @param node any node
+     * @return true if the node is part of the scene graph
+     */
+    fun isAttached(node: Node): Boolean {
+        var n: Node? = node
+        while (n != null) {
+            if (n === scene) {
+                return true
+            }
+            n = n.parent
+        }
+        return false
+    }
+
+    companion object {
+        private fun newNodeSet(): MutableSet<Node> = Collections.synchronizedSet(LinkedHashSet())
+
+        // lookups drop and re-index nodes while going through them, so they iterate over a copy
+        private fun snapshot(nodes: MutableSet<Node>): List<Node> = synchronized(nodes) { ArrayList(nodes) }
+
+        private val types = ConcurrentHashMap<Class<*>, List<Class<*>>>()
+
+        /**
+         * @return the class, its super classes and all interfaces it implements
+         */
+        private fun typesOf(type: Class<*>): List<Class<*>> {
+            return types.computeIfAbsent(type) {
+                val result = LinkedHashSet<Class<*>>()
+                var c: Class<*>? = it
+                while (c != null) {
+                    result.add(c)
+                    addInterfaces(c, result)
+                    c = c.superclass
+                }
+                result.toList()
+            }
+        }
+
+        private fun addInterfaces(type: Class<*>, result: MutableSet<Class<*>>) {
+            for (i in type.interfaces) {
+                if (result.add(i)) {
+                    addInterfaces(i, result)
+                }
+            }
+        }
+    }
+}
@@ -70,6 +70,9 @@ import net.imagej.units.UnitService
 import net.imglib2.*
 import net.imglib2.display.ColorTable
 import net.imglib2.img.Img
+import net.imglib2.img.array.ArrayImg
+import net.imglib2.img.basictypeaccess.array.ByteArray as ByteAccess
+import net.imglib2.img.basictypeaccess.array.IntArray as IntAccess
 import net.imglib2.realtransform.AffineTransform3D
 import net.imglib2.type.numeric.ARGBType
 import net.imglib2.type.numeric.NumericType
@@ -96,26 +99,34 @@ import org.scijava.util.VersionUtils
 import sc.iview.event.NodeActivatedEvent
 import sc.iview.event.NodeAddedEvent
 import sc.iview.event.NodeChangedEvent
+import sc.iview.event.NodeEventCoalescer
 import sc.iview.event.NodeRemovedEvent
+import sc.iview.event.NodesAddedEvent
+import sc.iview.io.N5IO
+import sc.iview.io.N5PyramidImageLoader
 import sc.iview.process.MeshConverter
+import sc.iview.process.PointCloudBuffers
+import sc.iview.process.RegionCopy
 import sc.iview.ui.MainWindow
 import sc.iview.ui.SwingMainWindow
 import sc.iview.ui.TaskManager
 import tpietzsch.example2.VolumeViewerOptions
 import java.awt.event.WindowListener
-import java.awt.image.BufferedImage
-import java.awt.image.DataBufferByte
-import java.io.File
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.nio.FloatBuffer
+import java.nio.file.Path
+import java.nio.file.Paths
 import java.util.*
-import java.util.concurrent.Future
+import java.util.concurrent.CancellationException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import java.util.function.Consumer
 import java.util.function.Function
+import java.util.function.IntConsumer
 import java.util.function.Predicate
 import java.util.stream.Collectors
-import javax.imageio.ImageIO
+import javax.swing.SwingUtilities
 import kotlin.math.cos
 import kotlin.math.sin
 
@@ -186,14 +197,29 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
     private lateinit var unitService: UnitService
 
     /**
-     * Queue keeps track of the currently running animations
+     * Schedules and keeps track of the currently running animations
      */
-    private var animations: Queue<Future<*>>? = null
+    val animator = AnimationEngine()
 
     /**
-     * Animation pause tracking
+     * Decimates large meshes into levels of detail and switches between them every frame
      */
-    private var animating = false
+    val lod: LevelOfDetail by lazy { LevelOfDetail(this) }
+
+    /**
+     * Index of the scene nodes by name, class and metadata key, see [find]
+     */
+    val sceneIndex: SceneIndex by lazy { SceneIndex(scene) }
+
+    /**
+     * Bounding volume hierarchy of the scene nodes for picking, see [pick] and [raycast]
+     */
+    val sceneBVH: SceneBVH by lazy { SceneBVH(scene) }
+
+    /**
+     * Cached world-space bounds of subtrees, see [getSubgraphBoundingBox] and [centerOnNode]
+     */
+    val worldBounds = WorldBounds()
 
     /**
      * This tracks the actively selected Node in the scene
@@ -227,6 +253,27 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
     // If true, then when a new node is added the thread will block until the node is added to the scene. This is required for
     //   centerOnNewNodes
     var blockOnNewNodes = false
+
+    /**
+     * The node batch currently open on this thread, see [batch]
+     */
+    private val currentBatch = ThreadLocal<NodeBatch>()
+
+    /**
+     * Merges bursts of [NodeChangedEvent]s into one event per node and frame before they reach the event service.
+     * Activations are not merged, see [setActiveNode]. The merge window can be changed via [NodeEventCoalescer.setWindowMillis], 0 disables
+     * merging. Merged events are published on the event dispatch thread, since subscribers such as the inspector and
+     * the scene tree update Swing components.
+     */
+    val nodeEvents: NodeEventCoalescer by lazy {
+        val coalescer = NodeEventCoalescer(eventService, NODE_EVENT_WINDOW_MS) { SwingUtilities.invokeLater(it) }
+        coalescer.setFlushListener { m ->
+            stats.add("NodeEvents.merged", m.merged.toFloat(), false)
+            stats.add("NodeEvents.dropped", m.dropped.toFloat(), false)
+            stats.add("NodeEvents.delivered", m.delivered.toFloat(), false)
+        }
+        coalescer
+    }
     private var headlight: PointLight? = null
 
     lateinit var mainWindow: MainWindow
@@ -342,6 +389,11 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         (floor as InfinitePlane).type = InfinitePlane.Type.Grid
         (floor as Node).name = "Floor"
         scene.addChild(floor as Node)
+
+        // nodes were replaced without publishing events, so the scene tree has to be rebuilt
+        if (this::mainWindow.isInitialized) {
+            mainWindow.rebuildSceneTree()
+        }
     }
 
     /**
@@ -379,9 +431,13 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
             logger.info("imagej-launcher not found, not touching renderer preferences.")
         }
 
-        animations = LinkedList()
         mainWindow = SwingMainWindow(this)
         controls = Controls(this)
+
+        scene.update.add { lod.update() }
+        scene.update.add { sceneIndex.update() }
+        scene.update.add { sceneBVH.update() }
+        scene.update.add { worldBounds.update() }
     }
 
     fun toggleSidebar(): Boolean {
@@ -429,11 +485,11 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         get() = inputHandler!!
 
     /*
-     * Return a bounding box around a subgraph of the scenegraph
+     * Return a world-space bounding box around a subgraph of the scenegraph. The box is cached and only recomputed
+     * for the parts of the subgraph that moved or changed, see [WorldBounds].
      */
     fun getSubgraphBoundingBox(n: Node): OrientedBoundingBox? {
-        val predicate = Function<Node, List<Node>> { node: Node -> node.children }
-        return getSubgraphBoundingBox(n, predicate)
+        return worldBounds.boundingBox(n)
     }
 
     /*
@@ -473,7 +529,7 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         }
 
         //center the on the same spot as ArcBall does
-        centerOnPosition(currentNode.getMaximumBoundingBox().getBoundingSphere().origin)
+        centerOnPosition(worldBounds.center(currentNode))
     }
 
     /**
@@ -553,6 +609,47 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         controls.setObjectSelectionMode(selectAction)
     }
 
+    /**
+     * Cast a ray into the scene through the hierarchy of [sceneBVH]
+     * @param origin start of the ray in world space
+     * @param direction direction of the ray in world space
+     * @param exact if true, meshes are hit at their triangles rather than their bounding boxes
+     * @return all visible nodes hit by the ray except cameras, lights and bounding grids, nearest first
+     */
+    @JvmOverloads
+    fun raycast(origin: Vector3f, direction: Vector3f, exact: Boolean = false): RaycastResult {
+        return sceneBVH.raycast(origin, direction, SceneBVH.DEFAULT_IGNORED, exact)
+    }
+
+    /**
+     * Cast a ray from the camera through a point on the screen
+     * @param x horizontal screen coordinate
+     * @param y vertical screen coordinate
+     * @param ignoredObjects nodes that are instances of one of these classes are skipped
+     * @param exact if true, meshes are hit at their triangles rather than their bounding boxes
+     * @return all visible nodes under the point, nearest first
+     */
+    @JvmOverloads
+    fun pick(x: Int, y: Int, ignoredObjects: List<Class<*>> = SceneBVH.DEFAULT_IGNORED, exact: Boolean = false): RaycastResult {
+        val (origin, direction) = camera!!.screenPointToRay(x, y)
+        return sceneBVH.raycast(origin, direction, ignoredObjects, exact)
+    }
+
+    /**
+     * Find where the ray from the camera through a point on the screen first hits the triangles of a mesh. Bounding
+     * boxes, e.g. of volumes, groups or lines, and the floor are not hit.
+     * @param x horizontal screen coordinate
+     * @param y vertical screen coordinate
+     * @param exclude meshes that are skipped
+     * @return the nearest point on a mesh surface in world space, or null if there is none under the point
+     */
+    fun pickSurface(x: Int, y: Int, exclude: Predicate<in Node>): Vector3f? {
+        val result = pick(x, y, exact = true)
+        val hit = result.matches.firstOrNull { SceneBVH.isSurface(it.node) && it.node !== floor && !exclude.test(it.node) }
+                ?: return null
+        return Vector3f(result.initialDirection).mul(hit.distance).add(result.initialPosition)
+    }
+
     fun showContextNodeChooser(x: Int, y: Int) {
         mainWindow.showContextNodeChooser(x,y)
     }
@@ -722,12 +819,18 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
             return
         }
         val data = io.open(source)
-        if (data is Mesh)
-            addMesh(data)
-        else if (data is graphics.scenery.Mesh)
+        if (data is Mesh) {
+            val scMesh = MeshConverter.toScenery(data)
+            scMesh.metadata[LevelOfDetail.SOURCE_KEY] = Paths.get(source)
+            addMesh(scMesh)
+        } else if (data is graphics.scenery.Mesh) {
+            data.metadata[LevelOfDetail.SOURCE_KEY] = Paths.get(source)
             addMesh(data)
+        }
         else if (data is PointCloud)
             addPointCloud(data)
+        else if (data is Volume)
+            addNode(data)
         else if (data is Dataset)
             addVolume(data)
         else if (data is RandomAccessibleInterval<*>)
@@ -763,23 +866,88 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
     fun addPointCloud(points: Collection<RealLocalizable>,
                       name: String? = "PointCloud",
                       pointSize : Float = 1.0f): Node? {
-        val flatVerts = FloatArray(points.size * 3)
-        var k = 0
-        for (point in points) {
-            flatVerts[k * 3] = point.getFloatPosition(0)
-            flatVerts[k * 3 + 1] = point.getFloatPosition(1)
-            flatVerts[k * 3 + 2] = point.getFloatPosition(2)
-            k++
-        }
-        val pointCloud = PointCloud(pointSize, name!!)
-        val vBuffer: FloatBuffer = BufferUtils.allocateFloat(flatVerts.size * 4)
-        val nBuffer: FloatBuffer = BufferUtils.allocateFloat(0)
-        vBuffer.put(flatVerts)
-        vBuffer.flip()
-        pointCloud.vertices = vBuffer
-        pointCloud.normals = nBuffer
+        return addPointCloud(PointCloudBuffers.fromLocalizables(points), name ?: "PointCloud", pointSize)
+    }
+
+    /**
+     * Add a PointCloud whose vertices are the xyz triplets of [vertices], from its current position on.
+     * Direct buffers in native byte order are used without copying, so the caller must not modify them afterwards.
+     * @param vertices xyz coordinates of the points
+     * @param name name of the PointCloud
+     * @param pointSize size of the points
+     * @return a Node corresponding to the PointCloud
+     */
+    @JvmOverloads
+    fun addPointCloud(vertices: FloatBuffer, name: String = "PointCloud", pointSize: Float = 1.0f): Node? {
+        return addPointCloud(PointCloudBuffers.fromBuffer(vertices), name, pointSize)
+    }
+
+    /**
+     * Add a PointCloud whose vertices are native-order float xyz triplets stored in [vertices].
+     * Direct buffers (including memory-mapped ones) are used without copying.
+     * @param vertices xyz coordinates of the points
+     * @param name name of the PointCloud
+     * @param pointSize size of the points
+     * @return a Node corresponding to the PointCloud
+     */
+    @JvmOverloads
+    fun addPointCloud(vertices: ByteBuffer, name: String = "PointCloud", pointSize: Float = 1.0f): Node? {
+        return addPointCloud(PointCloudBuffers.fromBuffer(vertices), name, pointSize)
+    }
+
+    /**
+     * Add a PointCloud from a stripe of [numPoints] xyz triplets in [vertices], starting at [offset].
+     * @param vertices xyz coordinates of the points
+     * @param offset index of the first coordinate to use
+     * @param numPoints number of points to use
+     * @param name name of the PointCloud
+     * @param pointSize size of the points
+     * @return a Node corresponding to the PointCloud
+     */
+    @JvmOverloads
+    fun addPointCloud(vertices: FloatArray, offset: Int = 0, numPoints: Int = (vertices.size - offset) / 3,
+                      name: String = "PointCloud", pointSize: Float = 1.0f): Node? {
+        return addPointCloud(PointCloudBuffers.fromArray(vertices, offset, numPoints), name, pointSize)
+    }
+
+    /**
+     * Add a PointCloud backed by a memory-mapped region of [file] holding [numPoints] little-endian float
+     * xyz triplets, starting at byte [offset].
+     * @param file binary file containing the coordinates
+     * @param offset byte offset of the first coordinate
+     * @param numPoints number of points in the region
+     * @param name name of the PointCloud
+     * @param pointSize size of the points
+     * @return a Node corresponding to the PointCloud
+     */
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun addPointCloud(file: Path, offset: Long, numPoints: Int, name: String = file.fileName.toString(), pointSize: Float = 1.0f): Node? {
+        return addPointCloud(PointCloudBuffers.fromFile(file, offset, numPoints), name, pointSize)
+    }
+
+    /**
+     * Add a PointCloud whose vertices are streamed in chunks by [producer] directly into the vertex buffer.
+     * @param expectedPoints number of points the producer is expected to deliver, used to size the buffer
+     * @param producer writes successive chunks of xyz coordinates
+     * @param name name of the PointCloud
+     * @param pointSize size of the points
+     * @return a Node corresponding to the PointCloud
+     */
+    @JvmOverloads
+    fun addPointCloud(expectedPoints: Int, producer: PointCloudBuffers.PointChunkProducer,
+                      name: String = "PointCloud", pointSize: Float = 1.0f): Node? {
+        return addPointCloud(PointCloudBuffers.fromProducer(expectedPoints, producer), name, pointSize)
+    }
+
+    private fun addPointCloud(ingest: PointCloudBuffers.Ingest, name: String, pointSize: Float): Node? {
+        logger.debug("Ingested point cloud $name: ${ingest.statistics}")
+        val pointCloud = PointCloud(pointSize, name)
+        pointCloud.vertices = ingest.vertices
+        pointCloud.normals = BufferUtils.allocateFloat(0)
         pointCloud.indices = BufferUtils.allocateInt(0)
         pointCloud.position = Vector3f(0f, 0f, 0f)
+        pointCloud.metadata["IngestStatistics"] = ingest.statistics
 
         pointCloud.setupPointCloud()
         return addNode(pointCloud)
@@ -806,10 +974,20 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
     fun addNode(n: Node?, activePublish: Boolean = true): Node? {
         n?.let {
             scene.addChild(it)
+            sceneIndex.add(it)
+            sceneBVH.invalidate()
+            worldBounds.changed(scene)
+            if (it is graphics.scenery.Mesh) {
+                lod.manage(it)
+            }
+            val batch = currentBatch.get()
+            if (batch != null) {
+                batch.add(it, activePublish)
+                return n
+            }
             objectService.addObject(n)
             if (blockOnNewNodes) {
-                Utils.blockWhile({ this.find(n.name) == null }, 20)
-                //System.out.println("find(name) " + find(n.getName()) );
+                awaitReady(n)
             }
             // Set new node as active and centered?
             setActiveNode(n)
@@ -823,19 +1001,99 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         return n
     }
 
+    /**
+     * Add several nodes to the scene at once. The nodes are registered with the ObjectService as with [addNode], the
+     * last one becomes the active node, and a single [NodesAddedEvent] is published, so the scene tree is only rebuilt
+     * once.
+     * @param nodes nodes to add to the scene
+     * @param activePublish flag to specify whether the nodes are published in the inspector/services
+     * @return the added nodes
+     */
+    @JvmOverloads
+    fun addNodes(nodes: Collection<Node>, activePublish: Boolean = true): Collection<Node> {
+        batch { nodes.forEach { addNode(it, activePublish) } }
+        return nodes
+    }
+
+    /**
+     * Run [action] as one transaction with respect to node insertion: every [addNode] call made by [action] on this
+     * thread is deferred until it returns, and is then registered and published as with [addNodes]. Nested batches
+     * join the outermost one.
+     * @param action code that adds nodes to the scene
+     */
+    fun batch(action: Runnable) {
+        if (currentBatch.get() != null) {
+            action.run()
+            return
+        }
+        val batch = NodeBatch()
+        currentBatch.set(batch)
+        try {
+            action.run()
+        } finally {
+            currentBatch.remove()
+            commitBatch(batch)
+        }
+    }
+
+    private fun commitBatch(batch: NodeBatch) {
+        val last = batch.nodes.lastOrNull() ?: return
+        // one ObjectCreatedEvent per node, as for nodes added one by one
+        batch.nodes.forEach { objectService.addObject(it) }
+        if (blockOnNewNodes) {
+            awaitReady(last)
+        }
+        setActiveNode(last)
+        if (centerOnNewNodes) {
+            centerOnNode(last)
+        }
+        if (batch.published.isNotEmpty()) {
+            eventService.publish(NodesAddedEvent(batch.published))
+        }
+    }
+
+    /**
+     * Block until a newly added node is part of the rendered scene, see [SceneIndex.ready]. If no frame is rendered
+     * within [NODE_READY_TIMEOUT_MS], e.g. because the renderer is paused or headless, it is enough for the node to be
+     * attached to the scene graph.
+     */
+    private fun awaitReady(n: Node) {
+        try {
+            sceneIndex.ready(n).get(NODE_READY_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            if (!sceneIndex.isAttached(n)) {
+                logger.warn("Node ${n.name} is not part of the scene.")
+            }
+        } catch (e: CancellationException) {
+            // removed before it was ready
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    /**
+     * Nodes added during a [batch], in insertion order
+     */
+    private class NodeBatch {
+        val nodes = ArrayList<Node>()
+        val published = ArrayList<Node>()
+
+        fun add(n: Node, activePublish: Boolean) {
+            nodes.add(n)
+            if (activePublish) {
+                published.add(n)
+            }
+        }
+    }
+
     /**
      * Add a scenery Mesh to the scene
      * @param scMesh scenery mesh to add to scene
      * @return a Node corresponding to the mesh
      */
     fun addMesh(scMesh: graphics.scenery.Mesh): Node? {
-        val material = Material()
-        material.ambient = Vector3f(1.0f, 0.0f, 0.0f)
-        material.diffuse = Vector3f(0.0f, 1.0f, 0.0f)
-        material.specular = Vector3f(1.0f, 1.0f, 1.0f)
-        scMesh.material = material
+        scMesh.material = meshMaterial()
         scMesh.position = Vector3f(0.0f, 0.0f, 0.0f)
-        objectService.addObject(scMesh)
         return addNode(scMesh)
     }
 
@@ -849,6 +1107,49 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         return addMesh(scMesh)
     }
 
+    /**
+     * Add an ImageJ mesh to the scene, optionally sharing its geometry with the other nodes added from the same mesh
+     * @param mesh net.imagej.mesh to add to scene
+     * @param shareGeometry if true, mesh is converted only once and all nodes added from it share their buffers,
+     * see [MeshConverter.toScenerySharing]
+     * @return a Node corresponding to the mesh
+     */
+    fun addMesh(mesh: Mesh, shareGeometry: Boolean): Node? {
+        val scMesh = if (shareGeometry) MeshConverter.toScenerySharing(mesh) else MeshConverter.toScenery(mesh)
+        return addMesh(scMesh)
+    }
+
+    /**
+     * Add a new mesh node to the scene that shares the vertex, normal and index buffers of an existing scenery mesh
+     * @param template mesh whose geometry is reused, it is not added to the scene itself
+     * @param shareGeometry if false, template itself is added instead
+     * @return a Node corresponding to the new mesh
+     */
+    fun addMesh(template: graphics.scenery.Mesh, shareGeometry: Boolean): Node? {
+        return addMesh(if (shareGeometry) MeshConverter.shareGeometry(template) else template)
+    }
+
+    /**
+     * Add many instances of [template] to the scene without a node per instance in the scene graph
+     * @param template node whose geometry is drawn for every instance, it is added to the scene
+     * @param positions xyz world position of every instance, this also determines the number of instances
+     * @param rotations xyzw quaternion of every instance, identity if null
+     * @param scales xyz scale of every instance, 1 if null
+     * @param colors rgba color of every instance, white if null
+     * @return the instances, whose buffers can be updated in place, see [Instances]
+     */
+    @JvmOverloads
+    fun addInstances(template: Node, positions: FloatBuffer, rotations: FloatBuffer? = null, scales: FloatBuffer? = null,
+                     colors: FloatBuffer? = null): Instances {
+        val instances = Instances(template, positions.remaining() / 3)
+        instances.setPositions(0, positions)
+        rotations?.let { instances.setRotations(0, it) }
+        scales?.let { instances.setScales(0, it) }
+        colors?.let { instances.setColors(0, it) }
+        addNode(template)
+        return instances
+    }
+
     /**
      * [Deprecated: use deleteNode]
      * Remove a Mesh from the scene
@@ -856,6 +1157,8 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
      */
     fun removeMesh(scMesh: graphics.scenery.Mesh?) {
         scene.removeChild(scMesh!!)
+        sceneIndex.remove(scMesh)
+        sceneBVH.invalidate()
     }
 
     /**
@@ -866,24 +1169,13 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
     fun setActiveNode(n: Node?): Node? {
         if (activeNode === n) return activeNode
         activeNode = n
-        targetArcball.target = { n?.getMaximumBoundingBox()?.getBoundingSphere()?.origin ?: Vector3f(0.0f, 0.0f, 0.0f) }
+        targetArcball.target = { n?.let { worldBounds.center(it) } ?: Vector3f(0.0f, 0.0f, 0.0f) }
         mainWindow.selectNode(activeNode)
+        // published right away, so that subscribers see the new selection as soon as this returns
         eventService.publish(NodeActivatedEvent(activeNode))
         return activeNode
     }
 
-    @Suppress("UNUSED_PARAMETER")
-    @EventHandler
-    protected fun onNodeAdded(event: NodeAddedEvent?) {
-        mainWindow.rebuildSceneTree()
-    }
-
-    @Suppress("UNUSED_PARAMETER")
-    @EventHandler
-    protected fun onNodeRemoved(event: NodeRemovedEvent?) {
-        mainWindow.rebuildSceneTree()
-    }
-
     @Suppress("UNUSED_PARAMETER")
     @EventHandler
     protected fun onNodeChanged(event: NodeChangedEvent?) {
@@ -921,40 +1213,30 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
     }
 
     /**
-     * Create an animation thread with the given fps speed and the specified action
+     * Create an animation with the given fps speed and the specified action
      * @param fps frames per second at which this action should be run
      * @param action Runnable that contains code to run fps times per second
-     * @return a Future corresponding to the thread
-     */
-    @Synchronized
-    fun animate(fps: Int, action: Runnable): Future<*> {
-        // TODO: Make animation speed less laggy and more accurate.
-        val delay = 1000 / fps
-        val thread = threadService.run {
-            while (animating) {
-                action.run()
-                try {
-                    Thread.sleep(delay.toLong())
-                } catch (e: InterruptedException) {
-                    break
-                }
-            }
-        }
-        animations!!.add(thread)
-        animating = true
-        return thread
+     * @return an Animation handle that can pause, resume or stop the animation and reports its achieved rate
+     */
+    fun animate(fps: Int, action: Runnable): Animation {
+        return animator.schedule(fps.toDouble(), action)
+    }
+
+    /**
+     * Create an animation with the given, possibly fractional, fps speed and the specified action
+     * @param fps frames per second at which this action should be run
+     * @param action Runnable that contains code to run fps times per second
+     * @return an Animation handle that can pause, resume or stop the animation and reports its achieved rate
+     */
+    fun animate(fps: Double, action: Runnable): Animation {
+        return animator.schedule(fps, action)
     }
 
     /**
      * Stop all animations
      */
-    @Synchronized
     fun stopAnimation() {
-        animating = false
-        while (!animations!!.isEmpty()) {
-            animations!!.peek().cancel(true)
-            animations!!.remove()
-        }
+        animator.stopAll()
     }
 
     /**
@@ -977,40 +1259,41 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
      * @return an Img of type UnsignedByteType
      */
     val screenshot: Img<UnsignedByteType>?
-        get() {
-            val screenshot = getSceneryRenderer()!!.requestScreenshot()
-            val image = BufferedImage(screenshot.width, screenshot.height, BufferedImage.TYPE_4BYTE_ABGR)
-            val imgData = (image.raster.dataBuffer as DataBufferByte).data
-            System.arraycopy(screenshot.data, 0, imgData, 0, screenshot.data!!.size)
-            var img: Img<UnsignedByteType>? = null
-            try {
-                val tmpFile = File.createTempFile("sciview-", "-tmp.png")
-                ImageIO.write(image, "png", tmpFile)
-                @Suppress("UNCHECKED_CAST")
-                img = io.open(tmpFile.absolutePath) as Img<UnsignedByteType>
-                tmpFile.delete()
-            } catch (e: IOException) {
-                e.printStackTrace()
-            }
-            return img
-        }
+        get() = getScreenshot(null)
+
+    /**
+     * Take a screenshot and return it as a width x height x 4 (RGBA) Img, without any disk I/O.
+     * @param reuse image returned by a previous call, overwritten in place if the window size did not change
+     * @return an Img of type UnsignedByteType
+     */
+    fun getScreenshot(reuse: ArrayImg<UnsignedByteType, ByteAccess>?): ArrayImg<UnsignedByteType, ByteAccess> {
+        val screenshot = getSceneryRenderer()!!.requestScreenshot()
+        return Utils.screenshotToImg(screenshot.data!!, screenshot.width, screenshot.height, reuse)
+    }
 
     /**
      * Take a screenshot and return it as an Img
      * @return an Img of type UnsignedByteType
      */
     val aRGBScreenshot: Img<ARGBType>
-        get() {
-            val screenshot = screenshot
-            return Utils.convertToARGB(screenshot!!)
-        }
+        get() = getARGBScreenshot(null)
+
+    /**
+     * Take a screenshot and return it as an ARGB Img, converted directly from the renderer's buffer.
+     * @param reuse image returned by a previous call, overwritten in place if the window size did not change
+     * @return an Img of type ARGBType
+     */
+    fun getARGBScreenshot(reuse: ArrayImg<ARGBType, IntAccess>?): ArrayImg<ARGBType, IntAccess> {
+        val screenshot = getSceneryRenderer()!!.requestScreenshot()
+        return Utils.screenshotToARGB(screenshot.data!!, screenshot.width, screenshot.height, reuse)
+    }
 
     /**
      * @param name The name of the node to find.
      * @return the node object or null, if the node has not been found.
      */
     fun find(name: String): Node? {
-        val n = scene.find(name)
+        val n = sceneIndex.find(name)
         if (n == null) {
             logger.warn("Node with name $name not found.")
         }
@@ -1029,14 +1312,14 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
      * @return all nodes that match the predicate
      */
     fun getSceneNodes(filter: Predicate<in Node>): Array<Node> {
-        return scene.children.filter{ filter.test(it) }.toTypedArray()
+        return sceneIndex.topLevelNodes().filter{ filter.test(it) }.toTypedArray()
     }
 
     /**
      * @return an array of all Node's in the scene
      */
     val allSceneNodes: Array<Node>
-        get() = getSceneNodes { _: Node? -> true }
+        get() = sceneIndex.topLevelNodes().copyOf()
 
     /**
      * Delete the current active node
@@ -1054,12 +1337,17 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
     fun deleteNode(node: Node?, activePublish: Boolean = true) {
         if(node is Volume) {
             node.volumeManager.remove(node)
+            (node.metadata.remove(TIME_SERIES_PLAYER_KEY) as? TimeSeriesPlayer)?.close()
+            (node.metadata.remove(N5IO.LOADER_KEY) as? N5PyramidImageLoader)?.close()
         }
 
         for (child in node!!.children) {
             deleteNode(child, activePublish)
         }
         objectService.removeObject(node)
+        sceneIndex.remove(node)
+        sceneBVH.invalidate()
+        node.parent?.let { worldBounds.changed(it) }
         node.parent?.removeChild(node)
         if (activeNode == node) {
             setActiveNode(null)
@@ -1078,6 +1366,9 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         for (obj in objs) {
             objectService.removeObject(obj)
         }
+        nodeEvents.close()
+        animator.close()
+        lod.close()
         scijavaContext!!.service(SciViewService::class.java).close(this)
         close()
     }
@@ -1387,6 +1678,20 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         return addVolume(sources, converterSetups, numTimepoints, name, *voxelDimensions)
     }
 
+    /**
+     * Get the player of the time series of a volume, which prefetches time points ahead of the playhead. The player is
+     * created on first use and closed when the volume is deleted.
+     * @param volume volume whose time points are played
+     * @return the player of the volume
+     */
+    fun timeSeriesPlayer(volume: Volume): TimeSeriesPlayer {
+        return volume.metadata.getOrPut(TIME_SERIES_PLAYER_KEY) {
+            val player = TimeSeriesPlayer(volume.timepointCount, IntConsumer { volume.goToTimepoint(it) }, VolumeTimepointLoader(volume))
+            player.seek(volume.currentTimepoint)
+            player
+        } as TimeSeriesPlayer
+    }
+
     /**
      * Update a volume with the given IterableInterval.
      * This method actually populates the volume
@@ -1397,11 +1702,9 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
      * @param <T> pixel type of image
      * @return a Node corresponding to the input volume
     </T> */
-    @Suppress("UNCHECKED_CAST")
     fun <T : RealType<T>> updateVolume(image: IterableInterval<T>, name: String,
                                        voxelDimensions: FloatArray, v: Volume): Node {
-        val sacs = v.metadata["sources"] as List<SourceAndConverter<T>>?
-        val source = sacs!![0].spimSource.getSource(0, 0) // hard coded to timepoint and mipmap 0
+        val source = volumeSource<T>(v)
         val sCur = Views.iterable(source).cursor()
         val iCur = image.cursor()
         while (sCur.hasNext()) {
@@ -1411,13 +1714,52 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         }
         v.name = name
         v.metadata["VoxelDimensions"] = voxelDimensions
+        notifyVolumeUpdated(v)
+        return v
+    }
+
+    /**
+     * Update only the given [region] of a volume from [image], e.g. the part of a stack that changed
+     * during live acquisition. The cost of the copy scales with the size of the region, not of the volume.
+     * @param image image holding the new data, with the same geometry as the volume
+     * @param region region of [image] to copy into the volume
+     * @param v existing volume to update
+     * @param <T> pixel type of image
+     * @return a Node corresponding to the input volume
+    </T> */
+    fun <T : RealType<T>> updateVolume(image: RandomAccessibleInterval<T>, region: Interval, v: Volume): Node {
+        return updateVolume(image, listOf(region), v)
+    }
+
+    /**
+     * Update a list of dirty blocks of a volume from [image].
+     * @param image image holding the new data, with the same geometry as the volume
+     * @param dirtyBlocks regions of [image] that changed
+     * @param v existing volume to update
+     * @param <T> pixel type of image
+     * @return a Node corresponding to the input volume
+    </T> */
+    fun <T : RealType<T>> updateVolume(image: RandomAccessibleInterval<T>, dirtyBlocks: List<Interval>, v: Volume): Node {
+        // blocks outside of the volume leave it untouched
+        if (RegionCopy.copy(image, volumeSource(v), dirtyBlocks)) {
+            notifyVolumeUpdated(v)
+        }
+        return v
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T : RealType<T>> volumeSource(v: Volume): RandomAccessibleInterval<T> {
+        val sacs = v.metadata["sources"] as List<SourceAndConverter<T>>?
+        return sacs!![0].spimSource.getSource(0, 0) // hard coded to timepoint and mipmap 0
+    }
+
+    private fun notifyVolumeUpdated(v: Volume) {
         v.volumeManager.notifyUpdate(v)
         v.volumeManager.requestRepaint()
         //v.getCacheControls().clear();
         //v.setDirty( true );
         v.needsUpdate = true
         //v.setNeedsUpdateWorld( true );
-        return v
     }
 
     /**
@@ -1609,7 +1951,7 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
      * Triggers the inspector tree to be completely rebuilt/refreshed.
      */
     fun requestPropEditorRefresh() {
-        eventService.publish(NodeChangedEvent(scene))
+        nodeEvents.publish(NodeChangedEvent(scene))
     }
 
     /**
@@ -1617,10 +1959,20 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
      * @param n Root of the subtree to get rebuilt/refreshed.
      */
     fun requestPropEditorRefresh(n: Node?) {
-        eventService.publish(NodeChangedEvent(n))
+        n?.let { sceneIndex.refresh(it) }
+        nodeEvents.publish(NodeChangedEvent(n))
     }
 
     companion object {
+        // window in which node change events are merged, about one frame at 60 fps
+        const val NODE_EVENT_WINDOW_MS = 16L
+
+        // how long blockOnNewNodes waits for the frame that first renders a new node
+        const val NODE_READY_TIMEOUT_MS = 500L
+
+        // metadata key of the time series player of a volume, see timeSeriesPlayer
+        const val TIME_SERIES_PLAYER_KEY = "sciview.TimeSeriesPlayer"
+
         //bounds for the controls
         const val FPSSPEED_MINBOUND_SLOW = 0.01f
         const val FPSSPEED_MAXBOUND_SLOW = 30.0f
@@ -1637,6 +1989,20 @@ class SciView : SceneryBase, CalibratedRealInterval<CalibratedAxis> {
         @JvmField
         val DEFAULT_COLOR: ColorRGB = Colors.LIGHTGRAY
 
+        /**
+         * The material [addMesh] gives to meshes
+         *
+         * @return a new material instance
+         */
+        @JvmStatic
+        fun meshMaterial(): Material {
+            val material = Material()
+            material.ambient = Vector3f(1.0f, 0.0f, 0.0f)
+            material.diffuse = Vector3f(0.0f, 1.0f, 0.0f)
+            material.specular = Vector3f(1.0f, 1.0f, 1.0f)
+            return material
+        }
+
         /**
          * Static launching method
          *
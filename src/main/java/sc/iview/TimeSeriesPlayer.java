@@ -0,0 +1,409 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Plays back a time series at a steady rate while background threads load the time points ahead of the playhead.
+ * <p>
+ * Loaded time points are kept in an LRU cache bounded by {@link #setMaxBytes(long)}, and loads that fall out of the
+ * prefetch window after a seek or a change of direction are cancelled. A tick only advances the playhead if the next
+ * time point has been loaded; otherwise playback stalls for that tick instead of blocking on the load, so the frame
+ * rate stays steady whenever the prefetcher keeps up.
+ * </p>
+ */
+public class TimeSeriesPlayer implements AutoCloseable {
+
+    /** Loads one time point */
+    public interface Loader {
+        /**
+         * Loads time point {@code t}. The returned data is referenced for as long as the time point is cached.
+         */
+        Loaded load(int t) throws Exception;
+    }
+
+    /** A loaded time point */
+    public static class Loaded {
+        final Object data;
+        final long bytes;
+
+        /**
+         * @param data object that keeps the loaded data alive, may be null
+         * @param bytes memory held by data
+         */
+        public Loaded(Object data, long bytes) {
+            this.data = data;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int timepointCount;
+    private final IntConsumer show;
+    private final Loader loader;
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "SciView-Playback"));
+    private final ExecutorService prefetcher;
+    private ScheduledFuture<?> playback;
+
+    private final LinkedHashMap<Integer, Loaded> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Future<?>> loading = new HashMap<>();
+    private long cachedBytes;
+
+    /** Time points of the window evicted for the budget, which are not loaded again until the playhead moves */
+    private final Set<Integer> evicted = new HashSet<>();
+
+    private volatile int current;
+    private volatile int direction = 1;
+    private volatile boolean loop = true;
+    private volatile int prefetchCount = 8;
+    private volatile long maxBytes = 512L << 20;
+    private volatile IntConsumer listener;
+
+    /** Time point the playhead is waiting for, so that a stall counts as one miss */
+    private int missed = -1;
+
+    private long hits, misses, stalls;
+    private long loads, loadNanos, maxLoadNanos;
+    private long loadedBytes;
+
+    /**
+     * @param timepointCount number of time points
+     * @param show displays a time point, called from the playback thread
+     * @param loader loads time points, called from the prefetch threads
+     * @param threads number of prefetch threads
+     */
+    public TimeSeriesPlayer(int timepointCount, IntConsumer show, Loader loader, int threads) {
+        this.timepointCount = timepointCount;
+        this.show = show;
+        this.loader = loader;
+        this.prefetcher = Executors.newFixedThreadPool(threads, r -> daemon(r, "SciView-Prefetch"));
+    }
+
+    public TimeSeriesPlayer(int timepointCount, IntConsumer show, Loader loader) {
+        this(timepointCount, show, loader, 2);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** Plays the time series at {@code rate} time points per second. */
+    public synchronized void play(double rate) {
+        pause();
+        prefetch();
+        long period = Math.max(1, (long) (1e9 / rate));
+        playback = ticker.scheduleAtFixedRate(this::step, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void pause() {
+        if( playback != null ) {
+            playback.cancel(false);
+            playback = null;
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        return playback != null;
+    }
+
+    /**
+     * Advances the playhead by one time point in the current direction if that time point has been loaded.
+     * @return whether the playhead moved
+     */
+    public boolean step() {
+        int next = offset(current, direction);
+        if( next < 0 ) {
+            pause();
+            return false;
+        }
+        synchronized( cache ) {
+            if( cache.get(next) == null ) {
+                if( missed != next ) {
+                    misses++;
+                    missed = next;
+                }
+                stalls++;
+                requestWindow();
+                return false;
+            }
+            if( missed != next )
+                hits++;
+            missed = -1;
+        }
+        moveTo(next);
+        return true;
+    }
+
+    /** Shows time point {@code t} right away, loaded or not, and prefetches from there on. */
+    public void seek(int t) {
+        moveTo(Math.max(0, Math.min(timepointCount - 1, t)));
+    }
+
+    private void moveTo(int t) {
+        current = t;
+        show.accept(t);
+        IntConsumer l = listener;
+        if( l != null )
+            l.accept(t);
+        prefetch();
+    }
+
+    /**
+     * Requests all time points of the prefetch window, including ones evicted for the budget before, and cancels loads
+     * outside of it.
+     */
+    public void prefetch() {
+        synchronized( cache ) {
+            evicted.clear();
+            requestWindow();
+        }
+    }
+
+    private void requestWindow() {
+        List<Integer> window = window();
+        Iterator<Map.Entry<Integer, Future<?>>> it = loading.entrySet().iterator();
+        while( it.hasNext() ) {
+            Map.Entry<Integer, Future<?>> entry = it.next();
+            if( !window.contains(entry.getKey()) ) {
+                entry.getValue().cancel(true);
+                it.remove();
+            }
+        }
+        for( int t : window ) {
+            if( !cache.containsKey(t) && !loading.containsKey(t) && !evicted.contains(t) )
+                loading.put(t, prefetcher.submit(() -> load(t)));
+        }
+        evict(window);
+    }
+
+    private void load(int t) {
+        long start = System.nanoTime();
+        Loaded loaded;
+        try {
+            loaded = loader.load(t);
+        } catch( InterruptedException e ) {
+            return;
+        } catch( Exception e ) {
+            // displaying the time point will load it on demand instead
+            loaded = new Loaded(null, 0);
+        }
+        long nanos = System.nanoTime() - start;
+        synchronized( cache ) {
+            if( loading.remove(t) == null )
+                return;
+            cache.put(t, loaded);
+            cachedBytes += loaded.bytes;
+            loadedBytes += loaded.bytes;
+            loads++;
+            loadNanos += nanos;
+            maxLoadNanos = Math.max(maxLoadNanos, nanos);
+            evict(window());
+        }
+    }
+
+    /**
+     * Drops least recently used time points outside of the window, then the farthest ones in it, until within budget.
+     * The current and the next time point are always kept.
+     */
+    private void evict(List<Integer> window) {
+        Iterator<Map.Entry<Integer, Loaded>> it = cache.entrySet().iterator();
+        while( cachedBytes > maxBytes && it.hasNext() ) {
+            Map.Entry<Integer, Loaded> entry = it.next();
+            if( !window.contains(entry.getKey()) ) {
+                cachedBytes -= entry.getValue().bytes;
+                it.remove();
+            }
+        }
+        for( int i = window.size() - 1; cachedBytes > maxBytes && i > 1; i-- ) {
+            Loaded loaded = cache.remove(window.get(i));
+            if( loaded != null ) {
+                cachedBytes -= loaded.bytes;
+                evicted.add(window.get(i));
+            }
+        }
+    }
+
+    /**
+     * The current time point and the next {@link #getPrefetchCount()} ones in playback order, but no more than fit into
+     * {@link #getMaxBytes()} at the average size of the time points loaded so far, and at least the next one
+     */
+    private List<Integer> window() {
+        int size = prefetchCount + 1;
+        if( loads > 0 && loadedBytes > 0 )
+            size = (int) Math.max(2, Math.min(size, maxBytes / Math.max(1, loadedBytes / loads)));
+        List<Integer> window = new ArrayList<>();
+        int t = current;
+        for( int i = 0; i < size && t >= 0 && !window.contains(t); i++ ) {
+            window.add(t);
+            t = offset(t, direction);
+        }
+        return window;
+    }
+
+    /** The time point {@code steps} after {@code t}, wrapped around if looping, or -1 past either end */
+    private int offset(int t, int steps) {
+        int next = t + steps;
+        if( next >= 0 && next < timepointCount )
+            return next;
+        if( !loop )
+            return -1;
+        return ((next % timepointCount) + timepointCount) % timepointCount;
+    }
+
+    /** Whether time point {@code t} is loaded */
+    public boolean isCached(int t) {
+        synchronized( cache ) {
+            return cache.containsKey(t);
+        }
+    }
+
+    public int getCurrentTimepoint() {
+        return current;
+    }
+
+    public int getTimepointCount() {
+        return timepointCount;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    /** Plays forward for a positive direction and backward for a negative one. */
+    public void setDirection(int direction) {
+        this.direction = direction < 0 ? -1 : 1;
+        prefetch();
+    }
+
+    public boolean isLoop() {
+        return loop;
+    }
+
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = Math.max(0, prefetchCount);
+        prefetch();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        prefetch();
+    }
+
+    public long getCachedBytes() {
+        synchronized( cache ) {
+            return cachedBytes;
+        }
+    }
+
+    /** Called with every time point the playhead moves to */
+    public void setListener(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    /** Steps that found the next time point loaded */
+    public long getHits() {
+        synchronized( cache ) {
+            return hits;
+        }
+    }
+
+    /** Time points the playhead had to wait for */
+    public long getMisses() {
+        synchronized( cache ) {
+            return misses;
+        }
+    }
+
+    /** Steps that did not advance because the next time point was still loading */
+    public long getStalls() {
+        synchronized( cache ) {
+            return stalls;
+        }
+    }
+
+    public long getLoads() {
+        synchronized( cache ) {
+            return loads;
+        }
+    }
+
+    public double getAverageLoadMillis() {
+        synchronized( cache ) {
+            return loads == 0 ? 0.0 : loadNanos / 1e6 / loads;
+        }
+    }
+
+    public double getMaxLoadMillis() {
+        synchronized( cache ) {
+            return maxLoadNanos / 1e6;
+        }
+    }
+
+    /** Stops playback and prefetching and drops all cached time points. */
+    @Override
+    public void close() {
+        pause();
+        ticker.shutdownNow();
+        prefetcher.shutdownNow();
+        synchronized( cache ) {
+            loading.clear();
+            cache.clear();
+            cachedBytes = 0;
+        }
+    }
+}
@@ -32,17 +32,22 @@ import graphics.scenery.Mesh
 import net.imglib2.RealLocalizable
 import net.imglib2.RealPoint
 import net.imglib2.img.Img
+import net.imglib2.img.array.ArrayImg
 import net.imglib2.img.array.ArrayImgs
+import net.imglib2.img.basictypeaccess.array.ByteArray as ByteAccess
+import net.imglib2.img.basictypeaccess.array.IntArray as IntAccess
 import net.imglib2.type.numeric.ARGBType
 import net.imglib2.type.numeric.integer.UnsignedByteType
 import net.imglib2.view.Views
 import org.joml.Vector3f
 import org.scijava.util.ColorRGB
 import org.scijava.util.ColorRGBA
+import sc.iview.io.MeshWriter
 import java.awt.RenderingHints
 import java.awt.image.BufferedImage
 import java.io.*
 import java.net.URL
+import java.nio.file.Paths
 import java.util.*
 import javax.swing.ImageIcon
 
@@ -67,27 +72,69 @@ object Utils {
     @JvmStatic
     fun convertToARGB(screenshot: Img<UnsignedByteType>): Img<ARGBType> {
         val out: Img<ARGBType> = ArrayImgs.argbs(screenshot.dimension(0), screenshot.dimension(1))
-        val pos = LongArray(3)
-        val outCur = Views.iterable(out).cursor()
-        val sRA = screenshot.randomAccess()
+        // Walk the output and the three colour channels in lock-step instead of repositioning per sample
+        val outCur = Views.flatIterable(out).cursor()
+        val rCur = Views.flatIterable(Views.hyperSlice(screenshot, 2, 0)).cursor()
+        val gCur = Views.flatIterable(Views.hyperSlice(screenshot, 2, 1)).cursor()
+        val bCur = Views.flatIterable(Views.hyperSlice(screenshot, 2, 2)).cursor()
         while (outCur.hasNext()) {
-            outCur.fwd()
-            outCur.localize(pos)
-            pos[2] = 0
-            sRA.setPosition(pos)
-            val r = sRA.get().get()
-            pos[2] = 1
-            sRA.setPosition(pos)
-            val g = sRA.get().get()
-            pos[2] = 2
-            sRA.setPosition(pos)
-            val b = sRA.get().get()
             val a = 255 // FIXME
-            outCur.get().set(ARGBType.rgba(r, g, b, a))
+            outCur.next().set(ARGBType.rgba(rCur.next().get(), gCur.next().get(), bCur.next().get(), a))
         }
         return out
     }
 
+    /**
+     * Wraps raw screenshot bytes, as returned by the renderer in 4-byte ABGR order, as a planar
+     * [width] x [height] x 4 image with channels R, G, B, A.
+     *
+     * @param reuse image from a previous call whose storage is overwritten if the dimensions match
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun screenshotToImg(data: ByteArray, width: Int, height: Int,
+                        reuse: ArrayImg<UnsignedByteType, ByteAccess>? = null): ArrayImg<UnsignedByteType, ByteAccess> {
+        val img = if (reuse != null && reuse.dimension(0) == width.toLong() && reuse.dimension(1) == height.toLong() && reuse.dimension(2) == 4L) {
+            reuse
+        } else {
+            ArrayImgs.unsignedBytes(width.toLong(), height.toLong(), 4L)
+        }
+        val planar = img.update(null).currentStorageArray
+        val plane = width * height
+        for (p in 0 until plane) {
+            planar[p] = data[4 * p + 3]
+            planar[plane + p] = data[4 * p + 2]
+            planar[2 * plane + p] = data[4 * p + 1]
+            planar[3 * plane + p] = data[4 * p]
+        }
+        return img
+    }
+
+    /**
+     * Converts raw screenshot bytes, as returned by the renderer in 4-byte ABGR order, to an opaque
+     * [width] x [height] ARGB image.
+     *
+     * @param reuse image from a previous call whose storage is overwritten if the dimensions match
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun screenshotToARGB(data: ByteArray, width: Int, height: Int,
+                         reuse: ArrayImg<ARGBType, IntAccess>? = null): ArrayImg<ARGBType, IntAccess> {
+        val img = if (reuse != null && reuse.dimension(0) == width.toLong() && reuse.dimension(1) == height.toLong()) {
+            reuse
+        } else {
+            ArrayImgs.argbs(width.toLong(), height.toLong())
+        }
+        val pixels = img.update(null).currentStorageArray
+        for (p in 0 until width * height) {
+            val r = data[4 * p + 3].toInt() and 0xff
+            val g = data[4 * p + 2].toInt() and 0xff
+            val b = data[4 * p + 1].toInt() and 0xff
+            pixels[p] = ARGBType.rgba(r, g, b, 255)
+        }
+        return img
+    }
+
     @JvmStatic
     fun getVertexList(m: Mesh): List<Vector3f> {
         val l: MutableList<Vector3f> = ArrayList()
@@ -196,34 +243,14 @@ object Utils {
     }
 
     /**
-     * Write a scenery mesh as an stl to the given file
+     * Write a scenery mesh as a binary stl to the given file, see [MeshWriter.writeSTL]
      * @param filename filename of the stl
      * @param scMesh mesh to save
      */
     @JvmStatic
     fun writeSCMesh(filename: String, scMesh: graphics.scenery.Mesh) {
-        val f = File(filename)
-        val out: BufferedOutputStream
         try {
-            out = BufferedOutputStream(FileOutputStream(f))
-            out.write("solid STL generated by FIJI\n".toByteArray())
-            val normalsFB = scMesh.normals
-            val verticesFB = scMesh.vertices
-            while (verticesFB.hasRemaining() && normalsFB.hasRemaining()) {
-                out.write("""facet normal ${normalsFB.get()} ${normalsFB.get()} ${normalsFB.get()}
-""".toByteArray())
-                out.write("outer loop\n".toByteArray())
-                for (v in 0..2) {
-                    out.write("""vertex	${verticesFB.get()} ${verticesFB.get()} ${verticesFB.get()}
-""".toByteArray())
-                }
-                out.write("endloop\n".toByteArray())
-                out.write("endfacet\n".toByteArray())
-            }
-            out.write("endsolid vcg\n".toByteArray())
-            out.close()
-        } catch (e: FileNotFoundException) {
-            e.printStackTrace()
+            MeshWriter.writeSTL(scMesh, Paths.get(filename))
         } catch (e: IOException) {
             e.printStackTrace()
         }
@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview;
+
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import graphics.scenery.volumes.Volume;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCell;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads time points of the sources of a {@link Volume} for a {@link TimeSeriesPlayer}.
+ * <p>
+ * The cells of cell images, e.g. lazily loaded N5 datasets, are kept referenced while the time point is cached, so
+ * that the cell cache cannot drop them before they are displayed. Other images are read once to warm whatever cache
+ * backs them.
+ * </p>
+ */
+public class VolumeTimepointLoader implements TimeSeriesPlayer.Loader {
+    /** Check for cancellation after this many voxels */
+    private static final int INTERRUPT_CHECK_INTERVAL = 1 << 16;
+
+    private final List<SourceAndConverter<?>> sources;
+
+    @SuppressWarnings("unchecked")
+    public VolumeTimepointLoader(Volume volume) {
+        Object sources = volume.getMetadata().get("sources");
+        this.sources = sources instanceof List ? (List<SourceAndConverter<?>>) sources : Collections.emptyList();
+    }
+
+    @Override
+    public TimeSeriesPlayer.Loaded load(int t) throws InterruptedException {
+        List<Object> pinned = new ArrayList<>();
+        long bytes = 0;
+        for( SourceAndConverter<?> sac : sources ) {
+            Source<?> source = sac.getSpimSource();
+            if( source.isPresent(t) )
+                bytes += load(source.getSource(t, 0), pinned);
+        }
+        return new TimeSeriesPlayer.Loaded(pinned, bytes);
+    }
+
+    /**
+     * Loads all data of {@code image}, adding the loaded cells of a cell image to {@code pinned}.
+     * @return bytes held by the pinned cells
+     */
+    public static long load(RandomAccessibleInterval<?> image, List<Object> pinned) throws InterruptedException {
+        if( image instanceof AbstractCellImg ) {
+            Cursor<?> cells = Views.iterable(((AbstractCellImg<?, ?, ?, ?>) image).getCells()).cursor();
+            long elements = 0;
+            while( cells.hasNext() ) {
+                if( Thread.interrupted() )
+                    throw new InterruptedException();
+                AbstractCell<?> cell = (AbstractCell<?>) cells.next();
+                elements += cell.size();
+                pinned.add(cell);
+            }
+            Object type = Util.getTypeFromInterval(image);
+            int bits = type instanceof RealType ? ((RealType<?>) type).getBitsPerPixel() : 32;
+            return elements * bits / 8;
+        }
+
+        Cursor<?> cursor = Views.flatIterable(image).cursor();
+        long count = 0;
+        while( cursor.hasNext() ) {
+            cursor.fwd();
+            cursor.get();
+            if( ++count % INTERRUPT_CHECK_INTERVAL == 0 && Thread.interrupted() )
+                throw new InterruptedException();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview
+
+import graphics.scenery.BoundingGrid
+import graphics.scenery.Node
+import graphics.scenery.OrientedBoundingBox
+import org.joml.Matrix4f
+import org.joml.Vector3f
+import java.util.*
+
+/**
+ * Cache of the world-space bounding boxes of subtrees of the scene graph.
+ *
+ * The box of a subtree is the union of the world-space box of its root and the cached boxes of its children, computed
+ * on the first query for it. Every frame, [update] compares the world matrix, bounding box and number of children of
+ * every cached node with the ones its box was computed from, and marks the node and its ancestors dirty if they
+ * differ; [changed] does the same for edits SciView knows about. A query is answered from the cache when nothing in
+ * the subtree changed, and otherwise only recomputes the dirty nodes on the paths to the changes.
+ *
+ * Changes made during a frame are seen by the next [update], so queries may lag one frame behind edits.
+ */
+class WorldBounds {
+    private class Entry {
+        val world = Matrix4f()
+        var box: OrientedBoundingBox? = null
+        var childCount = 0
+        val min = Vector3f()
+        val max = Vector3f()
+        var empty = true
+        var dirty = true
+    }
+
+    // weak keys, so nodes removed from the scene do not have to be forgotten explicitly
+    private val entries = WeakHashMap<Node, Entry>()
+
+    /** Nodes marked dirty by the last [update] */
+    var changes = 0
+        private set
+
+    /**
+     * Detect transform, geometry and structure changes of cached nodes. Called once per frame from the scene update.
+     */
+    @Synchronized
+    fun update() {
+        val changed = ArrayList<Node>()
+        for ((node, entry) in entries) {
+            if (!entry.dirty && (node.world != entry.world || node.boundingBox !== entry.box || node.children.size != entry.childCount)) {
+                changed.add(node)
+            }
+        }
+        changed.forEach { markDirty(it) }
+        changes = changed.size
+    }
+
+    /**
+     * Mark a node and its ancestors dirty, e.g. after children were added to or removed from it
+     * @param node node whose subtree changed
+     */
+    @Synchronized
+    fun changed(node: Node) {
+        markDirty(node)
+    }
+
+    private fun markDirty(node: Node) {
+        var n: Node? = node
+        while (n != null) {
+            val entry = entries[n] ?: return
+            // ancestors of a dirty node are dirty already
+            if (entry.dirty && n !== node) return
+            entry.dirty = true
+            n = n.parent
+        }
+    }
+
+    /**
+     * @param node root of the subtree
+     * @return the world-space axis-aligned box around the subtree, its node set to [node], or null if nothing in the
+     * subtree has a bounding box
+     */
+    @Synchronized
+    fun boundingBox(node: Node): OrientedBoundingBox? {
+        val entry = compute(node)
+        return if (entry.empty) null else OrientedBoundingBox(node, Vector3f(entry.min), Vector3f(entry.max))
+    }
+
+    /**
+     * @param node root of the subtree
+     * @return the world-space center of the box around the subtree, or the world position of the node if nothing in
+     * the subtree has a bounding box
+     */
+    @Synchronized
+    fun center(node: Node): Vector3f {
+        val entry = compute(node)
+        if (entry.empty) {
+            return Vector3f(node.world.m30(), node.world.m31(), node.world.m32())
+        }
+        return Vector3f(entry.min).add(entry.max).mul(0.5f)
+    }
+
+    /**
+     * @param node root of the subtree
+     * @return world-space center and radius of the sphere around the box of the subtree, or null if nothing in the
+     * subtree has a bounding box
+     */
+    @Synchronized
+    fun boundingSphere(node: Node): Pair<Vector3f, Float>? {
+        val entry = compute(node)
+        if (entry.empty) {
+            return null
+        }
+        val center = Vector3f(entry.min).add(entry.max).mul(0.5f)
+        return Pair(center, center.distance(entry.max))
+    }
+
+    private fun compute(node: Node): Entry {
+        val entry = entries.getOrPut(node) { Entry() }
+        if (!entry.dirty) {
+            return entry
+        }
+
+        entry.world.set(node.world)
+        entry.box = node.boundingBox
+        entry.childCount = node.children.size
+        entry.empty = true
+        entry.box?.let {
+            entry.world.transformAab(it.min, it.max, entry.min, entry.max)
+            entry.empty = false
+        }
+        for (child in node.children) {
+            if (child is BoundingGrid) {
+                continue
+            }
+            val c = compute(child)
+            if (c.empty) {
+                continue
+            }
+            if (entry.empty) {
+                entry.min.set(c.min)
+                entry.max.set(c.max)
+                entry.empty = false
+            } else {
+                entry.min.min(c.min)
+                entry.max.max(c.max)
+            }
+        }
+        entry.dirty = false
+        return entry
+    }
+}
@@ -47,6 +47,7 @@ object MenuWeights {
     const val FILE_EXPORT_N5 = 0.0
     const val FILE_EXPORT_STL = 1.0
     const val FILE_EXPORT_XYZ = 2.0
+    const val FILE_EXPORT_PLY = 3.0
     // Edit
     const val EDIT_ADD = 0.0
     const val EDIT_SETTINGS = 2.0
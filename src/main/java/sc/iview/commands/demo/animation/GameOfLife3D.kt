@@ -48,6 +48,7 @@ import org.scijava.plugin.Parameter
 import org.scijava.plugin.Plugin
 import org.scijava.widget.Button
 import org.scijava.widget.NumberWidget
+import sc.iview.Animation
 import sc.iview.SciView
 import sc.iview.commands.MenuWeights
 import sc.iview.event.NodeRemovedEvent
@@ -123,15 +124,18 @@ class GameOfLife3D : Command {
     /** Temporary buffer for use while recomputing the image.  */
     private val bits = BooleanArray(w * h * d)
     private var dialog: GenericDialog? = null
+    private var animation: Animation? = null
 
     /** Repeatedly iterates the simulation until stopped  */
     fun play() {
-        sciView.animate(playSpeed) { iterate() }
+        animation?.stop()
+        animation = sciView.animate(playSpeed) { iterate() }
     }
 
     /** Stops the simulation  */
     fun pause() {
-        sciView.stopAnimation()
+        animation?.stop()
+        animation = null
     }
 
     /** Randomizes a new bit field.  */
@@ -337,7 +341,7 @@ class GameOfLife3D : Command {
     @EventHandler
     private fun onNodeRemoved(event: NodeRemovedEvent) {
         if (event.node === volume) {
-            sciView.stopAnimation()
+            pause()
         }
     }
 
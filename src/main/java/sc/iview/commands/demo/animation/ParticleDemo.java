@@ -29,10 +29,8 @@
 package sc.iview.commands.demo.animation;
 
 import graphics.scenery.*;
-import graphics.scenery.backends.ShaderType;
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
-import org.joml.Vector4f;
 import org.scijava.command.Command;
 import org.scijava.command.CommandService;
 import org.scijava.io.IOService;
@@ -40,11 +38,11 @@ import org.scijava.log.LogService;
 import org.scijava.plugin.Menu;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
+import sc.iview.Instances;
 import sc.iview.SciView;
 
-import java.util.ArrayList;
+import java.nio.FloatBuffer;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Random;
 
 import static sc.iview.commands.MenuWeights.*;
@@ -77,8 +75,6 @@ public class ParticleDemo implements Command {
 
     @Override
     public void run() {
-        List<Node> agents = new ArrayList<>();
-
         Random rng = new Random(17);
 
         float dt = 0.5f;
@@ -90,85 +86,63 @@ public class ParticleDemo implements Command {
         float maxL2 = maxX * maxX + maxY * maxY + maxZ * maxZ;
 
         Node master = new Cone(5, 10, 25, new Vector3f(0,0,1));
-        //Material mat = ShaderMaterial.fromFiles("DefaultDeferredInstanced.vert", "DefaultDeferred.frag");
-        List<ShaderType> sList = new ArrayList<>();
-        sList.add(ShaderType.VertexShader);
-        sList.add(ShaderType.FragmentShader);
-        //Material mat = ShaderMaterial.fromClass(ParticleDemo.class, sList);
-
-        Material mat = ShaderMaterial.fromClass(ParticleDemo.class, sList);
-
+        Material mat = master.getMaterial();
         mat.setAmbient(new Vector3f(0.1f, 0f, 0f));
-        mat.setDiffuse(new Vector3f(0.8f, 0.7f, 0.7f));
         mat.setDiffuse(new Vector3f(0.05f, 0f, 0f));
         mat.setMetallic(0.01f);
         mat.setRoughness(0.5f);
-        master.setMaterial(mat);
         master.setName("Agent_Master");
-        master.getInstancedProperties().put("ModelMatrix", master::getModel);
-        master.getInstancedProperties().put("Color", () -> new Vector4f(0.5f, 0.5f, 0.5f, 1.0f));
-        //master.getInstancedProperties().put("Material", master::getMaterial);
-        sciView.addNode(master);
 
+        FloatBuffer positions = BufferUtils.Companion.allocateFloat(3 * numAgents);
+        FloatBuffer colors = BufferUtils.Companion.allocateFloat(4 * numAgents);
+        float[] velocities = new float[3 * numAgents];
         for( int k = 0; k < numAgents; k++ ) {
-            Node n = new graphics.scenery.Mesh();
-            n.setName("agent_" + k);
-            n.getInstancedProperties().put("ModelMatrix", n::getWorld);
-
-            //n.getInstancedProperties().put("Material", n::getMaterial);
-
-            float x = rng.nextFloat()*maxX;
-            float y = rng.nextFloat()*maxY;
-            float z = rng.nextFloat()*maxZ;
-
-            Vector3f vel = new Vector3f(rng.nextFloat(),rng.nextFloat(),rng.nextFloat());
-
-            final Vector4f col = new Vector4f(rng.nextFloat(),rng.nextFloat(), ((float) k) / ((float) numAgents), 1.0f);
-
-            n.getInstancedProperties().put("Color", () -> col);
-            n.setMaterial(master.getMaterial());
-
-            n.setPosition(new Vector3f(x,y,z));
-            faceNodeAlongVelocity(n, vel);
-
-            master.getInstances().add(n);
-            //sciView.addNode(n);
-            agents.add(n);
+            positions.put(rng.nextFloat()*maxX).put(rng.nextFloat()*maxY).put(rng.nextFloat()*maxZ);
+            colors.put(rng.nextFloat()).put(rng.nextFloat()).put(((float) k) / ((float) numAgents)).put(1.0f);
+            velocities[3 * k] = rng.nextFloat();
+            velocities[3 * k + 1] = rng.nextFloat();
+            velocities[3 * k + 2] = rng.nextFloat();
         }
+        positions.flip();
+        colors.flip();
 
-        sciView.animate(30, new Thread(() -> {
-            Vector3f vel;
+        Instances agents = sciView.addInstances(master, positions, null, null, colors);
+        Quaternionf rotation = new Quaternionf();
+        for( int k = 0; k < numAgents; k++ )
+            faceAlongVelocity(agents, k, velocities, rotation);
 
+        sciView.animate(30, new Thread(() -> {
             Random threadRng = new Random();
-            for( Node agent : agents ) {
-                Vector3f pos = agent.getPosition();
-                if( pos.lengthSquared() > maxL2 ) {
+            FloatBuffer pos = agents.getPositions();
+            Quaternionf rot = new Quaternionf();
+            for( int k = 0; k < numAgents; k++ ) {
+                float x = pos.get(3 * k), y = pos.get(3 * k + 1), z = pos.get(3 * k + 2);
+                if( x * x + y * y + z * z > maxL2 ) {
                     // Switch velocity to point toward center + some random perturbation
-                    Vector3f perturb = new Vector3f(threadRng.nextFloat() - 0.5f, threadRng.nextFloat() - 0.5f, threadRng.nextFloat() - 0.5f);
-                    vel = new Vector3f(pos).mul(-1).add(perturb).normalize();
-                    faceNodeAlongVelocity(agent, vel);
-                } else {
-                    vel = (Vector3f) agent.getMetadata().get("velocity");
+                    float vx = -x + threadRng.nextFloat() - 0.5f;
+                    float vy = -y + threadRng.nextFloat() - 0.5f;
+                    float vz = -z + threadRng.nextFloat() - 0.5f;
+                    float length = (float) Math.sqrt(vx * vx + vy * vy + vz * vz);
+                    velocities[3 * k] = vx / length;
+                    velocities[3 * k + 1] = vy / length;
+                    velocities[3 * k + 2] = vz / length;
+                    faceAlongVelocity(agents, k, velocities, rot);
                 }
 
-                agent.setPosition(pos.add(new Vector3f(vel).mul(dt)));
-                agent.setNeedsUpdate(true);
-                agent.setNeedsUpdateWorld(true);
+                pos.put(3 * k, x + velocities[3 * k] * dt);
+                pos.put(3 * k + 1, y + velocities[3 * k + 1] * dt);
+                pos.put(3 * k + 2, z + velocities[3 * k + 2] * dt);
             }
+            agents.markDirty(0, numAgents);
         }));
 
         sciView.getFloor().setVisible(false);
-        sciView.centerOnNode( agents.get(0) );
+        sciView.centerOnPosition( new Vector3f(positions.get(0), positions.get(1), positions.get(2)) );
     }
 
-    private void faceNodeAlongVelocity(Node n, Vector3f vel) {
-        n.getMetadata().put("velocity",vel);
-
-        Quaternionf newRot = new Quaternionf();
-        Vector3f dir = new Vector3f(vel.x(), vel.y(), vel.z());
-        Vector3f up = new Vector3f(0f, 1f, 0f);
-        newRot.lookAlong(dir, up);
-        n.setRotation(newRot);
+    private void faceAlongVelocity(Instances agents, int k, float[] velocities, Quaternionf rotation) {
+        rotation.identity().lookAlong(velocities[3 * k], velocities[3 * k + 1], velocities[3 * k + 2], 0f, 1f, 0f);
+        agents.getRotations().put(4 * k, rotation.x()).put(4 * k + 1, rotation.y()).put(4 * k + 2, rotation.z()).put(4 * k + 3, rotation.w());
     }
 
     public static void main(String... args) throws Exception {
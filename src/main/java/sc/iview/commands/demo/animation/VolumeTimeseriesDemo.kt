@@ -74,8 +74,10 @@ class VolumeTimeseriesDemo : Command {
         v?.dirty = true
         v?.needsUpdate = true
 
-        bdv.bdvHandle.viewerPanel.addTimePointListener { t ->
-            v?.goToTimepoint(t.coerceIn(0, v.timepointCount-1))
+        if (v != null) {
+            // seeking prefetches the time points after the one BDV shows
+            val player = sciView.timeSeriesPlayer(v)
+            bdv.bdvHandle.viewerPanel.addTimePointListener { t -> player.seek(t) }
         }
 
         sciView.setActiveNode(v)
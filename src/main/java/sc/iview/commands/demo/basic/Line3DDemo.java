@@ -73,7 +73,7 @@ public class Line3DDemo implements Command {
 
         double edgeWidth = 0.1;
 
-        Line3D line = new Line3D(points, colors, edgeWidth);
+        Line3D line = new Line3D(points, colors, edgeWidth, Line3D.Mode.Tube);
         line.setName( "Line3D Demo" );
 
         sciView.addNode(line, true);
@@ -103,7 +103,7 @@ public class MultiMeshDemo implements Command {
 
         for( int k = 0; k < numMeshes; k++ ) {
 
-            Node msh = sciView.addMesh(m);
+            Node msh = sciView.addMesh(m, true);
             msh.setName("Mesh_" + k);
 
             msh.setPosition( new Vector3f( ( RNG.nextFloat() * shellR - shellR ), ( RNG.nextFloat() * shellR - shellR ), ( RNG.nextFloat() * shellR - shellR ) ) );
@@ -38,7 +38,6 @@ import org.joml.Vector3f
 import org.joml.Vector4f
 import org.scijava.command.Command
 import org.scijava.command.InteractiveCommand
-import org.scijava.event.EventService
 import org.scijava.log.LogService
 import org.scijava.plugin.Parameter
 import org.scijava.plugin.Plugin
@@ -48,6 +47,7 @@ import org.scijava.widget.Button
 import org.scijava.widget.ChoiceWidget
 import org.scijava.widget.NumberWidget
 import sc.iview.SciView
+import sc.iview.TimeSeriesPlayer
 import sc.iview.event.NodeChangedEvent
 import java.io.IOException
 import java.util.*
@@ -81,9 +81,6 @@ class Properties : InteractiveCommand() {
     @Parameter
     private lateinit var sciView: SciView
 
-    @Parameter
-    private lateinit var events: EventService
-
     @Parameter(required = false, style = ChoiceWidget.LIST_BOX_STYLE, callback = "refreshSceneNodeInDialog")
     private val sceneNode: String? = null
 
@@ -218,7 +215,7 @@ class Properties : InteractiveCommand() {
         sceneNodeChoices = ArrayList()
         var count = 0
         // here, we want all nodes of the scene, not excluding PointLights and Cameras
-        for (node in sciView.getSceneNodes { _: Node? -> true }) {
+        for (node in sciView.allSceneNodes) {
             sceneNodeChoices.add(makeIdentifier(node, count))
             count++
         }
@@ -238,7 +235,8 @@ class Properties : InteractiveCommand() {
         val identifier = sceneNode //sceneNodeSelector.getValue(this);
         currentSceneNode = null
         var count = 0
-        for (node in sciView.getSceneNodes { _: Node? -> true }) {
+        val sceneNodes = sciView.allSceneNodes
+        for (node in sceneNodes) {
             if (identifier == makeIdentifier(node, count)) {
                 currentSceneNode = node
                 //System.out.println("current node found");
@@ -249,7 +247,7 @@ class Properties : InteractiveCommand() {
 
         // update property fields according to scene node properties
         updateCommandFields()
-        if (sceneNodeChoices.size != sciView.getSceneNodes { _: Node? -> true }.size) {
+        if (sceneNodeChoices.size != sceneNodes.size) {
             rebuildSceneObjectChoiceList()
         }
     }
@@ -263,40 +261,17 @@ class Properties : InteractiveCommand() {
         }
     }
 
-    private var playing = false
-    private var timeSeriesPlayer: Thread? = null
     fun playTimeSeries() {
         if (currentSceneNode !is Volume) {
             return
         }
-        val v = currentSceneNode as Volume
-        playing = !playing
-        if (playing && timeSeriesPlayer == null) {
-            timeSeriesPlayer = Thread {
-                while (playing) {
-                    try {
-                        var nextTimepoint = v.currentTimepoint + 1
-                        if (nextTimepoint >= v.timepointCount) {
-                            nextTimepoint = 0
-                        }
-                        v.goToTimepoint(nextTimepoint)
-                        timepoint = nextTimepoint
-
-                        Thread.sleep(1000L / playSpeed)
-                    } catch (e: InterruptedException) {
-                        e.printStackTrace()
-                    }
-                }
-            }
+        val player = sciView.timeSeriesPlayer(currentSceneNode as Volume)
+        if (!player.isPlaying) {
+            player.setListener { t -> timepoint = t }
+            player.play(playSpeed.toDouble())
             info.getMutableInput("playPauseButton", Button::class.java).label = "Pause"
-            timeSeriesPlayer!!.start()
         } else {
-            try {
-                timeSeriesPlayer!!.join(200)
-            } catch (e: InterruptedException) {
-                e.printStackTrace()
-            }
-            timeSeriesPlayer = null
+            player.pause()
             info.getMutableInput("playPauseButton", Button::class.java).setLabel("Play")
         }
     }
@@ -451,7 +426,10 @@ class Properties : InteractiveCommand() {
 
         node.position = Vector3f(positionX, positionY, positionZ)
         node.scale = Vector3f(scaleX, scaleY, scaleZ)
-        node.name = name
+        if (node.name != name) {
+            node.name = name
+            sciView.sceneIndex.refresh(node)
+        }
 
         if (node is PointLight) {
             node.intensity = intensity
@@ -470,7 +448,12 @@ class Properties : InteractiveCommand() {
             } catch (ioe: IOException) {
                 log.error("Could not load LUT $colormapName")
             }
-            node.goToTimepoint(timepoint)
+            val player = node.metadata[SciView.TIME_SERIES_PLAYER_KEY] as? TimeSeriesPlayer
+            if (player != null) {
+                if (player.currentTimepoint != timepoint) player.seek(timepoint)
+            } else {
+                node.goToTimepoint(timepoint)
+            }
             node.converterSetups[0].setDisplayRange(min.toDouble(), max.toDouble())
         }
         if (node is Camera) {
@@ -513,7 +496,7 @@ class Properties : InteractiveCommand() {
                     1f
             )
         }
-        events.publish(NodeChangedEvent(node))
+        sciView.nodeEvents.publish(NodeChangedEvent(node))
     }
 
     private fun makeIdentifier(node: Node, count: Int): String {
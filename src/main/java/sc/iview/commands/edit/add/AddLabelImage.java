@@ -29,20 +29,8 @@
 package sc.iview.commands.edit.add;
 
 import net.imagej.Dataset;
-import net.imagej.mesh.Mesh;
-import net.imagej.ops.OpService;
-import net.imglib2.Cursor;
-import net.imglib2.Dimensions;
-import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
-import net.imglib2.roi.labeling.ImgLabeling;
-import net.imglib2.roi.labeling.LabelRegion;
-import net.imglib2.roi.labeling.LabelRegions;
-import net.imglib2.roi.labeling.LabelingType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.util.Util;
-import net.imglib2.view.Views;
 
 import org.scijava.command.Command;
 import org.scijava.plugin.Menu;
@@ -50,6 +38,8 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 import sc.iview.SciView;
+import sc.iview.process.LabelMesher;
+import sc.iview.ui.Task;
 
 import static sc.iview.commands.MenuWeights.*;
 
@@ -64,8 +54,8 @@ import static sc.iview.commands.MenuWeights.*;
                  @Menu(label = "Label Image", weight = EDIT_ADD_LABELIMAGE) })
 public class AddLabelImage<T extends RealType<T>> implements Command {
 
-    @Parameter
-    private OpService ops;
+    /** Number of meshes added to the scene at once */
+    private static final int BATCH_SIZE = 256;
 
     @Parameter
     private SciView sciView;
@@ -76,35 +66,17 @@ public class AddLabelImage<T extends RealType<T>> implements Command {
     @Override
     public void run() {
 
-        // interpret the current image as a label image and convert it to ImgLabeling
-
+        // interpret the current image as a label image, every non-zero value is a label
         @SuppressWarnings("unchecked")
         Img<T> labelMap = ( Img<T> ) currentImage.getImgPlus();
 
-        final Dimensions dims = labelMap;
-        final IntType t = new IntType();
-        final RandomAccessibleInterval<IntType> img = Util.getArrayOrCellImgFactory( dims, t ).create( dims, t );
-        ImgLabeling<Integer, IntType> labeling = new ImgLabeling<>( img );
-
-        final Cursor<LabelingType<Integer>> labelCursor = Views.flatIterable( labeling ).cursor();
-
-        for( final T input : Views.flatIterable( labelMap ) ) {
-            final LabelingType<Integer> element = labelCursor.next();
-            if( input.getRealFloat() != 0 ) {
-                element.add( ( int ) input.getRealFloat() );
-            }
-        }
-
-        // take the regions, process them to meshes and put it in the viewer
-        LabelRegions<Integer> labelRegions = new LabelRegions<>( labeling );
-
-        Object[] regionsArr = labelRegions.getExistingLabels().toArray();
-        for( int i = 0; i < labelRegions.getExistingLabels().size(); i++ ) {
-            LabelRegion<Integer> lr = labelRegions.getLabelRegion( ( Integer ) regionsArr[i] );
-
-            Mesh mesh = ops.geom().marchingCubes( lr );
-            sciView.addMesh( mesh );
+        // mesh the labels in parallel and put them in the viewer in batches, so the scene tree is updated once per batch
+        Task task = sciView.getTaskManager().newTask( "Label Image", "Finding labels" );
+        try {
+            LabelMesher.meshLabels( labelMap, Runtime.getRuntime().availableProcessors(), BATCH_SIZE, task,
+                                    sciView::addNodes );
+        } finally {
+            task.setCompletion( 100.0f );
         }
     }
-
 }
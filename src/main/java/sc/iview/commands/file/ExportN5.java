@@ -29,6 +29,8 @@
 package sc.iview.commands.file;
 
 import graphics.scenery.Mesh;
+import graphics.scenery.volumes.Volume;
+import net.imglib2.RandomAccessibleInterval;
 import org.janelia.saalfeldlab.n5.N5FSWriter;
 import org.janelia.saalfeldlab.n5.N5Writer;
 import org.scijava.command.Command;
@@ -41,16 +43,17 @@ import org.scijava.widget.FileWidget;
 import sc.iview.SciView;
 import sc.iview.commands.demo.basic.MeshDemo;
 import sc.iview.io.N5;
-import sc.iview.process.MeshConverter;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static sc.iview.commands.MenuWeights.*;
 
 /**
- * Command to export the currently active Node to N5
+ * Command to export the currently active Node to N5. Meshes are written as a single dataset, volumes as a scale
+ * pyramid that {@link sc.iview.io.N5IO} opens lazily.
  *
  * @author Kyle Harrington
  *
@@ -73,7 +76,17 @@ public class ExportN5 implements Command {
     @Parameter(label = "Dataset")
     private String dataset = "/myDataset";
 
+    @Parameter(label = "Block size", min = "1")
+    private int blockSize = 600000;
+
+    @Parameter(label = "Volume block size", min = "1", description = "Edge length of the blocks of each pyramid level")
+    private int volumeBlockSize = 64;
+
+    @Parameter(label = "Compression", choices = { "gzip", "lz4", "raw", "xz", "bzip2" })
+    private String compression = "gzip";
+
     @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
     public void run() {
         if( sciView.getActiveNode() instanceof Mesh ) {
             Mesh mesh = ( Mesh ) sciView.getActiveNode();
@@ -84,17 +97,45 @@ public class ExportN5 implements Command {
                         throw new IOException("N5 path does not exist");
                     N5Writer n5 = new N5FSWriter(n5File.getAbsolutePath());
 
-                    N5.save(MeshConverter.toImageJ(mesh), n5, dataset );
+                    N5.save(mesh, n5, dataset, blockSize, N5.compression(compression));
                 } catch( final Exception e ) {
                     logService.trace( e );
                 }
             }
 
+        } else if( sciView.getActiveNode() instanceof Volume ) {
+            Volume volume = ( Volume ) sciView.getActiveNode();
+            RandomAccessibleInterval image = ( RandomAccessibleInterval ) volume.getMetadata().get("RandomAccessibleInterval");
+
+            if( image == null || image.numDimensions() != 3 ) {
+                logService.warn("Volume " + volume.getName() + " has no 3D image to export to N5.");
+                return;
+            }
+
+            try {
+                if( !n5File.exists() )
+                    throw new IOException("N5 path does not exist");
+                N5Writer n5 = new N5FSWriter(n5File.getAbsolutePath());
+
+                N5.saveMultiscale(image, n5, dataset, volumeBlockSize, Integer.MAX_VALUE, resolution(volume),
+                        N5.compression(compression), ForkJoinPool.commonPool());
+            } catch( final Exception e ) {
+                logService.trace( e );
+            }
+
         } else {
             logService.warn("Node is " + sciView.getActiveNode().getNodeType() + " cannot export to N5.");
         }
     }
 
+    private static double[] resolution( Volume volume ) {
+        Object voxelDimensions = volume.getMetadata().get("VoxelDimensions");
+        if( !( voxelDimensions instanceof float[] ) || ( ( float[] ) voxelDimensions ).length != 3 )
+            return null;
+        float[] dims = ( float[] ) voxelDimensions;
+        return new double[]{ dims[0], dims[1], dims[2] };
+    }
+
     public static void main(String... args) throws Exception {
         SciView sv = SciView.create();
 
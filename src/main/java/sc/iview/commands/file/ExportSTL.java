@@ -40,12 +40,12 @@ import org.scijava.widget.FileWidget;
 import sc.iview.SciView;
 
 import graphics.scenery.Mesh;
-import sc.iview.Utils;
+import sc.iview.io.MeshWriter;
 
 import static sc.iview.commands.MenuWeights.*;
 
 /**
- * Command to export a STL of the currently active Node
+ * Command to export a binary STL of the currently active Node
  *
  * @author Kyle Harrington
  *
@@ -72,9 +72,9 @@ public class ExportSTL implements Command {
 
             if( mesh != null ) {
                 try {
-                    Utils.writeSCMesh( stlFile.getAbsolutePath(), mesh );
+                    MeshWriter.writeSTL( mesh, stlFile.toPath() );
                 } catch( final Exception e ) {
-                    logService.trace( e );
+                    logService.error( e );
                 }
             }
         }
@@ -28,15 +28,10 @@
  */
 package sc.iview.commands.process;
 
-import graphics.scenery.HasGeometry;
+import graphics.scenery.Mesh;
 import graphics.scenery.Node;
-import net.imagej.mesh.Mesh;
-import net.imagej.mesh.Meshes;
-import net.imagej.ops.OpService;
-import net.imagej.ops.geom.geom3d.mesh.BitTypeVertexInterpolator;
 import net.imglib2.IterableInterval;
-import net.imglib2.img.Img;
-import net.imglib2.type.logic.BitType;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 import org.joml.Vector3f;
 import org.scijava.command.Command;
@@ -45,12 +40,13 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.ui.UIService;
 import sc.iview.SciView;
+import sc.iview.process.BlockIsosurface;
 
 import static sc.iview.commands.MenuWeights.PROCESS;
 import static sc.iview.commands.MenuWeights.PROCESS_ISOSURFACE;
 
 /**
- * Command to create a mesh from the currently open Image
+ * Command to create a mesh from the currently open Image. The image is meshed in blocks, see {@link BlockIsosurface}.
  * @param <T> a RealType
  *
  * @author Kyle Harrington
@@ -60,9 +56,6 @@ import static sc.iview.commands.MenuWeights.PROCESS_ISOSURFACE;
                 @Menu(label = "Isosurface", weight = PROCESS_ISOSURFACE)})
 public class Isosurface<T extends RealType> implements Command {
 
-    @Parameter
-    private OpService ops;
-
     @Parameter
     private SciView sciView;
 
@@ -77,15 +70,16 @@ public class Isosurface<T extends RealType> implements Command {
 
     @Override
     public void run() {
-        T tmp = (T) image.firstElement().createVariable();
-        tmp.setReal(isoLevel);
-
-        Img<BitType> bitImg = (Img<BitType>) ops.threshold().apply(image, tmp);
+        if (!(image instanceof RandomAccessibleInterval)) {
+            uiService.showDialog("Isosurface needs an image with random access.");
+            return;
+        }
 
-        Mesh m = Meshes.marchingCubes(bitImg);
+        // meshes the image block by block, thresholding on the fly. The mesh comes with vertex normals computed from
+        // its welded, outward wound triangles, so they need not be recalculated.
+        Mesh m = BlockIsosurface.isosurface((RandomAccessibleInterval) image, isoLevel);
 
         Node scMesh = sciView.addMesh(m);
-        ((HasGeometry)scMesh).recalculateNormals();
         scMesh.setScale(new Vector3f(0.001f, 0.001f, 0.001f));
     }
 
@@ -63,6 +63,7 @@ class ToggleBoundingGrid : Command {
                 bg!!.node = null
                 node.metadata.remove("BoundingGrid")
                 bg.getScene()!!.removeChild(bg)
+                sciView.sceneBVH.invalidate()
             } else {
                 val bg = BoundingGrid()
                 bg.node = node
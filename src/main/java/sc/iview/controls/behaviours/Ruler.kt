@@ -65,8 +65,12 @@ class Ruler(protected val sciView: SciView): DragBehaviour {
         sciView.addNode(board)
     }
 
-    /** Get the position of your mouse in 3D world coordinates*/
+    /** Get the position of your mouse in 3D world coordinates, on the surface of the mesh under it if there is one */
     private fun getMousePositionIn3D(p0: Int, p1: Int): Vector3f {
+        return sciView.pickSurface(p0, p1) { it === line || it is TextBoard } ?: getMousePositionOnNearPlane(p0, p1)
+    }
+
+    private fun getMousePositionOnNearPlane(p0: Int, p1: Int): Vector3f {
         val width = cam!!.width
         val height = cam.height
         val posX = (p0 - width / 2.0f) / (width / 2.0f)
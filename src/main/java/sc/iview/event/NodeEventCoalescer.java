@@ -0,0 +1,256 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.event;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.scijava.event.EventService;
+
+import graphics.scenery.Node;
+import graphics.scenery.Scene;
+
+/**
+ * Publishes {@link NodeEvent}s to an {@link EventService}, merging bursts of events into one event per node and type.
+ * <p>
+ * Events passed to {@link #publish} are held back for a configurable window, e.g. one rendered frame. If another
+ * event of the same type arrives for the same node within that window, it replaces the pending one, so subscribers
+ * are handed the latest state of every node once per window instead of once per change. {@link NodeActivatedEvent}s
+ * are merged regardless of their node, since only the last activation matters. Events for nodes that were detached
+ * from the scene before the window closed are dropped.
+ * </p>
+ * <p>
+ * When the window closes, the merged events are published through a dispatcher, e.g. {@code SwingUtilities::invokeLater}
+ * for subscribers that update Swing components, so they are delivered asynchronously to the code that published them.
+ * </p>
+ */
+public class NodeEventCoalescer {
+
+    /**
+     * Counts of the events seen by a {@link NodeEventCoalescer}, since it was created for {@link #getMetrics}, and
+     * since the previous flush for the flush listener.
+     */
+    public static class Metrics {
+        /** Events passed to {@link #publish}. */
+        public final long received;
+        /** Events that replaced a pending event for the same node and type. */
+        public final long merged;
+        /** Pending events that were discarded because their node had left the scene. */
+        public final long dropped;
+        /** Events handed to the {@link EventService}. */
+        public final long delivered;
+
+        Metrics( final long received, final long merged, final long dropped, final long delivered ) {
+            this.received = received;
+            this.merged = merged;
+            this.dropped = dropped;
+            this.delivered = delivered;
+        }
+
+        @Override
+        public String toString() {
+            return "received = " + received + ", merged = " + merged + ", dropped = " + dropped + ", delivered = " + delivered;
+        }
+    }
+
+    private final EventService eventService;
+
+    private final Executor dispatcher;
+
+    private final Map<Key, NodeEvent> pending = new LinkedHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread t = new Thread( r, "NodeEventCoalescer" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    private volatile long windowMillis;
+
+    private boolean flushScheduled = false;
+
+    private long received = 0;
+    private long merged = 0;
+    private long dropped = 0;
+    private long delivered = 0;
+
+    // counts at the end of the previous flush
+    private long flushedReceived = 0;
+    private long flushedMerged = 0;
+
+    private Consumer<Metrics> flushListener;
+
+    /**
+     * @param eventService service the merged events are published to
+     * @param windowMillis time in milliseconds events are held back for merging, 0 publishes immediately
+     */
+    public NodeEventCoalescer( final EventService eventService, final long windowMillis ) {
+        this( eventService, windowMillis, Runnable::run );
+    }
+
+    /**
+     * @param eventService service the merged events are published to
+     * @param windowMillis time in milliseconds events are held back for merging, 0 publishes immediately
+     * @param dispatcher executor the merged events are published on when a window closes
+     */
+    public NodeEventCoalescer( final EventService eventService, final long windowMillis, final Executor dispatcher ) {
+        this.eventService = eventService;
+        this.windowMillis = windowMillis;
+        this.dispatcher = dispatcher;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Sets the time events are held back for merging. Events that are already pending are published when the current
+     * window closes.
+     */
+    public void setWindowMillis( final long windowMillis ) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Sets a listener that is called with the {@link Metrics} of the events received since the previous flush and
+     * delivered or dropped by this one, after every flush.
+     */
+    public void setFlushListener( final Consumer<Metrics> flushListener ) {
+        this.flushListener = flushListener;
+    }
+
+    /**
+     * Queues {@code event} for publication, replacing a pending event of the same type for the same node.
+     */
+    public void publish( final NodeEvent event ) {
+        if( windowMillis <= 0 ) {
+            synchronized( pending ) {
+                received++;
+                delivered++;
+            }
+            eventService.publish( event );
+            return;
+        }
+
+        final Key key = new Key( event );
+        synchronized( pending ) {
+            received++;
+            // re-insert so the merged event is delivered in the order of its latest occurrence
+            if( pending.remove( key ) != null ) {
+                merged++;
+            }
+            pending.put( key, event );
+            if( !flushScheduled ) {
+                flushScheduled = true;
+                executor.schedule( () -> dispatcher.execute( this::flush ), windowMillis, TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+    /**
+     * Publishes all pending events right away, on the calling thread.
+     */
+    public void flush() {
+        final List<NodeEvent> events;
+        synchronized( pending ) {
+            flushScheduled = false;
+            if( pending.isEmpty() ) return;
+            events = new ArrayList<>( pending.values() );
+            pending.clear();
+        }
+
+        int published = 0;
+        for( final NodeEvent event : events ) {
+            if( isDetached( event.getNode() ) ) continue;
+            eventService.publish( event );
+            published++;
+        }
+
+        final Metrics metrics;
+        synchronized( pending ) {
+            delivered += published;
+            dropped += events.size() - published;
+            metrics = new Metrics( received - flushedReceived, merged - flushedMerged, events.size() - published, published );
+            flushedReceived = received;
+            flushedMerged = merged;
+        }
+        final Consumer<Metrics> listener = flushListener;
+        if( listener != null ) {
+            listener.accept( metrics );
+        }
+    }
+
+    public Metrics getMetrics() {
+        synchronized( pending ) {
+            return new Metrics( received, merged, dropped, delivered );
+        }
+    }
+
+    /**
+     * Publishes the pending events and stops the flush thread.
+     */
+    public void close() {
+        executor.shutdownNow();
+        flush();
+    }
+
+    private static boolean isDetached( final Node node ) {
+        return node != null && !( node instanceof Scene ) && node.getParent() == null;
+    }
+
+    /** Identifies events that may replace each other: same type, and same node unless it is an activation. */
+    private static final class Key {
+        private final Class<?> type;
+        private final Node node;
+
+        Key( final NodeEvent event ) {
+            type = event.getClass();
+            node = event instanceof NodeActivatedEvent ? null : event.getNode();
+        }
+
+        @Override
+        public boolean equals( final Object o ) {
+            if( !( o instanceof Key ) ) return false;
+            final Key other = ( Key ) o;
+            return type == other.type && node == other.node;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + System.identityHashCode( node );
+        }
+    }
+}
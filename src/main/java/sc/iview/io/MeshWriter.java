@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.io;
+
+import sc.iview.LevelOfDetail;
+import sc.iview.process.GeometryCache.Geometry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Writes meshes as binary STL or binary little-endian PLY.
+ * <p>
+ * Both formats have fixed-size records, so the output is split into ranges of triangles (or vertices) that are
+ * encoded in parallel into per-thread direct buffers and written to their final file offsets through a shared
+ * {@link FileChannel}. Indexed meshes are resolved through their index buffer; meshes without indices are read as
+ * consecutive vertex triples.
+ * </p>
+ */
+public class MeshWriter {
+    private static final int RECORDS_PER_TASK = 1 << 16;
+
+    private static final int STL_HEADER_BYTES = 84;
+    private static final int STL_TRIANGLE_BYTES = 50;
+    private static final int PLY_FACE_BYTES = 13;
+
+    /** Largest record any section encodes; one buffer of this many records is kept per writing thread. */
+    private static final int MAX_RECORD_BYTES = STL_TRIANGLE_BYTES;
+
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(RECORDS_PER_TASK * MAX_RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+
+    /** Write the full resolution of a mesh as a binary STL, see {@link LevelOfDetail#fullResolution} */
+    public static void writeSTL(graphics.scenery.Mesh mesh, Path path) throws IOException {
+        Geometry geometry = LevelOfDetail.fullResolution(mesh);
+        writeSTL(geometry.getVertices(), geometry.getIndices(), path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Write a binary STL. Facet normals are computed from the triangle corners.
+     *
+     * @param vertices xyz coordinates, read from index 0 to the limit
+     * @param indices three vertex indices per triangle, or null/empty for a non-indexed mesh
+     */
+    public static void writeSTL(FloatBuffer vertices, IntBuffer indices, Path path, ForkJoinPool pool) throws IOException {
+        final boolean indexed = indices != null && indices.limit() > 0;
+        final long triangles = indexed ? indices.limit() / 3 : vertices.limit() / 9;
+        if( triangles > 0xFFFFFFFFL )
+            throw new IOException("Binary STL cannot hold " + triangles + " triangles");
+
+        try( FileChannel channel = open(path) ) {
+            ByteBuffer header = ByteBuffer.allocate(STL_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put("binary STL written by sciview".getBytes(StandardCharsets.US_ASCII));
+            header.position(80);
+            header.putInt((int) triangles);
+            header.flip();
+            write(channel, header, 0);
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for( long first = 0; first < triangles; first += RECORDS_PER_TASK ) {
+                final long start = first;
+                final long end = Math.min(triangles, first + RECORDS_PER_TASK);
+                tasks.add(() -> {
+                    ByteBuffer buffer = buffers.get();
+                    buffer.clear();
+                    float[] corners = new float[9];
+                    for( long t = start; t < end; t++ ) {
+                        for( int c = 0; c < 3; c++ ) {
+                            int v = indexed ? indices.get((int) (3 * t + c)) : (int) (3 * t + c);
+                            corners[3 * c] = vertices.get(3 * v);
+                            corners[3 * c + 1] = vertices.get(3 * v + 1);
+                            corners[3 * c + 2] = vertices.get(3 * v + 2);
+                        }
+                        putFacetNormal(buffer, corners);
+                        for( float f : corners )
+                            buffer.putFloat(f);
+                        buffer.putShort((short) 0);
+                    }
+                    buffer.flip();
+                    write(channel, buffer, STL_HEADER_BYTES + start * STL_TRIANGLE_BYTES);
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks, path);
+        }
+    }
+
+    /** Write the full resolution of a mesh as a binary PLY, see {@link LevelOfDetail#fullResolution} */
+    public static void writePLY(graphics.scenery.Mesh mesh, Path path) throws IOException {
+        Geometry geometry = LevelOfDetail.fullResolution(mesh);
+        writePLY(geometry.getVertices(), geometry.getNormals(), geometry.getIndices(), path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Write a binary little-endian PLY with float vertex positions, optional float normals and int triangle indices.
+     *
+     * @param vertices xyz coordinates, read from index 0 to the limit
+     * @param normals per-vertex normals, written only if they match the vertices in size
+     * @param indices three vertex indices per triangle, or null/empty for a non-indexed mesh
+     */
+    public static void writePLY(FloatBuffer vertices, FloatBuffer normals, IntBuffer indices, Path path, ForkJoinPool pool) throws IOException {
+        final boolean indexed = indices != null && indices.limit() > 0;
+        final boolean withNormals = normals != null && normals.limit() == vertices.limit() && normals.limit() > 0;
+        final long vertexCount = vertices.limit() / 3;
+        final long faceCount = indexed ? indices.limit() / 3 : vertexCount / 3;
+        final int vertexBytes = withNormals ? 24 : 12;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("ply\nformat binary_little_endian 1.0\ncomment written by sciview\n");
+        sb.append("element vertex ").append(vertexCount).append('\n');
+        sb.append("property float x\nproperty float y\nproperty float z\n");
+        if( withNormals )
+            sb.append("property float nx\nproperty float ny\nproperty float nz\n");
+        sb.append("element face ").append(faceCount).append('\n');
+        sb.append("property list uchar int vertex_indices\nend_header\n");
+        final byte[] header = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        final long facesOffset = header.length + vertexCount * vertexBytes;
+
+        try( FileChannel channel = open(path) ) {
+            write(channel, ByteBuffer.wrap(header), 0);
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for( long first = 0; first < vertexCount; first += RECORDS_PER_TASK ) {
+                final int start = (int) first;
+                final int end = (int) Math.min(vertexCount, first + RECORDS_PER_TASK);
+                tasks.add(() -> {
+                    ByteBuffer buffer = buffers.get();
+                    buffer.clear();
+                    for( int v = start; v < end; v++ ) {
+                        buffer.putFloat(vertices.get(3 * v)).putFloat(vertices.get(3 * v + 1)).putFloat(vertices.get(3 * v + 2));
+                        if( withNormals )
+                            buffer.putFloat(normals.get(3 * v)).putFloat(normals.get(3 * v + 1)).putFloat(normals.get(3 * v + 2));
+                    }
+                    buffer.flip();
+                    write(channel, buffer, header.length + (long) start * vertexBytes);
+                    return null;
+                });
+            }
+            for( long first = 0; first < faceCount; first += RECORDS_PER_TASK ) {
+                final long start = first;
+                final long end = Math.min(faceCount, first + RECORDS_PER_TASK);
+                tasks.add(() -> {
+                    ByteBuffer buffer = buffers.get();
+                    buffer.clear();
+                    for( long t = start; t < end; t++ ) {
+                        buffer.put((byte) 3);
+                        for( int c = 0; c < 3; c++ )
+                            buffer.putInt(indexed ? indices.get((int) (3 * t + c)) : (int) (3 * t + c));
+                    }
+                    buffer.flip();
+                    write(channel, buffer, facesOffset + start * PLY_FACE_BYTES);
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks, path);
+        }
+    }
+
+    private static void putFacetNormal(ByteBuffer buffer, float[] c) {
+        float ux = c[3] - c[0], uy = c[4] - c[1], uz = c[5] - c[2];
+        float vx = c[6] - c[0], vy = c[7] - c[1], vz = c[8] - c[2];
+        float nx = uy * vz - uz * vy;
+        float ny = uz * vx - ux * vz;
+        float nz = ux * vy - uy * vx;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if( length > 0 ) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        buffer.putFloat(nx).putFloat(ny).putFloat(nz);
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while( buffer.hasRemaining() )
+            position += channel.write(buffer, position);
+    }
+
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks, Path path) throws IOException {
+        try {
+            for( Future<Void> result : pool.invokeAll(tasks) ) {
+                result.get();
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing " + path, e);
+        } catch( ExecutionException e ) {
+            if( e.getCause() instanceof IOException ) throw (IOException) e.getCause();
+            throw new IOException("Could not write " + path, e.getCause());
+        }
+    }
+}
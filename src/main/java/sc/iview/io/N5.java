@@ -28,37 +28,83 @@
  */
 package sc.iview.io;
 
+import graphics.scenery.BufferUtils;
 import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Triangles;
+import net.imagej.mesh.Vertices;
 import net.imagej.mesh.naive.NaiveDoubleMesh;
-import net.imglib2.RandomAccess;
+import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.type.numeric.integer.LongType;
-import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import org.janelia.saalfeldlab.n5.Bzip2Compression;
 import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DoubleArrayDataBlock;
+import org.janelia.saalfeldlab.n5.FloatArrayDataBlock;
 import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.IntArrayDataBlock;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
-import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.XzCompression;
+import sc.iview.LevelOfDetail;
+import sc.iview.process.GeometryCache;
+import sc.iview.process.MeshConverter;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
 
 public class N5 {
     private static int[] vertexBlockSize = new int[]{600000,3};
     private static int[] triangleBlockSize = new int[]{600000,3};
 
+    /** Names accepted by {@link #compression(String)} */
+    public static final String[] COMPRESSIONS = {"gzip", "lz4", "raw", "xz", "bzip2"};
+
+    /**
+     * @param name one of {@link #COMPRESSIONS}
+     * @return the corresponding n5 compression
+     */
+    public static Compression compression(String name) {
+        switch( name.toLowerCase() ) {
+            case "gzip": return new GzipCompression();
+            case "lz4": return new Lz4Compression();
+            case "raw": return new RawCompression();
+            case "xz": return new XzCompression();
+            case "bzip2": return new Bzip2Compression();
+            default: throw new IllegalArgumentException("Unknown compression: " + name);
+        }
+    }
+
     public static void save(Mesh mesh, N5Writer n5, String dataset) throws IOException {
         save(mesh, n5, dataset, vertexBlockSize, triangleBlockSize, new GzipCompression());
     }
 
     /**
-     * Save an ImageJ mesh into n5
+     * Save an ImageJ mesh into n5. Vertices are stored as float32 and indices as int32
+     * whenever that is lossless, otherwise as float64 and int64.
      * @param mesh input mesh
      * @param n5 n5 writer
      * @param dataset dataset in n5
@@ -68,101 +114,615 @@ public class N5 {
      * @throws IOException
      */
     public static void save(Mesh mesh, N5Writer n5, String dataset, int[] vertexBlockSize, int[] triangleBlockSize, Compression compression) throws IOException {
-        Img<DoubleType> vertImg = ArrayImgs.doubles(mesh.vertices().size(), 3);
-        Img<LongType> triImg = ArrayImgs.longs(mesh.triangles().size(), 3);
-
-        RandomAccess<DoubleType> vAccess = vertImg.randomAccess();
-        long[] vPos = new long[2];
-        for( vPos[0] = 0; vPos[0] < mesh.vertices().size(); vPos[0]++ ) {
-            for( vPos[1] = 0; vPos[1] < 3; vPos[1]++ ) {
-                vAccess.setPosition(vPos);
-                if( vPos[1] == 0) vAccess.get().set(mesh.vertices().x(vPos[0]));
-                if( vPos[1] == 1) vAccess.get().set(mesh.vertices().y(vPos[0]));
-                if( vPos[1] == 2) vAccess.get().set(mesh.vertices().z(vPos[0]));
+        save(mesh, n5, dataset, vertexBlockSize, triangleBlockSize, compression, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Save an ImageJ mesh into n5, encoding and compressing blocks in parallel on the given pool.
+     * @param mesh input mesh
+     * @param n5 n5 writer
+     * @param dataset dataset in n5
+     * @param vertexBlockSize size of blocks for vertices to be stored
+     * @param triangleBlockSize size of blocks for triangle indices to be stored
+     * @param compression compression algorithm
+     * @param pool pool on which blocks are encoded and written
+     * @throws IOException
+     */
+    public static void save(Mesh mesh, N5Writer n5, String dataset, int[] vertexBlockSize, int[] triangleBlockSize, Compression compression, ForkJoinPool pool) throws IOException {
+        final Vertices vertices = mesh.vertices();
+        final Triangles triangles = mesh.triangles();
+        final long numVertices = vertices.size();
+
+        final boolean floatVertices = LongStream.range(0, numVertices).parallel().allMatch(v ->
+                isFloat(vertices.x(v)) && isFloat(vertices.y(v)) && isFloat(vertices.z(v)));
+        DatasetAttributes vAttributes = new DatasetAttributes(new long[]{numVertices, 3}, vertexBlockSize,
+                floatVertices ? DataType.FLOAT32 : DataType.FLOAT64, compression);
+        n5.createDataset(dataset + "/vertices", vAttributes);
+        writeBlocks(n5, dataset + "/vertices", vAttributes, pool, (size, gridPosition) -> {
+            long firstRow = gridPosition[0] * vertexBlockSize[0];
+            int firstColumn = (int) gridPosition[1] * vertexBlockSize[1];
+            if( floatVertices ) {
+                float[] data = new float[size[0] * size[1]];
+                for( int j = 0; j < size[1]; j++ )
+                    for( int i = 0; i < size[0]; i++ )
+                        data[i + j * size[0]] = (float) coordinate(vertices, firstRow + i, firstColumn + j);
+                return new FloatArrayDataBlock(size, gridPosition, data);
             }
-        }
+            double[] data = new double[size[0] * size[1]];
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    data[i + j * size[0]] = coordinate(vertices, firstRow + i, firstColumn + j);
+            return new DoubleArrayDataBlock(size, gridPosition, data);
+        });
 
-        RandomAccess<LongType> tAccess = triImg.randomAccess();
-        long[] tPos = new long[2];
-        for( tPos[0] = 0; tPos[0] < mesh.triangles().size(); tPos[0]++ ) {
-            for( tPos[1] = 0; tPos[1] < 3; tPos[1]++ ) {
-                tAccess.setPosition(tPos);
-                //System.out.println("tri vidx: " + mesh.triangles().vertex0(tPos[0]));
-                if( tPos[1] == 0) tAccess.get().set(mesh.triangles().vertex0(tPos[0]));
-                if( tPos[1] == 1) tAccess.get().set(mesh.triangles().vertex1(tPos[0]));
-                if( tPos[1] == 2) tAccess.get().set(mesh.triangles().vertex2(tPos[0]));
+        final boolean intIndices = numVertices <= Integer.MAX_VALUE;
+        DatasetAttributes tAttributes = new DatasetAttributes(new long[]{triangles.size(), 3}, triangleBlockSize,
+                intIndices ? DataType.INT32 : DataType.INT64, compression);
+        n5.createDataset(dataset + "/triangles", tAttributes);
+        writeBlocks(n5, dataset + "/triangles", tAttributes, pool, (size, gridPosition) -> {
+            long firstRow = gridPosition[0] * triangleBlockSize[0];
+            int firstColumn = (int) gridPosition[1] * triangleBlockSize[1];
+            if( intIndices ) {
+                int[] data = new int[size[0] * size[1]];
+                for( int j = 0; j < size[1]; j++ )
+                    for( int i = 0; i < size[0]; i++ )
+                        data[i + j * size[0]] = (int) corner(triangles, firstRow + i, firstColumn + j);
+                return new IntArrayDataBlock(size, gridPosition, data);
             }
-        }
+            long[] data = new long[size[0] * size[1]];
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    data[i + j * size[0]] = corner(triangles, firstRow + i, firstColumn + j);
+            return new LongArrayDataBlock(size, gridPosition, data);
+        });
+        n5.setAttribute(dataset, "nodeType", "sciview-1.0.0 trimesh");
+    }
+
+    /**
+     * Save a scenery mesh into n5, streaming blocks straight from its vertex and index buffers.
+     * Non-indexed meshes are stored with sequential indices.
+     * @param mesh input mesh
+     * @param n5 n5 writer
+     * @param dataset dataset in n5
+     * @param blockSize number of vertices/triangles per block
+     * @param compression compression algorithm
+     * @throws IOException
+     */
+    public static void save(graphics.scenery.Mesh mesh, N5Writer n5, String dataset, int blockSize, Compression compression) throws IOException {
+        save(mesh, n5, dataset, blockSize, compression, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Save a scenery mesh into n5, encoding and compressing blocks in parallel on the given pool.
+     * @param mesh input mesh
+     * @param n5 n5 writer
+     * @param dataset dataset in n5
+     * @param blockSize number of vertices/triangles per block
+     * @param compression compression algorithm
+     * @param pool pool on which blocks are encoded and written
+     * @throws IOException
+     */
+    public static void save(graphics.scenery.Mesh mesh, N5Writer n5, String dataset, int blockSize, Compression compression, ForkJoinPool pool) throws IOException {
+        final GeometryCache.Geometry geometry = LevelOfDetail.fullResolution(mesh);
+        final FloatBuffer verts = geometry.getVertices();
+        final IntBuffer indices = geometry.getIndices();
+        final int numVertices = verts.limit() / 3;
+        final boolean indexed = indices.limit() > 0;
+        final int[] blockDimensions = new int[]{blockSize, 3};
 
-        N5Utils.save(vertImg, n5, dataset + "/vertices", vertexBlockSize, compression);
-        N5Utils.save(triImg, n5, dataset + "/triangles", triangleBlockSize, new GzipCompression());
+        DatasetAttributes vAttributes = new DatasetAttributes(new long[]{numVertices, 3}, blockDimensions, DataType.FLOAT32, compression);
+        n5.createDataset(dataset + "/vertices", vAttributes);
+        writeBlocks(n5, dataset + "/vertices", vAttributes, pool, (size, gridPosition) -> {
+            int firstRow = (int) gridPosition[0] * blockSize;
+            float[] data = new float[size[0] * 3];
+            for( int j = 0; j < 3; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    data[i + j * size[0]] = verts.get((firstRow + i) * 3 + j);
+            return new FloatArrayDataBlock(size, gridPosition, data);
+        });
+
+        int numTriangles = (indexed ? indices.limit() : numVertices) / 3;
+        DatasetAttributes tAttributes = new DatasetAttributes(new long[]{numTriangles, 3}, blockDimensions, DataType.INT32, compression);
+        n5.createDataset(dataset + "/triangles", tAttributes);
+        writeBlocks(n5, dataset + "/triangles", tAttributes, pool, (size, gridPosition) -> {
+            int firstRow = (int) gridPosition[0] * blockSize;
+            int[] data = new int[size[0] * 3];
+            for( int j = 0; j < 3; j++ )
+                for( int i = 0; i < size[0]; i++ ) {
+                    int corner = (firstRow + i) * 3 + j;
+                    data[i + j * size[0]] = indexed ? indices.get(corner) : corner;
+                }
+            return new IntArrayDataBlock(size, gridPosition, data);
+        });
         n5.setAttribute(dataset, "nodeType", "sciview-1.0.0 trimesh");
     }
 
     public static void save(List<RealLocalizable> points, N5Writer n5, String dataset, int[] vertexBlockSize, Compression compression) throws IOException {
-        Img<DoubleType> vertImg = ArrayImgs.doubles(points.size(), points.get(0).numDimensions());
-
-        RandomAccess<DoubleType> vAccess = vertImg.randomAccess();
-        long[] vPos = new long[2];
-        for( vPos[0] = 0; vPos[0] < points.size(); vPos[0]++ ) {
-            for( vPos[1] = 0; vPos[1] < points.get(0).numDimensions(); vPos[1]++ ) {
-                vAccess.setPosition(vPos);
-                vAccess.get().set(points.get((int) vPos[0]).getDoublePosition((int) vPos[1]));
-            }
-        }
+        final int numDimensions = points.get(0).numDimensions();
+        final boolean floatPoints = points.parallelStream().allMatch(p -> {
+            for( int d = 0; d < numDimensions; d++ )
+                if( !isFloat(p.getDoublePosition(d)) ) return false;
+            return true;
+        });
 
-        N5Utils.save(vertImg, n5, dataset, vertexBlockSize, compression);
+        DatasetAttributes attributes = new DatasetAttributes(new long[]{points.size(), numDimensions}, vertexBlockSize,
+                floatPoints ? DataType.FLOAT32 : DataType.FLOAT64, compression);
+        n5.createDataset(dataset, attributes);
+        writeBlocks(n5, dataset, attributes, ForkJoinPool.commonPool(), (size, gridPosition) -> {
+            int firstRow = (int) gridPosition[0] * vertexBlockSize[0];
+            int firstColumn = (int) gridPosition[1] * vertexBlockSize[1];
+            if( floatPoints ) {
+                float[] data = new float[size[0] * size[1]];
+                for( int i = 0; i < size[0]; i++ ) {
+                    RealLocalizable p = points.get(firstRow + i);
+                    for( int j = 0; j < size[1]; j++ )
+                        data[i + j * size[0]] = p.getFloatPosition(firstColumn + j);
+                }
+                return new FloatArrayDataBlock(size, gridPosition, data);
+            }
+            double[] data = new double[size[0] * size[1]];
+            for( int i = 0; i < size[0]; i++ ) {
+                RealLocalizable p = points.get(firstRow + i);
+                for( int j = 0; j < size[1]; j++ )
+                    data[i + j * size[0]] = p.getDoublePosition(firstColumn + j);
+            }
+            return new DoubleArrayDataBlock(size, gridPosition, data);
+        });
         n5.setAttribute(dataset, "nodeType", "sciview-1.0.0 points");
     }
 
     public static Mesh openMesh(N5Reader n5, String meshDataset) throws IOException {
         Mesh m = new NaiveDoubleMesh();
 
-        // Now load vertices
-        RandomAccessibleInterval<DoubleType> vRai = N5Utils.open(n5, meshDataset + "/vertices");
-        RandomAccess<DoubleType> vAccess = vRai.randomAccess();
-        long[] pos = new long[2];
-        for( pos[0] = 0; pos[0] < vRai.dimension(0); pos[0]++ ) {
-            double[] vert = new double[3];
-            for( pos[1] = 0; pos[1] < 3; pos[1]++ ) {
-                vAccess.setPosition(pos);
-                vert[(int) pos[1]] = vAccess.get().get();
-            }
-            m.vertices().add( vert[0], vert[1], vert[2] );
+        // Decode all blocks into primitive arrays first, then add in order
+        DatasetAttributes vAttributes = n5.getDatasetAttributes(meshDataset + "/vertices");
+        int numVertices = (int) vAttributes.getDimensions()[0];
+        DoubleBuffer verts = DoubleBuffer.allocate(numVertices * 3);
+        forEachBlock(n5, meshDataset + "/vertices", vAttributes, ForkJoinPool.commonPool(),
+                block -> copyBlock(block, vAttributes, verts));
+        for( int k = 0; k < numVertices; k++ ) {
+            m.vertices().add( verts.get(3 * k), verts.get(3 * k + 1), verts.get(3 * k + 2) );
         }
 
-        // Now load triangles
-        RandomAccessibleInterval<LongType> tRai = N5Utils.open(n5, meshDataset + "/triangles");
-
-        RandomAccess<LongType> tAccess = tRai.randomAccess();
-        for( pos[0] = 0; pos[0] < tRai.dimension(0); pos[0]++ ) {
-            long[] tri = new long[3];
-            for( pos[1] = 0; pos[1] < 3; pos[1]++ ) {
-                tAccess.setPosition(pos);
-                tri[(int) pos[1]] = tAccess.get().get();
-            }
-            m.triangles().add( tri[0], tri[1], tri[2] );
+        IntBuffer indices = readTriangles(n5, meshDataset, ForkJoinPool.commonPool());
+        for( int k = 0; k < indices.limit(); k += 3 ) {
+            m.triangles().add( indices.get(k), indices.get(k + 1), indices.get(k + 2) );
         }
 
         return m;
     }
 
+    /**
+     * Load a mesh stored by {@link #save(Mesh, N5Writer, String)} directly into a scenery mesh,
+     * decoding blocks in parallel on the common fork-join pool.
+     * @param n5 n5 reader
+     * @param meshDataset dataset of the mesh in n5
+     * @return a scenery mesh with vertices, normals and indices in direct buffers
+     * @throws IOException
+     */
+    public static graphics.scenery.Mesh openSceneryMesh(N5Reader n5, String meshDataset) throws IOException {
+        return openSceneryMesh(n5, meshDataset, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Load a mesh stored by {@link #save(Mesh, N5Writer, String)} directly into a scenery mesh,
+     * without going through an intermediate ImageJ mesh.
+     * @param n5 n5 reader
+     * @param meshDataset dataset of the mesh in n5
+     * @param pool pool on which blocks are read and decoded
+     * @return a scenery mesh with vertices, normals and indices in direct buffers
+     * @throws IOException
+     */
+    public static graphics.scenery.Mesh openSceneryMesh(N5Reader n5, String meshDataset, ForkJoinPool pool) throws IOException {
+        DatasetAttributes vAttributes = n5.getDatasetAttributes(meshDataset + "/vertices");
+        long numVertices = vAttributes.getDimensions()[0];
+        if( numVertices * 3 > Integer.MAX_VALUE )
+            throw new IOException("Mesh " + meshDataset + " has too many vertices for a scenery mesh: " + numVertices);
+
+        FloatBuffer verts = BufferUtils.allocateFloat((int) numVertices * 3);
+        forEachBlock(n5, meshDataset + "/vertices", vAttributes, pool, block -> copyBlock(block, vAttributes, verts));
+        IntBuffer indices = readTriangles(n5, meshDataset, pool);
+
+        FloatBuffer normals = BufferUtils.allocateFloat((int) numVertices * 3);
+        MeshConverter.computeVertexNormals(verts, indices, normals);
+
+        graphics.scenery.Mesh scMesh = new graphics.scenery.Mesh();
+        scMesh.setVertices(verts);
+        scMesh.setNormals(normals);
+        scMesh.setTexcoords(BufferUtils.allocateFloat((int) numVertices * 2));
+        scMesh.setIndices(indices);
+        scMesh.setBoundingBox(scMesh.generateBoundingBox());
+        scMesh.setDirty(true);
+        return scMesh;
+    }
+
+    private static IntBuffer readTriangles(N5Reader n5, String meshDataset, ForkJoinPool pool) throws IOException {
+        DatasetAttributes tAttributes = n5.getDatasetAttributes(meshDataset + "/triangles");
+        long numTriangles = tAttributes.getDimensions()[0];
+        if( numTriangles * 3 > Integer.MAX_VALUE )
+            throw new IOException("Mesh " + meshDataset + " has too many triangles: " + numTriangles);
+
+        IntBuffer indices = BufferUtils.allocateInt((int) numTriangles * 3);
+        forEachBlock(n5, meshDataset + "/triangles", tAttributes, pool, block -> copyBlock(block, tAttributes, indices));
+        return indices;
+    }
+
     public static List<RealLocalizable> openPoints(N5Reader n5, String pointDataset) throws IOException {
-        List<RealLocalizable> points = new ArrayList<>();
-
-        // Now load vertices
-        RandomAccessibleInterval<DoubleType> vRai = N5Utils.open(n5, pointDataset);
-        RandomAccess<DoubleType> vAccess = vRai.randomAccess();
-        long[] pos = new long[2];
-        for( pos[0] = 0; pos[0] < vRai.dimension(0); pos[0]++ ) {
-            double[] vert = new double[(int) vRai.dimension(1)];
-            for( pos[1] = 0; pos[1] < (int) vRai.dimension(1); pos[1]++ ) {
-                vAccess.setPosition(pos);
-                vert[(int) pos[1]] = vAccess.get().get();
-            }
+        DatasetAttributes attributes = n5.getDatasetAttributes(pointDataset);
+        int numPoints = (int) attributes.getDimensions()[0];
+        int numDimensions = (int) attributes.getDimensions()[1];
+        DoubleBuffer coordinates = DoubleBuffer.allocate(numPoints * numDimensions);
+        forEachBlock(n5, pointDataset, attributes, ForkJoinPool.commonPool(), block -> copyBlock(block, attributes, coordinates));
+
+        List<RealLocalizable> points = new ArrayList<>(numPoints);
+        for( int k = 0; k < numPoints; k++ ) {
+            double[] vert = new double[numDimensions];
+            coordinates.position(k * numDimensions);
+            coordinates.get(vert);
             points.add(new RealPoint(vert));
         }
 
         return points;
     }
+
+    /**
+     * Save a 3D image as a scale pyramid s0, s1, ... on the common fork-join pool.
+     * @see #saveMultiscale(RandomAccessibleInterval, N5Writer, String, int, int, double[], Compression, ForkJoinPool)
+     */
+    public static <T extends RealType<T>> void saveMultiscale(RandomAccessibleInterval<T> image, N5Writer n5, String group, int blockSize, Compression compression) throws IOException {
+        saveMultiscale(image, n5, group, blockSize, Integer.MAX_VALUE, null, compression, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Save a 3D image as a scale pyramid s0, s1, ... in the given group. Each level halves the previous one along
+     * every axis that is longer than one voxel, until a level fits into a single block. s0 is copied from the image
+     * and every further level is averaged from the blocks of the previous level as written to n5, so no level is
+     * ever held in memory: each block is computed, encoded and written in its own task on the pool, and only the
+     * blocks of running tasks are in flight.
+     *
+     * The group gets the attributes "multiScale", "scales" (the downsampling factors of all levels) and, if given,
+     * "resolution". Each level gets its own "downsamplingFactors".
+     *
+     * uint8 and uint16 images are stored as such, all other types as float32.
+     * @param image input image
+     * @param n5 n5 writer
+     * @param group group holding the levels
+     * @param blockSize edge length of the cubic blocks
+     * @param maxLevels maximum number of levels, including s0
+     * @param resolution voxel size of s0, or null
+     * @param compression compression algorithm
+     * @param pool pool on which blocks are computed and written
+     * @throws IOException
+     */
+    public static <T extends RealType<T>> void saveMultiscale(RandomAccessibleInterval<T> image, N5Writer n5, String group, int blockSize, int maxLevels, double[] resolution, Compression compression, ForkJoinPool pool) throws IOException {
+        if( image.numDimensions() != 3 )
+            throw new IllegalArgumentException("Only 3D images can be saved as a pyramid, got " + image.numDimensions() + "D");
+
+        T type = Util.getTypeFromInterval(image);
+        DataType dataType = type instanceof UnsignedByteType ? DataType.UINT8 :
+                type instanceof UnsignedShortType ? DataType.UINT16 : DataType.FLOAT32;
+        int[] blockDimensions = new int[]{blockSize, blockSize, blockSize};
+
+        n5.createGroup(group);
+        DatasetAttributes attributes = new DatasetAttributes(Intervals.dimensionsAsLongArray(image), blockDimensions, dataType, compression);
+        n5.createDataset(group + "/s0", attributes);
+
+        long[] offset = Intervals.minAsLongArray(image);
+        writeBlocks(n5, group + "/s0", attributes, pool, (size, gridPosition) -> {
+            DataBlock<?> block = dataType.createDataBlock(size, gridPosition);
+            long[] min = new long[3];
+            long[] max = new long[3];
+            for( int d = 0; d < 3; d++ ) {
+                min[d] = offset[d] + gridPosition[d] * blockSize;
+                max[d] = min[d] + size[d] - 1;
+            }
+            Object data = block.getData();
+            Cursor<T> cursor = Views.flatIterable(Views.interval(image, min, max)).cursor();
+            for( int i = 0; cursor.hasNext(); i++ )
+                store(data, i, cursor.next().getRealDouble());
+            return block;
+        });
+
+        List<double[]> scales = new ArrayList<>();
+        double[] scale = new double[]{1, 1, 1};
+        scales.add(scale);
+        n5.setAttribute(group + "/s0", "downsamplingFactors", scale);
+
+        for( int level = 1; level < maxLevels && !fitsInBlock(attributes.getDimensions(), blockSize); level++ ) {
+            DatasetAttributes sourceAttributes = attributes;
+            String source = group + "/s" + (level - 1);
+            long[] sourceDimensions = sourceAttributes.getDimensions();
+            int[] factors = new int[3];
+            long[] dimensions = new long[3];
+            scale = scale.clone();
+            for( int d = 0; d < 3; d++ ) {
+                factors[d] = sourceDimensions[d] > 1 ? 2 : 1;
+                dimensions[d] = (sourceDimensions[d] + factors[d] - 1) / factors[d];
+                scale[d] *= factors[d];
+            }
+
+            String target = group + "/s" + level;
+            attributes = new DatasetAttributes(dimensions, blockDimensions, dataType, compression);
+            n5.createDataset(target, attributes);
+            writeBlocks(n5, target, attributes, pool, (size, gridPosition) ->
+                    downsampleBlock(n5, source, sourceAttributes, factors, dataType, size, gridPosition));
+            n5.setAttribute(target, "downsamplingFactors", scale);
+            scales.add(scale);
+        }
+
+        n5.setAttribute(group, "multiScale", true);
+        n5.setAttribute(group, "scales", scales.toArray(new double[0][]));
+        if( resolution != null )
+            n5.setAttribute(group, "resolution", resolution);
+    }
+
+    private static boolean fitsInBlock(long[] dimensions, int blockSize) {
+        for( long dimension : dimensions )
+            if( dimension > blockSize ) return false;
+        return true;
+    }
+
+    /**
+     * Average the voxels of the source level covered by one block of the next level. Source and target share the block
+     * size, so the block is covered by at most factor^3 whole source blocks; missing source blocks count as zero.
+     */
+    private static DataBlock<?> downsampleBlock(N5Writer n5, String source, DatasetAttributes sourceAttributes, int[] factors,
+                                                DataType dataType, int[] size, long[] gridPosition) {
+        long[] sourceDimensions = sourceAttributes.getDimensions();
+        int[] blockSize = sourceAttributes.getBlockSize();
+        long[] targetMin = new long[3];
+        long[] sourceMin = new long[3];
+        long[] sourceEnd = new long[3];
+        long[] firstBlock = new long[3];
+        long[] lastBlock = new long[3];
+        for( int d = 0; d < 3; d++ ) {
+            targetMin[d] = gridPosition[d] * blockSize[d];
+            sourceMin[d] = targetMin[d] * factors[d];
+            sourceEnd[d] = Math.min(sourceDimensions[d], (targetMin[d] + size[d]) * factors[d]);
+            firstBlock[d] = sourceMin[d] / blockSize[d];
+            lastBlock[d] = (sourceEnd[d] - 1) / blockSize[d];
+        }
+
+        double[] sums = new double[size[0] * size[1] * size[2]];
+        long[] sourcePosition = new long[3];
+        for( sourcePosition[2] = firstBlock[2]; sourcePosition[2] <= lastBlock[2]; sourcePosition[2]++ )
+            for( sourcePosition[1] = firstBlock[1]; sourcePosition[1] <= lastBlock[1]; sourcePosition[1]++ )
+                for( sourcePosition[0] = firstBlock[0]; sourcePosition[0] <= lastBlock[0]; sourcePosition[0]++ ) {
+                    DataBlock<?> block;
+                    try {
+                        block = n5.readBlock(source, sourceAttributes, sourcePosition);
+                    } catch( IOException e ) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if( block != null )
+                        accumulate(block, blockSize, factors, targetMin, size, sums);
+                }
+
+        DataBlock<?> result = dataType.createDataBlock(size, gridPosition);
+        Object data = result.getData();
+        int i = 0;
+        for( int z = 0; z < size[2]; z++ ) {
+            long countZ = Math.min(sourceDimensions[2], (targetMin[2] + z + 1) * factors[2]) - (targetMin[2] + z) * factors[2];
+            for( int y = 0; y < size[1]; y++ ) {
+                long countY = Math.min(sourceDimensions[1], (targetMin[1] + y + 1) * factors[1]) - (targetMin[1] + y) * factors[1];
+                for( int x = 0; x < size[0]; x++, i++ ) {
+                    long countX = Math.min(sourceDimensions[0], (targetMin[0] + x + 1) * factors[0]) - (targetMin[0] + x) * factors[0];
+                    store(data, i, sums[i] / (countX * countY * countZ));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add every voxel of a source block to the sum of the target voxel it falls into.
+     */
+    private static void accumulate(DataBlock<?> block, int[] blockSize, int[] factors, long[] targetMin, int[] targetSize, double[] sums) {
+        int[] size = block.getSize();
+        long[] position = block.getGridPosition();
+        Object data = block.getData();
+        int i = 0;
+        for( int z = 0; z < size[2]; z++ ) {
+            long tz = (position[2] * blockSize[2] + z) / factors[2] - targetMin[2];
+            for( int y = 0; y < size[1]; y++ ) {
+                long ty = (position[1] * blockSize[1] + y) / factors[1] - targetMin[1];
+                for( int x = 0; x < size[0]; x++, i++ ) {
+                    long tx = (position[0] * blockSize[0] + x) / factors[0] - targetMin[0];
+                    if( tx < targetSize[0] && ty < targetSize[1] && tz < targetSize[2] )
+                        sums[(int) (tx + targetSize[0] * (ty + targetSize[1] * tz))] += sample(data, i);
+                }
+            }
+        }
+    }
+
+    private static double sample(Object data, int i) {
+        if( data instanceof byte[] ) return ((byte[]) data)[i] & 0xff;
+        if( data instanceof short[] ) return ((short[]) data)[i] & 0xffff;
+        return ((float[]) data)[i];
+    }
+
+    private static void store(Object data, int i, double value) {
+        if( data instanceof byte[] ) ((byte[]) data)[i] = (byte) Math.round(value);
+        else if( data instanceof short[] ) ((short[]) data)[i] = (short) Math.round(value);
+        else ((float[]) data)[i] = (float) value;
+    }
+
+    private static boolean isFloat(double value) {
+        return (double) (float) value == value || Double.isNaN(value);
+    }
+
+    private static double coordinate(Vertices vertices, long vertex, int column) {
+        switch( column ) {
+            case 0: return vertices.x(vertex);
+            case 1: return vertices.y(vertex);
+            default: return vertices.z(vertex);
+        }
+    }
+
+    private static long corner(Triangles triangles, long triangle, int column) {
+        switch( column ) {
+            case 0: return triangles.vertex0(triangle);
+            case 1: return triangles.vertex1(triangle);
+            default: return triangles.vertex2(triangle);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BlockConsumer {
+        void accept(DataBlock<?> block) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BlockFactory {
+        DataBlock<?> create(int[] size, long[] gridPosition);
+    }
+
+    /**
+     * @return grid positions of all blocks of a dataset, first dimension fastest
+     */
+    private static List<long[]> gridPositions(DatasetAttributes attributes) {
+        long[] dimensions = attributes.getDimensions();
+        int[] blockSize = attributes.getBlockSize();
+        long[] gridSize = new long[dimensions.length];
+        long numBlocks = 1;
+        for( int d = 0; d < dimensions.length; d++ ) {
+            gridSize[d] = (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+            numBlocks *= gridSize[d];
+        }
+        List<long[]> positions = new ArrayList<>();
+        for( long index = 0; index < numBlocks; index++ ) {
+            long[] position = new long[dimensions.length];
+            IntervalIndexer.indexToPosition(index, gridSize, position);
+            positions.add(position);
+        }
+        return positions;
+    }
+
+    /**
+     * Read every block of a 2D dataset in parallel and hand it to the consumer.
+     * Consumers are called concurrently and must only write to disjoint regions.
+     */
+    private static void forEachBlock(N5Reader n5, String dataset, DatasetAttributes attributes, ForkJoinPool pool, BlockConsumer consumer) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for( long[] gridPosition : gridPositions(attributes) ) {
+            tasks.add(() -> {
+                DataBlock<?> block = n5.readBlock(dataset, attributes, gridPosition);
+                if( block != null ) consumer.accept(block);
+                return null;
+            });
+        }
+        invokeAll(pool, tasks, dataset);
+    }
+
+    /**
+     * Create, encode and write every block of a dataset in parallel. Blocks are only
+     * materialized inside their task, so memory in flight is bounded by the pool's parallelism.
+     */
+    private static void writeBlocks(N5Writer n5, String dataset, DatasetAttributes attributes, ForkJoinPool pool, BlockFactory factory) throws IOException {
+        long[] dimensions = attributes.getDimensions();
+        int[] blockSize = attributes.getBlockSize();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for( long[] gridPosition : gridPositions(attributes) ) {
+            tasks.add(() -> {
+                int[] size = new int[dimensions.length];
+                for( int d = 0; d < dimensions.length; d++ )
+                    size[d] = (int) Math.min(blockSize[d], dimensions[d] - gridPosition[d] * blockSize[d]);
+                n5.writeBlock(dataset, attributes, factory.create(size, gridPosition));
+                return null;
+            });
+        }
+        invokeAll(pool, tasks, dataset);
+    }
+
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks, String dataset) throws IOException {
+        try {
+            for( Future<Void> result : pool.invokeAll(tasks) ) {
+                result.get();
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while accessing " + dataset, e);
+        } catch( ExecutionException e ) {
+            if( e.getCause() instanceof IOException ) throw (IOException) e.getCause();
+            if( e.getCause() instanceof UncheckedIOException ) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw new IOException("Could not access " + dataset, e.getCause());
+        }
+    }
+
+    /**
+     * Copy a column-major block of an [n, columns] dataset into a row-major float buffer.
+     */
+    private static void copyBlock(DataBlock<?> block, DatasetAttributes attributes, FloatBuffer target) {
+        int[] size = block.getSize();
+        int columns = (int) attributes.getDimensions()[1];
+        int rowOffset = (int) block.getGridPosition()[0] * attributes.getBlockSize()[0];
+        int columnOffset = (int) block.getGridPosition()[1] * attributes.getBlockSize()[1];
+        Object data = block.getData();
+        if( data instanceof float[] ) {
+            float[] values = (float[]) data;
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    target.put((rowOffset + i) * columns + columnOffset + j, values[i + j * size[0]]);
+        } else if( data instanceof double[] ) {
+            double[] values = (double[]) data;
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    target.put((rowOffset + i) * columns + columnOffset + j, (float) values[i + j * size[0]]);
+        } else {
+            throw new IllegalArgumentException("Unsupported vertex data: " + data.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Copy a column-major block of an [n, columns] dataset into a row-major double buffer.
+     */
+    private static void copyBlock(DataBlock<?> block, DatasetAttributes attributes, DoubleBuffer target) {
+        int[] size = block.getSize();
+        int columns = (int) attributes.getDimensions()[1];
+        int rowOffset = (int) block.getGridPosition()[0] * attributes.getBlockSize()[0];
+        int columnOffset = (int) block.getGridPosition()[1] * attributes.getBlockSize()[1];
+        Object data = block.getData();
+        if( data instanceof double[] ) {
+            double[] values = (double[]) data;
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    target.put((rowOffset + i) * columns + columnOffset + j, values[i + j * size[0]]);
+        } else if( data instanceof float[] ) {
+            float[] values = (float[]) data;
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    target.put((rowOffset + i) * columns + columnOffset + j, values[i + j * size[0]]);
+        } else {
+            throw new IllegalArgumentException("Unsupported vertex data: " + data.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Copy a column-major block of an [n, columns] index dataset into a row-major int buffer.
+     * @throws IOException if a 64-bit index is negative or does not fit into an int
+     */
+    private static void copyBlock(DataBlock<?> block, DatasetAttributes attributes, IntBuffer target) throws IOException {
+        int[] size = block.getSize();
+        int columns = (int) attributes.getDimensions()[1];
+        int rowOffset = (int) block.getGridPosition()[0] * attributes.getBlockSize()[0];
+        int columnOffset = (int) block.getGridPosition()[1] * attributes.getBlockSize()[1];
+        Object data = block.getData();
+        if( data instanceof long[] ) {
+            long[] values = (long[]) data;
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ ) {
+                    long value = values[i + j * size[0]];
+                    if( value < 0 || value > Integer.MAX_VALUE )
+                        throw new IOException("Index " + value + " at row " + (rowOffset + i) + " is out of range");
+                    target.put((rowOffset + i) * columns + columnOffset + j, (int) value);
+                }
+        } else if( data instanceof int[] ) {
+            int[] values = (int[]) data;
+            for( int j = 0; j < size[1]; j++ )
+                for( int i = 0; i < size[0]; i++ )
+                    target.put((rowOffset + i) * columns + columnOffset + j, values[i + j * size[0]]);
+        } else {
+            throw new IllegalArgumentException("Unsupported index data: " + data.getClass().getSimpleName());
+        }
+    }
 }
@@ -28,15 +28,28 @@
  */
 package sc.iview.io;
 
+import bdv.spimdata.SequenceDescriptionMinimal;
+import bdv.spimdata.SpimDataMinimal;
 import bdv.util.AxisOrder;
 import graphics.scenery.Group;
 import graphics.scenery.Node;
 import graphics.scenery.PointCloud;
 import graphics.scenery.volumes.Volume;
-import net.imglib2.RandomAccess;
+import graphics.scenery.volumes.Volume.VolumeDataSource.SpimDataMinimalSource;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealLocalizable;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.Util;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5FSReader;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
@@ -45,12 +58,16 @@ import org.scijava.io.IOPlugin;
 import org.scijava.plugin.Plugin;
 import sc.iview.SciView;
 import sc.iview.SciViewService;
-import sc.iview.process.MeshConverter;
 import tpietzsch.example2.VolumeViewerOptions;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** {@link IOPlugin} adapter for N5 as a data source (volume or mesh)
  *
@@ -95,25 +112,15 @@ public class N5IO extends AbstractIOPlugin<graphics.scenery.Node> {
 
         SciView sv = sciViewService.getActiveSciView();
 
-        if( nodeType.startsWith("sciview") ) {
+        if( nodeType != null && nodeType.startsWith("sciview") ) {
             node = openSciview( n5Reader, dataset, nodeType );
         } else {
-            // TODO check for multiresolution and such here
-
-            // Note: UnsignedByteType is currently hard coded due to BVV constraints
-            RandomAccessibleInterval<UnsignedByteType> image = N5Utils.open(n5Reader, dataset);
-
-            long[] dimensions = new long[image.numDimensions()];
-            image.dimensions( dimensions );
-
-            long[] minPt = new long[image.numDimensions()];
-
-            // Get type at min point
-            RandomAccess<UnsignedByteType> imageRA = image.randomAccess();
-            image.min(minPt);
-            imageRA.setPosition(minPt);
-
-            node = Volume.fromRAI(image, new UnsignedByteType(), AxisOrder.DEFAULT, dataset, sv.getHub(), new VolumeViewerOptions());
+            String[] levels = pyramidLevels( n5Reader, dataset );
+            if( levels.length > 0 ) {
+                node = openPyramid( n5Reader, dataset, levels, sv );
+            } else {
+                node = openImage( n5Reader, dataset, sv );
+            }
         }
 
         return node;
@@ -124,7 +131,7 @@ public class N5IO extends AbstractIOPlugin<graphics.scenery.Node> {
         // If it is a mesh, then load
 
         if( nodeType.compareToIgnoreCase("sciview-1.0.0 trimesh") == 0 ) {
-            node = MeshConverter.toScenery( N5.openMesh(n5Reader, dataset) );
+            node = N5.openSceneryMesh( n5Reader, dataset );
         } else if( nodeType.compareToIgnoreCase("sciview-1.0.0 points") == 0 ) {
             // TODO this can be better
             List<RealLocalizable> points = N5.openPoints(n5Reader, dataset);
@@ -152,6 +159,116 @@ public class N5IO extends AbstractIOPlugin<graphics.scenery.Node> {
         return node;
     }
 
+    /**
+     * Open a scale pyramid lazily. Blocks are only read once the renderer asks for them, coarse levels first, so the
+     * volume appears immediately and refines as blocks arrive.
+     */
+    private Node openPyramid( N5Reader n5Reader, String dataset, String[] levels, SciView sv ) throws IOException {
+        double[][] resolutions = pyramidResolutions( n5Reader, dataset, levels );
+        double[] resolution = voxelSize( n5Reader, dataset, levels[0] );
+
+        N5PyramidImageLoader imgLoader = new N5PyramidImageLoader( n5Reader, levels, resolutions,
+                new FinalVoxelDimensions( "", resolution ), NUM_FETCHER_THREADS );
+
+        String name = trimPath( dataset );
+        TimePoints timePoints = new TimePoints( Collections.singletonList( new TimePoint( 0 ) ) );
+        Map<Integer, BasicViewSetup> setups = new HashMap<>();
+        setups.put( 0, new BasicViewSetup( 0, name, new FinalDimensions( imgLoader.getDimensions() ),
+                new FinalVoxelDimensions( "", resolution ) ) );
+        SequenceDescriptionMinimal sequence = new SequenceDescriptionMinimal( timePoints, setups, imgLoader, null );
+
+        AffineTransform3D sourceTransform = new AffineTransform3D();
+        sourceTransform.set( resolution[0], 0, 0, 0, 0, resolution[1], 0, 0, 0, 0, resolution[2], 0 );
+        ViewRegistrations registrations = new ViewRegistrations(
+                Collections.singletonList( new ViewRegistration( 0, 0, sourceTransform ) ) );
+
+        SpimDataMinimal spimData = new SpimDataMinimal( null, sequence, registrations );
+        Volume volume = new Volume( new SpimDataMinimalSource( spimData ), new VolumeViewerOptions(), sv.getHub() );
+        volume.setName( name );
+        volume.getMetadata().put( LOADER_KEY, imgLoader );
+        return volume;
+    }
+
+    /**
+     * Open a dataset which is not a 3D pyramid (e.g. a time series) in full
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node openImage( N5Reader n5Reader, String dataset, SciView sv ) throws IOException {
+        DatasetAttributes attributes = n5Reader.getDatasetAttributes( dataset );
+        if( attributes == null ) {
+            throw new IOException( "Neither a dataset nor a scale pyramid: " + dataset );
+        }
+        DataType dataType = attributes.getDataType();
+        if( dataType != DataType.UINT8 && dataType != DataType.UINT16 && dataType != DataType.FLOAT32 ) {
+            throw new IOException( "Unsupported data type " + dataType + " in " + dataset + ", expected uint8, uint16 or float32" );
+        }
+        RandomAccessibleInterval image = N5Utils.open( n5Reader, dataset );
+        return Volume.fromRAI( image, (NumericType) Util.getTypeFromInterval( image ), AxisOrder.DEFAULT, dataset, sv.getHub(), new VolumeViewerOptions() );
+    }
+
+    /**
+     * Find the levels of a scale pyramid: the 3D datasets s0, s1, ... inside the group, finest first. A single 3D
+     * dataset is a pyramid of one level.
+     *
+     * @return the dataset paths of the levels, or an empty array if the dataset is not a 3D pyramid
+     */
+    public static String[] pyramidLevels( N5Reader n5Reader, String dataset ) throws IOException {
+        String group = trimPath( dataset );
+        if( n5Reader.datasetExists( group ) ) {
+            return n5Reader.getDatasetAttributes( group ).getNumDimensions() == 3 ? new String[]{ group } : new String[0];
+        }
+
+        List<String> levels = new ArrayList<>();
+        for( int s = 0; n5Reader.datasetExists( group + "/s" + s ); s++ ) {
+            if( n5Reader.getDatasetAttributes( group + "/s" + s ).getNumDimensions() != 3 )
+                break;
+            levels.add( group + "/s" + s );
+        }
+        return levels.toArray( new String[0] );
+    }
+
+    /**
+     * Downsampling factors of every level relative to the first. They are read from the "scales" attribute of the group
+     * or the "downsamplingFactors" attribute of each level, and otherwise derived from the level dimensions.
+     */
+    public static double[][] pyramidResolutions( N5Reader n5Reader, String dataset, String[] levels ) throws IOException {
+        double[][] scales = n5Reader.getAttribute( trimPath( dataset ), "scales", double[][].class );
+        if( scales != null && scales.length >= levels.length ) {
+            return Arrays.copyOf( scales, levels.length );
+        }
+
+        long[] finest = n5Reader.getDatasetAttributes( levels[0] ).getDimensions();
+        double[][] resolutions = new double[levels.length][];
+        for( int level = 0; level < levels.length; level++ ) {
+            resolutions[level] = n5Reader.getAttribute( levels[level], "downsamplingFactors", double[].class );
+            if( resolutions[level] == null ) {
+                long[] dimensions = n5Reader.getDatasetAttributes( levels[level] ).getDimensions();
+                resolutions[level] = new double[3];
+                for( int d = 0; d < 3; d++ ) {
+                    resolutions[level][d] = Math.max( 1, Math.round( (double) finest[d] / dimensions[d] ) );
+                }
+            }
+        }
+        return resolutions;
+    }
+
+    /**
+     * Voxel size of the finest level from its "resolution" attribute, or that of the group, defaulting to 1
+     */
+    private static double[] voxelSize( N5Reader n5Reader, String dataset, String finestLevel ) throws IOException {
+        double[] resolution = n5Reader.getAttribute( finestLevel, "resolution", double[].class );
+        if( resolution == null )
+            resolution = n5Reader.getAttribute( trimPath( dataset ), "resolution", double[].class );
+        return resolution != null && resolution.length == 3 ? resolution : new double[]{ 1, 1, 1 };
+    }
+
+    private static String trimPath( String dataset ) {
+        String path = dataset;
+        while( path.endsWith( "/" ) )
+            path = path.substring( 0, path.length() - 1 );
+        return path;
+    }
+
     private String getNodeType(N5Reader n5Reader, String dataset) throws IOException {
         return n5Reader.getAttribute(dataset, "nodeType", String.class);
     }
@@ -168,4 +285,9 @@ public class N5IO extends AbstractIOPlugin<graphics.scenery.Node> {
     }
 
     String EXTENSION = "n5";
+
+    /** Metadata key under which a lazily loaded volume keeps its {@link N5PyramidImageLoader} */
+    public static final String LOADER_KEY = "sciview.N5Loader";
+
+    private static final int NUM_FETCHER_THREADS = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
 }
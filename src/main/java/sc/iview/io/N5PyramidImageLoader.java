@@ -0,0 +1,288 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.io;
+
+import bdv.AbstractViewerSetupImgLoader;
+import bdv.ViewerImgLoader;
+import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.util.MipmapTransforms;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
+import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileArrayDataAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.volatiles.VolatileFloatType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+/**
+ * {@link ViewerImgLoader} for a scale pyramid (s0, s1, ...) stored in an N5 container.
+ *
+ * Every level is a {@link net.imglib2.cache.img.CachedCellImg} whose cells are the N5 blocks of that level. Blocks are
+ * read lazily by the fetcher threads of a {@link VolatileGlobalCellCache}: coarse levels have the highest priority, and
+ * the requests of the current frame (the blocks the renderer needs for the current view) are served before leftovers
+ * of earlier frames. Until a block has arrived its cell is invalid, so the volume refines progressively.
+ */
+public class N5PyramidImageLoader implements ViewerImgLoader, MultiResolutionImgLoader {
+
+    private final N5Reader n5;
+
+    private final String[] levelPaths;
+
+    private final DatasetAttributes[] levelAttributes;
+
+    private final double[][] resolutions;
+
+    private final AffineTransform3D[] transforms;
+
+    private final VoxelDimensions voxelDimensions;
+
+    private final FetcherThreads fetchers;
+
+    private final VolatileGlobalCellCache cache;
+
+    private final SetupImgLoader<?, ?, ?> setupImgLoader;
+
+    /**
+     * @param n5 reader of the container
+     * @param levelPaths dataset paths of the levels, finest first
+     * @param resolutions downsampling factors of each level relative to the first one
+     * @param voxelDimensions voxel size of the finest level
+     * @param numFetcherThreads number of threads loading blocks
+     * @throws IOException if a level cannot be read or the data type is not supported
+     */
+    public N5PyramidImageLoader( final N5Reader n5, final String[] levelPaths, final double[][] resolutions,
+                                 final VoxelDimensions voxelDimensions, final int numFetcherThreads ) throws IOException {
+        this.n5 = n5;
+        this.levelPaths = levelPaths;
+        this.resolutions = resolutions;
+        this.voxelDimensions = voxelDimensions;
+
+        levelAttributes = new DatasetAttributes[levelPaths.length];
+        transforms = new AffineTransform3D[levelPaths.length];
+        for( int level = 0; level < levelPaths.length; level++ ) {
+            levelAttributes[level] = n5.getDatasetAttributes(levelPaths[level]);
+            if( levelAttributes[level] == null || levelAttributes[level].getNumDimensions() != 3 )
+                throw new IOException("Expected a 3D dataset at " + levelPaths[level]);
+            if( levelAttributes[level].getDataType() != levelAttributes[0].getDataType() )
+                throw new IOException("Levels of " + levelPaths[0] + " have different data types");
+            transforms[level] = MipmapTransforms.getMipmapTransformDefault(resolutions[level]);
+        }
+
+        final BlockingFetchQueues<Callable<?>> queue = new BlockingFetchQueues<>(levelPaths.length, numFetcherThreads);
+        fetchers = new FetcherThreads(queue, numFetcherThreads);
+        cache = new VolatileGlobalCellCache(queue);
+
+        switch( levelAttributes[0].getDataType() ) {
+            case UINT8:
+                setupImgLoader = new SetupImgLoader<>(new UnsignedByteType(), new VolatileUnsignedByteType(),
+                        block -> new VolatileByteArray((byte[]) block, true), n -> new VolatileByteArray(n, true), 1);
+                break;
+            case UINT16:
+                setupImgLoader = new SetupImgLoader<>(new UnsignedShortType(), new VolatileUnsignedShortType(),
+                        block -> new VolatileShortArray((short[]) block, true), n -> new VolatileShortArray(n, true), 2);
+                break;
+            case FLOAT32:
+                setupImgLoader = new SetupImgLoader<>(new FloatType(), new VolatileFloatType(),
+                        block -> new VolatileFloatArray((float[]) block, true), n -> new VolatileFloatArray(n, true), 4);
+                break;
+            default:
+                throw new IOException("Unsupported data type " + levelAttributes[0].getDataType() + " in " + levelPaths[0]
+                        + ", expected uint8, uint16 or float32");
+        }
+    }
+
+    /** @return the number of levels of the pyramid */
+    public int numLevels() {
+        return levelPaths.length;
+    }
+
+    /** @return the dimensions of the finest level */
+    public long[] getDimensions() {
+        return levelAttributes[0].getDimensions().clone();
+    }
+
+    @Override
+    public SetupImgLoader<?, ?, ?> getSetupImgLoader( final int setupId ) {
+        return setupImgLoader;
+    }
+
+    @Override
+    public VolatileGlobalCellCache getCacheControl() {
+        return cache;
+    }
+
+    /** Stop the fetcher threads and drop all loaded blocks */
+    public void close() {
+        cache.clearCache();
+        fetchers.shutdown();
+    }
+
+    /**
+     * Reads one N5 block into a volatile array. Blocks missing from the container are returned as zeros.
+     */
+    private class BlockLoader<A extends VolatileArrayDataAccess<A>> implements CacheArrayLoader<A> {
+
+        private final Function<Object, A> wrap;
+
+        private final Function<Integer, A> empty;
+
+        private final int bytesPerElement;
+
+        BlockLoader( final Function<Object, A> wrap, final Function<Integer, A> empty, final int bytesPerElement ) {
+            this.wrap = wrap;
+            this.empty = empty;
+            this.bytesPerElement = bytesPerElement;
+        }
+
+        @Override
+        public int getBytesPerElement() {
+            return bytesPerElement;
+        }
+
+        @Override
+        public A loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException {
+            final DatasetAttributes attributes = levelAttributes[level];
+            final int[] blockSize = attributes.getBlockSize();
+            final long[] gridPosition = new long[min.length];
+            int numElements = 1;
+            for( int d = 0; d < min.length; d++ ) {
+                gridPosition[d] = min[d] / blockSize[d];
+                numElements *= dimensions[d];
+            }
+
+            final DataBlock<?> block;
+            try {
+                block = n5.readBlock(levelPaths[level], attributes, gridPosition);
+            } catch( IOException e ) {
+                throw new RuntimeException("Cannot read block " + Arrays.toString(gridPosition) + " of " + levelPaths[level], e);
+            }
+            if( block == null )
+                return empty.apply(numElements);
+            return wrap.apply(block.getData());
+        }
+    }
+
+    /**
+     * The single setup of the pyramid. The same {@link CellGrid}s are used for the volatile and the blocking images so
+     * that both share the cells in {@link #cache}.
+     */
+    public class SetupImgLoader<T extends RealType<T> & NativeType<T>, V extends Volatile<T> & NativeType<V>, A extends VolatileArrayDataAccess<A>>
+            extends AbstractViewerSetupImgLoader<T, V> implements MultiResolutionSetupImgLoader<T> {
+
+        private final BlockLoader<A> loader;
+
+        SetupImgLoader( final T type, final V volatileType, final Function<Object, A> wrap, final Function<Integer, A> empty, final int bytesPerElement ) {
+            super(type, volatileType);
+            loader = new BlockLoader<>(wrap, empty, bytesPerElement);
+        }
+
+        private <S extends NativeType<S>> RandomAccessibleInterval<S> prepareCachedImage( final int timepointId, final int level,
+                                                                                         final LoadingStrategy loadingStrategy, final S cellType ) {
+            final DatasetAttributes attributes = levelAttributes[level];
+            final CellGrid grid = new CellGrid(attributes.getDimensions(), attributes.getBlockSize());
+            final int priority = levelPaths.length - 1 - level;
+            final CacheHints cacheHints = new CacheHints(loadingStrategy, priority, false);
+            return cache.createImg(grid, timepointId, 0, level, cacheHints, loader, cellType);
+        }
+
+        @Override
+        public RandomAccessibleInterval<T> getImage( final int timepointId, final int level, final ImgLoaderHint... hints ) {
+            return prepareCachedImage(timepointId, level, LoadingStrategy.BLOCKING, type.createVariable());
+        }
+
+        @Override
+        public RandomAccessibleInterval<V> getVolatileImage( final int timepointId, final int level, final ImgLoaderHint... hints ) {
+            return prepareCachedImage(timepointId, level, LoadingStrategy.BUDGETED, volatileType.createVariable());
+        }
+
+        @Override
+        public RandomAccessibleInterval<FloatType> getFloatImage( final int timepointId, final int level, final boolean normalize, final ImgLoaderHint... hints ) {
+            final RandomAccessibleInterval<T> image = getImage(timepointId, level, hints);
+            if( !normalize || type instanceof FloatType )
+                return Converters.convert(image, new RealFloatConverter<>(), new FloatType());
+            final float max = (float) type.getMaxValue();
+            return Converters.convert(image, ( input, output ) -> output.set(input.getRealFloat() / max), new FloatType());
+        }
+
+        @Override
+        public Dimensions getImageSize( final int timepointId, final int level ) {
+            return new FinalDimensions(levelAttributes[level].getDimensions());
+        }
+
+        @Override
+        public VoxelDimensions getVoxelSize( final int timepointId ) {
+            return voxelDimensions;
+        }
+
+        @Override
+        public double[][] getMipmapResolutions() {
+            return resolutions;
+        }
+
+        @Override
+        public AffineTransform3D[] getMipmapTransforms() {
+            return transforms;
+        }
+
+        @Override
+        public int numMipmapLevels() {
+            return levelPaths.length;
+        }
+    }
+}
@@ -33,12 +33,13 @@ import org.scijava.io.IOPlugin;
 import org.scijava.plugin.Plugin;
 import org.scijava.util.FileUtils;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-/** {@link IOPlugin} adapter for Scenery SMLM reader.
+/** {@link IOPlugin} adapter for SMLM localization tables, read with {@link SMLMReader}.
  *
  * @author Kyle Harrington
  *
@@ -46,10 +47,43 @@ import java.io.IOException;
 @Plugin(type = IOPlugin.class, priority = 10)
 public class SMLMPointCloudIO extends AbstractIOPlugin<graphics.scenery.PointCloud> {
 
+    /** Columns kept as per-point attribute buffers in the metadata of opened point clouds, none by default */
+    private String[] attributeColumns = {};
+
+    public String[] getAttributeColumns() {
+        return attributeColumns.clone();
+    }
+
+    /**
+     * Sets the columns that are kept as per-point attribute buffers, under their column name in the metadata of opened
+     * point clouds. Columns missing from a file are skipped, and the coordinates are only kept in the vertex buffer.
+     */
+    public void setAttributeColumns( final String... attributeColumns ) {
+        this.attributeColumns = attributeColumns.clone();
+    }
+
     @Override
-    public graphics.scenery.PointCloud open( final String source ) {
+    public graphics.scenery.PointCloud open( final String source ) throws IOException {
+        final List<String> header = Arrays.asList( SMLMReader.readHeader( Paths.get( source ) ) );
+        final List<String> columns = new ArrayList<>();
+        for( final String column : new String[]{ SMLMReader.X, SMLMReader.Y, SMLMReader.Z } ) {
+            if( header.contains( column ) ) columns.add( column );
+        }
+        for( final String column : attributeColumns ) {
+            if( header.contains( column ) && !columns.contains( column ) ) columns.add( column );
+        }
+
+        final SMLMReader.Table table = SMLMReader.read( Paths.get( source ), columns.toArray( new String[0] ) );
         final graphics.scenery.PointCloud pointCloud = new graphics.scenery.PointCloud();
-        pointCloud.readFromPALM( source );
+        pointCloud.setName( Paths.get( source ).getFileName().toString() );
+        pointCloud.setVertices( table.vertices() );
+        pointCloud.setupPointCloud();
+        // copy each column once and let go of its array, so the file is not held twice
+        table.removeColumns( SMLMReader.X, SMLMReader.Y, SMLMReader.Z );
+        for( final String column : table.columnNames() ) {
+            pointCloud.getMetadata().put( column, table.attributeBuffer( column ) );
+            table.removeColumns( column );
+        }
         return pointCloud;
     }
 
@@ -61,29 +95,19 @@ public class SMLMPointCloudIO extends AbstractIOPlugin<graphics.scenery.PointClo
     @Override
     public boolean supportsOpen(final String source) {
         if( FileUtils.getExtension(source).toLowerCase().equals(EXTENSION) ) {
-            boolean supported = false;
             try {
-                FileReader fr = new FileReader( source );
-                BufferedReader br = new BufferedReader( fr );
-
-                String header = br.readLine();
-                supported = header.contains("frame") && header.contains("x [nm]") && header.contains("y [nm]") &&
-                        header.contains("z [nm]") && header.contains("sigma1 [nm]") && header.contains("sigma2 [nm]") &&
-                        header.contains("intensity [photon]") && header.contains("offset [photon]") &&
-                        header.contains("bkgstd [photon]") && header.contains("uncertainty_xy [nm]") &&
-                        header.contains("uncertainty_z [nm]");
-
-                br.close();
-                fr.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+                final List<String> header = Arrays.asList( SMLMReader.readHeader( Paths.get( source ) ) );
+                return header.containsAll( REQUIRED_COLUMNS );
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            return supported;
         }
         return false;
     }
 
     String EXTENSION = "csv";
+
+    private static final List<String> REQUIRED_COLUMNS = Arrays.asList( "frame", "x [nm]", "y [nm]", "z [nm]",
+            "sigma1 [nm]", "sigma2 [nm]", "intensity [photon]", "offset [photon]", "bkgstd [photon]",
+            "uncertainty_xy [nm]", "uncertainty_z [nm]" );
 }
@@ -0,0 +1,397 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.io;
+
+import graphics.scenery.BufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming reader for SMLM localization tables in CSV format (e.g. ThunderSTORM exports).
+ *
+ * The file is memory-mapped and split into chunks on line boundaries. Chunks are first scanned in
+ * parallel to count rows, then parsed in parallel straight into primitive column arrays, so no
+ * per-row objects or strings are created.
+ */
+public class SMLMReader {
+
+    public static final String X = "x [nm]";
+    public static final String Y = "y [nm]";
+    public static final String Z = "z [nm]";
+    public static final String INTENSITY = "intensity [photon]";
+    public static final String UNCERTAINTY = "uncertainty_xy [nm]";
+
+    /** Columns read when no explicit selection is given, if present in the file */
+    public static final String[] DEFAULT_COLUMNS = { X, Y, Z, INTENSITY, UNCERTAINTY };
+
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    private static final long MAX_CHUNK_BYTES = 256L * 1024 * 1024;
+    private static final double[] POWERS_OF_TEN = new double[64];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for( int k = 1; k < POWERS_OF_TEN.length; k++ ) {
+            POWERS_OF_TEN[k] = POWERS_OF_TEN[k - 1] * 10.0;
+        }
+    }
+
+    /**
+     * Column-oriented result of reading an SMLM table.
+     */
+    public static class Table {
+        private final Map<String, float[]> columns;
+        private final int size;
+
+        Table( final Map<String, float[]> columns, final int size ) {
+            this.columns = columns;
+            this.size = size;
+        }
+
+        /** @return number of localizations */
+        public int size() {
+            return size;
+        }
+
+        /** @return names of the columns that were read */
+        public List<String> columnNames() {
+            return new ArrayList<>( columns.keySet() );
+        }
+
+        /** @return the values of the given column, or null if it was not read */
+        public float[] column( final String name ) {
+            return columns.get( name );
+        }
+
+        /**
+         * @return interleaved xyz coordinates in a direct buffer, z is 0 for 2D tables
+         */
+        public FloatBuffer vertices() {
+            final float[] x = columns.get( X );
+            final float[] y = columns.get( Y );
+            final float[] z = columns.get( Z );
+            final FloatBuffer buffer = BufferUtils.allocateFloat( size * 3 );
+            for( int k = 0; k < size; k++ ) {
+                buffer.put( x == null ? 0.0f : x[k] );
+                buffer.put( y == null ? 0.0f : y[k] );
+                buffer.put( z == null ? 0.0f : z[k] );
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Drops columns, e.g. once they have been copied into buffers, so that their arrays can be garbage-collected.
+         */
+        public void removeColumns( final String... names ) {
+            for( final String name : names ) {
+                columns.remove( name );
+            }
+        }
+
+        /**
+         * @return the values of the given column as a direct per-point attribute buffer, or null if it was not read
+         */
+        public FloatBuffer attributeBuffer( final String name ) {
+            final float[] values = columns.get( name );
+            if( values == null ) return null;
+            final FloatBuffer buffer = BufferUtils.allocateFloat( size );
+            buffer.put( values, 0, size );
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Read the header line of the given file.
+     * @return column names, without quotes
+     */
+    public static String[] readHeader( final Path file ) throws IOException {
+        try( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            final ByteBuffer head = ByteBuffer.allocate( (int) Math.min( channel.size(), MAX_HEADER_BYTES ) );
+            while( head.hasRemaining() && channel.read( head ) >= 0 ) {
+                // keep reading until the buffer is full or the file ends
+            }
+            head.flip();
+            int end = 0;
+            while( end < head.limit() && head.get( end ) != '\n' ) end++;
+            final String line = new String( head.array(), 0, end, StandardCharsets.UTF_8 ).trim();
+            final String[] names = line.split( "," );
+            for( int k = 0; k < names.length; k++ ) {
+                names[k] = names[k].trim().replace( "\"", "" );
+            }
+            return names;
+        }
+    }
+
+    /**
+     * Read those of the {@link #DEFAULT_COLUMNS} that are present in the file.
+     */
+    public static Table read( final Path file ) throws IOException {
+        final List<String> header = Arrays.asList( readHeader( file ) );
+        final List<String> present = new ArrayList<>();
+        for( final String name : DEFAULT_COLUMNS ) {
+            if( header.contains( name ) ) present.add( name );
+        }
+        return read( file, present.toArray( new String[0] ) );
+    }
+
+    /**
+     * Read the selected columns of the file.
+     * @param file CSV file with a header line
+     * @param columns names of the columns to read
+     * @throws IOException if the file cannot be read or a selected column does not exist
+     */
+    public static Table read( final Path file, final String... columns ) throws IOException {
+        final String[] header = readHeader( file );
+        // target[c] is the index into the selection for file column c, or -1 if the column is skipped
+        final int[] target = new int[header.length];
+        Arrays.fill( target, -1 );
+        for( int s = 0; s < columns.length; s++ ) {
+            final int c = Arrays.asList( header ).indexOf( columns[s] );
+            if( c < 0 ) throw new IOException( "Column '" + columns[s] + "' not found in " + file );
+            target[c] = s;
+        }
+
+        try( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            final long[] bounds = chunkBounds( channel );
+            final int numChunks = bounds.length - 1;
+            final MappedByteBuffer[] chunks = new MappedByteBuffer[numChunks];
+            for( int k = 0; k < numChunks; k++ ) {
+                chunks[k] = channel.map( FileChannel.MapMode.READ_ONLY, bounds[k], bounds[k + 1] - bounds[k] );
+            }
+
+            final int[] rows = new int[numChunks];
+            IntStream.range( 0, numChunks ).parallel().forEach( k -> rows[k] = countRows( chunks[k] ) );
+            final int[] firstRow = new int[numChunks];
+            long total = 0;
+            for( int k = 0; k < numChunks; k++ ) {
+                firstRow[k] = (int) total;
+                total += rows[k];
+            }
+            if( total > Integer.MAX_VALUE ) throw new IOException( "Too many rows in " + file + ": " + total );
+
+            final float[][] values = new float[columns.length][(int) total];
+            IntStream.range( 0, numChunks ).parallel().forEach( k -> parseRows( chunks[k], target, values, firstRow[k] ) );
+
+            final Map<String, float[]> result = new LinkedHashMap<>();
+            for( int s = 0; s < columns.length; s++ ) {
+                result.put( columns[s], values[s] );
+            }
+            return new Table( result, (int) total );
+        }
+    }
+
+    /**
+     * Split the data part of the file into chunks that start right after a line break.
+     */
+    private static long[] chunkBounds( final FileChannel channel ) throws IOException {
+        final long size = channel.size();
+        final long dataStart = nextLineStart( channel, 0 );
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        final long numChunks = Math.max( parallelism, ( size - dataStart ) / MAX_CHUNK_BYTES + 1 );
+        final long nominal = Math.max( 1, ( size - dataStart ) / numChunks );
+
+        final List<Long> bounds = new ArrayList<>();
+        bounds.add( dataStart );
+        long previous = dataStart;
+        while( previous < size ) {
+            final long next = previous + nominal >= size ? size : nextLineStart( channel, previous + nominal );
+            bounds.add( next );
+            previous = next;
+        }
+        final long[] result = new long[bounds.size()];
+        for( int k = 0; k < result.length; k++ ) result[k] = bounds.get( k );
+        return result;
+    }
+
+    /**
+     * @return the offset of the first byte after the next line break at or after {@code from}, or the file size
+     */
+    private static long nextLineStart( final FileChannel channel, final long from ) throws IOException {
+        final ByteBuffer window = ByteBuffer.allocate( 8192 );
+        long offset = from;
+        while( true ) {
+            window.clear();
+            final int read = channel.read( window, offset );
+            if( read <= 0 ) return channel.size();
+            for( int k = 0; k < read; k++ ) {
+                if( window.get( k ) == '\n' ) return offset + k + 1;
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Count the lines of a chunk that contain anything but a carriage return.
+     */
+    private static int countRows( final ByteBuffer chunk ) {
+        int rows = 0;
+        boolean content = false;
+        final int limit = chunk.limit();
+        for( int k = 0; k < limit; k++ ) {
+            final byte b = chunk.get( k );
+            if( b == '\n' ) {
+                if( content ) rows++;
+                content = false;
+            } else if( b != '\r' ) {
+                content = true;
+            }
+        }
+        return content ? rows + 1 : rows;
+    }
+
+    /**
+     * Parse the selected fields of every non-empty line in a chunk into the column arrays.
+     */
+    private static void parseRows( final ByteBuffer chunk, final int[] target, final float[][] values, final int firstRow ) {
+        final int limit = chunk.limit();
+        int row = firstRow;
+        int pos = 0;
+        while( pos < limit ) {
+            int lineEnd = pos;
+            boolean content = false;
+            while( lineEnd < limit && chunk.get( lineEnd ) != '\n' ) {
+                if( chunk.get( lineEnd ) != '\r' ) content = true;
+                lineEnd++;
+            }
+            if( content ) {
+                int field = 0;
+                int fieldStart = pos;
+                for( int k = pos; k <= lineEnd; k++ ) {
+                    if( k == lineEnd || chunk.get( k ) == ',' ) {
+                        if( field < target.length && target[field] >= 0 ) {
+                            values[target[field]][row] = parseFloat( chunk, fieldStart, k );
+                        }
+                        field++;
+                        fieldStart = k + 1;
+                    }
+                }
+                row++;
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Parse a decimal number from the bytes in [start, end) without creating a String.
+     * Unusual notations (NaN, Infinity, very long mantissas) fall back to {@link Float#parseFloat}.
+     */
+    static float parseFloat( final ByteBuffer bytes, final int start, final int end ) {
+        int k = start;
+        int stop = end;
+        while( k < stop && isBlank( bytes.get( k ) ) ) k++;
+        while( stop > k && isBlank( bytes.get( stop - 1 ) ) ) stop--;
+        if( k == stop ) return Float.NaN;
+
+        boolean negative = false;
+        if( bytes.get( k ) == '-' || bytes.get( k ) == '+' ) {
+            negative = bytes.get( k ) == '-';
+            k++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        while( k < stop && isDigit( bytes.get( k ) ) ) {
+            if( digits < 18 ) {
+                mantissa = mantissa * 10 + ( bytes.get( k ) - '0' );
+                if( mantissa != 0 ) digits++;
+            } else {
+                exponent++;
+            }
+            any = true;
+            k++;
+        }
+        if( k < stop && bytes.get( k ) == '.' ) {
+            k++;
+            while( k < stop && isDigit( bytes.get( k ) ) ) {
+                if( digits < 18 ) {
+                    mantissa = mantissa * 10 + ( bytes.get( k ) - '0' );
+                    if( mantissa != 0 ) digits++;
+                    exponent--;
+                }
+                any = true;
+                k++;
+            }
+        }
+        if( any && k < stop && ( bytes.get( k ) == 'e' || bytes.get( k ) == 'E' ) ) {
+            k++;
+            boolean negativeExponent = false;
+            if( k < stop && ( bytes.get( k ) == '-' || bytes.get( k ) == '+' ) ) {
+                negativeExponent = bytes.get( k ) == '-';
+                k++;
+            }
+            int e = 0;
+            boolean exponentDigits = false;
+            while( k < stop && isDigit( bytes.get( k ) ) ) {
+                e = Math.min( e * 10 + ( bytes.get( k ) - '0' ), 10000 );
+                exponentDigits = true;
+                k++;
+            }
+            if( !exponentDigits ) return parseFallback( bytes, start, end );
+            exponent += negativeExponent ? -e : e;
+        }
+        if( !any || k != stop || Math.abs( exponent ) >= POWERS_OF_TEN.length ) {
+            return parseFallback( bytes, start, end );
+        }
+        final double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return (float) ( negative ? -value : value );
+    }
+
+    private static float parseFallback( final ByteBuffer bytes, final int start, final int end ) {
+        final byte[] field = new byte[end - start];
+        for( int k = start; k < end; k++ ) field[k - start] = bytes.get( k );
+        try {
+            return Float.parseFloat( new String( field, StandardCharsets.US_ASCII ).trim().replace( "\"", "" ) );
+        } catch( NumberFormatException e ) {
+            return Float.NaN;
+        }
+    }
+
+    private static boolean isDigit( final byte b ) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isBlank( final byte b ) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '"';
+    }
+}
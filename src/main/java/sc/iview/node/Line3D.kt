@@ -1,6 +1,7 @@
 package sc.iview.node
 
 import graphics.scenery.*
+import graphics.scenery.backends.ShaderType
 import org.joml.Vector3f
 import org.scijava.util.ColorRGB
 import org.scijava.util.Colors
@@ -8,17 +9,35 @@ import sc.iview.Utils
 import java.util.ArrayList
 
 /**
- * A 3D line composed of scenery Nodes
+ * A 3D line composed of scenery Nodes, or of a single tube mesh, see [Mode]
  *
  * @author Kyle Harrington
  */
 class Line3D : Node {
+    /**
+     * How a line is drawn. [Nodes] creates a cylinder per segment and a sphere per joint, [Tube] creates one mesh for
+     * the whole line with a color per point, which scales to millions of segments.
+     */
+    enum class Mode { Nodes, Tube }
+
     private var edges: MutableList<Node>
     private var joints: MutableList<Node>? = null
     private var edgeWidth = 0.05
     private var defaultColor = Colors.LIGHTSALMON
     private val sphereJoints = true
 
+    /** The mesh of a line in [Mode.Tube] */
+    var tube: Mesh? = null
+        private set
+    private var pointCount = 0
+
+    /** Bounds of the line points, expanded as they are added */
+    private val pointsMin = Vector3f(Float.MAX_VALUE)
+    private val pointsMax = Vector3f(-Float.MAX_VALUE)
+
+    /** Set once lines were added through [addLine], whose extent is not known from the points */
+    private var hasExternalLines = false
+
     constructor() {
         edges = ArrayList()
     }
@@ -36,7 +55,7 @@ class Line3D : Node {
                         edgeWidth.toFloat(),
                         1f,
                         15)
-                addLine(edge)
+                addEdge(edge)
             }
             if (sphereJoints) {
                 val joint: Node = Sphere(edgeWidth.toFloat(), 15)
@@ -44,19 +63,24 @@ class Line3D : Node {
                 joints!!.add(joint)
                 addChild(joint)
             }
+            includePoint(points[k])
         }
+        boundingBox = generateBoundingBox()
     }
 
-    constructor(points: List<Vector3f>, colors: List<ColorRGB>, edgeWidth: Double) {
+    constructor(points: List<Vector3f>, colors: List<ColorRGB>, edgeWidth: Double) : this(points, colors, edgeWidth, Mode.Nodes)
+
+    constructor(points: List<Vector3f>, colors: List<ColorRGB>, edgeWidth: Double, mode: Mode) {
+        require(colors.size == points.size) { "Expected a color for each of the ${points.size} points, got ${colors.size}" }
         this.edgeWidth = edgeWidth
         edges = ArrayList()
+        if (mode == Mode.Tube) {
+            createTube(points, colors)
+            return
+        }
         if (sphereJoints) joints = ArrayList()
         for (k in points.indices) {
-            val c = Utils.convertToVector3f(colors[k])
-            val mat = Material()
-            mat.diffuse = c
-            mat.ambient = c
-            mat.specular = c
+            val mat = colorMaterial(colors[k])
             if (k > 0) {
                 val edge: Node = Cylinder.betweenPoints(
                         points[k - 1],
@@ -65,7 +89,7 @@ class Line3D : Node {
                         1f,
                         15)
                 edge.material = mat
-                addLine(edge)
+                addEdge(edge)
             }
             if (sphereJoints) {
                 val joint: Node = Sphere(edgeWidth.toFloat(), 15)
@@ -74,41 +98,77 @@ class Line3D : Node {
                 joints!!.add(joint)
                 addChild(joint)
             }
+            includePoint(points[k])
         }
+        boundingBox = generateBoundingBox()
     }
 
+    /**
+     * Set the color of every point. In [Mode.Tube] the colors are written into the existing mesh buffers.
+     */
     fun setColors(colors: List<ColorRGB>) {
+        tube?.let { mesh ->
+            require(colors.size == pointCount) { "Expected a color for each of the $pointCount points, got ${colors.size}" }
+            val texcoords = mesh.texcoords
+            for (k in 0 until pointCount) {
+                val packed = packColor(colors[k])
+                val alpha = colors[k].alpha / 255.0f
+                for (j in 0..TUBE_SEGMENTS) {
+                    val v = k * (TUBE_SEGMENTS + 1) + j
+                    texcoords.put(2 * v, packed).put(2 * v + 1, alpha)
+                }
+            }
+            // the cap centers
+            val first = pointCount * (TUBE_SEGMENTS + 1)
+            texcoords.put(2 * first, packColor(colors[0])).put(2 * first + 1, colors[0].alpha / 255.0f)
+            texcoords.put(2 * first + 2, packColor(colors[pointCount - 1])).put(2 * first + 3, colors[pointCount - 1].alpha / 255.0f)
+            mesh.dirty = true
+            return
+        }
         for (k in joints!!.indices) {
-            val c = Utils.convertToVector3f(colors[k])
-            val mat = Material()
-            mat.diffuse = c
-            mat.ambient = c
-            mat.specular = c
+            val mat = colorMaterial(colors[k])
             joints!![k].material = mat
             joints!![k].needsUpdate = true
             joints!![k].dirty = true
-            edges[k].material = mat
-            edges[k].needsUpdate = true
-            edges[k].dirty = true
+            if (k < edges.size) {
+                edges[k].material = mat
+                edges[k].needsUpdate = true
+                edges[k].dirty = true
+            }
         }
     }
 
     fun addLine(l: Node) {
+        hasExternalLines = true
+        addEdge(l)
+    }
+
+    private fun addEdge(l: Node) {
         edges.add(l)
         addChild(l)
-        generateBoundingBox()
     }
 
     fun getEdges(): List<Node> {
         return edges
     }
 
+    private fun includePoint(p: Vector3f) {
+        pointsMin.min(p)
+        pointsMax.max(p)
+    }
+
     /**
-     * Generates an [OrientedBoundingBox] for this [Node]. This will take
-     * geometry information into consideration if this Node implements [HasGeometry].
+     * Generates an [OrientedBoundingBox] for this [Node]. Lines created from points are bounded by their points
+     * and the edge width, otherwise this will take the geometry information of all children into consideration.
      * In case a bounding box cannot be determined, the function will return null.
      */
     override fun generateBoundingBox(): OrientedBoundingBox? {
+        if (!hasExternalLines && pointsMin.x <= pointsMax.x) {
+            val w = edgeWidth.toFloat()
+            return OrientedBoundingBox(this,
+                    pointsMin.x - w, pointsMin.y - w, pointsMin.z - w,
+                    pointsMax.x + w, pointsMax.y + w, pointsMax.z + w)
+        }
         var bb = OrientedBoundingBox(this, 0.0f, 0.0f, 0.0f,
                 0.0f, 0.0f, 0.0f)
         for (n in children) {
@@ -117,4 +177,125 @@ class Line3D : Node {
         }
         return bb
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates one mesh with a ring of vertices around every point, oriented along the line by parallel transport so
+     * that the tube does not twist, and closed by a cap at either end.
+     */
+    private fun createTube(points: List<Vector3f>, colors: List<ColorRGB>) {
+        require(points.size >= 2) { "A tube needs at least 2 points, got ${points.size}" }
+        require(colors.size == points.size) { "Expected a color for each of the ${points.size} points, got ${colors.size}" }
+        pointCount = points.size
+        val ring = TUBE_SEGMENTS + 1
+        val vertexCount = pointCount * ring + 2
+        val vertices = BufferUtils.allocateFloat(3 * vertexCount)
+        val normals = BufferUtils.allocateFloat(3 * vertexCount)
+        val texcoords = BufferUtils.allocateFloat(2 * vertexCount)
+        val indices = BufferUtils.allocateInt(3 * (2 * TUBE_SEGMENTS * (pointCount - 1) + 2 * TUBE_SEGMENTS))
+        val radius = edgeWidth.toFloat()
+
+        val tangent = Vector3f()
+        val normal = perpendicular(tangent(points, 0, tangent))
+        val binormal = Vector3f()
+        val offset = Vector3f()
+        val cos = FloatArray(ring) { Math.cos(2.0 * Math.PI * it / TUBE_SEGMENTS).toFloat() }
+        val sin = FloatArray(ring) { Math.sin(2.0 * Math.PI * it / TUBE_SEGMENTS).toFloat() }
+        for (k in points.indices) {
+            tangent(points, k, tangent)
+            // parallel transport: remove the tangential part of the previous normal
+            normal.sub(offset.set(tangent).mul(tangent.dot(normal)))
+            if (normal.lengthSquared() < 1e-12f) normal.set(perpendicular(tangent)) else normal.normalize()
+            tangent.cross(normal, binormal)
+
+            val p = points[k]
+            includePoint(p)
+            val packed = packColor(colors[k])
+            val alpha = colors[k].alpha / 255.0f
+            for (j in 0..TUBE_SEGMENTS) {
+                offset.set(normal).mul(cos[j]).fma(sin[j], binormal)
+                vertices.put(p.x + radius * offset.x).put(p.y + radius * offset.y).put(p.z + radius * offset.z)
+                normals.put(offset.x).put(offset.y).put(offset.z)
+                texcoords.put(packed).put(alpha)
+            }
+            if (k > 0) {
+                val a = (k - 1) * ring
+                val b = k * ring
+                for (j in 0 until TUBE_SEGMENTS) {
+                    indices.put(a + j).put(a + j + 1).put(b + j)
+                    indices.put(a + j + 1).put(b + j + 1).put(b + j)
+                }
+            }
+        }
+
+        // caps, facing away from the line at either end
+        val start = pointCount * ring
+        val end = start + 1
+        tangent(points, 0, tangent)
+        vertices.put(points[0].x).put(points[0].y).put(points[0].z)
+        normals.put(-tangent.x).put(-tangent.y).put(-tangent.z)
+        texcoords.put(packColor(colors[0])).put(colors[0].alpha / 255.0f)
+        tangent(points, pointCount - 1, tangent)
+        val last = points[pointCount - 1]
+        vertices.put(last.x).put(last.y).put(last.z)
+        normals.put(tangent.x).put(tangent.y).put(tangent.z)
+        texcoords.put(packColor(colors[pointCount - 1])).put(colors[pointCount - 1].alpha / 255.0f)
+        val lastRing = (pointCount - 1) * ring
+        for (j in 0 until TUBE_SEGMENTS) {
+            indices.put(start).put(j + 1).put(j)
+            indices.put(end).put(lastRing + j).put(lastRing + j + 1)
+        }
+
+        vertices.flip()
+        normals.flip()
+        texcoords.flip()
+        indices.flip()
+
+        val mesh = Mesh()
+        mesh.name = "Tube"
+        mesh.vertices = vertices
+        mesh.normals = normals
+        mesh.texcoords = texcoords
+        mesh.indices = indices
+        mesh.material = ShaderMaterial.fromClass(Line3D::class.java, listOf(ShaderType.VertexShader, ShaderType.FragmentShader))
+        mesh.boundingBox = OrientedBoundingBox(mesh,
+                pointsMin.x - radius, pointsMin.y - radius, pointsMin.z - radius,
+                pointsMax.x + radius, pointsMax.y + radius, pointsMax.z + radius)
+        mesh.dirty = true
+        tube = mesh
+        addChild(mesh)
+        boundingBox = generateBoundingBox()
+    }
+
+    companion object {
+        /** Number of vertices around a tube */
+        const val TUBE_SEGMENTS = 8
+
+        private fun colorMaterial(color: ColorRGB): Material {
+            val c = Utils.convertToVector3f(color)
+            val mat = Material()
+            mat.diffuse = c
+            mat.ambient = c
+            mat.specular = c
+            return mat
+        }
+
+        /** Packs the 8 bit rgb channels into one float, which represents integers below 2^24 exactly. */
+        private fun packColor(color: ColorRGB): Float {
+            return (color.red or (color.green shl 8) or (color.blue shl 16)).toFloat()
+        }
+
+        /** Unit tangent at point [k], central differences inside the line */
+        private fun tangent(points: List<Vector3f>, k: Int, tangent: Vector3f): Vector3f {
+            val from = points[Math.max(0, k - 1)]
+            val to = points[Math.min(points.size - 1, k + 1)]
+            to.sub(from, tangent)
+            if (tangent.lengthSquared() < 1e-12f) tangent.set(0f, 0f, 1f) else tangent.normalize()
+            return tangent
+        }
+
+        private fun perpendicular(v: Vector3f): Vector3f {
+            val axis = if (Math.abs(v.x) < 0.9f) Vector3f(1f, 0f, 0f) else Vector3f(0f, 1f, 0f)
+            return v.cross(axis, Vector3f()).normalize()
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process
+
+import graphics.scenery.BufferUtils
+import graphics.scenery.Mesh
+import net.imagej.Dataset
+import net.imagej.ImgPlus
+import net.imglib2.Interval
+import net.imglib2.RandomAccessibleInterval
+import net.imglib2.img.cell.AbstractCellImg
+import net.imglib2.type.numeric.RealType
+import net.imglib2.view.Views
+import java.nio.FloatBuffer
+import java.nio.IntBuffer
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Extracts the isosurface of a 3D image block by block, so that images much larger than memory can be meshed.
+ *
+ * The image is split into blocks of cubes, aligned with the cells of a [AbstractCellImg] if possible. Each block
+ * reads its voxels plus a one voxel overlap into a small array, thresholds them on the fly and triangulates the
+ * surface with marching tetrahedra on the Kuhn decomposition of every cube, which unlike marching cubes needs no
+ * ambiguity resolution and produces consistent faces across blocks. Blocks are processed in parallel. Vertices are
+ * identified by the grid edge they lie on, so vertices on block faces are welded exactly when the blocks are merged
+ * into growing direct output buffers. Voxels outside the image count as below the iso level, so surfaces are closed.
+ *
+ * Peak memory is the output mesh plus one block of voxels and triangles per thread. Welding keeps only the vertices on
+ * block faces whose blocks have not all been merged yet.
+ */
+object BlockIsosurface {
+    const val DEFAULT_BLOCK_SIZE = 64
+
+    /** The six tetrahedra of a cube, as monotone paths from corner 0 to corner 7. Corner bits are x, y, z. */
+    private val TETRAHEDRA = arrayOf(
+            intArrayOf(0, 1, 3, 7), intArrayOf(0, 1, 5, 7), intArrayOf(0, 2, 3, 7),
+            intArrayOf(0, 2, 6, 7), intArrayOf(0, 4, 5, 7), intArrayOf(0, 4, 6, 7))
+
+    /**
+     * Block size to use for [image]: the cell size of a cell image, else [DEFAULT_BLOCK_SIZE].
+     */
+    @JvmStatic
+    fun blockSize(image: RandomAccessibleInterval<*>): IntArray {
+        val source = when (image) {
+            is Dataset -> image.imgPlus.img
+            is ImgPlus<*> -> image.img
+            else -> image
+        }
+        if (source is AbstractCellImg<*, *, *, *>) {
+            val cellDimensions = IntArray(source.numDimensions())
+            source.cellGrid.cellDimensions(cellDimensions)
+            return cellDimensions
+        }
+        return IntArray(image.numDimensions()) { DEFAULT_BLOCK_SIZE }
+    }
+
+    @JvmStatic
+    fun <T : RealType<T>> isosurface(image: RandomAccessibleInterval<T>, isoLevel: Double): Mesh {
+        return isosurface(image, isoLevel, blockSize(image), ForkJoinPool.commonPool())
+    }
+
+    /**
+     * Extract the surface where [image] crosses [isoLevel], voxels above it being inside.
+     * @param blockSize number of cubes per block in each dimension
+     */
+    @JvmStatic
+    fun <T : RealType<T>> isosurface(image: RandomAccessibleInterval<T>, isoLevel: Double, blockSize: IntArray, pool: ForkJoinPool): Mesh {
+        require(image.numDimensions() == 3) { "Isosurfaces need a 3D image, got ${image.numDimensions()} dimensions." }
+        val output = Output(image)
+        val iso = isoLevel.toFloat()
+
+        // cubes have their lower corner in [min - 1, max], so that the surface is closed at the image border
+        val tasks = ArrayList<Callable<Void?>>()
+        val starts = Array(3) { d -> blockStarts(image.min(d), image.max(d), blockSize[d]) }
+        for (z in starts[2].indices) for (y in starts[1].indices) for (x in starts[0].indices) {
+            val lo = longArrayOf(starts[0][x], starts[1][y], starts[2][z])
+            val hi = longArrayOf(
+                    blockEnd(starts[0], x, image.max(0)),
+                    blockEnd(starts[1], y, image.max(1)),
+                    blockEnd(starts[2], z, image.max(2)))
+            tasks.add(Callable {
+                output.merge(Block(image, lo, hi, iso, output).triangulate())
+                null
+            })
+        }
+        for (result in pool.invokeAll(tasks)) {
+            result.get()
+        }
+        return output.toMesh()
+    }
+
+    private fun blockStarts(min: Long, max: Long, blockSize: Int): LongArray {
+        val starts = ArrayList<Long>()
+        starts.add(min - 1)
+        var start = min + blockSize
+        while (start <= max) {
+            starts.add(start)
+            start += blockSize
+        }
+        return starts.toLongArray()
+    }
+
+    private fun blockEnd(starts: LongArray, i: Int, max: Long): Long {
+        return if (i + 1 < starts.size) starts[i + 1] - 1 else max
+    }
+
+    /**
+     * Vertices and triangles of one block, with the grid edge key of every vertex and the number of blocks that share
+     * it: 1 inside the block, 2 on a block face, 4 on a block edge
+     */
+    private class BlockMesh(val keys: LongArray, val sharers: ByteArray, val vertices: FloatArray,
+                            val vertexCount: Int, val indices: IntArray, val indexCount: Int)
+
+    /** Cubes with lower corners in [lo, hi] */
+    private class Block<T : RealType<T>>(val image: RandomAccessibleInterval<T>, val lo: LongArray, val hi: LongArray,
+                                          val iso: Float, val output: Output) {
+        val sx = (hi[0] - lo[0] + 2).toInt()
+        val sy = (hi[1] - lo[1] + 2).toInt()
+        val sz = (hi[2] - lo[2] + 2).toInt()
+        val values = FloatArray(sx * sy * sz)
+
+        val vertexIndex = HashMap<Long, Int>()
+        var keys = LongArray(1024)
+        var sharers = ByteArray(1024)
+        var vertices = FloatArray(3 * 1024)
+        var vertexCount = 0
+        var indices = IntArray(3 * 1024)
+        var indexCount = 0
+
+        fun triangulate(): BlockMesh {
+            read()
+            val corner = FloatArray(8)
+            for (z in 0 until sz - 1) for (y in 0 until sy - 1) for (x in 0 until sx - 1) {
+                var inside = 0
+                for (c in 0..7) {
+                    corner[c] = values[(x + (c and 1)) + sx * ((y + (c shr 1 and 1)) + sy * (z + (c shr 2 and 1)))]
+                    if (corner[c] > iso) inside = inside or (1 shl c)
+                }
+                if (inside == 0 || inside == 255) continue
+                for (tet in TETRAHEDRA) {
+                    triangulate(tet, corner, x, y, z)
+                }
+            }
+            return BlockMesh(keys, sharers, vertices, vertexCount, indices, indexCount)
+        }
+
+        /** Reads the corners of all cubes, voxels outside the image get a value below the iso level. */
+        private fun read() {
+            Arrays.fill(values, iso - 1.0f)
+            val min = LongArray(3) { Math.max(lo[it], image.min(it)) }
+            val max = LongArray(3) { Math.min(hi[it] + 1, image.max(it)) }
+            if ((0..2).any { min[it] > max[it] }) return
+            val cursor = Views.flatIterable(Views.interval(image, min, max)).cursor()
+            val ox = (min[0] - lo[0]).toInt()
+            val oy = (min[1] - lo[1]).toInt()
+            val oz = (min[2] - lo[2]).toInt()
+            val nx = (max[0] - min[0] + 1).toInt()
+            val ny = (max[1] - min[1] + 1).toInt()
+            val nz = (max[2] - min[2] + 1).toInt()
+            for (z in 0 until nz) for (y in 0 until ny) {
+                val row = ox + sx * ((oy + y) + sy * (oz + z))
+                for (x in 0 until nx) {
+                    values[row + x] = cursor.next().realFloat
+                }
+            }
+        }
+
+        private fun triangulate(tet: IntArray, corner: FloatArray, x: Int, y: Int, z: Int) {
+            var mask = 0
+            for (i in 0..3) if (corner[tet[i]] > iso) mask = mask or (1 shl i)
+            when (Integer.bitCount(mask)) {
+                1, 3 -> {
+                    // the corner on its own side of the surface, and the other three
+                    val single = if (Integer.bitCount(mask) == 1) Integer.numberOfTrailingZeros(mask) else Integer.numberOfTrailingZeros(mask.inv() and 15)
+                    val others = (0..3).filter { it != single }
+                    triangle(tet, mask,
+                            vertex(tet, corner, x, y, z, single, others[0]),
+                            vertex(tet, corner, x, y, z, single, others[1]),
+                            vertex(tet, corner, x, y, z, single, others[2]))
+                }
+                2 -> {
+                    val ins = (0..3).filter { mask and (1 shl it) != 0 }
+                    val outs = (0..3).filter { mask and (1 shl it) == 0 }
+                    val ac = vertex(tet, corner, x, y, z, ins[0], outs[0])
+                    val ad = vertex(tet, corner, x, y, z, ins[0], outs[1])
+                    val bc = vertex(tet, corner, x, y, z, ins[1], outs[0])
+                    val bd = vertex(tet, corner, x, y, z, ins[1], outs[1])
+                    triangle(tet, mask, ac, ad, bd)
+                    triangle(tet, mask, ac, bd, bc)
+                }
+            }
+        }
+
+        /** Adds a triangle, wound so that its normal points from the inside corners to the outside corners. */
+        private fun triangle(tet: IntArray, mask: Int, v0: Int, v1: Int, v2: Int) {
+            if (v0 == v1 || v1 == v2 || v0 == v2) return
+            val ux = vertices[3 * v1] - vertices[3 * v0]
+            val uy = vertices[3 * v1 + 1] - vertices[3 * v0 + 1]
+            val uz = vertices[3 * v1 + 2] - vertices[3 * v0 + 2]
+            val wx = vertices[3 * v2] - vertices[3 * v0]
+            val wy = vertices[3 * v2 + 1] - vertices[3 * v0 + 1]
+            val wz = vertices[3 * v2 + 2] - vertices[3 * v0 + 2]
+            val nx = uy * wz - uz * wy
+            val ny = uz * wx - ux * wz
+            val nz = ux * wy - uy * wx
+            // outward direction: sum of the corner offsets weighted by -1 inside and +1 outside
+            var gx = 0.0f
+            var gy = 0.0f
+            var gz = 0.0f
+            for (i in 0..3) {
+                val sign = if (mask and (1 shl i) != 0) -1.0f else 1.0f
+                gx += sign * (tet[i] and 1)
+                gy += sign * (tet[i] shr 1 and 1)
+                gz += sign * (tet[i] shr 2 and 1)
+            }
+            if (indexCount + 3 > indices.size) indices = indices.copyOf(2 * indices.size)
+            indices[indexCount++] = v0
+            if (nx * gx + ny * gy + nz * gz >= 0.0f) {
+                indices[indexCount++] = v1
+                indices[indexCount++] = v2
+            } else {
+                indices[indexCount++] = v2
+                indices[indexCount++] = v1
+            }
+        }
+
+        /** Index of the vertex on the edge between tetrahedron corners [i] and [j], interpolated at the iso level. */
+        private fun vertex(tet: IntArray, corner: FloatArray, x: Int, y: Int, z: Int, i: Int, j: Int): Int {
+            // corners along a tetrahedron path only gain bits, so the earlier one is the lower end of the edge
+            val a = tet[Math.min(i, j)]
+            val b = tet[Math.max(i, j)]
+            val ax = lo[0] + x + (a and 1)
+            val ay = lo[1] + y + (a shr 1 and 1)
+            val az = lo[2] + z + (a shr 2 and 1)
+            val direction = a xor b
+            val key = output.pointIndex(ax, ay, az) * 8 + direction
+
+            vertexIndex[key]?.let { return it }
+
+            val t = (iso - corner[a]) / (corner[b] - corner[a])
+            if (vertexCount == keys.size) {
+                keys = keys.copyOf(2 * keys.size)
+                sharers = sharers.copyOf(2 * sharers.size)
+                vertices = vertices.copyOf(2 * vertices.size)
+            }
+            val v = vertexCount++
+            keys[v] = key
+            vertices[3 * v] = ax + t * (direction and 1)
+            vertices[3 * v + 1] = ay + t * (direction shr 1 and 1)
+            vertices[3 * v + 2] = az + t * (direction shr 2 and 1)
+            // every face plane the edge stays within doubles the blocks whose cubes contain it; edges on the outer
+            // planes of the image never cross the surface, since voxels outside are below the iso level
+            val position = longArrayOf(ax, ay, az)
+            var count = 1
+            for (d in 0..2) {
+                if (direction shr d and 1 == 0 && (position[d] == lo[d] || position[d] == hi[d] + 1)) count *= 2
+            }
+            sharers[v] = count.toByte()
+            vertexIndex[key] = v
+            return v
+        }
+    }
+
+    /** Growing direct buffers the blocks are merged into */
+    private class Output(image: Interval) {
+        private val origin = LongArray(3) { image.min(it) - 1 }
+        private val size = LongArray(3) { image.dimension(it) + 3 }
+
+        /** A vertex on block faces and the number of blocks sharing it that have not been merged yet */
+        private class SharedVertex(val index: Int, var pending: Int)
+
+        /** Vertices on block faces by grid edge key, removed once all blocks sharing them have been merged */
+        private val sharedVertices = HashMap<Long, SharedVertex>()
+        private var vertices: FloatBuffer = BufferUtils.allocateFloat(3 * 4096)
+        private var indices: IntBuffer = BufferUtils.allocateInt(3 * 4096)
+
+        fun pointIndex(x: Long, y: Long, z: Long): Long {
+            return (x - origin[0]) + size[0] * ((y - origin[1]) + size[1] * (z - origin[2]))
+        }
+
+        @Synchronized
+        fun merge(block: BlockMesh) {
+            val global = IntArray(block.vertexCount)
+            for (v in 0 until block.vertexCount) {
+                val sharers = block.sharers[v].toInt()
+                val existing = if (sharers > 1) sharedVertices[block.keys[v]] else null
+                if (existing != null) {
+                    global[v] = existing.index
+                    if (--existing.pending == 0) sharedVertices.remove(block.keys[v])
+                    continue
+                }
+                if (vertices.remaining() < 3) vertices = grow(vertices)
+                global[v] = vertices.position() / 3
+                vertices.put(block.vertices, 3 * v, 3)
+                if (sharers > 1) sharedVertices[block.keys[v]] = SharedVertex(global[v], sharers - 1)
+            }
+            for (i in 0 until block.indexCount) {
+                if (!indices.hasRemaining()) indices = grow(indices)
+                indices.put(global[block.indices[i]])
+            }
+        }
+
+        fun toMesh(): Mesh {
+            vertices.flip()
+            indices.flip()
+            val normals = BufferUtils.allocateFloat(vertices.limit())
+            MeshConverter.computeVertexNormals(vertices, indices, normals)
+
+            val mesh = Mesh()
+            mesh.vertices = vertices
+            mesh.normals = normals
+            mesh.texcoords = BufferUtils.allocateFloat(vertices.limit() / 3 * 2)
+            mesh.indices = indices
+            mesh.boundingBox = mesh.generateBoundingBox()
+            mesh.dirty = true
+            return mesh
+        }
+
+        private fun grow(buffer: FloatBuffer): FloatBuffer {
+            val grown = BufferUtils.allocateFloat(2 * buffer.capacity())
+            buffer.flip()
+            grown.put(buffer)
+            return grown
+        }
+
+        private fun grow(buffer: IntBuffer): IntBuffer {
+            val grown = BufferUtils.allocateInt(2 * buffer.capacity())
+            buffer.flip()
+            grown.put(buffer)
+            return grown
+        }
+    }
+}
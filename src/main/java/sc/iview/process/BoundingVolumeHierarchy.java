@@ -0,0 +1,360 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process;
+
+/**
+ * Bounding volume hierarchy over axis-aligned boxes, for ray queries against many items.
+ * <p>
+ * The tree is built top-down by splitting the items at the median centroid along the longest axis of their centroid
+ * bounds, so it is balanced and its depth grows with log2 of the number of items. Boxes of moving items are updated
+ * with {@link #setItemBounds}, which refits only the ancestors of the item; the topology is kept, so after large
+ * movements a rebuild gives tighter boxes.
+ * </p>
+ * <p>
+ * All arrays are flat and indexed by node, with children allocated after their parent. Queries do not allocate
+ * apart from their traversal stack and are safe to run concurrently, but not concurrently with refits.
+ * </p>
+ */
+public class BoundingVolumeHierarchy {
+    /** Default maximum number of items per leaf */
+    public static final int DEFAULT_LEAF_SIZE = 4;
+
+    /** Exact intersection of the ray with an item whose box the ray hits */
+    @FunctionalInterface
+    public interface ItemIntersection {
+        /**
+         * @param item index of the item
+         * @param boxDistance distance along the ray at which it enters the item's box, at least 0
+         * @return distance along the ray of the hit, or {@link Float#POSITIVE_INFINITY} if the item is missed
+         */
+        float intersect(int item, float boxDistance);
+    }
+
+    /** Receives every item hit by a ray in {@link #raycastAll} */
+    @FunctionalInterface
+    public interface HitVisitor {
+        void hit(int item, float distance);
+    }
+
+    private final int numItems;
+    private final float[] itemBounds;
+
+    // items sorted so that every leaf covers a contiguous range
+    private final int[] order;
+
+    private final float[] bounds;
+    private final int[] left;
+    private final int[] start;
+    private final int[] count;
+    private final int[] parent;
+    private final int[] leafOf;
+    private int numNodes;
+    private int depth;
+
+    /**
+     * @param itemBounds minX, minY, minZ, maxX, maxY, maxZ of every item. The array is copied.
+     * @param numItems number of items
+     * @param leafSize maximum number of items per leaf
+     */
+    public BoundingVolumeHierarchy(float[] itemBounds, int numItems, int leafSize) {
+        this.numItems = numItems;
+        this.itemBounds = new float[numItems * 6];
+        System.arraycopy(itemBounds, 0, this.itemBounds, 0, numItems * 6);
+
+        order = new int[numItems];
+        for( int i = 0; i < numItems; i++ ) order[i] = i;
+
+        int maxNodes = Math.max(1, 2 * numItems - 1);
+        bounds = new float[maxNodes * 6];
+        left = new int[maxNodes];
+        start = new int[maxNodes];
+        count = new int[maxNodes];
+        parent = new int[maxNodes];
+        leafOf = new int[numItems];
+
+        numNodes = 1;
+        parent[0] = -1;
+        build(0, 0, numItems, Math.max(1, leafSize), 1);
+    }
+
+    public BoundingVolumeHierarchy(float[] itemBounds, int numItems) {
+        this(itemBounds, numItems, DEFAULT_LEAF_SIZE);
+    }
+
+    public int getNumItems() {
+        return numItems;
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private void build(int node, int from, int to, int leafSize, int level) {
+        depth = Math.max(depth, level);
+        unionOfItems(node, from, to);
+        if( to - from <= leafSize ) {
+            makeLeaf(node, from, to);
+            return;
+        }
+
+        // split along the longest axis of the centroids
+        float[] cMin = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] cMax = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for( int i = from; i < to; i++ ) {
+            for( int d = 0; d < 3; d++ ) {
+                float c = centroid(order[i], d);
+                cMin[d] = Math.min(cMin[d], c);
+                cMax[d] = Math.max(cMax[d], c);
+            }
+        }
+        int axis = 0;
+        for( int d = 1; d < 3; d++ )
+            if( cMax[d] - cMin[d] > cMax[axis] - cMin[axis] ) axis = d;
+
+        int mid = (from + to) >>> 1;
+        select(from, to - 1, mid, axis);
+
+        int l = numNodes;
+        numNodes += 2;
+        left[node] = l;
+        count[node] = 0;
+        parent[l] = node;
+        parent[l + 1] = node;
+        build(l, from, mid, leafSize, level + 1);
+        build(l + 1, mid, to, leafSize, level + 1);
+    }
+
+    private void makeLeaf(int node, int from, int to) {
+        start[node] = from;
+        count[node] = to - from;
+        for( int i = from; i < to; i++ ) leafOf[order[i]] = node;
+    }
+
+    private float centroid(int item, int axis) {
+        return itemBounds[item * 6 + axis] + itemBounds[item * 6 + 3 + axis];
+    }
+
+    /** Partially sort order[lo..hi] so that order[k] holds the item with the k-th smallest centroid */
+    private void select(int lo, int hi, int k, int axis) {
+        while( hi > lo ) {
+            float pivot = centroid(order[(lo + hi) >>> 1], axis);
+            int i = lo, j = hi;
+            while( i <= j ) {
+                while( centroid(order[i], axis) < pivot ) i++;
+                while( centroid(order[j], axis) > pivot ) j--;
+                if( i <= j ) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if( k <= j ) hi = j;
+            else if( k >= i ) lo = i;
+            else return;
+        }
+    }
+
+    private void unionOfItems(int node, int from, int to) {
+        int b = node * 6;
+        for( int d = 0; d < 3; d++ ) {
+            bounds[b + d] = Float.POSITIVE_INFINITY;
+            bounds[b + 3 + d] = Float.NEGATIVE_INFINITY;
+        }
+        for( int i = from; i < to; i++ ) {
+            int item = order[i] * 6;
+            for( int d = 0; d < 3; d++ ) {
+                bounds[b + d] = Math.min(bounds[b + d], itemBounds[item + d]);
+                bounds[b + 3 + d] = Math.max(bounds[b + 3 + d], itemBounds[item + 3 + d]);
+            }
+        }
+    }
+
+    /**
+     * Update the box of one item and refit the boxes of its ancestors, stopping at the first one that does not change.
+     */
+    public void setItemBounds(int item, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int i = item * 6;
+        itemBounds[i] = minX;
+        itemBounds[i + 1] = minY;
+        itemBounds[i + 2] = minZ;
+        itemBounds[i + 3] = maxX;
+        itemBounds[i + 4] = maxY;
+        itemBounds[i + 5] = maxZ;
+
+        int node = leafOf[item];
+        unionOfItems(node, start[node], start[node] + count[node]);
+        for( node = parent[node]; node >= 0; node = parent[node] ) {
+            if( !refitNode(node) ) break;
+        }
+    }
+
+    /** @return whether the box of the node changed */
+    private boolean refitNode(int node) {
+        int b = node * 6;
+        int l = left[node] * 6;
+        int r = l + 6;
+        boolean changed = false;
+        for( int d = 0; d < 3; d++ ) {
+            float min = Math.min(bounds[l + d], bounds[r + d]);
+            float max = Math.max(bounds[l + 3 + d], bounds[r + 3 + d]);
+            if( min != bounds[b + d] || max != bounds[b + 3 + d] ) {
+                bounds[b + d] = min;
+                bounds[b + 3 + d] = max;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the distance at which the ray enters the box of the node, at least 0, or infinity if it misses it or
+     * enters it beyond maxDistance
+     */
+    private float enter(int node, float ox, float oy, float oz, float ix, float iy, float iz, float maxDistance) {
+        int b = node * 6;
+        float tx1 = (bounds[b] - ox) * ix, tx2 = (bounds[b + 3] - ox) * ix;
+        float ty1 = (bounds[b + 1] - oy) * iy, ty2 = (bounds[b + 4] - oy) * iy;
+        float tz1 = (bounds[b + 2] - oz) * iz, tz2 = (bounds[b + 5] - oz) * iz;
+        float tmin = Math.max(Math.max(near(tx1, tx2), near(ty1, ty2)), Math.max(near(tz1, tz2), 0f));
+        float tmax = Math.min(Math.min(far(tx1, tx2), far(ty1, ty2)), Math.min(far(tz1, tz2), maxDistance));
+        return tmin <= tmax ? tmin : Float.POSITIVE_INFINITY;
+    }
+
+    // Entry and exit distance of one slab. NaN arises from 0 * infinity for a ray parallel to the slab starting on its
+    // boundary, which then does not limit the ray.
+    private static float near(float t1, float t2) {
+        return t1 != t1 || t2 != t2 ? Float.NEGATIVE_INFINITY : Math.min(t1, t2);
+    }
+
+    private static float far(float t1, float t2) {
+        return t1 != t1 || t2 != t2 ? Float.POSITIVE_INFINITY : Math.max(t1, t2);
+    }
+
+    /**
+     * Find the nearest item hit by a ray.
+     *
+     * @param distance receives the distance of the hit in its first element
+     * @return the index of the nearest item hit, or -1
+     */
+    public int raycastNearest(float ox, float oy, float oz, float dx, float dy, float dz, ItemIntersection intersection, float[] distance) {
+        float ix = 1f / dx, iy = 1f / dy, iz = 1f / dz;
+        float best = Float.POSITIVE_INFINITY;
+        int bestItem = -1;
+        if( numItems == 0 ) return -1;
+
+        int[] stack = new int[2 * depth + 2];
+        float[] stackDistance = new float[2 * depth + 2];
+        int top = 0;
+        float t0 = enter(0, ox, oy, oz, ix, iy, iz, best);
+        if( t0 == Float.POSITIVE_INFINITY ) return -1;
+        stack[top] = 0;
+        stackDistance[top++] = t0;
+
+        while( top > 0 ) {
+            int node = stack[--top];
+            if( stackDistance[top] > best ) continue;
+
+            if( count[node] > 0 ) {
+                for( int i = start[node]; i < start[node] + count[node]; i++ ) {
+                    int item = order[i];
+                    float boxDistance = enterItem(item, ox, oy, oz, ix, iy, iz, best);
+                    if( boxDistance == Float.POSITIVE_INFINITY ) continue;
+                    float t = intersection.intersect(item, boxDistance);
+                    if( t < best ) {
+                        best = t;
+                        bestItem = item;
+                    }
+                }
+            } else {
+                int l = left[node];
+                float tl = enter(l, ox, oy, oz, ix, iy, iz, best);
+                float tr = enter(l + 1, ox, oy, oz, ix, iy, iz, best);
+                // push the farther child first, so the nearer one is visited first
+                if( tl <= tr ) {
+                    if( tr != Float.POSITIVE_INFINITY ) { stack[top] = l + 1; stackDistance[top++] = tr; }
+                    if( tl != Float.POSITIVE_INFINITY ) { stack[top] = l; stackDistance[top++] = tl; }
+                } else {
+                    if( tl != Float.POSITIVE_INFINITY ) { stack[top] = l; stackDistance[top++] = tl; }
+                    stack[top] = l + 1;
+                    stackDistance[top++] = tr;
+                }
+            }
+        }
+
+        if( distance != null ) distance[0] = best;
+        return bestItem;
+    }
+
+    /**
+     * Visit every item hit by a ray, in no particular order.
+     */
+    public void raycastAll(float ox, float oy, float oz, float dx, float dy, float dz, ItemIntersection intersection, HitVisitor visitor) {
+        if( numItems == 0 ) return;
+        float ix = 1f / dx, iy = 1f / dy, iz = 1f / dz;
+        float far = Float.MAX_VALUE;
+
+        int[] stack = new int[2 * depth + 2];
+        int top = 0;
+        if( enter(0, ox, oy, oz, ix, iy, iz, far) == Float.POSITIVE_INFINITY ) return;
+        stack[top++] = 0;
+
+        while( top > 0 ) {
+            int node = stack[--top];
+            if( count[node] > 0 ) {
+                for( int i = start[node]; i < start[node] + count[node]; i++ ) {
+                    int item = order[i];
+                    float boxDistance = enterItem(item, ox, oy, oz, ix, iy, iz, far);
+                    if( boxDistance == Float.POSITIVE_INFINITY ) continue;
+                    float t = intersection.intersect(item, boxDistance);
+                    if( t != Float.POSITIVE_INFINITY ) visitor.hit(item, t);
+                }
+            } else {
+                int l = left[node];
+                if( enter(l, ox, oy, oz, ix, iy, iz, far) != Float.POSITIVE_INFINITY ) stack[top++] = l;
+                if( enter(l + 1, ox, oy, oz, ix, iy, iz, far) != Float.POSITIVE_INFINITY ) stack[top++] = l + 1;
+            }
+        }
+    }
+
+    private float enterItem(int item, float ox, float oy, float oz, float ix, float iy, float iz, float maxDistance) {
+        int b = item * 6;
+        float tx1 = (itemBounds[b] - ox) * ix, tx2 = (itemBounds[b + 3] - ox) * ix;
+        float ty1 = (itemBounds[b + 1] - oy) * iy, ty2 = (itemBounds[b + 4] - oy) * iy;
+        float tz1 = (itemBounds[b + 2] - oz) * iz, tz2 = (itemBounds[b + 5] - oz) * iz;
+        float tmin = Math.max(Math.max(near(tx1, tx2), near(ty1, ty2)), Math.max(near(tz1, tz2), 0f));
+        float tmax = Math.min(Math.min(far(tx1, tx2), far(ty1, ty2)), Math.min(far(tz1, tz2), maxDistance));
+        return tmin <= tmax ? tmin : Float.POSITIVE_INFINITY;
+    }
+}
@@ -84,7 +84,7 @@ class ControlPoints {
     }
 
     private fun placeControlPointBehaviour(sciView: SciView): Behaviour {
-        return ClickBehaviour { _, _ -> placeControlPoint(sciView) }
+        return ClickBehaviour { x, y -> placeControlPoint(sciView, x, y) }
     }
 
     private fun distanceControlPointBehaviour(sciView: SciView): Behaviour {
@@ -95,7 +95,15 @@ class ControlPoints {
         }
     }
 
-    private fun placeControlPoint(sciView: SciView) {
+    /**
+     * @return the point where the ray under the mouse first hits the surface of a mesh other than the control points,
+     * or null if it hits none
+     */
+    private fun surfacePoint(sciView: SciView, x: Int, y: Int): Vector3f? {
+        return sciView.pickSurface(x, y) { it === targetPoint || it in nodes }
+    }
+
+    private fun placeControlPoint(sciView: SciView, x: Int, y: Int) {
         val controlPoint = Sphere(DEFAULT_RADIUS, DEFAULT_SEGMENTS)
         val mat = Material()
         mat.ambient = Utils.convertToVector3f(DEFAULT_COLOR)
@@ -103,7 +111,7 @@ class ControlPoints {
         controlPoint.material = mat
 
         //controlPoint.setPosition( sciView.getCamera().getTransformation().mult(targetPoint.getPosition().xyzw()) );
-        controlPoint.position = targetPoint.position
+        controlPoint.position = surfacePoint(sciView, x, y) ?: Vector3f(targetPoint.position)
         addPoint(controlPoint)
         sciView.addNode(controlPoint, false)
     }
@@ -0,0 +1,190 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process
+
+import graphics.scenery.OrientedBoundingBox
+import java.lang.ref.ReferenceQueue
+import java.lang.ref.WeakReference
+import java.nio.FloatBuffer
+import java.nio.IntBuffer
+import java.util.*
+
+/**
+ * Cache of converted mesh geometry, so that many scenery meshes can share the buffers of a few distinct shapes.
+ *
+ * Entries are keyed by the identity of their source object, which is only weakly referenced: once a source is no
+ * longer reachable its entry is dropped. The cache holds at most [maxBytes] of buffer memory and evicts the least
+ * recently used geometry beyond that. Evicting an entry does not affect meshes that already share its buffers.
+ */
+class GeometryCache(maxBytes: Long) {
+
+    /**
+     * Buffers of one converted geometry. Meshes created by [newMesh] read the same memory through their own buffer
+     * views, so they must not modify the contents.
+     */
+    class Geometry(val vertices: FloatBuffer, val normals: FloatBuffer, val texcoords: FloatBuffer, val indices: IntBuffer,
+                   private val boundingBoxMin: FloatArray?, private val boundingBoxMax: FloatArray?) {
+
+        /** Size of the buffer contents in bytes */
+        val bytes = 4L * (vertices.limit() + normals.limit() + texcoords.limit() + indices.limit())
+
+        /** Creates a new scenery mesh that shares the buffers of this geometry. */
+        fun newMesh(): graphics.scenery.Mesh {
+            val mesh = graphics.scenery.Mesh()
+            mesh.vertices = vertices.duplicate()
+            mesh.normals = normals.duplicate()
+            mesh.texcoords = texcoords.duplicate()
+            mesh.indices = indices.duplicate()
+            mesh.boundingBox = if (boundingBoxMin != null && boundingBoxMax != null) {
+                OrientedBoundingBox(mesh,
+                        boundingBoxMin[0], boundingBoxMin[1], boundingBoxMin[2],
+                        boundingBoxMax[0], boundingBoxMax[1], boundingBoxMax[2])
+            } else {
+                mesh.generateBoundingBox()
+            }
+            mesh.dirty = true
+            return mesh
+        }
+
+        companion object {
+            /** Captures the geometry of [mesh], sharing its buffers. */
+            @JvmStatic
+            fun of(mesh: graphics.scenery.Mesh): Geometry {
+                val bb = mesh.boundingBox
+                return Geometry(mesh.vertices.duplicate(), mesh.normals.duplicate(), mesh.texcoords.duplicate(), mesh.indices.duplicate(),
+                        bb?.let { floatArrayOf(it.min.x(), it.min.y(), it.min.z()) },
+                        bb?.let { floatArrayOf(it.max.x(), it.max.y(), it.max.z()) })
+            }
+        }
+    }
+
+    /** Identity key of a source object and the conversion variant, e.g. centering or winding flags */
+    private class Key(source: Any, val variant: Int, queue: ReferenceQueue<Any>?) : WeakReference<Any>(source, queue) {
+        private val hash = 31 * System.identityHashCode(source) + variant
+
+        override fun hashCode(): Int = hash
+
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is Key || other.variant != variant) return false
+            val source = get()
+            return source != null && source === other.get()
+        }
+    }
+
+    private val queue = ReferenceQueue<Any>()
+    private val entries = LinkedHashMap<Key, Geometry>(16, 0.75f, true)
+
+    /** Upper bound of buffer memory held by the cache, in bytes */
+    var maxBytes = maxBytes
+        @Synchronized set(value) {
+            field = value
+            evict()
+        }
+
+    /** Buffer memory currently held by the cache, in bytes */
+    var bytes = 0L
+        private set
+
+    var hits = 0L
+        private set
+
+    var misses = 0L
+        private set
+
+    /** Returns the cached geometry of [source] in [variant], or null. */
+    @Synchronized
+    operator fun get(source: Any, variant: Int = 0): Geometry? {
+        expunge()
+        val geometry = entries[Key(source, variant, null)]
+        if (geometry != null) hits++ else misses++
+        return geometry
+    }
+
+    /** Caches [geometry] for [source] in [variant], unless it alone exceeds [maxBytes]. */
+    @Synchronized
+    fun put(source: Any, variant: Int, geometry: Geometry) {
+        expunge()
+        if (geometry.bytes > maxBytes) return
+        entries.put(Key(source, variant, queue), geometry)?.let { bytes -= it.bytes }
+        bytes += geometry.bytes
+        evict()
+    }
+
+    /**
+     * Returns the cached geometry of [source] in [variant], computing and caching it if necessary. The computation
+     * runs outside of the cache lock, so concurrent conversions of different sources do not wait for each other.
+     */
+    fun getOrCompute(source: Any, variant: Int, compute: () -> Geometry): Geometry {
+        get(source, variant)?.let { return it }
+        val geometry = compute()
+        synchronized(this) {
+            entries[Key(source, variant, null)]?.let { return it }
+            put(source, variant, geometry)
+        }
+        return geometry
+    }
+
+    /** Drops all cached variants of [source], e.g. after it has been modified. */
+    @Synchronized
+    fun invalidate(source: Any) {
+        val it = entries.entries.iterator()
+        while (it.hasNext()) {
+            val entry = it.next()
+            if (entry.key.get() === source) {
+                bytes -= entry.value.bytes
+                it.remove()
+            }
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        bytes = 0L
+    }
+
+    /** Drops entries whose source has been garbage collected. */
+    private fun expunge() {
+        var ref = queue.poll()
+        while (ref != null) {
+            entries.remove(ref as Key)?.let { bytes -= it.bytes }
+            ref = queue.poll()
+        }
+    }
+
+    /** Drops least recently used entries until the cache fits into [maxBytes]. */
+    private fun evict() {
+        val it = entries.values.iterator()
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().bytes
+            it.remove()
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process
+
+import graphics.scenery.Mesh
+import net.imagej.mesh.Meshes
+import net.imglib2.FinalInterval
+import net.imglib2.Interval
+import net.imglib2.RandomAccessibleInterval
+import net.imglib2.converter.Converter
+import net.imglib2.converter.Converters
+import net.imglib2.type.logic.BitType
+import net.imglib2.type.numeric.RealType
+import net.imglib2.view.Views
+import org.joml.Vector3f
+import sc.iview.SciView
+import sc.iview.ui.Task
+import java.util.*
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.ForkJoinPool
+import java.util.function.Consumer
+import java.util.stream.Collectors
+import java.util.stream.IntStream
+
+/**
+ * Turns every label of a 3D label image into a scenery mesh.
+ *
+ * The bounding boxes of all labels are found in one parallel pass over the image. Each label is then meshed on its
+ * own, by running marching cubes on a thresholded view of its bounding box, so no per-label mask or [net.imglib2.roi.labeling.ImgLabeling]
+ * is ever materialized. Labels are meshed and converted to scenery buffers in parallel on a bounded fork-join pool,
+ * and the finished meshes are handed out in batches on the calling thread, e.g. to [sc.iview.SciView.addNodes].
+ */
+object LabelMesher {
+
+    /**
+     * Finds the bounding box of every non-zero label in [labels], in one pass split across slabs of the last
+     * dimension.
+     * @return bounding boxes by label, in ascending label order
+     */
+    @JvmStatic
+    fun <T : RealType<T>> boundingBoxes(labels: RandomAccessibleInterval<T>): SortedMap<Long, Interval> {
+        val n = labels.numDimensions()
+        val last = n - 1
+        val slabs = Math.max(1L, Math.min(labels.dimension(last), 4L * ForkJoinPool.getCommonPoolParallelism())).toInt()
+        val depth = labels.dimension(last)
+
+        val partial = IntStream.range(0, slabs).parallel().mapToObj { s ->
+            val min = LongArray(n) { labels.min(it) }
+            val max = LongArray(n) { labels.max(it) }
+            min[last] = labels.min(last) + depth * s / slabs
+            max[last] = labels.min(last) + depth * (s + 1) / slabs - 1
+            // [min, max] per label, stored as one array of length 2n
+            val boxes = HashMap<Long, LongArray>()
+            if (max[last] < min[last]) return@mapToObj boxes
+            val cursor = Views.flatIterable(Views.interval(labels, min, max)).localizingCursor()
+            val position = LongArray(n)
+            while (cursor.hasNext()) {
+                val label = cursor.next().realDouble.toLong()
+                if (label == 0L) continue
+                cursor.localize(position)
+                val box = boxes.getOrPut(label) { LongArray(2 * n) { k -> if (k < n) Long.MAX_VALUE else Long.MIN_VALUE } }
+                for (d in 0 until n) {
+                    if (position[d] < box[d]) box[d] = position[d]
+                    if (position[d] > box[n + d]) box[n + d] = position[d]
+                }
+            }
+            boxes
+        }.collect(Collectors.toList())
+
+        val merged = HashMap<Long, LongArray>()
+        for (boxes in partial) {
+            for ((label, box) in boxes) {
+                val target = merged[label]
+                if (target == null) {
+                    merged[label] = box
+                } else {
+                    for (d in 0 until n) {
+                        target[d] = Math.min(target[d], box[d])
+                        target[n + d] = Math.max(target[n + d], box[n + d])
+                    }
+                }
+            }
+        }
+        val result = TreeMap<Long, Interval>()
+        for ((label, box) in merged) {
+            result[label] = FinalInterval(box.copyOfRange(0, n), box.copyOfRange(n, 2 * n))
+        }
+        return result
+    }
+
+    /**
+     * Meshes a single [label] within its bounding [box]. The box is grown by one voxel so that surfaces touching it
+     * are closed. The vertices are in image coordinates and the mesh gets the material of [sc.iview.SciView.addMesh].
+     * @return the mesh, or null if marching cubes produced no triangles
+     */
+    @JvmStatic
+    fun <T : RealType<T>> mesh(labels: RandomAccessibleInterval<T>, label: Long, box: Interval): Mesh? {
+        val n = box.numDimensions()
+        val min = LongArray(n) { box.min(it) - 1 }
+        val max = LongArray(n) { box.max(it) + 1 }
+        val padded: RandomAccessibleInterval<T> = Views.interval(Views.extendZero(labels), min, max)
+        val mask = Converters.convert(padded,
+                Converter<T, BitType> { input, output -> output.set(input.realDouble.toLong() == label) }, BitType())
+
+        val ijMesh = Meshes.marchingCubes(Views.zeroMin(mask))
+        if (ijMesh.triangles().size() == 0L) return null
+
+        val scMesh = MeshConverter.toScenery(ijMesh)
+        // shift the vertices into image coordinates and keep the node at the origin, as SciView.addMesh does
+        val offset = floatArrayOf(min[0].toFloat(), min[1].toFloat(), if (n > 2) min[2].toFloat() else 0.0f)
+        val vertices = scMesh.vertices
+        for (i in 0 until vertices.limit()) {
+            vertices.put(i, vertices.get(i) + offset[i % 3])
+        }
+        scMesh.boundingBox = scMesh.generateBoundingBox()
+        scMesh.material = SciView.meshMaterial()
+        scMesh.position = Vector3f(0.0f, 0.0f, 0.0f)
+        return scMesh
+    }
+
+    /**
+     * Meshes all labels of [labels] on a pool of [parallelism] threads and passes the meshes to [consumer] in batches
+     * of up to [batchSize], on the calling thread. Meshes are named after their label, and the diffuse color of their
+     * material is derived from it. If [task] is given, its status and completion are updated, and meshing stops early once it is cancelled;
+     * meshes that are not yet passed to [consumer] by then are discarded.
+     * @return the number of labels that were meshed
+     */
+    @JvmStatic
+    fun <T : RealType<T>> meshLabels(labels: RandomAccessibleInterval<T>, parallelism: Int, batchSize: Int,
+                                     task: Task?, consumer: Consumer<List<Mesh>>): Int {
+        task?.status = "Finding labels"
+        val boxes = boundingBoxes(labels)
+        if (boxes.isEmpty() || task?.isCancelled == true) return 0
+
+        val pool = ForkJoinPool(parallelism)
+        try {
+            val completion = ExecutorCompletionService<Mesh?>(pool)
+            for ((label, box) in boxes) {
+                completion.submit {
+                    if (task?.isCancelled == true) return@submit null
+                    mesh(labels, label, box)?.also {
+                        it.name = "label $label"
+                        it.material.diffuse = labelColor(label)
+                    }
+                }
+            }
+
+            val batch = ArrayList<Mesh>(batchSize)
+            var meshed = 0
+            for (k in 0 until boxes.size) {
+                if (task?.isCancelled == true) break
+                val mesh = completion.take().get() ?: continue
+                // cancelled while waiting for the mesh
+                if (task?.isCancelled == true) break
+                batch.add(mesh)
+                meshed++
+                if (batch.size >= batchSize) {
+                    consumer.accept(ArrayList(batch))
+                    batch.clear()
+                }
+                task?.status = "Meshing label ${k + 1}/${boxes.size}"
+                task?.completion = 100.0f * (k + 1) / boxes.size
+            }
+            // nothing is handed out after the task was cancelled
+            if (batch.isNotEmpty() && task?.isCancelled != true) {
+                consumer.accept(batch)
+            }
+            return meshed
+        } finally {
+            pool.shutdownNow()
+        }
+    }
+
+    /** A color that is stable for each label and differs between neighbouring labels */
+    private fun labelColor(label: Long): Vector3f {
+        val random = Random(label * -7046029254386353131L)
+        return Vector3f(0.2f + 0.8f * random.nextFloat(), 0.2f + 0.8f * random.nextFloat(), 0.2f + 0.8f * random.nextFloat())
+    }
+}
@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Triangle-level {@link BoundingVolumeHierarchy} of a mesh, for exact ray hits.
+ * <p>
+ * Built from the vertex and index buffers as they are when the hierarchy is created; {@link #isBuiltFrom} tells
+ * whether it still matches a mesh whose buffers may have been swapped since.
+ * </p>
+ */
+public class MeshBVH {
+    private final FloatBuffer vertices;
+    private final IntBuffer indices;
+    private final int verticesLimit;
+    private final int indicesLimit;
+    private final int numTriangles;
+    private final BoundingVolumeHierarchy hierarchy;
+
+    // triangle corners, 9 floats per triangle
+    private final float[] corners;
+
+    /**
+     * @param vertices xyz coordinates, read from index 0 to the limit
+     * @param indices three vertex indices per triangle, or null/empty for a non-indexed mesh
+     */
+    public MeshBVH(FloatBuffer vertices, IntBuffer indices) {
+        this.vertices = vertices;
+        this.indices = indices;
+        verticesLimit = vertices.limit();
+        indicesLimit = indices == null ? 0 : indices.limit();
+
+        boolean indexed = indicesLimit > 0;
+        numTriangles = indexed ? indicesLimit / 3 : verticesLimit / 9;
+        corners = new float[numTriangles * 9];
+        float[] bounds = new float[numTriangles * 6];
+        for( int t = 0; t < numTriangles; t++ ) {
+            for( int c = 0; c < 3; c++ ) {
+                int v = indexed ? indices.get(t * 3 + c) : t * 3 + c;
+                for( int d = 0; d < 3; d++ ) {
+                    float x = vertices.get(v * 3 + d);
+                    corners[t * 9 + c * 3 + d] = x;
+                    if( c == 0 ) {
+                        bounds[t * 6 + d] = x;
+                        bounds[t * 6 + 3 + d] = x;
+                    } else {
+                        bounds[t * 6 + d] = Math.min(bounds[t * 6 + d], x);
+                        bounds[t * 6 + 3 + d] = Math.max(bounds[t * 6 + 3 + d], x);
+                    }
+                }
+            }
+        }
+        hierarchy = new BoundingVolumeHierarchy(bounds, numTriangles);
+    }
+
+    public int getTriangleCount() {
+        return numTriangles;
+    }
+
+    /**
+     * @return whether this hierarchy was built from exactly these buffers, with the same limits
+     */
+    public boolean isBuiltFrom(FloatBuffer vertices, IntBuffer indices) {
+        return this.vertices == vertices && verticesLimit == vertices.limit()
+                && (indices == null ? indicesLimit == 0 : this.indices == indices && indicesLimit == indices.limit());
+    }
+
+    /**
+     * @return the distance along the ray (in units of the direction's length) of the nearest triangle hit from either
+     * side, or {@link Float#POSITIVE_INFINITY}
+     */
+    public float raycast(float ox, float oy, float oz, float dx, float dy, float dz) {
+        float[] distance = new float[1];
+        int triangle = hierarchy.raycastNearest(ox, oy, oz, dx, dy, dz,
+                (t, boxDistance) -> intersectTriangle(t, ox, oy, oz, dx, dy, dz), distance);
+        return triangle < 0 ? Float.POSITIVE_INFINITY : distance[0];
+    }
+
+    /** Moller-Trumbore ray-triangle intersection */
+    private float intersectTriangle(int t, float ox, float oy, float oz, float dx, float dy, float dz) {
+        int c = t * 9;
+        float e1x = corners[c + 3] - corners[c], e1y = corners[c + 4] - corners[c + 1], e1z = corners[c + 5] - corners[c + 2];
+        float e2x = corners[c + 6] - corners[c], e2y = corners[c + 7] - corners[c + 1], e2z = corners[c + 8] - corners[c + 2];
+        float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if( det == 0f ) return Float.POSITIVE_INFINITY;
+        float inv = 1f / det;
+        float sx = ox - corners[c], sy = oy - corners[c + 1], sz = oz - corners[c + 2];
+        float u = (sx * px + sy * py + sz * pz) * inv;
+        if( u < 0f || u > 1f ) return Float.POSITIVE_INFINITY;
+        float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * inv;
+        if( v < 0f || u + v > 1f ) return Float.POSITIVE_INFINITY;
+        float distance = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        return distance >= 0f ? distance : Float.POSITIVE_INFINITY;
+    }
+}
@@ -29,10 +29,15 @@
 package sc.iview.process
 
 import graphics.scenery.BufferUtils.Companion.allocateFloat
+import graphics.scenery.BufferUtils.Companion.allocateInt
 import net.imagej.mesh.Mesh
 import net.imagej.mesh.Meshes
 import net.imagej.mesh.nio.BufferMesh
+import sc.iview.LevelOfDetail
+import java.nio.ByteOrder
 import java.nio.FloatBuffer
+import java.nio.IntBuffer
+import java.util.stream.IntStream
 
 /**
  * Conversion routines between ImageJ and Scenery `Mesh` objects.
@@ -42,66 +47,68 @@ import java.nio.FloatBuffer
  * @author Ulrik Guenther
  */
 object MeshConverter {
+    /** Number of vertices or triangles processed by one parallel task */
+    private const val RANGE_SIZE = 1 shl 16
+
+    /** Metadata key of the triangle normals [toImageJ] caches on a scenery mesh */
+    const val TRIANGLE_NORMALS_KEY = "sciview.TriangleNormals"
+
+    /**
+     * Geometry shared by [toScenerySharing], holding up to 256 MB of buffers.
+     */
+    @JvmStatic
+    val geometryCache = GeometryCache(256L shl 20)
 
     /**
      * Note that flipWindingOrder is needed for MarchingCubes meshes. This flips the order of vertices.
+     *
+     * If [mesh] is a [BufferMesh] with direct, native-order buffers and neither [center] nor [flipWindingOrder] is
+     * requested, the scenery mesh adopts views of its buffers without copying. Otherwise the buffers are copied once.
+     * Vertex normals are taken from [mesh] unless [recomputeNormals] is set or [mesh] has none, in which case they
+     * are computed with [computeVertexNormals]. Normals, centering and winding flips run in parallel.
      */
     @JvmOverloads @JvmStatic
-    fun toScenery(mesh: Mesh, center: Boolean = false, flipWindingOrder: Boolean = false): graphics.scenery.Mesh {
+    fun toScenery(mesh: Mesh, center: Boolean = false, flipWindingOrder: Boolean = false,
+                  recomputeNormals: Boolean = false): graphics.scenery.Mesh {
         val vCount = Int.MAX_VALUE.toLong().coerceAtMost(mesh.vertices().size()).toInt()
         val tCount = Int.MAX_VALUE.toLong().coerceAtMost(mesh.triangles().size()).toInt()
 
-        // Convert the mesh to an NIO-backed one.
-        val bufferMesh = BufferMesh(vCount, tCount)
-        Meshes.calculateNormals(mesh, bufferMesh) // Force recalculation of normals because not all meshes are safe
-
-//        if( mesh instanceof BufferMesh ) {
-//            // TODO: Check that BufferMesh capacities & positions are compatible.
-//            // Need to double check what Scenery assumes about the given buffers.
-//            bufferMesh = ( BufferMesh ) mesh;
-//        } else {
-//            // Copy the mesh into a BufferMesh.
-//            bufferMesh = new BufferMesh( vCount, tCount );
-//            Meshes.copy( mesh, bufferMesh );
-//        }
-
-        // Extract buffers from the BufferMesh.
-        val verts = bufferMesh.vertices().verts()
-        val vNormals = bufferMesh.vertices().normals()
-        val texCoords = bufferMesh.vertices().texCoords()
-        val indices = bufferMesh.triangles().indices()
-
-        // Prepare the buffers for Scenery to ingest them.
-        // Sets capacity to equal position, then resets position to 0.
-        verts.flip()
-        if (center) { // Do 2 passes, 1 to find center, and the other to shift
-            val v = floatArrayOf(0.0f, 0.0f, 0.0f) // used for tally of coords and mean
-            var coord = 0 // coordinate index
-            var n = 0 // num verts
-            while (verts.hasRemaining()) {
-                v[coord] += verts.get()
-                if (coord == 0) n++
-                coord = (coord + 1) % 3
-            }
-            verts.flip()
-            // Take average
-            for (k in 0..2) {
-                v[k] /= n.toFloat()
-            }
-            // Center shift
-            coord = 0
-            var value: Float
-            while (verts.hasRemaining()) {
-                value = verts.get()
-                // Write
-                verts.put(verts.position() - 1, value - v[coord].toFloat())
-                coord = (coord + 1) % 3
+        val verts: FloatBuffer
+        var vNormals: FloatBuffer
+        val texCoords: FloatBuffer
+        val indices: IntBuffer
+        var ownsNormals = true
+        if (mesh is BufferMesh && isSceneryCompatible(mesh)) {
+            // Adopt the buffers as they are, or copy them in bulk if they are about to be modified.
+            val copy = center || flipWindingOrder
+            verts = view(mesh.vertices().verts(), 3 * vCount, copy)
+            val normals = mesh.vertices().normals()
+            vNormals = view(normals, 3 * vCount, copy)
+            texCoords = view(mesh.vertices().texCoords(), 2 * vCount, copy)
+            indices = view(mesh.triangles().indices(), 3 * tCount)
+            ownsNormals = copy || normals.capacity() < 3 * vCount
+        } else {
+            // Copy the mesh into a BufferMesh.
+            val bufferMesh = BufferMesh(vCount, tCount)
+            Meshes.copy(mesh, bufferMesh)
+
+            // Sets capacity to equal position, then resets position to 0.
+            verts = bufferMesh.vertices().verts().also { it.flip() }
+            vNormals = bufferMesh.vertices().normals().also { it.flip() }
+            texCoords = bufferMesh.vertices().texCoords().also { it.flip() }
+            indices = bufferMesh.triangles().indices().also { it.flip() }
+        }
+
+        if (recomputeNormals || !hasNonZero(vNormals)) {
+            // never write into the normals of an adopted BufferMesh
+            if (!ownsNormals) {
+                vNormals = allocateFloat(3 * vCount)
             }
-            verts.flip()
+            computeVertexNormals(verts, indices, vNormals)
+        }
+        if (center) {
+            centerVertices(verts)
         }
-        vNormals.flip()
-        texCoords.flip()
-        indices.flip()
         if (flipWindingOrder) {
             flipVectorBuffer(verts, 3)
             flipVectorBuffer(vNormals, 3)
@@ -119,61 +126,244 @@ object MeshConverter {
         return scMesh
     }
 
+    /** Scenery uploads buffers directly, so they have to be direct and in native byte order. */
+    private fun isSceneryCompatible(mesh: BufferMesh): Boolean {
+        val buffers = listOf(mesh.vertices().verts(), mesh.vertices().normals(), mesh.vertices().texCoords(), mesh.triangles().indices())
+        return buffers.all { it.isDirect && it.order() == ByteOrder.nativeOrder() }
+    }
+
+    /**
+     * Returns the first [length] elements of [buffer] as a new view, or as a new direct copy if [copy] is set or
+     * [buffer] is shorter, e.g. the empty normals or texture coordinates of a mesh that has none. Missing elements of
+     * the copy are zero.
+     */
+    private fun view(buffer: FloatBuffer, length: Int, copy: Boolean): FloatBuffer {
+        val view = buffer.duplicate()
+        view.position(0)
+        val available = Math.min(length, buffer.capacity())
+        view.limit(available)
+        if (!copy && available == length) return view
+        val target = allocateFloat(length)
+        target.put(view)
+        target.clear()
+        return target
+    }
+
+    private fun view(buffer: IntBuffer, length: Int): IntBuffer {
+        val view = buffer.duplicate()
+        view.position(0)
+        view.limit(length)
+        return view
+    }
+
+    /** Runs [action] on consecutive ranges of [0, count) in parallel. */
+    private fun forEachRange(count: Int, action: (Int, Int) -> Unit) {
+        val ranges = (count + RANGE_SIZE - 1) / RANGE_SIZE
+        IntStream.range(0, ranges).parallel().forEach { r ->
+            action(r * RANGE_SIZE, Math.min(count, (r + 1) * RANGE_SIZE))
+        }
+    }
+
+    private fun hasNonZero(buffer: FloatBuffer): Boolean {
+        val ranges = (buffer.limit() + RANGE_SIZE - 1) / RANGE_SIZE
+        return IntStream.range(0, ranges).parallel().anyMatch { r ->
+            (r * RANGE_SIZE until Math.min(buffer.limit(), (r + 1) * RANGE_SIZE)).any { buffer[it] != 0.0f }
+        }
+    }
+
+    /** Shifts all vertices so that their mean is at the origin. */
+    private fun centerVertices(verts: FloatBuffer) {
+        val numVerts = verts.limit() / 3
+        if (numVerts == 0) return
+        val ranges = (numVerts + RANGE_SIZE - 1) / RANGE_SIZE
+        val sums = Array(ranges) { DoubleArray(3) }
+        forEachRange(numVerts) { start, end ->
+            val sum = sums[start / RANGE_SIZE]
+            for (v in start until end) {
+                for (k in 0..2) sum[k] += verts[3 * v + k].toDouble()
+            }
+        }
+        val mean = FloatArray(3) { k -> (sums.sumByDouble { it[k] } / numVerts).toFloat() }
+        forEachRange(numVerts) { start, end ->
+            for (v in start until end) {
+                for (k in 0..2) verts.put(3 * v + k, verts[3 * v + k] - mean[k])
+            }
+        }
+    }
+
+    /**
+     * Like [toScenery], but each ImageJ mesh is converted only once per combination of flags: meshes returned for
+     * the same [mesh] share their vertex, normal, texture coordinate and index buffers through [geometryCache].
+     * The converted geometry is not updated if [mesh] is modified afterwards, use [GeometryCache.invalidate] for that.
+     */
+    @JvmOverloads @JvmStatic
+    fun toScenerySharing(mesh: Mesh, center: Boolean = false, flipWindingOrder: Boolean = false): graphics.scenery.Mesh {
+        val variant = (if (center) 1 else 0) or (if (flipWindingOrder) 2 else 0)
+        val geometry = geometryCache.getOrCompute(mesh, variant) {
+            GeometryCache.Geometry.of(toScenery(mesh, center, flipWindingOrder))
+        }
+        return geometry.newMesh()
+    }
+
+    /**
+     * Creates a new scenery mesh that shares the vertex, normal, texture coordinate and index buffers of [template].
+     */
+    @JvmStatic
+    fun shareGeometry(template: graphics.scenery.Mesh): graphics.scenery.Mesh {
+        return GeometryCache.Geometry.of(template).newMesh()
+    }
+
     private fun flipVectorBuffer(buffer: FloatBuffer, vectorSize: Int) {
         val stepSize = vectorSize * vectorSize
-        var index = 0
-        val tmp = FloatArray(stepSize)
-        while (buffer.hasRemaining()) {
-            buffer[tmp, 0, stepSize]
-            for (i in vectorSize - 1 downTo 0) {
-                for (j in 0 until vectorSize) {
-                    buffer.put(index + vectorSize * i + j, tmp[vectorSize * (vectorSize - (i + 1)) + j])
+        forEachRange(buffer.limit() / stepSize) { start, end ->
+            val tmp = FloatArray(stepSize)
+            for (step in start until end) {
+                val index = step * stepSize
+                for (k in 0 until stepSize) tmp[k] = buffer[index + k]
+                for (i in vectorSize - 1 downTo 0) {
+                    for (j in 0 until vectorSize) {
+                        buffer.put(index + vectorSize * i + j, tmp[vectorSize * (vectorSize - (i + 1)) + j])
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute area-weighted vertex normals of an indexed triangle mesh into [normals],
+     * which must hold 3 floats per vertex. Buffer positions are left untouched.
+     *
+     * Triangle normals are computed in parallel, then every vertex sums the normals of its triangles in index order,
+     * so the result does not depend on the number of threads.
+     */
+    @JvmStatic
+    fun computeVertexNormals(verts: FloatBuffer, indices: IntBuffer, normals: FloatBuffer) {
+        val numVerts = verts.limit() / 3
+        val numTriangles = indices.limit() / 3
+
+        val triangleNormals = FloatBuffer.allocate(3 * numTriangles)
+        computeTriangleNormals(verts, indices, triangleNormals, false)
+
+        // Triangles incident to each vertex, in ascending order: incident[offsets[v] until offsets[v + 1]]
+        val offsets = IntArray(numVerts + 1)
+        for (i in 0 until 3 * numTriangles) {
+            offsets[indices[i] + 1]++
+        }
+        for (v in 0 until numVerts) {
+            offsets[v + 1] += offsets[v]
+        }
+        val fill = offsets.copyOf(numVerts)
+        val incident = IntArray(3 * numTriangles)
+        for (i in 0 until 3 * numTriangles) {
+            incident[fill[indices[i]]++] = i / 3
+        }
+
+        forEachRange(numVerts) { start, end ->
+            for (v in start until end) {
+                var nx = 0.0f
+                var ny = 0.0f
+                var nz = 0.0f
+                for (k in offsets[v] until offsets[v + 1]) {
+                    val t = 3 * incident[k]
+                    nx += triangleNormals[t]
+                    ny += triangleNormals[t + 1]
+                    nz += triangleNormals[t + 2]
+                }
+                val length = Math.sqrt((nx * nx + ny * ny + nz * nz).toDouble()).toFloat()
+                if (length > 0.0f) {
+                    nx /= length
+                    ny /= length
+                    nz /= length
                 }
+                normals.put(3 * v, nx)
+                normals.put(3 * v + 1, ny)
+                normals.put(3 * v + 2, nz)
             }
-            index += stepSize
         }
-        buffer.flip()
     }
 
+    /**
+     * Compute the unit normals of the triangles of an indexed mesh into [normals], which must hold 3 floats per
+     * triangle. Normals of degenerate triangles are zero. Buffer positions are left untouched.
+     */
+    @JvmStatic
+    fun computeTriangleNormals(verts: FloatBuffer, indices: IntBuffer, normals: FloatBuffer) {
+        computeTriangleNormals(verts, indices, normals, true)
+    }
+
+    /** Cross products of the triangle edges, area-weighted unless [normalize] is set. */
+    private fun computeTriangleNormals(verts: FloatBuffer, indices: IntBuffer, normals: FloatBuffer, normalize: Boolean) {
+        forEachRange(indices.limit() / 3) { start, end ->
+            for (t in start until end) {
+                val v0 = 3 * indices[3 * t]
+                val v1 = 3 * indices[3 * t + 1]
+                val v2 = 3 * indices[3 * t + 2]
+                val v10x = verts[v1] - verts[v0]
+                val v10y = verts[v1 + 1] - verts[v0 + 1]
+                val v10z = verts[v1 + 2] - verts[v0 + 2]
+                val v20x = verts[v2] - verts[v0]
+                val v20y = verts[v2 + 1] - verts[v0 + 1]
+                val v20z = verts[v2 + 2] - verts[v0 + 2]
+                var nx = v10y * v20z - v10z * v20y
+                var ny = v10z * v20x - v10x * v20z
+                var nz = v10x * v20y - v10y * v20x
+                if (normalize) {
+                    val length = Math.sqrt((nx * nx + ny * ny + nz * nz).toDouble()).toFloat()
+                    if (length > 0.0f) {
+                        nx /= length
+                        ny /= length
+                        nz /= length
+                    }
+                }
+                normals.put(3 * t, nx)
+                normals.put(3 * t + 1, ny)
+                normals.put(3 * t + 2, nz)
+            }
+        }
+    }
+
+    /** Triangle normals cached on a scenery mesh by [toImageJ], valid while the mesh keeps the same buffers */
+    private class CachedTriangleNormals(val vertices: FloatBuffer, val indices: IntBuffer, val normals: FloatBuffer)
+
+    /**
+     * Converts a scenery mesh into an ImageJ mesh that shares its vertex, normal, texture coordinate and index
+     * buffers. Meshes without indices are treated as consecutive vertex triples.
+     *
+     * Triangle normals are computed in parallel and cached in the metadata of [scMesh] under
+     * [TRIANGLE_NORMALS_KEY], so converting the same mesh again is free as long as its vertex and index buffers have
+     * not been replaced. Remove that entry after modifying the buffers in place.
+     */
     @JvmStatic
     fun toImageJ(scMesh: graphics.scenery.Mesh): Mesh {
-        // Extract buffers from Scenery mesh.
-        val verts = scMesh.vertices
-        val vNormals = scMesh.normals
-        val texCoords = scMesh.texcoords
-        val indices = scMesh.indices
-
-        // Compute the triangle normals.
-        val tNormals =  //
-                allocateFloat(indices.capacity())
-        var i = 0
-        while (i < indices.position()) {
-            val v0 = indices[i]
-            val v1 = indices[i + 1]
-            val v2 = indices[i + 2]
-            val v0x = verts[v0]
-            val v0y = verts[v0 + 1]
-            val v0z = verts[v0 + 2]
-            val v1x = verts[v1]
-            val v1y = verts[v1 + 1]
-            val v1z = verts[v1 + 2]
-            val v2x = verts[v2]
-            val v2y = verts[v2 + 1]
-            val v2z = verts[v2 + 2]
-            val v10x = v1x - v0x
-            val v10y = v1y - v0y
-            val v10z = v1z - v0z
-            val v20x = v2x - v0x
-            val v20y = v2y - v0y
-            val v20z = v2z - v0z
-            val nx = v10y * v20z - v10z * v20y
-            val ny = v10z * v20x - v10x * v20z
-            val nz = v10x * v20y - v10y * v20x
-            tNormals.put(nx)
-            tNormals.put(ny)
-            tNormals.put(nz)
-            i += 3
-        }
-        return BufferMesh(verts, vNormals, texCoords, indices, tNormals)
+        // Extract buffers from Scenery mesh, at full resolution if it shows a level of detail.
+        val geometry = LevelOfDetail.fullResolution(scMesh)
+        val verts = view(geometry.vertices, geometry.vertices.limit(), false)
+        val vNormals = view(geometry.normals, geometry.normals.limit(), false)
+        val texCoords = view(geometry.texcoords, geometry.texcoords.limit(), false)
+        val indices = if (geometry.indices.limit() > 0) {
+            view(geometry.indices, geometry.indices.limit())
+        } else {
+            sequentialIndices(verts.limit() / 9 * 3)
+        }
+
+        val cached = scMesh.metadata[TRIANGLE_NORMALS_KEY] as? CachedTriangleNormals
+        val tNormals = if (cached != null && cached.vertices === geometry.vertices && cached.indices === geometry.indices
+                && cached.normals.limit() == indices.limit()) {
+            cached.normals
+        } else {
+            val normals = allocateFloat(indices.limit())
+            computeTriangleNormals(verts, indices, normals)
+            scMesh.metadata[TRIANGLE_NORMALS_KEY] = CachedTriangleNormals(geometry.vertices, geometry.indices, normals)
+            normals
+        }
+        return BufferMesh(verts, vNormals, texCoords, indices, view(tNormals, tNormals.limit(), false))
+    }
+
+    private fun sequentialIndices(count: Int): IntBuffer {
+        val indices = allocateInt(count)
+        for (i in 0 until count) {
+            indices.put(i, i)
+        }
+        return indices
     }
-}
\ No newline at end of file
+}
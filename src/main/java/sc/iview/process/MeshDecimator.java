@@ -0,0 +1,517 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Simplifies triangle meshes by quadric edge collapse (Garland and Heckbert, "Surface Simplification Using Quadric
+ * Error Metrics", 1997).
+ * <p>
+ * Vertices are welded by position first, so meshes without indices or with split normals simplify as one surface.
+ * Every vertex accumulates the area-weighted planes of its triangles, and open boundaries are kept in place by
+ * additional planes perpendicular to them. Edges are collapsed cheapest first to the position that minimizes the
+ * summed quadric, skipping collapses that would flip a triangle or make the surface non-manifold.
+ * </p>
+ */
+public class MeshDecimator {
+    /** Weight of the planes that keep open boundaries in place, relative to the surface planes */
+    private static final double BOUNDARY_WEIGHT = 100.0;
+
+    /** A simplified mesh, vertices and indices in direct buffers */
+    public static class Result {
+        public final FloatBuffer vertices;
+        public final IntBuffer indices;
+
+        Result(FloatBuffer vertices, IntBuffer indices) {
+            this.vertices = vertices;
+            this.indices = indices;
+        }
+
+        public int getTriangleCount() {
+            return indices.limit() / 3;
+        }
+    }
+
+    /**
+     * Simplify a triangle mesh to at most {@code targetTriangles} triangles, or as close to it as possible without
+     * breaking the surface.
+     *
+     * @param vertices xyz coordinates, read from index 0 to the limit
+     * @param indices three vertex indices per triangle, or null/empty for a non-indexed mesh
+     */
+    public static Result decimate(FloatBuffer vertices, IntBuffer indices, int targetTriangles) {
+        Collapser collapser = new Collapser(vertices, indices);
+        collapser.run(targetTriangles);
+        return collapser.result();
+    }
+
+    /** An edge collapse, valid as long as neither end has changed since it was computed */
+    private static class Candidate implements Comparable<Candidate> {
+        final int u, v;
+        final int versionU, versionV;
+        final double cost;
+        final double x, y, z;
+
+        Candidate(int u, int v, int versionU, int versionV, double cost, double x, double y, double z) {
+            this.u = u;
+            this.v = v;
+            this.versionU = versionU;
+            this.versionV = versionV;
+            this.cost = cost;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            return Double.compare(cost, o.cost);
+        }
+    }
+
+    private static class Collapser {
+        final double[] positions;
+        final boolean[] vertexAlive;
+        final int[] versions;
+        /** Symmetric 4x4 quadric per vertex: aa, ab, ac, ad, bb, bc, bd, cc, cd, dd */
+        final double[] quadrics;
+
+        final int[] triangles;
+        final boolean[] triangleAlive;
+        int liveTriangles;
+
+        /** Triangles around each vertex, including triangles that have collapsed since */
+        final int[][] around;
+        final int[] aroundCount;
+
+        final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+
+        /** Scratch space for neighbour queries and collapse costs */
+        final int[] marks;
+        int currentStamp;
+        int[] neighbourList = new int[32];
+        int neighbourCount;
+        final double[] quadric = new double[10];
+
+        Collapser(FloatBuffer vertices, IntBuffer indices) {
+            final boolean indexed = indices != null && indices.limit() > 0;
+            final int corners = indexed ? indices.limit() : vertices.limit() / 3;
+
+            // weld vertices with identical positions
+            Map<Position, Integer> welded = new HashMap<>();
+            int[] corner = new int[corners];
+            double[] weldedPositions = new double[3 * Math.max(1, vertices.limit() / 3)];
+            for( int i = 0; i < corners; i++ ) {
+                int v = indexed ? indices.get(i) : i;
+                Position p = new Position(vertices.get(3 * v), vertices.get(3 * v + 1), vertices.get(3 * v + 2));
+                Integer w = welded.get(p);
+                if( w == null ) {
+                    w = welded.size();
+                    welded.put(p, w);
+                    weldedPositions[3 * w] = p.x;
+                    weldedPositions[3 * w + 1] = p.y;
+                    weldedPositions[3 * w + 2] = p.z;
+                }
+                corner[i] = w;
+            }
+            final int n = welded.size();
+            positions = weldedPositions;
+            vertexAlive = new boolean[n];
+            versions = new int[n];
+            quadrics = new double[10 * n];
+            marks = new int[n];
+
+            // drop triangles that are degenerate after welding
+            int[] kept = new int[corners];
+            int count = 0;
+            for( int t = 0; t + 2 < corners; t += 3 ) {
+                int a = corner[t], b = corner[t + 1], c = corner[t + 2];
+                if( a == b || b == c || a == c )
+                    continue;
+                kept[count++] = a;
+                kept[count++] = b;
+                kept[count++] = c;
+            }
+            triangles = Arrays.copyOf(kept, count);
+            liveTriangles = count / 3;
+            triangleAlive = new boolean[liveTriangles];
+            Arrays.fill(triangleAlive, true);
+
+            aroundCount = new int[n];
+            for( int i : triangles )
+                aroundCount[i]++;
+            around = new int[n][];
+            for( int v = 0; v < n; v++ ) {
+                around[v] = new int[aroundCount[v]];
+                aroundCount[v] = 0;
+            }
+            for( int i = 0; i < triangles.length; i++ ) {
+                int v = triangles[i];
+                around[v][aroundCount[v]++] = i / 3;
+                vertexAlive[v] = true;
+            }
+
+            initQuadrics();
+            for( int v = 0; v < n; v++ ) {
+                neighbours(v);
+                for( int i = 0; i < neighbourCount; i++ )
+                    if( neighbourList[i] > v )
+                        push(v, neighbourList[i]);
+            }
+        }
+
+        private void initQuadrics() {
+            double[] normal = new double[3];
+            for( int t = 0; t < triangleAlive.length; t++ ) {
+                int a = triangles[3 * t], b = triangles[3 * t + 1], c = triangles[3 * t + 2];
+                double area = normal(a, b, c, positions, normal);
+                if( area == 0 )
+                    continue;
+                double d = -dot(normal, a);
+                for( int v : new int[] { a, b, c } )
+                    addPlane(v, normal[0], normal[1], normal[2], d, area);
+
+                // planes through boundary edges, perpendicular to the triangle
+                for( int k = 0; k < 3; k++ ) {
+                    int p = triangles[3 * t + k];
+                    int q = triangles[3 * t + (k + 1) % 3];
+                    if( !isBoundary(p, q) )
+                        continue;
+                    double ex = positions[3 * q] - positions[3 * p];
+                    double ey = positions[3 * q + 1] - positions[3 * p + 1];
+                    double ez = positions[3 * q + 2] - positions[3 * p + 2];
+                    double px = ey * normal[2] - ez * normal[1];
+                    double py = ez * normal[0] - ex * normal[2];
+                    double pz = ex * normal[1] - ey * normal[0];
+                    double length = Math.sqrt(px * px + py * py + pz * pz);
+                    if( length == 0 )
+                        continue;
+                    px /= length;
+                    py /= length;
+                    pz /= length;
+                    double pd = -(px * positions[3 * p] + py * positions[3 * p + 1] + pz * positions[3 * p + 2]);
+                    double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+                    addPlane(p, px, py, pz, pd, weight);
+                    addPlane(q, px, py, pz, pd, weight);
+                }
+            }
+        }
+
+        /** An edge is on the boundary if only one live triangle contains both of its ends. */
+        private boolean isBoundary(int p, int q) {
+            int shared = 0;
+            for( int i = 0; i < aroundCount[p]; i++ ) {
+                int t = around[p][i];
+                if( triangleAlive[t] && contains(t, q) )
+                    shared++;
+            }
+            return shared == 1;
+        }
+
+        private void addPlane(int v, double a, double b, double c, double d, double weight) {
+            int q = 10 * v;
+            quadrics[q] += weight * a * a;
+            quadrics[q + 1] += weight * a * b;
+            quadrics[q + 2] += weight * a * c;
+            quadrics[q + 3] += weight * a * d;
+            quadrics[q + 4] += weight * b * b;
+            quadrics[q + 5] += weight * b * c;
+            quadrics[q + 6] += weight * b * d;
+            quadrics[q + 7] += weight * c * c;
+            quadrics[q + 8] += weight * c * d;
+            quadrics[q + 9] += weight * d * d;
+        }
+
+        /** Computes the collapse of edge (u, v) and queues it. */
+        private void push(int u, int v) {
+            double[] q = quadric;
+            for( int i = 0; i < 10; i++ )
+                q[i] = quadrics[10 * u + i] + quadrics[10 * v + i];
+
+            // the optimal position solves the upper 3x3 block of the quadric, if it is well conditioned
+            double det = q[0] * (q[4] * q[7] - q[5] * q[5]) - q[1] * (q[1] * q[7] - q[5] * q[2]) + q[2] * (q[1] * q[5] - q[4] * q[2]);
+            double scale = q[0] * q[4] * q[7];
+            double x, y, z, cost;
+            if( Math.abs(det) > 1e-10 * Math.max(scale, 1e-30) ) {
+                x = -(q[3] * (q[4] * q[7] - q[5] * q[5]) - q[1] * (q[6] * q[7] - q[5] * q[8]) + q[2] * (q[6] * q[5] - q[4] * q[8])) / det;
+                y = -(q[0] * (q[6] * q[7] - q[8] * q[5]) - q[3] * (q[1] * q[7] - q[5] * q[2]) + q[2] * (q[1] * q[8] - q[6] * q[2])) / det;
+                z = -(q[0] * (q[4] * q[8] - q[5] * q[6]) - q[1] * (q[1] * q[8] - q[6] * q[2]) + q[3] * (q[1] * q[5] - q[4] * q[2])) / det;
+                cost = error(q, x, y, z);
+            } else {
+                // otherwise take the best of the two ends and the midpoint
+                x = positions[3 * u];
+                y = positions[3 * u + 1];
+                z = positions[3 * u + 2];
+                cost = error(q, x, y, z);
+                for( int k = 1; k <= 2; k++ ) {
+                    double cx = k == 1 ? positions[3 * v] : 0.5 * (positions[3 * u] + positions[3 * v]);
+                    double cy = k == 1 ? positions[3 * v + 1] : 0.5 * (positions[3 * u + 1] + positions[3 * v + 1]);
+                    double cz = k == 1 ? positions[3 * v + 2] : 0.5 * (positions[3 * u + 2] + positions[3 * v + 2]);
+                    double c = error(q, cx, cy, cz);
+                    if( c < cost ) {
+                        cost = c;
+                        x = cx;
+                        y = cy;
+                        z = cz;
+                    }
+                }
+            }
+            queue.add(new Candidate(u, v, versions[u], versions[v], cost, x, y, z));
+        }
+
+        private static double error(double[] q, double x, double y, double z) {
+            return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+                    + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+                    + q[7] * z * z + 2 * q[8] * z
+                    + q[9];
+        }
+
+        void run(int targetTriangles) {
+            while( liveTriangles > targetTriangles ) {
+                Candidate c = queue.poll();
+                if( c == null )
+                    break;
+                if( !vertexAlive[c.u] || !vertexAlive[c.v] || versions[c.u] != c.versionU || versions[c.v] != c.versionV )
+                    continue;
+                if( !isManifoldCollapse(c.u, c.v) || flips(c.u, c.v, c) || flips(c.v, c.u, c) )
+                    continue;
+                collapse(c);
+            }
+        }
+
+        /** The link condition: the ends of the edge may only share the neighbours opposite the edge. */
+        private boolean isManifoldCollapse(int u, int v) {
+            neighbours(u);
+            int count = neighbourCount;
+            int shared = 0;
+            for( int i = 0; i < count; i++ )
+                if( neighbourList[i] != v && isNeighbour(v, neighbourList[i]) )
+                    shared++;
+            int opposite = 0;
+            for( int i = 0; i < aroundCount[u]; i++ ) {
+                int t = around[u][i];
+                if( triangleAlive[t] && contains(t, v) )
+                    opposite++;
+            }
+            return shared == opposite;
+        }
+
+        private boolean isNeighbour(int v, int w) {
+            for( int i = 0; i < aroundCount[v]; i++ ) {
+                int t = around[v][i];
+                if( triangleAlive[t] && contains(t, w) )
+                    return true;
+            }
+            return false;
+        }
+
+        /** Collects the distinct neighbours of {@code v} into {@link #neighbourList}. */
+        private void neighbours(int v) {
+            int stamp = ++currentStamp;
+            neighbourCount = 0;
+            for( int i = 0; i < aroundCount[v]; i++ ) {
+                int t = around[v][i];
+                if( !triangleAlive[t] )
+                    continue;
+                for( int k = 0; k < 3; k++ ) {
+                    int w = triangles[3 * t + k];
+                    if( w == v || marks[w] == stamp )
+                        continue;
+                    marks[w] = stamp;
+                    if( neighbourCount == neighbourList.length )
+                        neighbourList = Arrays.copyOf(neighbourList, 2 * neighbourList.length);
+                    neighbourList[neighbourCount++] = w;
+                }
+            }
+        }
+
+        /** Whether moving {@code a} to the collapse position turns over a triangle that does not contain {@code b}. */
+        private boolean flips(int a, int b, Candidate c) {
+            double[] before = new double[3];
+            double[] after = new double[3];
+            final double x = positions[3 * a], y = positions[3 * a + 1], z = positions[3 * a + 2];
+            try {
+                for( int i = 0; i < aroundCount[a]; i++ ) {
+                    int t = around[a][i];
+                    if( !triangleAlive[t] || contains(t, b) )
+                        continue;
+                    int p = triangles[3 * t], q = triangles[3 * t + 1], r = triangles[3 * t + 2];
+                    setPosition(a, x, y, z);
+                    normal(p, q, r, positions, before);
+                    setPosition(a, c.x, c.y, c.z);
+                    if( normal(p, q, r, positions, after) == 0 )
+                        return true;
+                    if( before[0] * after[0] + before[1] * after[1] + before[2] * after[2] < 0.2 )
+                        return true;
+                }
+                return false;
+            } finally {
+                setPosition(a, x, y, z);
+            }
+        }
+
+        private void setPosition(int v, double x, double y, double z) {
+            positions[3 * v] = x;
+            positions[3 * v + 1] = y;
+            positions[3 * v + 2] = z;
+        }
+
+        /** Collapses u into v, which moves to the collapse position. */
+        private void collapse(Candidate c) {
+            final int u = c.u, v = c.v;
+            setPosition(v, c.x, c.y, c.z);
+            for( int i = 0; i < 10; i++ )
+                quadrics[10 * v + i] += quadrics[10 * u + i];
+            vertexAlive[u] = false;
+            versions[v]++;
+
+            for( int i = 0; i < aroundCount[u]; i++ ) {
+                int t = around[u][i];
+                if( !triangleAlive[t] )
+                    continue;
+                if( contains(t, v) ) {
+                    triangleAlive[t] = false;
+                    liveTriangles--;
+                    continue;
+                }
+                for( int k = 0; k < 3; k++ )
+                    if( triangles[3 * t + k] == u )
+                        triangles[3 * t + k] = v;
+                addAround(v, t);
+            }
+            compactAround(v);
+
+            neighbours(v);
+            for( int i = 0; i < neighbourCount; i++ )
+                push(v, neighbourList[i]);
+        }
+
+        private void addAround(int v, int t) {
+            if( aroundCount[v] == around[v].length )
+                around[v] = Arrays.copyOf(around[v], Math.max(4, 2 * around[v].length));
+            around[v][aroundCount[v]++] = t;
+        }
+
+        private void compactAround(int v) {
+            int count = 0;
+            for( int i = 0; i < aroundCount[v]; i++ )
+                if( triangleAlive[around[v][i]] )
+                    around[v][count++] = around[v][i];
+            aroundCount[v] = count;
+        }
+
+        private boolean contains(int t, int v) {
+            return triangles[3 * t] == v || triangles[3 * t + 1] == v || triangles[3 * t + 2] == v;
+        }
+
+        private double dot(double[] normal, int v) {
+            return normal[0] * positions[3 * v] + normal[1] * positions[3 * v + 1] + normal[2] * positions[3 * v + 2];
+        }
+
+        /** Unit normal of triangle (a, b, c) into {@code normal}, returns its area. */
+        private static double normal(int a, int b, int c, double[] positions, double[] normal) {
+            double ux = positions[3 * b] - positions[3 * a];
+            double uy = positions[3 * b + 1] - positions[3 * a + 1];
+            double uz = positions[3 * b + 2] - positions[3 * a + 2];
+            double wx = positions[3 * c] - positions[3 * a];
+            double wy = positions[3 * c + 1] - positions[3 * a + 1];
+            double wz = positions[3 * c + 2] - positions[3 * a + 2];
+            normal[0] = uy * wz - uz * wy;
+            normal[1] = uz * wx - ux * wz;
+            normal[2] = ux * wy - uy * wx;
+            double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+            if( length == 0 )
+                return 0;
+            normal[0] /= length;
+            normal[1] /= length;
+            normal[2] /= length;
+            return 0.5 * length;
+        }
+
+        /** The live triangles and the vertices they use, renumbered densely. */
+        Result result() {
+            int[] index = new int[vertexAlive.length];
+            Arrays.fill(index, -1);
+            int vertexCount = 0;
+            for( int t = 0; t < triangleAlive.length; t++ )
+                if( triangleAlive[t] )
+                    for( int k = 0; k < 3; k++ )
+                        if( index[triangles[3 * t + k]] < 0 )
+                            index[triangles[3 * t + k]] = vertexCount++;
+
+            FloatBuffer vertices = ByteBuffer.allocateDirect(4 * 3 * vertexCount).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            for( int v = 0; v < index.length; v++ ) {
+                if( index[v] < 0 )
+                    continue;
+                vertices.put(3 * index[v], (float) positions[3 * v]);
+                vertices.put(3 * index[v] + 1, (float) positions[3 * v + 1]);
+                vertices.put(3 * index[v] + 2, (float) positions[3 * v + 2]);
+            }
+            IntBuffer indices = ByteBuffer.allocateDirect(4 * 3 * liveTriangles).order(ByteOrder.nativeOrder()).asIntBuffer();
+            for( int t = 0; t < triangleAlive.length; t++ )
+                if( triangleAlive[t] )
+                    for( int k = 0; k < 3; k++ )
+                        indices.put(index[triangles[3 * t + k]]);
+            indices.flip();
+            return new Result(vertices, indices);
+        }
+    }
+
+    /** Vertex position used to weld vertices */
+    private static class Position {
+        final float x, y, z;
+
+        Position(float x, float y, float z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if( !(o instanceof Position) )
+                return false;
+            Position p = (Position) o;
+            return Float.compare(x, p.x) == 0 && Float.compare(y, p.y) == 0 && Float.compare(z, p.z) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Float.hashCode(x) + Float.hashCode(y)) + Float.hashCode(z);
+        }
+    }
+}
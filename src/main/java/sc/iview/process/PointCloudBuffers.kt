@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process
+
+import graphics.scenery.BufferUtils
+import net.imglib2.RealLocalizable
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * Bulk ingestion of point coordinates into direct [FloatBuffer]s that can be used as the vertex
+ * buffer of a [graphics.scenery.PointCloud].
+ *
+ * Inputs that are already laid out as direct, native-order xyz triplets (caller-owned direct buffers,
+ * memory-mapped file regions) are adopted without copying. Everything else is copied exactly once
+ * into a buffer of exactly the required size.
+ */
+object PointCloudBuffers {
+
+    /**
+     * Allocation and throughput figures for one ingestion.
+     */
+    data class IngestStatistics(val points: Long, val bytesAllocated: Long, val bytesCopied: Long, val nanos: Long) {
+        val pointsPerSecond: Double
+            get() = if (nanos <= 0L) 0.0 else points * 1.0e9 / nanos
+
+        override fun toString(): String {
+            return "$points points in ${nanos / 1.0e6} ms (${"%.1f".format(pointsPerSecond / 1.0e6)} Mpoints/s), " +
+                    "$bytesAllocated bytes allocated, $bytesCopied bytes copied"
+        }
+    }
+
+    /**
+     * Result of an ingestion: the vertex buffer to hand to scenery, and how it was obtained.
+     */
+    data class Ingest(val vertices: FloatBuffer, val statistics: IngestStatistics)
+
+    /**
+     * Streams successive chunks of xyz coordinates into a vertex buffer.
+     */
+    fun interface PointChunkProducer {
+        /**
+         * Write the next chunk of xyz triplets into [target], at most [FloatBuffer.remaining] floats.
+         * @return false once all points have been produced
+         */
+        fun produce(target: FloatBuffer): Boolean
+    }
+
+    /**
+     * Adopt a buffer of xyz triplets, starting at its current position. Direct buffers in native
+     * order are used as-is, others are copied once into a direct buffer.
+     */
+    @JvmStatic
+    fun fromBuffer(vertices: FloatBuffer): Ingest {
+        val start = System.nanoTime()
+        require(vertices.remaining() % 3 == 0) { "Vertex buffer must contain xyz triplets, but has ${vertices.remaining()} floats." }
+        if (vertices.isDirect && vertices.order() == ByteOrder.nativeOrder()) {
+            return Ingest(vertices.slice(), IngestStatistics(vertices.remaining() / 3L, 0, 0, System.nanoTime() - start))
+        }
+        val copy = BufferUtils.allocateFloat(vertices.remaining())
+        copy.put(vertices.duplicate())
+        copy.flip()
+        val bytes = copy.capacity() * 4L
+        return Ingest(copy, IngestStatistics(copy.capacity() / 3L, bytes, bytes, System.nanoTime() - start))
+    }
+
+    /**
+     * Adopt a byte buffer of native-order float xyz triplets, starting at its current position.
+     */
+    @JvmStatic
+    fun fromBuffer(vertices: ByteBuffer): Ingest {
+        return fromBuffer(vertices.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer())
+    }
+
+    /**
+     * Copy [numPoints] xyz triplets starting at [offset] of a primitive stripe. GPU uploads need
+     * off-heap memory, so this is the single copy that cannot be avoided for heap arrays.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun fromArray(vertices: FloatArray, offset: Int = 0, numPoints: Int = (vertices.size - offset) / 3): Ingest {
+        val start = System.nanoTime()
+        requirePoints(numPoints.toLong())
+        val buffer = BufferUtils.allocateFloat(numPoints * 3)
+        buffer.put(vertices, offset, numPoints * 3)
+        buffer.flip()
+        val bytes = buffer.capacity() * 4L
+        return Ingest(buffer, IngestStatistics(numPoints.toLong(), bytes, bytes, System.nanoTime() - start))
+    }
+
+    /**
+     * Memory-map [numPoints] float xyz triplets stored in [file] starting at byte [offset].
+     * If the file's [order] matches the platform, the mapping is used directly as vertex buffer.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun fromFile(file: Path, offset: Long, numPoints: Int, order: ByteOrder = ByteOrder.LITTLE_ENDIAN): Ingest {
+        val start = System.nanoTime()
+        val length = numPoints * 3L * 4L
+        require(length <= Int.MAX_VALUE) { "Cannot map $length bytes in one region, split the file into several point clouds." }
+        FileChannel.open(file, StandardOpenOption.READ).use { channel ->
+            require(offset + length <= channel.size()) { "Region [$offset, ${offset + length}) exceeds size of $file." }
+            val mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(order).asFloatBuffer()
+            val ingest = fromBuffer(mapped)
+            return Ingest(ingest.vertices, ingest.statistics.copy(nanos = System.nanoTime() - start))
+        }
+    }
+
+    /**
+     * Copy the first three coordinates of each point directly into an exactly-sized direct buffer. Points with fewer
+     * than three dimensions are placed at 0 along the missing ones.
+     */
+    @JvmStatic
+    fun fromLocalizables(points: Collection<RealLocalizable>): Ingest {
+        val start = System.nanoTime()
+        requirePoints(points.size.toLong())
+        val buffer = BufferUtils.allocateFloat(points.size * 3)
+        for (point in points) {
+            val n = point.numDimensions()
+            for (d in 0 until 3) {
+                buffer.put(if (d < n) point.getFloatPosition(d) else 0f)
+            }
+        }
+        buffer.flip()
+        val bytes = buffer.capacity() * 4L
+        return Ingest(buffer, IngestStatistics(points.size.toLong(), bytes, bytes, System.nanoTime() - start))
+    }
+
+    /**
+     * Stream points from [producer] into a direct vertex buffer, chunk by chunk. The buffer is sized
+     * for [expectedPoints] and only grows (by doubling) if the producer delivers more than that.
+     */
+    @JvmStatic
+    fun fromProducer(expectedPoints: Int, producer: PointChunkProducer): Ingest {
+        val start = System.nanoTime()
+        requirePoints(expectedPoints.toLong())
+        var buffer = BufferUtils.allocateFloat(maxOf(expectedPoints, 1) * 3)
+        var allocated = buffer.capacity() * 4L
+        var copied = 0L
+        var more = true
+        while (more) {
+            if (!buffer.hasRemaining()) {
+                check(buffer.capacity() < MAX_POINTS * 3) { "Producer delivered more than $MAX_POINTS points, the most one vertex buffer can hold." }
+                val grown = BufferUtils.allocateFloat(minOf(buffer.capacity() * 2L, MAX_POINTS * 3L).toInt())
+                buffer.flip()
+                copied += buffer.remaining() * 4L
+                grown.put(buffer)
+                buffer = grown
+                allocated += grown.capacity() * 4L
+            }
+            more = producer.produce(buffer)
+        }
+        buffer.flip()
+        require(buffer.limit() % 3 == 0) { "Producer delivered ${buffer.limit()} floats, which are not xyz triplets." }
+        return Ingest(buffer.slice(), IngestStatistics(buffer.limit() / 3L, allocated, copied, System.nanoTime() - start))
+    }
+
+    /** Most points a single vertex buffer can hold: three floats each, backed by one direct byte buffer */
+    const val MAX_POINTS = Int.MAX_VALUE / 4 / 3
+
+    private fun requirePoints(numPoints: Long) {
+        require(numPoints <= MAX_POINTS) { "Cannot hold $numPoints points in one vertex buffer, at most $MAX_POINTS fit; split them into several point clouds." }
+    }
+}
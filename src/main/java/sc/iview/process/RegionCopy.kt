@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.process
+
+import net.imglib2.FinalInterval
+import net.imglib2.Interval
+import net.imglib2.RandomAccessibleInterval
+import net.imglib2.img.array.ArrayImg
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess
+import net.imglib2.type.NativeType
+import net.imglib2.type.Type
+import net.imglib2.util.IntervalIndexer
+import net.imglib2.util.Intervals
+import net.imglib2.util.Util
+import net.imglib2.view.Views
+import java.util.stream.IntStream
+
+/**
+ * Copies rectangular regions between images of the same geometry, touching only the voxels inside the region.
+ *
+ * If both images are [ArrayImg]s with one primitive element per pixel, whole rows are copied with
+ * [System.arraycopy]; otherwise flat-iterating cursors are used. In both cases the work is split across
+ * slices of the last dimension and run in parallel.
+ */
+object RegionCopy {
+
+    /**
+     * Copy [region] of [source] into [target]. [region] is given in [source] coordinates,
+     * and [target] may have a different min than [source].
+     * @return whether any voxel was copied, i.e. whether [region] overlaps [source]
+     */
+    @JvmStatic
+    fun <T : Type<T>> copy(source: RandomAccessibleInterval<T>, target: RandomAccessibleInterval<T>, region: Interval): Boolean {
+        val n = source.numDimensions()
+        require(target.numDimensions() == n) { "Source and target must have the same dimensionality." }
+        val clipped = Intervals.intersect(region, source)
+        if (Intervals.isEmpty(clipped)) return false
+        val offset = LongArray(n) { target.min(it) - source.min(it) }
+
+        if (!copyArrays(source, target, clipped, offset)) {
+            copyCursors(source, target, clipped, offset)
+        }
+        return true
+    }
+
+    /**
+     * Copy each of the [regions] of [source] into [target].
+     * @return whether any voxel was copied
+     */
+    @JvmStatic
+    fun <T : Type<T>> copy(source: RandomAccessibleInterval<T>, target: RandomAccessibleInterval<T>, regions: List<Interval>): Boolean {
+        var copied = false
+        for (region in regions) {
+            copied = copy(source, target, region) || copied
+        }
+        return copied
+    }
+
+    /**
+     * @return the smallest interval containing all [regions], or null if there are none
+     */
+    @JvmStatic
+    fun union(regions: List<Interval>): Interval? {
+        var result: Interval? = null
+        for (region in regions) {
+            result = if (result == null) FinalInterval(region) else Intervals.union(result, region)
+        }
+        return result
+    }
+
+    private fun <T : Type<T>> copyArrays(source: RandomAccessibleInterval<T>, target: RandomAccessibleInterval<T>,
+                                         region: Interval, offset: LongArray): Boolean {
+        if (source !is ArrayImg<*, *> || target !is ArrayImg<*, *>) return false
+        val type = Util.getTypeFromInterval(source) as? NativeType<*> ?: return false
+        if (type.entitiesPerPixel.ratio != 1.0) return false
+        val sourceArray = (source.update(null) as? ArrayDataAccess<*>)?.currentStorageArray ?: return false
+        val targetArray = (target.update(null) as? ArrayDataAccess<*>)?.currentStorageArray ?: return false
+        if (sourceArray.javaClass != targetArray.javaClass) return false
+
+        val n = region.numDimensions()
+        val sourceDims = Intervals.dimensionsAsLongArray(source)
+        val targetDims = Intervals.dimensionsAsLongArray(target)
+        val rowLength = region.dimension(0).toInt()
+        // one row per position in dimensions 1..n-1 of the region
+        val rowDims = LongArray(n - 1) { region.dimension(it + 1) }
+        val numRows = Intervals.numElements(*rowDims)
+
+        IntStream.range(0, numRows.toInt()).parallel().forEach { row ->
+            val rowPosition = LongArray(n - 1)
+            if (n > 1) IntervalIndexer.indexToPosition(row.toLong(), rowDims, rowPosition)
+            val sourcePosition = LongArray(n)
+            val targetPosition = LongArray(n)
+            for (d in 0 until n) {
+                val p = region.min(d) + if (d == 0) 0 else rowPosition[d - 1]
+                sourcePosition[d] = p - source.min(d)
+                targetPosition[d] = p + offset[d] - target.min(d)
+            }
+            System.arraycopy(sourceArray, IntervalIndexer.positionToIndex(sourcePosition, sourceDims).toInt(),
+                    targetArray, IntervalIndexer.positionToIndex(targetPosition, targetDims).toInt(), rowLength)
+        }
+        return true
+    }
+
+    private fun <T : Type<T>> copyCursors(source: RandomAccessibleInterval<T>, target: RandomAccessibleInterval<T>,
+                                          region: Interval, offset: LongArray) {
+        val n = region.numDimensions()
+        val last = n - 1
+        IntStream.range(0, region.dimension(last).toInt()).parallel().forEach { slice ->
+            val min = LongArray(n) { region.min(it) }
+            val max = LongArray(n) { region.max(it) }
+            min[last] = region.min(last) + slice
+            max[last] = min[last]
+            val sourceSlice = FinalInterval(min, max)
+            val targetSlice = FinalInterval(LongArray(n) { min[it] + offset[it] }, LongArray(n) { max[it] + offset[it] })
+            val s = Views.flatIterable(Views.interval(source, sourceSlice)).cursor()
+            val t = Views.flatIterable(Views.interval(target, targetSlice)).cursor()
+            while (s.hasNext()) {
+                t.next().set(s.next())
+            }
+        }
+    }
+}
@@ -98,6 +98,12 @@ class SwingMainWindow(val sciview: SciView) : MainWindow {
         bar.preferredSize = Dimension(30, 30)
         val progressLabel = JLabel("<html><strong></strong></html>")
         progressLabel.horizontalAlignment = SwingConstants.RIGHT
+        progressLabel.toolTipText = "Click to cancel"
+        progressLabel.addMouseListener(object : MouseAdapter() {
+            override fun mouseClicked(e: MouseEvent) {
+                sciview.taskManager.cancelCurrentTask()
+            }
+        })
         swingMenuBar.add(Box.createHorizontalGlue())
         swingMenuBar.add(progressLabel)
         swingMenuBar.add(bar)
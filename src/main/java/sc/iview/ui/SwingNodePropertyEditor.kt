@@ -56,6 +56,7 @@ import sc.iview.event.NodeActivatedEvent
 import sc.iview.event.NodeAddedEvent
 import sc.iview.event.NodeChangedEvent
 import sc.iview.event.NodeRemovedEvent
+import sc.iview.event.NodesAddedEvent
 import java.awt.BorderLayout
 import java.awt.Color
 import java.awt.Component
@@ -67,8 +68,6 @@ import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantLock
 import javax.swing.*
 import javax.swing.event.TreeSelectionEvent
-import javax.swing.tree.DefaultMutableTreeNode
-import javax.swing.tree.DefaultTreeModel
 import javax.swing.tree.TreePath
 import javax.swing.tree.TreeSelectionModel
 
@@ -92,7 +91,7 @@ class SwingNodePropertyEditor(private val sciView: SciView) : UIComponent<JPanel
     private lateinit var log: LogService
 
     private var panel: JPanel? = null
-    private lateinit var treeModel: DefaultTreeModel
+    private lateinit var treeModel: SwingSceneryTreeModel
 
     lateinit var tree: JTree
         private set
@@ -128,19 +127,26 @@ class SwingNodePropertyEditor(private val sciView: SciView) : UIComponent<JPanel
     private fun onEvent(evt: NodeAddedEvent) {
         val node = evt.node ?: return
         log.trace("Node added: $node");
-        rebuildTree()
+        insertNodes(listOf(node))
+    }
+
+    @EventHandler
+    private fun onEvent(evt: NodesAddedEvent) {
+        log.trace("Nodes added: ${evt.nodes.size}");
+        insertNodes(evt.nodes)
     }
 
     @EventHandler
     private fun onEvent(evt: NodeRemovedEvent) {
         val node = evt.node ?: return
         log.trace("Node removed: $node");
-        rebuildTree()
+        onEDT { treeModel.nodeRemoved(node) }
     }
 
     @EventHandler
     private fun onEvent(evt: NodeChangedEvent) {
         val node = evt.node ?: return
+        onEDT { treeModel.nodeUpdated(node) }
         if (node != sciView.activeNode) {
             updateProperties(sciView.activeNode)
         }
@@ -171,7 +177,7 @@ class SwingNodePropertyEditor(private val sciView: SciView) : UIComponent<JPanel
     }
 
     private fun createTree() {
-        treeModel = DefaultTreeModel(SwingSceneryTreeNode(sciView))
+        treeModel = SwingSceneryTreeModel(sciView)
         tree = JTree(treeModel)
         tree.isRootVisible = true
         tree.cellRenderer = SwingNodePropertyTreeCellRenderer()
@@ -319,41 +325,58 @@ class SwingNodePropertyEditor(private val sciView: SciView) : UIComponent<JPanel
         props.repaint()
     }
 
-    private fun find(root: DefaultMutableTreeNode, n: Node): TreePath? {
-        val e = root.depthFirstEnumeration()
-        while (e.hasMoreElements()) {
-            val node = e.nextElement() as DefaultMutableTreeNode
-            if (node.userObject === n) {
-                return TreePath(node.path)
+    /** Runs [action] on the event dispatch thread, which owns [treeModel] and [tree].  */
+    private fun onEDT(action: () -> Unit) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            action()
+        } else {
+            SwingUtilities.invokeLater { action() }
+        }
+    }
+
+    /** Inserts [nodes] into the tree and selects the active node if it is one of them.  */
+    private fun insertNodes(nodes: List<Node>) {
+        onEDT {
+            treeModel.nodesAdded(nodes)
+            // the active node is set before the node is published, so it could not be selected back then
+            val active = sciView.activeNode
+            if (active != null && sceneNode(tree.selectionPath) !== active) {
+                trySelectNode(active)
             }
         }
-        return null
     }
 
-    /** Rebuilds the tree to match the state of the scene.  */
+    /**
+     * Rebuilds the tree to match the state of the scene. Expanded nodes and the selection are restored afterwards.
+     * Additions and removals that are published as events are applied incrementally and do not need this.
+     */
     fun rebuildTree() {
-        val currentPath = tree.selectionPath
-        treeModel.setRoot(SwingSceneryTreeNode(sciView))
-
-//        treeModel.reload();
-//        // TODO: retain previously expanded nodes only
-//        for( int i = 0; i < tree.getRowCount(); i++ ) {
-//            tree.expandRow( i );
-//        }
-//        updateProperties( sciView.getActiveNode() );
-        if (currentPath != null) {
-            val selectedNode = (currentPath.lastPathComponent as SwingSceneryTreeNode).node ?: return
-            trySelectNode(selectedNode)
+        onEDT {
+            val currentPath = tree.selectionPath
+            val expanded = ArrayList<Node>()
+            tree.getExpandedDescendants(TreePath(treeModel.root))?.let { paths ->
+                paths.asSequence().mapNotNullTo(expanded) { sceneNode(it) }
+            }
+            treeModel.rebuild()
+            for (node in expanded) {
+                treeModel.pathTo(node)?.let { tree.expandPath(it) }
+            }
+            if (currentPath != null) {
+                val selectedNode = sceneNode(currentPath) ?: return@onEDT
+                trySelectNode(selectedNode)
+            }
         }
     }
 
     fun trySelectNode(node: Node) {
-        val newPath = find(treeModel.root as DefaultMutableTreeNode, node)
-        if (newPath != null) {
-            tree.selectionPath = newPath
-            tree.scrollPathToVisible(newPath)
-            if (node !== sciView.activeNode) {
-                updateProperties(node)
+        onEDT {
+            val newPath = treeModel.pathTo(node)
+            if (newPath != null) {
+                tree.selectionPath = newPath
+                tree.scrollPathToVisible(newPath)
+                if (node !== sciView.activeNode) {
+                    updateProperties(node)
+                }
             }
         }
     }
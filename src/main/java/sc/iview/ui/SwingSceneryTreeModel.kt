@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.ui
+
+import graphics.scenery.Node
+import graphics.scenery.Scene
+import sc.iview.SciView
+import java.util.*
+import javax.swing.tree.DefaultTreeModel
+import javax.swing.tree.TreePath
+
+/**
+ * Tree model of the scene graph that is updated incrementally. An identity index maps each scenery [Node] to its
+ * tree node, so that inserting, removing and locating a node only touches the affected subtree and fires
+ * `nodesWereInserted`/`nodesWereRemoved` for it, leaving the expansion state of the rest of the tree untouched.
+ *
+ * The model must only be modified on the event dispatch thread.
+ */
+internal class SwingSceneryTreeModel(private val sciView: SciView) : DefaultTreeModel(SwingSceneryTreeNode(sciView)) {
+    private val index = IdentityHashMap<Node, SwingSceneryTreeNode>()
+
+    init {
+        indexSubtree(root as SwingSceneryTreeNode)
+    }
+
+    /** Returns the path to the tree node of [node], or null if [node] is not part of the tree.  */
+    fun pathTo(node: Node): TreePath? {
+        val treeNode = index[node] ?: return null
+        return TreePath(treeNode.path)
+    }
+
+    /** Discards all tree nodes and builds the tree again from the current scene.  */
+    fun rebuild() {
+        index.clear()
+        val newRoot = SwingSceneryTreeNode(sciView)
+        indexSubtree(newRoot)
+        setRoot(newRoot)
+    }
+
+    /**
+     * Inserts tree nodes for [nodes] and their subtrees below the tree nodes of their parents. Nodes that are already
+     * part of the tree, or have been detached from the scene in the meantime, are skipped.
+     */
+    fun nodesAdded(nodes: Collection<Node>) {
+        val inserted = LinkedHashMap<SwingSceneryTreeNode, MutableList<Int>>()
+        for (node in nodes) {
+            if (index.containsKey(node)) continue
+            val sceneParent = node.parent ?: continue
+            val parent = if (sceneParent is Scene) root as SwingSceneryTreeNode else index[sceneParent]
+            if (parent == null) {
+                // the parent was added to the scene without an event, so we cannot place the node
+                rebuild()
+                return
+            }
+            val treeNode = SwingSceneryTreeNode(node)
+            parent.add(treeNode)
+            indexSubtree(treeNode)
+            inserted.getOrPut(parent) { ArrayList() }.add(parent.childCount - 1)
+        }
+        for ((parent, indices) in inserted) {
+            nodesWereInserted(parent, indices.toIntArray())
+            syncChildren(parent)
+        }
+    }
+
+    /** Removes the tree node of [node] and its subtree.  */
+    fun nodeRemoved(node: Node) {
+        val treeNode = index[node] ?: return
+        if (treeNode.parent == null) return
+        removeNodeFromParent(treeNode)
+        unindexSubtree(treeNode)
+    }
+
+    /** Notifies listeners that the presentation of [node], e.g. its name, has changed.  */
+    fun nodeUpdated(node: Node) {
+        val treeNode = index[node] ?: return
+        nodeChanged(treeNode)
+    }
+
+    /**
+     * Children may be added to or removed from the scene without an event, e.g. lights or meshes attached directly
+     * with [Node.addChild]. When the number of tree children no longer matches the scene, the children of [parent]
+     * are reconciled, so that such nodes show up without rebuilding the whole tree.
+     */
+    private fun syncChildren(parent: SwingSceneryTreeNode) {
+        val sceneParent = parent.node ?: sciView.currentScene
+        val children = sceneParent.children
+        if (children.size == parent.childCount) return
+
+        for (i in parent.childCount - 1 downTo 0) {
+            val treeNode = parent.getChildAt(i) as SwingSceneryTreeNode
+            if (treeNode.node.parent !== sceneParent) {
+                nodeRemoved(treeNode.node)
+            }
+        }
+        val indices = ArrayList<Int>()
+        for (child in children) {
+            if (index.containsKey(child)) continue
+            val treeNode = SwingSceneryTreeNode(child)
+            parent.add(treeNode)
+            indexSubtree(treeNode)
+            indices.add(parent.childCount - 1)
+        }
+        if (indices.isNotEmpty()) {
+            nodesWereInserted(parent, indices.toIntArray())
+        }
+    }
+
+    private fun indexSubtree(treeNode: SwingSceneryTreeNode) {
+        treeNode.node?.let { index[it] = treeNode }
+        for (i in 0 until treeNode.childCount) {
+            indexSubtree(treeNode.getChildAt(i) as SwingSceneryTreeNode)
+        }
+    }
+
+    private fun unindexSubtree(treeNode: SwingSceneryTreeNode) {
+        treeNode.node?.let { index.remove(it) }
+        for (i in 0 until treeNode.childCount) {
+            unindexSubtree(treeNode.getChildAt(i) as SwingSceneryTreeNode)
+        }
+    }
+}
@@ -39,13 +39,19 @@ class SwingSceneryTreeNode extends DefaultMutableTreeNode {
     public SwingSceneryTreeNode(final SciView sciView ) {
         this( ( Node ) null );
         for( final Node sceneNode : sciView.getSceneNodes( n -> true ) ) {
-            addNode( sceneNode );
+            add( new SwingSceneryTreeNode( sceneNode ) );
         }
     }
 
-    private SwingSceneryTreeNode(final Node node ) {
+    /** Creates the tree node for {@code node} together with the tree nodes of its whole subtree. */
+    SwingSceneryTreeNode(final Node node ) {
         super( node );
         this.node = node;
+        if( node != null ) {
+            for( final Node n : node.getChildren() ) {
+                add( new SwingSceneryTreeNode( n ) );
+            }
+        }
     }
 
     @Override
@@ -53,14 +59,6 @@ class SwingSceneryTreeNode extends DefaultMutableTreeNode {
         return node == null ? "Scene" : node.getName();
     }
 
-    private void addNode( final Node child ) {
-        final SwingSceneryTreeNode treeNode = new SwingSceneryTreeNode( child );
-        add( treeNode );
-        for( final Node n : child.getChildren() ) {
-            treeNode.addNode( n );
-        }
-    }
-
     public Node getNode() {
         return node;
     }
@@ -1,3 +1,16 @@
 package sc.iview.ui
 
-data class Task(val source: String, var status: String, var completion: Float = 0.0f)
\ No newline at end of file
+/**
+ * Progress of a long-running operation shown by the [TaskManager]. Tasks are compared by identity, so that tasks with
+ * the same source and progress are still told apart.
+ */
+class Task(val source: String, var status: String, var completion: Float = 0.0f) {
+    /** Set by [cancel], long-running work should check it and stop early */
+    @Volatile
+    var isCancelled = false
+        private set
+
+    fun cancel() {
+        isCancelled = true
+    }
+}
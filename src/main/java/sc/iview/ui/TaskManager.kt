@@ -15,7 +15,7 @@ class TaskManager(var update: ((Task?) -> Any)? = null) {
 
         val timerTask = object: TimerTask() {
             override fun run() {
-                currentTasks.removeIf { it.completion > 99.9999f }
+                currentTasks.removeIf { it.completion > 99.9999f || it.isCancelled }
                 val current = currentTasks.lastOrNull()
 
                 update?.invoke(current)
@@ -37,4 +37,9 @@ class TaskManager(var update: ((Task?) -> Any)? = null) {
     fun removeTask(task: Task) {
         currentTasks.remove(task)
     }
+
+    /** Cancels the task that is currently shown, if any. */
+    fun cancelCurrentTask() {
+        currentTasks.lastOrNull()?.cancel()
+    }
 }
\ No newline at end of file
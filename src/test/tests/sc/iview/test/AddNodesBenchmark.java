@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import graphics.scenery.Node;
+import sc.iview.SciView;
+
+import static sc.iview.test.Benchmarks.argument;
+import static sc.iview.test.Benchmarks.time;
+
+/**
+ * Measures the time to add many nodes to the scene, one {@link SciView#addNode} at a time
+ * and in one {@link SciView#addNodes} call.
+ */
+public class AddNodesBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = argument(args, 0, 10000);
+
+        SciView sciView = SciView.create();
+        Thread.sleep(2000);
+
+        List<Node> single = createNodes("single", count);
+        report("addNode", count, time(() -> {
+            for( Node n : single ) {
+                sciView.addNode(n);
+            }
+        }));
+
+        sciView.reset();
+
+        List<Node> batch = createNodes("batch", count);
+        report("addNodes", count, time(() -> sciView.addNodes(batch)));
+
+        sciView.closeWindow();
+    }
+
+    private static List<Node> createNodes(String prefix, int count) {
+        List<Node> nodes = new ArrayList<>(count);
+        for( int k = 0; k < count; k++ ) {
+            nodes.add(new Node(prefix + " " + k));
+        }
+        return nodes;
+    }
+
+    private static void report(String path, int count, long nanos) {
+        Benchmarks.report(path, "%d nodes in %.1f ms, %.1f us/node", count, nanos / 1e6, nanos / 1e3 / count);
+    }
+}
@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import org.junit.Test;
+import sc.iview.Animation;
+import sc.iview.AnimationEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnimationEngineTest {
+
+    /** Keeps the ticks of scheduled animations instead of running them, so that the test can run them one by one. */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+        final List<Runnable> ticks = new ArrayList<>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            ticks.add(command);
+            return schedule(() -> {}, 1, TimeUnit.DAYS);
+        }
+    }
+
+    @Test
+    public void fixedRateTest() {
+        ManualScheduler scheduler = new ManualScheduler();
+        AtomicLong now = new AtomicLong();
+        AnimationEngine engine = new AnimationEngine(scheduler, now::get);
+        AtomicInteger runs = new AtomicInteger();
+        Animation animation = engine.schedule(50, runs::incrementAndGet);
+        Runnable tick = scheduler.ticks.get(0);
+        long period = 20_000_000L;
+
+        for( int k = 0; k < 50; k++ ) {
+            now.set(k * period);
+            tick.run();
+        }
+        assertEquals(50, runs.get());
+        assertEquals(0, animation.getSkippedTicks());
+        assertEquals(50.0, animation.getAchievedRate(), 1e-6);
+
+        animation.stop();
+        tick.run();
+        assertEquals(50, runs.get());
+        assertTrue(animation.isDone());
+        assertEquals(0, engine.getAnimations().size());
+        engine.close();
+    }
+
+    @Test
+    public void pauseResumeTest() {
+        ManualScheduler scheduler = new ManualScheduler();
+        AtomicLong now = new AtomicLong();
+        AnimationEngine engine = new AnimationEngine(scheduler, now::get);
+        AtomicInteger runs = new AtomicInteger();
+        Animation animation = engine.schedule(10, runs::incrementAndGet);
+        Runnable tick = scheduler.ticks.get(0);
+        long period = 100_000_000L;
+
+        int k = 0;
+        for( ; k < 2; k++ ) {
+            now.set(k * period);
+            tick.run();
+        }
+        animation.pause();
+        for( ; k < 7; k++ ) {
+            now.set(k * period);
+            tick.run();
+        }
+        assertEquals(2, runs.get());
+
+        animation.resume();
+        now.set(k * period);
+        tick.run();
+        assertEquals(3, runs.get());
+        assertEquals(0, animation.getSkippedTicks());
+        engine.close();
+    }
+
+    @Test
+    public void overrunSkipsTicksTest() {
+        ManualScheduler scheduler = new ManualScheduler();
+        AtomicLong now = new AtomicLong();
+        AnimationEngine engine = new AnimationEngine(scheduler, now::get);
+        long period = 100_000_000L;
+        // every run takes one and a half periods
+        Animation animation = engine.schedule(10, () -> now.addAndGet(3 * period / 2));
+        Runnable tick = scheduler.ticks.get(0);
+
+        // a fixed-rate scheduler fires late ticks as soon as the previous one has returned
+        for( int k = 0; k < 10; k++ ) {
+            now.set(Math.max(now.get(), k * period));
+            tick.run();
+        }
+
+        // ticks 3, 6 and 9 are due more than a period before the previous run returns
+        assertEquals(7, animation.getTicks());
+        assertEquals(3, animation.getSkippedTicks());
+        assertTrue(animation.getAchievedRate() < animation.getRequestedRate());
+        engine.close();
+    }
+
+    @Test
+    public void schedulerThreadTest() throws InterruptedException {
+        AnimationEngine engine = new AnimationEngine(1);
+        CountDownLatch runs = new CountDownLatch(5);
+        Animation animation = engine.schedule(200, runs::countDown);
+
+        assertTrue(runs.await(10, TimeUnit.SECONDS));
+        animation.stop();
+        assertTrue(animation.isDone());
+        assertEquals(0, engine.getAnimations().size());
+        engine.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import net.imagej.mesh.Mesh;
+
+/**
+ * Fixtures and timing shared by the benchmarks of this package, which are run through their main methods and print
+ * one line per measurement.
+ */
+final class Benchmarks {
+
+    /** A piece of work whose run time is measured */
+    interface Timed {
+        void run() throws Exception;
+    }
+
+    private Benchmarks() {
+    }
+
+    /**
+     * @return the integer argument at {@code index}, or {@code defaultValue} if there are fewer arguments
+     */
+    static int argument(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * Runs {@code timed} once.
+     * @return the run time in nanoseconds
+     */
+    static long time(Timed timed) throws Exception {
+        long start = System.nanoTime();
+        timed.run();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs {@code timed} once to warm up and then {@code repetitions} times.
+     * @return the fastest run time in nanoseconds
+     */
+    static long best(int repetitions, Timed timed) throws Exception {
+        timed.run();
+        long best = Long.MAX_VALUE;
+        for( int r = 0; r < repetitions; r++ )
+            best = Math.min(best, time(timed));
+        return best;
+    }
+
+    /**
+     * Prints one measurement as {@code label: values}.
+     */
+    static void report(String label, String format, Object... values) {
+        System.out.println(label + ": " + String.format(format, values));
+    }
+
+    /**
+     * Fills {@code mesh} with a wavy {@code n} x {@code n} grid of vertices, two triangles per grid cell.
+     * @return {@code mesh}
+     */
+    static <M extends Mesh> M gridMesh(M mesh, int n) {
+        for( int y = 0; y < n; y++ ) {
+            for( int x = 0; x < n; x++ ) {
+                mesh.vertices().add(x, y, Math.sin(x * 0.1) * Math.cos(y * 0.1));
+            }
+        }
+        for( int y = 0; y < n - 1; y++ ) {
+            for( int x = 0; x < n - 1; x++ ) {
+                long v = (long) y * n + x;
+                mesh.triangles().add(v, v + 1, v + n);
+                mesh.triangles().add(v + 1, v + n + 1, v + n);
+            }
+        }
+        return mesh;
+    }
+}
@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.Mesh;
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+import sc.iview.process.BlockIsosurface;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockIsosurfaceTest {
+
+    /** Signed distance to a sphere, positive inside, slightly off the voxel grid so that no voxel is at the iso level */
+    private static ArrayImg<FloatType, FloatArray> sphere(int size, double radius) {
+        ArrayImg<FloatType, FloatArray> img = ArrayImgs.floats(size, size, size);
+        double c = size / 2.0 - 0.37;
+        Cursor<FloatType> cursor = img.localizingCursor();
+        while( cursor.hasNext() ) {
+            cursor.fwd();
+            double dx = cursor.getDoublePosition(0) - c, dy = cursor.getDoublePosition(1) - c, dz = cursor.getDoublePosition(2) - c;
+            cursor.get().setReal(radius - Math.sqrt(dx * dx + dy * dy + dz * dz));
+        }
+        return img;
+    }
+
+    /** Every directed edge is used by exactly one triangle and its reverse by another, so the surface is closed and consistently wound. */
+    private static void assertWatertight(Mesh mesh) {
+        IntBuffer indices = mesh.getIndices();
+        int vertexCount = mesh.getVertices().limit() / 3;
+        Map<Long, Integer> edges = new HashMap<>();
+        for( int t = 0; t < indices.limit(); t += 3 ) {
+            for( int k = 0; k < 3; k++ ) {
+                long a = indices.get(t + k), b = indices.get(t + (k + 1) % 3);
+                edges.merge(a * vertexCount + b, 1, Integer::sum);
+            }
+        }
+        for( Map.Entry<Long, Integer> edge : edges.entrySet() ) {
+            long a = edge.getKey() / vertexCount, b = edge.getKey() % vertexCount;
+            assertEquals("directed edge " + a + "-" + b, 1, (int) edge.getValue());
+            assertTrue("open edge " + a + "-" + b, edges.containsKey(b * vertexCount + a));
+        }
+        // a closed surface of genus 0
+        int triangles = indices.limit() / 3;
+        assertEquals(2, vertexCount - edges.size() / 2 + triangles);
+    }
+
+    @Test
+    public void closedSphereTest() {
+        Mesh mesh = BlockIsosurface.isosurface(sphere(32, 10), 0.0, new int[]{ 64, 64, 64 }, ForkJoinPool.commonPool());
+        assertTrue(mesh.getIndices().limit() > 0);
+        assertWatertight(mesh);
+    }
+
+    @Test
+    public void blocksWeldLikeSingleBlockTest() {
+        ArrayImg<FloatType, FloatArray> img = sphere(32, 12);
+        Mesh single = BlockIsosurface.isosurface(img, 0.0, new int[]{ 64, 64, 64 }, new ForkJoinPool(1));
+        Mesh blocks = BlockIsosurface.isosurface(img, 0.0, new int[]{ 7, 8, 5 }, new ForkJoinPool(4));
+
+        assertEquals(single.getVertices().limit(), blocks.getVertices().limit());
+        assertEquals(single.getIndices().limit(), blocks.getIndices().limit());
+        assertWatertight(blocks);
+    }
+}
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import org.junit.Test;
+import sc.iview.process.BoundingVolumeHierarchy;
+import sc.iview.process.MeshBVH;
+
+import java.nio.FloatBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BoundingVolumeHierarchyTest {
+
+    private static float[] randomBoxes(Random rng, int n) {
+        float[] bounds = new float[n * 6];
+        for( int i = 0; i < n; i++ )
+            randomBox(rng, bounds, i);
+        return bounds;
+    }
+
+    private static void randomBox(Random rng, float[] bounds, int i) {
+        for( int d = 0; d < 3; d++ ) {
+            float c = rng.nextFloat() * 100f - 50f;
+            float h = rng.nextFloat() * 2f;
+            bounds[i * 6 + d] = c - h;
+            bounds[i * 6 + 3 + d] = c + h;
+        }
+    }
+
+    /** Distance at which the ray enters the box, or infinity */
+    private static float slab(float[] bounds, int i, float[] o, float[] dir) {
+        float tmin = 0f, tmax = Float.POSITIVE_INFINITY;
+        for( int d = 0; d < 3; d++ ) {
+            if( dir[d] == 0f ) {
+                if( o[d] < bounds[i * 6 + d] || o[d] > bounds[i * 6 + 3 + d] ) return Float.POSITIVE_INFINITY;
+                continue;
+            }
+            float t1 = (bounds[i * 6 + d] - o[d]) / dir[d];
+            float t2 = (bounds[i * 6 + 3 + d] - o[d]) / dir[d];
+            tmin = Math.max(tmin, Math.min(t1, t2));
+            tmax = Math.min(tmax, Math.max(t1, t2));
+        }
+        return tmin <= tmax ? tmin : Float.POSITIVE_INFINITY;
+    }
+
+    private static float[][] randomRay(Random rng) {
+        float[] o = {rng.nextFloat() * 120f - 60f, rng.nextFloat() * 120f - 60f, -80f};
+        float[] dir = {rng.nextFloat() - 0.5f, rng.nextFloat() - 0.5f, 1f};
+        return new float[][]{o, dir};
+    }
+
+    private static void assertSameHits(BoundingVolumeHierarchy bvh, float[] bounds, int n, Random rng) {
+        for( int r = 0; r < 200; r++ ) {
+            float[][] ray = randomRay(rng);
+            float[] o = ray[0], dir = ray[1];
+
+            Set<Integer> expected = new HashSet<>();
+            int nearest = -1;
+            float nearestDistance = Float.POSITIVE_INFINITY;
+            for( int i = 0; i < n; i++ ) {
+                float t = slab(bounds, i, o, dir);
+                if( t == Float.POSITIVE_INFINITY ) continue;
+                expected.add(i);
+                if( t < nearestDistance ) {
+                    nearestDistance = t;
+                    nearest = i;
+                }
+            }
+
+            Set<Integer> actual = new HashSet<>();
+            bvh.raycastAll(o[0], o[1], o[2], dir[0], dir[1], dir[2], (item, boxDistance) -> boxDistance, (item, t) -> actual.add(item));
+            assertEquals(expected, actual);
+
+            float[] distance = new float[1];
+            int item = bvh.raycastNearest(o[0], o[1], o[2], dir[0], dir[1], dir[2], (i, boxDistance) -> boxDistance, distance);
+            assertEquals(nearest, item);
+            if( item >= 0 ) assertEquals(nearestDistance, distance[0], 1e-3f);
+        }
+    }
+
+    @Test
+    public void raycastMatchesBruteForce() {
+        Random rng = new Random(17);
+        int n = 5000;
+        float[] bounds = randomBoxes(rng, n);
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(bounds, n);
+
+        assertTrue("depth " + bvh.getDepth(), bvh.getDepth() <= 14);
+        assertSameHits(bvh, bounds, n, rng);
+    }
+
+    @Test
+    public void refitAfterMovingItems() {
+        Random rng = new Random(42);
+        int n = 2000;
+        float[] bounds = randomBoxes(rng, n);
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(bounds, n);
+
+        for( int k = 0; k < 500; k++ ) {
+            int i = rng.nextInt(n);
+            randomBox(rng, bounds, i);
+            bvh.setItemBounds(i, bounds[i * 6], bounds[i * 6 + 1], bounds[i * 6 + 2], bounds[i * 6 + 3], bounds[i * 6 + 4], bounds[i * 6 + 5]);
+        }
+        assertSameHits(bvh, bounds, n, rng);
+    }
+
+    @Test
+    public void meshRaycastHitsTriangles() {
+        // a grid of 100x100 quads in the z = 0 plane, spanning [0, 100] in x and y
+        int n = 100;
+        FloatBuffer vertices = FloatBuffer.allocate(n * n * 2 * 9);
+        for( int y = 0; y < n; y++ ) {
+            for( int x = 0; x < n; x++ ) {
+                vertices.put(new float[]{x, y, 0, x + 1, y, 0, x, y + 1, 0});
+                vertices.put(new float[]{x + 1, y, 0, x + 1, y + 1, 0, x, y + 1, 0});
+            }
+        }
+        vertices.flip();
+        MeshBVH bvh = new MeshBVH(vertices, null);
+        assertEquals(n * n * 2, bvh.getTriangleCount());
+        assertTrue(bvh.isBuiltFrom(vertices, null));
+
+        assertEquals(5f, bvh.raycast(20.3f, 70.6f, 5f, 0f, 0f, -1f), 1e-5f);
+        assertEquals(10f, bvh.raycast(50.5f, 50.5f, -10f, 0f, 0f, 1f), 1e-5f);
+        // oblique ray, half the direction length per unit of z
+        assertEquals(4f, bvh.raycast(10f, 10f, 2f, 0.25f, 0f, -0.5f), 1e-5f);
+        assertEquals(Float.POSITIVE_INFINITY, bvh.raycast(120f, 50f, 5f, 0f, 0f, -1f), 0f);
+        assertEquals(Float.POSITIVE_INFINITY, bvh.raycast(50f, 50f, 5f, 0f, 0f, 1f), 0f);
+    }
+}
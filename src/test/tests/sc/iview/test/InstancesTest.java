@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.Node;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.junit.Before;
+import org.junit.Test;
+import sc.iview.Instances;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class InstancesTest {
+    private static final int COUNT = 2 * Instances.CHUNK_SIZE + 10;
+    private static final int FIRST = 0;
+    private static final int SECOND = Instances.CHUNK_SIZE + 5;
+    private static final int THIRD = 2 * Instances.CHUNK_SIZE + 3;
+
+    private Instances instances;
+
+    @Before
+    public void setUp() {
+        instances = new Instances(new Node("template"), COUNT);
+        // let every proxy build its matrix and color once
+        for( int i = 0; i < COUNT; i++ ) {
+            modelMatrix(i);
+            color(i);
+        }
+    }
+
+    @Test
+    public void bulkSetterMarksOnlyItsChunksTest() {
+        // written in place without markDirty, in the first, second and third chunk
+        instances.getPositions().put(3 * FIRST, 1.0f);
+        instances.getPositions().put(3 * SECOND, 2.0f);
+        instances.getPositions().put(3 * THIRD, 3.0f);
+        assertTranslation(FIRST, 0.0f);
+        assertTranslation(SECOND, 0.0f);
+        assertTranslation(THIRD, 0.0f);
+
+        // one position at the start of the second chunk, which marks only that chunk
+        instances.setPositions(Instances.CHUNK_SIZE, FloatBuffer.wrap(new float[]{ 4.0f, 0.0f, 0.0f }));
+        assertTranslation(Instances.CHUNK_SIZE, 4.0f);
+        assertTranslation(SECOND, 2.0f);
+        assertTranslation(FIRST, 0.0f);
+        assertTranslation(THIRD, 0.0f);
+
+        instances.markDirty(FIRST, FIRST + 1);
+        assertTranslation(FIRST, 1.0f);
+        assertTranslation(THIRD, 0.0f);
+    }
+
+    @Test
+    public void bulkSetterSpanningChunksTest() {
+        instances.getPositions().put(3 * THIRD, 3.0f);
+
+        // the last instance of the first chunk and the first of the second
+        float[] values = { 5.0f, 0.0f, 0.0f, 6.0f, 0.0f, 0.0f };
+        instances.setPositions(Instances.CHUNK_SIZE - 1, FloatBuffer.wrap(values));
+        assertTranslation(Instances.CHUNK_SIZE - 1, 5.0f);
+        assertTranslation(Instances.CHUNK_SIZE, 6.0f);
+        assertTranslation(THIRD, 0.0f);
+    }
+
+    @Test
+    public void proxyRebuildsOnlyAfterMarkDirtyTest() {
+        Matrix4f matrix = modelMatrix(SECOND);
+        Vector4f color = color(SECOND);
+
+        instances.getColors().put(4 * SECOND, 0.5f);
+        instances.getScales().put(3 * SECOND, 2.0f);
+        assertEquals(1.0f, color(SECOND).x, 0.0f);
+        assertEquals(1.0f, modelMatrix(SECOND).m00(), 0.0f);
+
+        instances.markDirty(SECOND, SECOND + 1);
+        assertEquals(0.5f, color(SECOND).x, 0.0f);
+        assertEquals(2.0f, modelMatrix(SECOND).m00(), 0.0f);
+
+        // rebuilt in place, not reallocated
+        assertSame(matrix, modelMatrix(SECOND));
+        assertSame(color, color(SECOND));
+    }
+
+    @Test
+    public void singleSettersMarkDirtyTest() {
+        instances.setPosition(THIRD, 7.0f, 8.0f, 9.0f);
+        instances.setColor(THIRD, 0.1f, 0.2f, 0.3f, 0.4f);
+
+        assertEquals(new Vector3f(7.0f, 8.0f, 9.0f), modelMatrix(THIRD).getTranslation(new Vector3f()));
+        assertEquals(new Vector4f(0.1f, 0.2f, 0.3f, 0.4f), color(THIRD));
+    }
+
+    @Test
+    public void proxiesShareOneNameTest() {
+        for( Node instance : instances.getTemplate().getInstances() )
+            assertEquals(Instances.INSTANCE_NAME, instance.getName());
+    }
+
+    private Matrix4f modelMatrix(int i) {
+        return (Matrix4f) instances.getTemplate().getInstances().get(i).getInstancedProperties().get("ModelMatrix").invoke();
+    }
+
+    private Vector4f color(int i) {
+        return (Vector4f) instances.getTemplate().getInstances().get(i).getInstancedProperties().get("Color").invoke();
+    }
+
+    private void assertTranslation(int i, float x) {
+        assertEquals("instance " + i, x, modelMatrix(i).m30(), 0.0f);
+    }
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
+import sc.iview.process.LabelMesher;
+
+import java.util.Random;
+
+import static sc.iview.test.Benchmarks.argument;
+import static sc.iview.test.Benchmarks.report;
+import static sc.iview.test.Benchmarks.time;
+
+/**
+ * Measures how many labels per second {@link LabelMesher} meshes on a synthetic label volume of random spheres,
+ * with one thread and with all cores.
+ */
+public class LabelMesherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = argument(args, 0, 256);
+        int numLabels = argument(args, 1, 2000);
+        ArrayImg<IntType, IntArray> labels = sphereLabels(size, numLabels, 6);
+
+        int[] parallelisms = {1, Runtime.getRuntime().availableProcessors()};
+        for( int parallelism : parallelisms ) {
+            int[] meshed = new int[1];
+            long nanos = time(() -> meshed[0] = LabelMesher.meshLabels(labels, parallelism, 256, null, batch -> {}));
+            report(parallelism + " threads", "%d labels in %.1f ms, %.1f labels/s",
+                    meshed[0], nanos / 1e6, meshed[0] * 1e9 / nanos);
+        }
+    }
+
+    private static ArrayImg<IntType, IntArray> sphereLabels(int size, int numLabels, int radius) {
+        ArrayImg<IntType, IntArray> img = ArrayImgs.ints(size, size, size);
+        Random rng = new Random(99);
+        long[] position = new long[3];
+        for( int label = 1; label <= numLabels; label++ ) {
+            long cx = radius + rng.nextInt(size - 2 * radius);
+            long cy = radius + rng.nextInt(size - 2 * radius);
+            long cz = radius + rng.nextInt(size - 2 * radius);
+            Cursor<IntType> cursor = Views.interval(img,
+                    new long[]{cx - radius, cy - radius, cz - radius},
+                    new long[]{cx + radius - 1, cy + radius - 1, cz + radius - 1}).localizingCursor();
+            while( cursor.hasNext() ) {
+                cursor.fwd();
+                cursor.localize(position);
+                long dx = position[0] - cx, dy = position[1] - cy, dz = position[2] - cz;
+                if( dx * dx + dy * dy + dz * dz < radius * radius )
+                    cursor.get().set(label);
+            }
+        }
+        return img;
+    }
+}
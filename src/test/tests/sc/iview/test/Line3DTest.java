@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.Mesh;
+import graphics.scenery.OrientedBoundingBox;
+import org.joml.Vector3f;
+import org.junit.Test;
+import org.scijava.util.ColorRGB;
+import org.scijava.util.ColorRGBA;
+import sc.iview.node.Line3D;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class Line3DTest {
+    private static final int NUM_POINTS = 50;
+    private static final double WIDTH = 0.1;
+
+    private static List<Vector3f> helix() {
+        List<Vector3f> points = new ArrayList<>();
+        for( int k = 0; k < NUM_POINTS; k++ )
+            points.add(new Vector3f((float) Math.cos(0.3 * k), (float) Math.sin(0.3 * k), 0.1f * k));
+        return points;
+    }
+
+    private static List<ColorRGB> colors(ColorRGB color) {
+        return new ArrayList<>(Collections.nCopies(NUM_POINTS, color));
+    }
+
+    @Test
+    public void tubeCountsTest() {
+        Line3D line = new Line3D(helix(), colors(new ColorRGB(10, 20, 30)), WIDTH, Line3D.Mode.Tube);
+        Mesh tube = line.getTube();
+        assertNotNull(tube);
+
+        // a ring per point plus one center per cap
+        int vertices = NUM_POINTS * (Line3D.TUBE_SEGMENTS + 1) + 2;
+        assertEquals(3 * vertices, tube.getVertices().limit());
+        assertEquals(3 * vertices, tube.getNormals().limit());
+        assertEquals(2 * vertices, tube.getTexcoords().limit());
+        // two triangles per segment and ring step, plus a fan per cap
+        int triangles = 2 * Line3D.TUBE_SEGMENTS * (NUM_POINTS - 1) + 2 * Line3D.TUBE_SEGMENTS;
+        IntBuffer indices = tube.getIndices();
+        assertEquals(3 * triangles, indices.limit());
+        for( int k = 0; k < indices.limit(); k++ )
+            assertTrue(indices.get(k) >= 0 && indices.get(k) < vertices);
+
+        assertColors(tube.getTexcoords(), 10 | 20 << 8 | 30 << 16, 1.0f);
+    }
+
+    @Test
+    public void setColorsInPlaceTest() {
+        Line3D line = new Line3D(helix(), colors(new ColorRGB(10, 20, 30)), WIDTH, Line3D.Mode.Tube);
+        FloatBuffer texcoords = line.getTube().getTexcoords();
+        FloatBuffer vertices = line.getTube().getVertices();
+
+        line.setColors(colors(new ColorRGBA(40, 50, 60, 51)));
+
+        assertSame(texcoords, line.getTube().getTexcoords());
+        assertSame(vertices, line.getTube().getVertices());
+        assertColors(texcoords, 40 | 50 << 8 | 60 << 16, 0.2f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setColorsRequiresColorPerPointTest() {
+        Line3D line = new Line3D(helix(), colors(new ColorRGB(10, 20, 30)), WIDTH, Line3D.Mode.Tube);
+        line.setColors(Collections.nCopies(NUM_POINTS - 1, new ColorRGB(0, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tubeRequiresColorPerPointTest() {
+        new Line3D(helix(), Collections.nCopies(NUM_POINTS + 1, new ColorRGB(0, 0, 0)), WIDTH, Line3D.Mode.Tube);
+    }
+
+    @Test
+    public void boundingBoxFollowsPointsTest() {
+        List<Vector3f> points = helix();
+        Vector3f min = new Vector3f(Float.MAX_VALUE);
+        Vector3f max = new Vector3f(-Float.MAX_VALUE);
+        for( Vector3f p : points ) {
+            min.min(p);
+            max.max(p);
+        }
+        float w = (float) WIDTH;
+
+        for( Line3D.Mode mode : Line3D.Mode.values() ) {
+            Line3D line = new Line3D(points, colors(new ColorRGB(10, 20, 30)), WIDTH, mode);
+            OrientedBoundingBox bb = line.getBoundingBox();
+            assertNotNull(bb);
+            assertEquals(mode.name(), new Vector3f(min).sub(w, w, w), bb.getMin());
+            assertEquals(mode.name(), new Vector3f(max).add(w, w, w), bb.getMax());
+        }
+    }
+
+    /** Checks that every vertex carries the packed rgb and the alpha */
+    private static void assertColors(FloatBuffer texcoords, int packed, float alpha) {
+        for( int v = 0; v < texcoords.limit() / 2; v++ ) {
+            assertEquals(packed, texcoords.get(2 * v), 0.0f);
+            assertEquals(alpha, texcoords.get(2 * v + 1), 1e-6f);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Meshes;
+import net.imagej.mesh.nio.BufferMesh;
+import sc.iview.process.MeshConverter;
+
+import static sc.iview.test.Benchmarks.argument;
+import static sc.iview.test.Benchmarks.best;
+import static sc.iview.test.Benchmarks.gridMesh;
+import static sc.iview.test.Benchmarks.report;
+
+/**
+ * Compares the conversion paths of {@link MeshConverter#toScenery} on a large synthetic grid mesh: the copy with
+ * forced normal recalculation that toScenery used to do, adopting a BufferMesh's buffers, and the parallel normal,
+ * centering and winding flip passes.
+ */
+public class MeshConverterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        // 3000 x 3000 vertices are 27M floats of coordinates and as many of normals
+        int n = argument(args, 0, 3000);
+        BufferMesh mesh = gridMesh(new BufferMesh(n * n, 2 * (n - 1) * (n - 1)), n);
+        report("grid", "%d vertices, %d triangles", mesh.vertices().size(), mesh.triangles().size());
+
+        time("calculateNormals into a new BufferMesh (previous path)", () -> {
+            Mesh copy = new BufferMesh((int) mesh.vertices().size(), (int) mesh.triangles().size());
+            Meshes.calculateNormals(mesh, copy);
+        });
+        time("toScenery, recomputed normals", () -> MeshConverter.toScenery(mesh, false, false, true));
+        time("toScenery, adopted buffers", () -> MeshConverter.toScenery(mesh));
+        time("toScenery, centered and flipped", () -> MeshConverter.toScenery(mesh, true, true));
+    }
+
+    private static void time(String label, Benchmarks.Timed conversion) throws Exception {
+        report(label, "%.1f ms", best(3, conversion) / 1e6);
+    }
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.BufferUtils;
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Triangle;
+import net.imagej.mesh.naive.NaiveFloatMesh;
+import org.junit.Test;
+import sc.iview.process.MeshConverter;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MeshConverterTest {
+    private static final float EPSILON = 1e-4f;
+
+    /** A random indexed mesh with more triangles than one parallel range, and vertices far from index order. */
+    private static Mesh randomMesh(int numVertices, int numTriangles) {
+        Random rng = new Random(777);
+        Mesh mesh = new NaiveFloatMesh();
+        for( int k = 0; k < numVertices; k++ )
+            mesh.vertices().add(rng.nextFloat() * 10, rng.nextFloat() * 10, rng.nextFloat() * 10);
+        for( int k = 0; k < numTriangles; k++ )
+            mesh.triangles().add(rng.nextInt(numVertices), rng.nextInt(numVertices), rng.nextInt(numVertices));
+        return mesh;
+    }
+
+    @Test
+    public void toImageJTriangleNormalsTest() {
+        Mesh mesh = randomMesh(1000, 100000);
+        graphics.scenery.Mesh scMesh = MeshConverter.toScenery(mesh);
+        Mesh result = MeshConverter.toImageJ(scMesh);
+
+        assertEquals(mesh.triangles().size(), result.triangles().size());
+        Iterator<Triangle> expected = mesh.triangles().iterator();
+        Iterator<Triangle> actual = result.triangles().iterator();
+        while( expected.hasNext() ) {
+            Triangle e = expected.next();
+            Triangle a = actual.next();
+            assertEquals(e.vertex0(), a.vertex0());
+            assertEquals(e.vertex1(), a.vertex1());
+            assertEquals(e.vertex2(), a.vertex2());
+
+            // reference: normalized cross product of the triangle edges
+            double ux = e.v1x() - e.v0x(), uy = e.v1y() - e.v0y(), uz = e.v1z() - e.v0z();
+            double vx = e.v2x() - e.v0x(), vy = e.v2y() - e.v0y(), vz = e.v2z() - e.v0z();
+            double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if( length > 0 ) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
+            }
+            assertEquals(nx, a.nx(), EPSILON);
+            assertEquals(ny, a.ny(), EPSILON);
+            assertEquals(nz, a.nz(), EPSILON);
+        }
+    }
+
+    @Test
+    public void toImageJReusesTriangleNormalsTest() {
+        graphics.scenery.Mesh scMesh = MeshConverter.toScenery(randomMesh(100, 300));
+        MeshConverter.toImageJ(scMesh);
+        Object cached = scMesh.getMetadata().get(MeshConverter.TRIANGLE_NORMALS_KEY);
+        MeshConverter.toImageJ(scMesh);
+        assertSame(cached, scMesh.getMetadata().get(MeshConverter.TRIANGLE_NORMALS_KEY));
+    }
+
+    @Test
+    public void adoptMeshWithoutTexCoordsTest() {
+        graphics.scenery.Mesh scMesh = MeshConverter.toScenery(randomMesh(100, 300));
+        scMesh.setTexcoords(BufferUtils.allocateFloat(0));
+        graphics.scenery.Mesh result = MeshConverter.toScenery(MeshConverter.toImageJ(scMesh));
+
+        assertEquals(scMesh.getVertices().limit(), result.getVertices().limit());
+        assertEquals(scMesh.getVertices().limit() / 3 * 2, result.getTexcoords().limit());
+        for( int k = 0; k < result.getTexcoords().limit(); k++ )
+            assertEquals(0, result.getTexcoords().get(k), 0);
+    }
+}
@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import org.junit.Test;
+import sc.iview.process.MeshDecimator;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeshDecimatorTest {
+
+    private static class Sphere {
+        final float[] vertices;
+        final int[] indices;
+
+        Sphere(float[] vertices, int[] indices) {
+            this.vertices = vertices;
+            this.indices = indices;
+        }
+    }
+
+    /** A closed unit sphere, made by subdividing an octahedron {@code levels} times. */
+    private static Sphere sphere(int levels) {
+        List<float[]> vertices = new ArrayList<>();
+        float[][] corners = { { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 } };
+        for( float[] c : corners )
+            vertices.add(c);
+        List<int[]> triangles = new ArrayList<>();
+        int[][] faces = { { 0, 2, 4 }, { 2, 1, 4 }, { 1, 3, 4 }, { 3, 0, 4 }, { 2, 0, 5 }, { 1, 2, 5 }, { 3, 1, 5 }, { 0, 3, 5 } };
+        for( int[] f : faces )
+            triangles.add(f);
+
+        for( int l = 0; l < levels; l++ ) {
+            Map<Long, Integer> midpoints = new HashMap<>();
+            List<int[]> next = new ArrayList<>();
+            for( int[] t : triangles ) {
+                int ab = midpoint(t[0], t[1], vertices, midpoints);
+                int bc = midpoint(t[1], t[2], vertices, midpoints);
+                int ca = midpoint(t[2], t[0], vertices, midpoints);
+                next.add(new int[] { t[0], ab, ca });
+                next.add(new int[] { ab, t[1], bc });
+                next.add(new int[] { ca, bc, t[2] });
+                next.add(new int[] { ab, bc, ca });
+            }
+            triangles = next;
+        }
+
+        float[] v = new float[3 * vertices.size()];
+        for( int i = 0; i < vertices.size(); i++ )
+            System.arraycopy(vertices.get(i), 0, v, 3 * i, 3);
+        int[] indices = new int[3 * triangles.size()];
+        for( int i = 0; i < triangles.size(); i++ )
+            System.arraycopy(triangles.get(i), 0, indices, 3 * i, 3);
+        return new Sphere(v, indices);
+    }
+
+    private static int midpoint(int a, int b, List<float[]> vertices, Map<Long, Integer> midpoints) {
+        long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        Integer m = midpoints.get(key);
+        if( m != null )
+            return m;
+        float[] p = vertices.get(a), q = vertices.get(b);
+        float x = p[0] + q[0], y = p[1] + q[1], z = p[2] + q[2];
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        vertices.add(new float[] { x / length, y / length, z / length });
+        midpoints.put(key, vertices.size() - 1);
+        return vertices.size() - 1;
+    }
+
+    /** Asserts that every edge is used exactly once in each direction, i.e. the mesh is closed and consistently oriented. */
+    private static void assertClosed(IntBuffer indices) {
+        Map<Long, Integer> edges = new HashMap<>();
+        for( int t = 0; t < indices.limit() / 3; t++ )
+            for( int k = 0; k < 3; k++ )
+                edges.merge(((long) indices.get(3 * t + k) << 32) | indices.get(3 * t + (k + 1) % 3), 1, Integer::sum);
+        for( Map.Entry<Long, Integer> e : edges.entrySet() ) {
+            assertEquals(1, (int) e.getValue());
+            long reverse = (e.getKey() << 32) | (e.getKey() >>> 32);
+            assertEquals(1, (int) edges.getOrDefault(reverse, 0));
+        }
+    }
+
+    @Test
+    public void decimateSphereTest() {
+        Sphere sphere = sphere(5);
+        IntBuffer indices = IntBuffer.wrap(sphere.indices);
+        assertEquals(8192, indices.limit() / 3);
+
+        MeshDecimator.Result result = MeshDecimator.decimate(FloatBuffer.wrap(sphere.vertices), indices, 1000);
+        assertTrue(result.getTriangleCount() <= 1000);
+        assertTrue(result.getTriangleCount() > 900);
+        assertClosed(result.indices);
+
+        // the simplified surface stays close to the sphere
+        for( int v = 0; v < result.vertices.limit() / 3; v++ ) {
+            float x = result.vertices.get(3 * v), y = result.vertices.get(3 * v + 1), z = result.vertices.get(3 * v + 2);
+            assertEquals(1.0, Math.sqrt(x * x + y * y + z * z), 0.05);
+        }
+    }
+
+    @Test
+    public void decimateNonIndexedTest() {
+        Sphere sphere = sphere(3);
+        float[] soup = new float[3 * sphere.indices.length];
+        for( int i = 0; i < sphere.indices.length; i++ )
+            System.arraycopy(sphere.vertices, 3 * sphere.indices[i], soup, 3 * i, 3);
+
+        // the triangle soup is welded into one closed surface before it is simplified
+        MeshDecimator.Result result = MeshDecimator.decimate(FloatBuffer.wrap(soup), null, 100);
+        assertTrue(result.getTriangleCount() <= 100);
+        assertClosed(result.indices);
+    }
+}
@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.BufferUtils;
+import sc.iview.io.MeshWriter;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static sc.iview.test.Benchmarks.argument;
+import static sc.iview.test.Benchmarks.best;
+
+/**
+ * Measures the throughput of {@link MeshWriter} for binary STL and PLY on a random indexed mesh.
+ */
+public class MeshWriterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numTriangles = argument(args, 0, 10000000);
+        int numVertices = numTriangles / 2;
+
+        Random rng = new Random(1);
+        FloatBuffer vertices = BufferUtils.allocateFloat(3 * numVertices);
+        FloatBuffer normals = BufferUtils.allocateFloat(3 * numVertices);
+        for( int k = 0; k < 3 * numVertices; k++ ) {
+            vertices.put(k, rng.nextFloat());
+            normals.put(k, rng.nextFloat());
+        }
+        IntBuffer indices = BufferUtils.allocateInt(3 * numTriangles);
+        for( int k = 0; k < 3 * numTriangles; k++ )
+            indices.put(k, rng.nextInt(numVertices));
+
+        Path stl = Files.createTempFile("sciview-benchmark", ".stl");
+        Path ply = Files.createTempFile("sciview-benchmark", ".ply");
+        try {
+            long nanos = best(3, () -> MeshWriter.writeSTL(vertices, indices, stl, ForkJoinPool.commonPool()));
+            report("STL", numTriangles, Files.size(stl), nanos);
+
+            nanos = best(3, () -> MeshWriter.writePLY(vertices, normals, indices, ply, ForkJoinPool.commonPool()));
+            report("PLY", numTriangles, Files.size(ply), nanos);
+        } finally {
+            Files.deleteIfExists(stl);
+            Files.deleteIfExists(ply);
+        }
+    }
+
+    private static void report(String format, int triangles, long bytes, long nanos) {
+        Benchmarks.report(format, "%d triangles, %.1f MB in %.1f ms, %.1f MB/s",
+                triangles, bytes / 1e6, nanos / 1e6, bytes / 1e6 / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import org.junit.Test;
+import sc.iview.io.MeshWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeshWriterTest {
+    // more triangles than one write task holds, so several ranges are written in parallel
+    private static final int NUM_VERTICES = 50000;
+    private static final int NUM_TRIANGLES = 150000;
+
+    private final Random rng = new Random(4242);
+    private final FloatBuffer vertices = FloatBuffer.allocate(3 * NUM_VERTICES);
+    private final FloatBuffer normals = FloatBuffer.allocate(3 * NUM_VERTICES);
+    private final IntBuffer indices = IntBuffer.allocate(3 * NUM_TRIANGLES);
+
+    public MeshWriterTest() {
+        for( int k = 0; k < vertices.limit(); k++ ) {
+            vertices.put(k, rng.nextFloat() * 100f);
+            normals.put(k, rng.nextFloat());
+        }
+        for( int k = 0; k < indices.limit(); k++ )
+            indices.put(k, rng.nextInt(NUM_VERTICES));
+    }
+
+    @Test
+    public void writeIndexedSTLTest() throws IOException {
+        Path stl = Files.createTempFile("sciview-mesh", ".stl");
+        stl.toFile().deleteOnExit();
+        MeshWriter.writeSTL(vertices, indices, stl, ForkJoinPool.commonPool());
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(stl)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(84 + 50L * NUM_TRIANGLES, data.limit());
+        assertEquals(NUM_TRIANGLES, data.getInt(80));
+
+        data.position(84);
+        for( int t = 0; t < NUM_TRIANGLES; t++ ) {
+            float nx = data.getFloat(), ny = data.getFloat(), nz = data.getFloat();
+            float length = nx * nx + ny * ny + nz * nz;
+            assertTrue(length == 0 || Math.abs(length - 1) < 1e-3);
+            for( int c = 0; c < 3; c++ ) {
+                int v = indices.get(3 * t + c);
+                for( int d = 0; d < 3; d++ )
+                    assertEquals(vertices.get(3 * v + d), data.getFloat(), 0.0f);
+            }
+            assertEquals(0, data.getShort());
+        }
+    }
+
+    @Test
+    public void writeIndexedPLYTest() throws IOException {
+        Path ply = Files.createTempFile("sciview-mesh", ".ply");
+        ply.toFile().deleteOnExit();
+        MeshWriter.writePLY(vertices, normals, indices, ply, ForkJoinPool.commonPool());
+
+        byte[] bytes = Files.readAllBytes(ply);
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        int headerEnd = text.indexOf("end_header\n") + "end_header\n".length();
+        String header = text.substring(0, headerEnd);
+        assertTrue(header.startsWith("ply\nformat binary_little_endian 1.0\n"));
+        assertTrue(header.contains("element vertex " + NUM_VERTICES + "\n"));
+        assertTrue(header.contains("property float nz\n"));
+        assertTrue(header.contains("element face " + NUM_TRIANGLES + "\n"));
+
+        ByteBuffer data = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(headerEnd + 24L * NUM_VERTICES + 13L * NUM_TRIANGLES, data.limit());
+        data.position(headerEnd);
+        for( int v = 0; v < NUM_VERTICES; v++ ) {
+            for( int d = 0; d < 3; d++ )
+                assertEquals(vertices.get(3 * v + d), data.getFloat(), 0.0f);
+            for( int d = 0; d < 3; d++ )
+                assertEquals(normals.get(3 * v + d), data.getFloat(), 0.0f);
+        }
+        for( int t = 0; t < NUM_TRIANGLES; t++ ) {
+            assertEquals(3, data.get());
+            for( int c = 0; c < 3; c++ )
+                assertEquals(indices.get(3 * t + c), data.getInt());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.naive.NaiveFloatMesh;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import sc.iview.io.N5;
+import sc.iview.process.MeshConverter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static sc.iview.test.Benchmarks.best;
+import static sc.iview.test.Benchmarks.gridMesh;
+import static sc.iview.test.Benchmarks.report;
+
+/**
+ * Compares loading synthetic meshes from N5 through the ImageJ mesh path
+ * ({@link N5#openMesh} + {@link MeshConverter#toScenery}) against {@link N5#openSceneryMesh}.
+ */
+public class N5MeshBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? new int[]{Integer.parseInt(args[0])} : new int[]{100, 300, 1000};
+        int repetitions = 3;
+
+        for( int n : sizes ) {
+            Path tmp = Files.createTempDirectory(null);
+            tmp.toFile().deleteOnExit();
+            N5FSWriter n5w = new N5FSWriter(tmp.toAbsolutePath().toString());
+            N5FSReader n5r = new N5FSReader(tmp.toAbsolutePath().toString());
+
+            Mesh mesh = gridMesh(new NaiveFloatMesh(), n);
+            N5.save(mesh, n5w, "mesh", new int[]{65536, 3}, new int[]{65536, 3}, new GzipCompression());
+
+            long imagejPath = best(repetitions, () -> MeshConverter.toScenery(N5.openMesh(n5r, "mesh")));
+            long directPath = best(repetitions, () -> N5.openSceneryMesh(n5r, "mesh"));
+
+            report(mesh.triangles().size() + " triangles", "openMesh+toScenery %.1f ms, openSceneryMesh %.1f ms (%.1fx)",
+                    imagejPath / 1e6, directPath / 1e6, (double) imagejPath / directPath);
+        }
+    }
+}
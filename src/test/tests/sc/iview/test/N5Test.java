@@ -32,15 +32,24 @@ import net.imagej.mesh.Mesh;
 import net.imagej.mesh.Triangle;
 import net.imagej.mesh.io.stl.STLMeshIO;
 import net.imagej.ops.geom.geom3d.DefaultMarchingCubes;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
 import org.janelia.saalfeldlab.n5.N5FSReader;
 import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -49,6 +58,9 @@ import org.slf4j.LoggerFactory;
 import sc.iview.commands.demo.basic.MeshDemo;
 import sc.iview.commands.demo.ResourceLoader;
 import sc.iview.io.N5;
+import sc.iview.io.N5IO;
+import sc.iview.io.N5PyramidImageLoader;
+import sc.iview.process.MeshConverter;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -142,6 +154,146 @@ public class N5Test {
         assertMeshesEqual(mesh, nextMesh);
     }
 
+    @Test
+    public void writeReadSceneryMeshTest() throws IOException {
+        Path tmp = Files.createTempDirectory(null);
+        tmp.toFile().deleteOnExit();
+
+        N5FSWriter n5w = new N5FSWriter(tmp.toAbsolutePath().toString());
+        N5FSReader n5r = new N5FSReader(tmp.toAbsolutePath().toString());
+
+        // Use small blocks so that the mesh spans several of them
+        N5.save(mesh, n5w, "testMesh", new int[]{1000,3}, new int[]{1000,3}, new GzipCompression());
+        graphics.scenery.Mesh scMesh = N5.openSceneryMesh(n5r, "testMesh");
+
+        assertEquals(mesh.triangles().size() * 3, scMesh.getIndices().limit());
+        final Iterator<Triangle> expectedFacets = mesh.triangles().iterator();
+        int i = 0;
+        while (expectedFacets.hasNext()) {
+            final Triangle expected = expectedFacets.next();
+            final int v0 = 3 * scMesh.getIndices().get(i);
+            final int v2 = 3 * scMesh.getIndices().get(i + 2);
+            assertEquals(expected.v0x(), scMesh.getVertices().get(v0), 1e-3);
+            assertEquals(expected.v0y(), scMesh.getVertices().get(v0 + 1), 1e-3);
+            assertEquals(expected.v2z(), scMesh.getVertices().get(v2 + 2), 1e-3);
+            i += 3;
+        }
+    }
+
+    @Test
+    public void writeSceneryMeshTest() throws IOException {
+        Path tmp = Files.createTempDirectory(null);
+        tmp.toFile().deleteOnExit();
+
+        N5FSWriter n5w = new N5FSWriter(tmp.toAbsolutePath().toString());
+        N5FSReader n5r = new N5FSReader(tmp.toAbsolutePath().toString());
+
+        graphics.scenery.Mesh scMesh = MeshConverter.toScenery(mesh);
+        N5.save(scMesh, n5w, "testMesh", 1000, new Lz4Compression());
+        graphics.scenery.Mesh result = N5.openSceneryMesh(n5r, "testMesh");
+
+        assertEquals(scMesh.getVertices().limit(), result.getVertices().limit());
+        for( int k = 0; k < scMesh.getVertices().limit(); k++ )
+            assertEquals(scMesh.getVertices().get(k), result.getVertices().get(k), 0.0f);
+        assertEquals(scMesh.getIndices().limit(), result.getIndices().limit());
+        for( int k = 0; k < scMesh.getIndices().limit(); k++ )
+            assertEquals(scMesh.getIndices().get(k), result.getIndices().get(k));
+    }
+
+    @Test(expected = IOException.class)
+    public void outOfRangeIndexTest() throws IOException {
+        Path tmp = Files.createTempDirectory(null);
+        tmp.toFile().deleteOnExit();
+
+        N5FSWriter n5w = new N5FSWriter(tmp.toAbsolutePath().toString());
+        N5FSReader n5r = new N5FSReader(tmp.toAbsolutePath().toString());
+
+        // Replace the triangles by a single int64 triangle whose last index does not fit into an int
+        N5.save(mesh, n5w, "testMesh");
+        DatasetAttributes tAttributes = new DatasetAttributes(new long[]{1, 3}, new int[]{1, 3}, DataType.INT64, new GzipCompression());
+        n5w.createDataset("testMesh/triangles", tAttributes);
+        n5w.writeBlock("testMesh/triangles", tAttributes,
+                new LongArrayDataBlock(new int[]{1, 3}, new long[]{0, 0}, new long[]{0, 1, 1L << 40}));
+
+        N5.openSceneryMesh(n5r, "testMesh");
+    }
+
+    @Test
+    public void openPyramidTest() throws IOException {
+        Path tmp = Files.createTempDirectory(null);
+        tmp.toFile().deleteOnExit();
+
+        N5FSWriter n5w = new N5FSWriter(tmp.toAbsolutePath().toString());
+        N5FSReader n5r = new N5FSReader(tmp.toAbsolutePath().toString());
+
+        // Two levels, the second downsampled by 2 along every axis, with blocks smaller than the levels
+        Img<UnsignedShortType> s0 = ArrayImgs.unsignedShorts(32, 32, 16);
+        Img<UnsignedShortType> s1 = ArrayImgs.unsignedShorts(16, 16, 8);
+        RandomAccess<UnsignedShortType> s1Access = s1.randomAccess();
+        s1Access.setPosition(new long[]{9, 3, 5});
+        s1Access.get().set(1234);
+        N5Utils.save(s0, n5w, "pyramid/s0", new int[]{8, 8, 8}, new GzipCompression());
+        N5Utils.save(s1, n5w, "pyramid/s1", new int[]{8, 8, 8}, new GzipCompression());
+
+        String[] levels = N5IO.pyramidLevels(n5r, "pyramid/");
+        assertEquals(2, levels.length);
+        assertEquals("pyramid/s1", levels[1]);
+
+        double[][] resolutions = N5IO.pyramidResolutions(n5r, "pyramid", levels);
+        assertEquals(2.0, resolutions[1][0], 0.0);
+        assertEquals(2.0, resolutions[1][2], 0.0);
+
+        N5PyramidImageLoader loader = new N5PyramidImageLoader(n5r, levels, resolutions, new FinalVoxelDimensions("", 1, 1, 1), 1);
+        try {
+            RandomAccessibleInterval<?> image = loader.getSetupImgLoader(0).getImage(0, 1);
+            assertEquals(16, image.dimension(0));
+            RandomAccess<?> access = image.randomAccess();
+            access.setPosition(new long[]{9, 3, 5});
+            assertEquals(1234, ((UnsignedShortType) access.get()).get());
+            access.setPosition(new long[]{1, 1, 1});
+            assertEquals(0, ((UnsignedShortType) access.get()).get());
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void writeMultiscaleTest() throws IOException {
+        Path tmp = Files.createTempDirectory(null);
+        tmp.toFile().deleteOnExit();
+
+        N5FSWriter n5w = new N5FSWriter(tmp.toAbsolutePath().toString());
+        N5FSReader n5r = new N5FSReader(tmp.toAbsolutePath().toString());
+
+        Img<UnsignedShortType> img = ArrayImgs.unsignedShorts(40, 40, 20);
+        Cursor<UnsignedShortType> cursor = img.localizingCursor();
+        while( cursor.hasNext() ) {
+            cursor.fwd();
+            cursor.get().set(2 * cursor.getIntPosition(0));
+        }
+
+        N5.saveMultiscale(img, n5w, "volume", 8, new GzipCompression());
+
+        // 40x40x20 -> 20x20x10 -> 10x10x5 -> 5x5x3, which fits into one block
+        String[] levels = N5IO.pyramidLevels(n5r, "volume");
+        assertEquals(4, levels.length);
+        double[][] resolutions = N5IO.pyramidResolutions(n5r, "volume", levels);
+        assertEquals(8.0, resolutions[3][0], 0.0);
+        assertEquals(8.0, resolutions[3][2], 0.0);
+        assertEquals(3, n5r.getDatasetAttributes("volume/s3").getDimensions()[2]);
+
+        RandomAccessibleInterval<UnsignedShortType> s0 = N5Utils.open(n5r, "volume/s0");
+        RandomAccess<UnsignedShortType> s0Access = s0.randomAccess();
+        s0Access.setPosition(new long[]{17, 33, 19});
+        assertEquals(34, s0Access.get().get());
+
+        // Mean of 4x and 4x + 2
+        RandomAccessibleInterval<UnsignedShortType> s1 = N5Utils.open(n5r, "volume/s1");
+        RandomAccess<UnsignedShortType> s1Access = s1.randomAccess();
+        s1Access.setPosition(new long[]{13, 9, 7});
+        assertEquals(53, s1Access.get().get());
+    }
+
     private void assertMeshesEqual(Mesh mesh, Mesh result) {
 	    assertEquals(mesh.triangles().size(), result.triangles().size());
 		final Iterator<Triangle> expectedFacets = mesh.triangles().iterator();
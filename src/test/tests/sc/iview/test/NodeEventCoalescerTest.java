@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.Node;
+import graphics.scenery.Scene;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import sc.iview.event.NodeActivatedEvent;
+import sc.iview.event.NodeChangedEvent;
+import sc.iview.event.NodeEvent;
+import sc.iview.event.NodeEventCoalescer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NodeEventCoalescerTest {
+
+    public static class Recorder {
+        final List<NodeEvent> events = new ArrayList<>();
+
+        @EventHandler
+        public void onEvent(NodeEvent event) {
+            events.add(event);
+        }
+    }
+
+    private Context context;
+    private EventService eventService;
+    private Recorder recorder;
+    private Node a, b, detached;
+
+    @Before
+    public void setUp() {
+        context = new Context(EventService.class);
+        eventService = context.service(EventService.class);
+        recorder = new Recorder();
+        eventService.subscribe(recorder);
+
+        Scene scene = new Scene();
+        a = new Node("a");
+        b = new Node("b");
+        detached = new Node("detached");
+        scene.addChild(a);
+        scene.addChild(b);
+    }
+
+    @After
+    public void tearDown() {
+        context.dispose();
+    }
+
+    @Test
+    public void mergeAndFlushTest() {
+        // the window never closes during the test, events are only published by flush()
+        NodeEventCoalescer coalescer = new NodeEventCoalescer(eventService, 60_000, Runnable::run);
+        List<NodeEventCoalescer.Metrics> flushes = new ArrayList<>();
+        coalescer.setFlushListener(flushes::add);
+
+        NodeChangedEvent a1 = new NodeChangedEvent(a);
+        NodeChangedEvent a2 = new NodeChangedEvent(a);
+        NodeChangedEvent b1 = new NodeChangedEvent(b);
+        NodeActivatedEvent activateA = new NodeActivatedEvent(a);
+        NodeActivatedEvent activateB = new NodeActivatedEvent(b);
+        for( NodeEvent event : Arrays.asList(a1, b1, a2, activateA, activateB, new NodeChangedEvent(detached)) )
+            coalescer.publish(event);
+        assertTrue(recorder.events.isEmpty());
+
+        // one batch with the latest event per type and node, in the order of their latest occurrence,
+        // a single activation, and nothing for the detached node
+        coalescer.flush();
+        assertEquals(3, recorder.events.size());
+        assertSame(b1, recorder.events.get(0));
+        assertSame(a2, recorder.events.get(1));
+        assertSame(activateB, recorder.events.get(2));
+
+        assertEquals(1, flushes.size());
+        NodeEventCoalescer.Metrics first = flushes.get(0);
+        assertEquals(6, first.received);
+        assertEquals(2, first.merged);
+        assertEquals(1, first.dropped);
+        assertEquals(3, first.delivered);
+
+        // the listener gets the counts of each flush, the metrics the totals
+        coalescer.publish(new NodeChangedEvent(b));
+        coalescer.flush();
+        NodeEventCoalescer.Metrics second = flushes.get(1);
+        assertEquals(1, second.received);
+        assertEquals(0, second.merged);
+        assertEquals(0, second.dropped);
+        assertEquals(1, second.delivered);
+
+        NodeEventCoalescer.Metrics total = coalescer.getMetrics();
+        assertEquals(7, total.received);
+        assertEquals(2, total.merged);
+        assertEquals(1, total.dropped);
+        assertEquals(4, total.delivered);
+        coalescer.close();
+    }
+
+    @Test
+    public void closedWindowIsDispatchedTest() throws InterruptedException {
+        List<Runnable> dispatched = new ArrayList<>();
+        NodeEventCoalescer coalescer = new NodeEventCoalescer(eventService, 1, task -> {
+            synchronized( dispatched ) {
+                dispatched.add(task);
+                dispatched.notifyAll();
+            }
+        });
+        NodeChangedEvent event = new NodeChangedEvent(a);
+        coalescer.publish(event);
+
+        // the closed window is handed to the dispatcher, which publishes it on its own thread
+        synchronized( dispatched ) {
+            while( dispatched.isEmpty() )
+                dispatched.wait();
+        }
+        assertTrue(recorder.events.isEmpty());
+        dispatched.get(0).run();
+        assertEquals(1, recorder.events.size());
+        assertSame(event, recorder.events.get(0));
+        coalescer.close();
+    }
+
+    @Test
+    public void zeroWindowPublishesImmediatelyTest() {
+        NodeEventCoalescer coalescer = new NodeEventCoalescer(eventService, 0, Runnable::run);
+        NodeChangedEvent event = new NodeChangedEvent(a);
+        coalescer.publish(event);
+        assertEquals(1, recorder.events.size());
+        assertSame(event, recorder.events.get(0));
+        coalescer.close();
+    }
+}
@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import org.junit.Test;
+import sc.iview.process.PointCloudBuffers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PointCloudBuffersTest {
+    private static final int NUM_POINTS = 1000;
+
+    @Test
+    public void fromDirectBufferTest() {
+        FloatBuffer direct = ByteBuffer.allocateDirect(NUM_POINTS * 3 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        direct.put(coordinates());
+        direct.flip();
+
+        PointCloudBuffers.Ingest ingest = PointCloudBuffers.fromBuffer(direct);
+        assertVertices(ingest.getVertices());
+        assertStatistics(ingest, 0, 0);
+
+        // adopted, not copied: writes to the input show up in the vertex buffer
+        direct.put(0, -1f);
+        assertEquals(-1f, ingest.getVertices().get(0), 0f);
+    }
+
+    @Test
+    public void fromHeapBufferTest() {
+        FloatBuffer heap = FloatBuffer.wrap(coordinates());
+
+        PointCloudBuffers.Ingest ingest = PointCloudBuffers.fromBuffer(heap);
+        assertTrue(ingest.getVertices().isDirect());
+        assertVertices(ingest.getVertices());
+        assertStatistics(ingest, NUM_POINTS * 12L, NUM_POINTS * 12L);
+        // the input position is left alone
+        assertEquals(0, heap.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromBufferRejectsPartialTripletsTest() {
+        PointCloudBuffers.fromBuffer(FloatBuffer.allocate(7));
+    }
+
+    @Test
+    public void fromArrayTest() {
+        float[] stripe = new float[NUM_POINTS * 3 + 6];
+        System.arraycopy(coordinates(), 0, stripe, 3, NUM_POINTS * 3);
+
+        PointCloudBuffers.Ingest ingest = PointCloudBuffers.fromArray(stripe, 3, NUM_POINTS);
+        assertTrue(ingest.getVertices().isDirect());
+        assertVertices(ingest.getVertices());
+        assertStatistics(ingest, NUM_POINTS * 12L, NUM_POINTS * 12L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromArrayRejectsTooManyPointsTest() {
+        PointCloudBuffers.fromArray(new float[3], 0, PointCloudBuffers.MAX_POINTS + 1);
+    }
+
+    @Test
+    public void fromFileTest() throws IOException {
+        Path file = Files.createTempFile("sciview-points", ".bin");
+        file.toFile().deleteOnExit();
+
+        // a 16 byte header in front of the coordinates
+        ByteBuffer bytes = ByteBuffer.allocate(16 + NUM_POINTS * 12).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.position(16);
+        bytes.asFloatBuffer().put(coordinates());
+        bytes.rewind();
+        try( FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE) ) {
+            channel.write(bytes);
+        }
+
+        PointCloudBuffers.Ingest ingest = PointCloudBuffers.fromFile(file, 16, NUM_POINTS, ByteOrder.LITTLE_ENDIAN);
+        assertVertices(ingest.getVertices());
+        if( ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN )
+            assertStatistics(ingest, 0, 0);
+        else
+            assertStatistics(ingest, NUM_POINTS * 12L, NUM_POINTS * 12L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromFileRejectsRegionPastEndTest() throws IOException {
+        Path file = Files.createTempFile("sciview-points", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file, new byte[12]);
+
+        PointCloudBuffers.fromFile(file, 4, 1);
+    }
+
+    @Test
+    public void fromLocalizablesTest() {
+        float[] coordinates = coordinates();
+        List<RealLocalizable> points = new ArrayList<>();
+        for( int k = 0; k < NUM_POINTS; k++ )
+            points.add(new RealPoint(coordinates[3 * k], coordinates[3 * k + 1], coordinates[3 * k + 2]));
+
+        PointCloudBuffers.Ingest ingest = PointCloudBuffers.fromLocalizables(points);
+        assertVertices(ingest.getVertices());
+        assertStatistics(ingest, NUM_POINTS * 12L, NUM_POINTS * 12L);
+    }
+
+    @Test
+    public void missingDimensionsAreZeroTest() {
+        List<RealLocalizable> points = new ArrayList<>();
+        points.add(new RealPoint(1.0, 2.0));
+        points.add(new RealPoint(3.0));
+        points.add(new RealPoint(4.0, 5.0, 6.0, 7.0));
+
+        FloatBuffer vertices = PointCloudBuffers.fromLocalizables(points).getVertices();
+        float[] expected = { 1, 2, 0, 3, 0, 0, 4, 5, 6 };
+        assertEquals(expected.length, vertices.limit());
+        for( int k = 0; k < expected.length; k++ )
+            assertEquals(expected[k], vertices.get(k), 0f);
+    }
+
+    @Test
+    public void fromProducerTest() {
+        float[] coordinates = coordinates();
+        int[] produced = { 0 };
+        // fewer points expected than delivered, so the buffer has to grow
+        PointCloudBuffers.Ingest ingest = PointCloudBuffers.fromProducer(NUM_POINTS / 3, target -> {
+            int count = Math.min(target.remaining(), Math.min(300, coordinates.length - produced[0]));
+            target.put(coordinates, produced[0], count);
+            produced[0] += count;
+            return produced[0] < coordinates.length;
+        });
+
+        assertVertices(ingest.getVertices());
+        assertEquals(NUM_POINTS, ingest.getStatistics().getPoints());
+        assertTrue(ingest.getStatistics().getBytesCopied() > 0);
+        assertTrue(ingest.getStatistics().getBytesAllocated() >= NUM_POINTS * 12L);
+    }
+
+    @Test
+    public void fromProducerExactSizeTest() {
+        float[] coordinates = coordinates();
+        PointCloudBuffers.Ingest ingest = PointCloudBuffers.fromProducer(NUM_POINTS, target -> {
+            target.put(coordinates);
+            return false;
+        });
+
+        assertVertices(ingest.getVertices());
+        assertStatistics(ingest, NUM_POINTS * 12L, 0);
+    }
+
+    /** Coordinates whose value encodes point and axis */
+    private static float[] coordinates() {
+        float[] coordinates = new float[NUM_POINTS * 3];
+        for( int k = 0; k < coordinates.length; k++ )
+            coordinates[k] = k / 3 + 0.25f * (k % 3);
+        return coordinates;
+    }
+
+    private static void assertVertices(FloatBuffer vertices) {
+        float[] expected = coordinates();
+        assertEquals(0, vertices.position());
+        assertEquals(expected.length, vertices.limit());
+        for( int k = 0; k < expected.length; k++ )
+            assertEquals(expected[k], vertices.get(k), 0f);
+    }
+
+    private static void assertStatistics(PointCloudBuffers.Ingest ingest, long allocated, long copied) {
+        PointCloudBuffers.IngestStatistics statistics = ingest.getStatistics();
+        assertEquals(NUM_POINTS, statistics.getPoints());
+        assertEquals(allocated, statistics.getBytesAllocated());
+        assertEquals(copied, statistics.getBytesCopied());
+    }
+}
@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+import sc.iview.process.RegionCopy;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link RegionCopy} writes exactly the requested region, for array, cell and translated targets.
+ */
+public class RegionCopyTest {
+    private static final long[] DIMENSIONS = { 13, 11, 9 };
+    private static final Interval REGION = new FinalInterval( new long[] { 2, 3, 4 }, new long[] { 9, 5, 7 } );
+    private static final int UNTOUCHED = -1;
+
+    @Test
+    public void arrayRegionCopyTest() {
+        ArrayImg<IntType, IntArray> target = ArrayImgs.ints( DIMENSIONS );
+        fill( target );
+
+        assertTrue( RegionCopy.copy( source(), target, REGION ) );
+        assertCopied( target, REGION, new long[ 3 ] );
+    }
+
+    @Test
+    public void cellRegionCopyTest() {
+        CellImg<IntType, ?> target = new CellImgFactory<>( new IntType(), 4 ).create( DIMENSIONS );
+        fill( target );
+
+        assertTrue( RegionCopy.copy( source(), target, REGION ) );
+        assertCopied( target, REGION, new long[ 3 ] );
+
+        // cells that do not intersect the region keep their old content
+        CellGrid grid = target.getCellGrid();
+        long[] gridPosition = new long[ 3 ];
+        long[] cellMin = new long[ 3 ];
+        int[] cellDims = new int[ 3 ];
+        int touched = 0;
+        for( long index = 0; index < Intervals.numElements( grid.getGridDimensions() ); index++ ) {
+            IntervalIndexer.indexToPosition( index, grid.getGridDimensions(), gridPosition );
+            grid.getCellDimensions( gridPosition, cellMin, cellDims );
+            long[] cellMax = new long[ 3 ];
+            for( int d = 0; d < 3; d++ )
+                cellMax[ d ] = cellMin[ d ] + cellDims[ d ] - 1;
+            Interval cell = new FinalInterval( cellMin, cellMax );
+            boolean intersects = !Intervals.isEmpty( Intervals.intersect( cell, REGION ) );
+            boolean written = false;
+            for( IntType value : Views.interval( target, cell ) )
+                written |= value.get() != UNTOUCHED;
+            assertEquals( "cell " + Arrays.toString( gridPosition ), intersects, written );
+            if( written )
+                touched++;
+        }
+        // the region spans 3 x 2 x 1 cells of size 4
+        assertEquals( 6, touched );
+    }
+
+    @Test
+    public void translatedTargetTest() {
+        long[] offset = { 5, -2, 3 };
+        RandomAccessibleInterval<IntType> target = Views.translate( ArrayImgs.ints( DIMENSIONS ), offset );
+        fill( target );
+
+        assertTrue( RegionCopy.copy( source(), target, REGION ) );
+        assertCopied( target, REGION, offset );
+    }
+
+    @Test
+    public void regionsOutsideSourceTest() {
+        ArrayImg<IntType, IntArray> target = ArrayImgs.ints( DIMENSIONS );
+        fill( target );
+
+        Interval outside = new FinalInterval( new long[] { 20, 0, 0 }, new long[] { 24, 3, 3 } );
+        assertFalse( RegionCopy.copy( source(), target, Arrays.asList( outside, outside ) ) );
+        for( IntType value : target )
+            assertEquals( UNTOUCHED, value.get() );
+    }
+
+    @Test
+    public void multipleRegionsTest() {
+        ArrayImg<IntType, IntArray> target = ArrayImgs.ints( DIMENSIONS );
+        fill( target );
+
+        Interval first = new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 2, 2, 2 } );
+        Interval second = new FinalInterval( new long[] { 10, 8, 6 }, new long[] { 12, 10, 8 } );
+        assertTrue( RegionCopy.copy( source(), target, Arrays.asList( first, second ) ) );
+
+        RandomAccess<IntType> expected = source().randomAccess();
+        Cursor<IntType> cursor = target.localizingCursor();
+        while( cursor.hasNext() ) {
+            cursor.fwd();
+            boolean inside = Intervals.contains( first, cursor ) || Intervals.contains( second, cursor );
+            expected.setPosition( cursor );
+            assertEquals( cursor.toString(), inside ? expected.get().get() : UNTOUCHED, cursor.get().get() );
+        }
+    }
+
+    /** An image whose voxels hold their own flat index */
+    private static ArrayImg<IntType, IntArray> source() {
+        int[] data = new int[ ( int ) Intervals.numElements( DIMENSIONS ) ];
+        for( int i = 0; i < data.length; i++ )
+            data[ i ] = i;
+        return ArrayImgs.ints( data, DIMENSIONS );
+    }
+
+    private static void fill( RandomAccessibleInterval<IntType> image ) {
+        for( IntType value : Views.iterable( image ) )
+            value.set( UNTOUCHED );
+    }
+
+    /** Checks that every voxel of {@code target} inside {@code region + offset} holds the source value, and no other */
+    private static void assertCopied( RandomAccessibleInterval<IntType> target, Interval region, long[] offset ) {
+        RandomAccess<IntType> expected = source().randomAccess();
+        Cursor<IntType> cursor = Views.iterable( target ).localizingCursor();
+        long[] position = new long[ 3 ];
+        long copied = 0;
+        while( cursor.hasNext() ) {
+            cursor.fwd();
+            cursor.localize( position );
+            for( int d = 0; d < 3; d++ )
+                position[ d ] -= offset[ d ];
+            if( Intervals.contains( region, new Point( position ) ) ) {
+                expected.setPosition( position );
+                assertEquals( Arrays.toString( position ), expected.get().get(), cursor.get().get() );
+                copied++;
+            } else {
+                assertEquals( Arrays.toString( position ), UNTOUCHED, cursor.get().get() );
+            }
+        }
+        assertEquals( Intervals.numElements( region ), copied );
+    }
+}
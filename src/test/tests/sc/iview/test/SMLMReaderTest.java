@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import org.junit.Test;
+import sc.iview.io.SMLMReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SMLMReaderTest {
+    private static final float EPSILON = 1e-2f;
+
+    @Test
+    public void readSelectedColumnsTest() throws IOException {
+        Path csv = Files.createTempFile("sciview-smlm", ".csv");
+        csv.toFile().deleteOnExit();
+
+        int numRows = 10000;
+        Random rng = new Random(171717);
+        float[][] expected = new float[3][numRows];
+        try( BufferedWriter w = Files.newBufferedWriter(csv) ) {
+            w.write("\"id\",\"frame\",\"x [nm]\",\"y [nm]\",\"z [nm]\",\"intensity [photon]\"\n");
+            for( int k = 0; k < numRows; k++ ) {
+                expected[0][k] = rng.nextFloat() * 20000f;
+                expected[1][k] = -rng.nextFloat() * 20000f;
+                expected[2][k] = (float) (rng.nextGaussian() * 1e-3);
+                w.write(String.format(Locale.US, "%d,%d,%.4f,%.4f,%e,%.1f%s", k, k / 10,
+                        expected[0][k], expected[1][k], expected[2][k], 100.0, k % 2 == 0 ? "\r\n" : "\n"));
+            }
+        }
+
+        SMLMReader.Table table = SMLMReader.read(csv, SMLMReader.X, SMLMReader.Y, SMLMReader.Z);
+        assertEquals(numRows, table.size());
+        assertNull(table.column(SMLMReader.INTENSITY));
+        for( int k = 0; k < numRows; k++ ) {
+            assertEquals(expected[0][k], table.column(SMLMReader.X)[k], EPSILON);
+            assertEquals(expected[1][k], table.column(SMLMReader.Y)[k], EPSILON);
+            assertEquals(expected[2][k], table.column(SMLMReader.Z)[k], 1e-7f);
+        }
+
+        FloatBuffer vertices = table.vertices();
+        assertEquals(numRows * 3, vertices.remaining());
+        assertEquals(expected[1][numRows - 1], vertices.get(numRows * 3 - 2), EPSILON);
+    }
+}
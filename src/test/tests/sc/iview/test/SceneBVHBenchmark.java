@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import java.util.Random;
+
+import graphics.scenery.Box;
+import graphics.scenery.Node;
+import graphics.scenery.Scene;
+import org.joml.Vector3f;
+import sc.iview.SceneBVH;
+
+import static sc.iview.test.Benchmarks.argument;
+import static sc.iview.test.Benchmarks.time;
+
+/**
+ * Compares ray queries through a {@link SceneBVH} against scenery's {@link Scene#raycast}, which tests every node,
+ * on a scene of 100k boxes by default.
+ */
+public class SceneBVHBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = argument(args, 0, 100000);
+        int queries = 1000;
+
+        Scene scene = new Scene();
+        Random rng = new Random(17);
+        for( int k = 0; k < count; k++ ) {
+            Box box = new Box(new Vector3f(1f, 1f, 1f), false);
+            box.setBoundingBox(box.generateBoundingBox());
+            box.setPosition(new Vector3f(rng.nextFloat() * 1000f - 500f, rng.nextFloat() * 1000f - 500f, rng.nextFloat() * 1000f - 500f));
+            scene.addChild(box);
+        }
+        scene.updateWorld(true, true);
+
+        SceneBVH bvh = new SceneBVH(scene);
+        report("build + first query", 1, time(() -> bvh.raycast(new Vector3f(), new Vector3f(0f, 0f, 1f))));
+
+        Vector3f[] origins = new Vector3f[queries];
+        for( int q = 0; q < queries; q++ )
+            origins[q] = new Vector3f(rng.nextFloat() * 1000f - 500f, rng.nextFloat() * 1000f - 500f, -600f);
+        Vector3f direction = new Vector3f(0.01f, 0.02f, 1f).normalize();
+
+        int[] hits = new int[1];
+        long nanos = time(() -> {
+            for( Vector3f origin : origins )
+                hits[0] += scene.raycast(origin, direction, SceneBVH.DEFAULT_IGNORED, false).getMatches().size();
+        });
+        report("scene.raycast (" + hits[0] + " hits)", queries, nanos);
+
+        hits[0] = 0;
+        nanos = time(() -> {
+            for( Vector3f origin : origins )
+                hits[0] += bvh.raycast(origin, direction).getMatches().size();
+        });
+        report("SceneBVH.raycast (" + hits[0] + " hits)", queries, nanos);
+
+        nanos = time(() -> {
+            for( int k = 0; k < count / 100; k++ ) {
+                Node n = scene.getChildren().get(rng.nextInt(count));
+                n.setPosition(new Vector3f(n.getPosition()).add(0.5f, 0f, 0f));
+            }
+            scene.updateWorld(true, true);
+            bvh.update();
+        });
+        report("move 1% and refit (" + bvh.getRefitted() + " refitted)", 1, nanos);
+    }
+
+    private static void report(String path, int queries, long nanos) {
+        Benchmarks.report(path, "%.3f ms per query", nanos / 1e6 / queries);
+    }
+}
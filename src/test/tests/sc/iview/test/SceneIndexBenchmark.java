@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import java.util.List;
+import java.util.Random;
+
+import graphics.scenery.Group;
+import graphics.scenery.Node;
+import graphics.scenery.Scene;
+import sc.iview.SceneIndex;
+
+import static sc.iview.test.Benchmarks.argument;
+import static sc.iview.test.Benchmarks.time;
+
+/**
+ * Compares lookups by name, class and metadata key through a {@link SceneIndex} against walking the scene graph,
+ * on a scene of 100k nodes by default.
+ */
+public class SceneIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = argument(args, 0, 100000);
+        int queries = 1000;
+
+        Scene scene = new Scene();
+        SceneIndex index = new SceneIndex(scene);
+
+        report("add", count, time(() -> {
+            for( int k = 0; k < count; k++ ) {
+                Node n = k % 10 == 0 ? new Group() : new Node("node " + k);
+                n.setName("node " + k);
+                if( k % 100 == 0 )
+                    n.getMetadata().put("tagged", k);
+                scene.addChild(n);
+                index.add(n);
+            }
+        }));
+
+        Random rng = new Random(17);
+        String[] names = new String[queries];
+        for( int q = 0; q < queries; q++ )
+            names[q] = "node " + rng.nextInt(count);
+
+        int[] found = new int[1];
+        long nanos = time(() -> {
+            for( String name : names )
+                if( scene.find(name) != null ) found[0]++;
+        });
+        report("scene.find", found[0], nanos);
+
+        found[0] = 0;
+        nanos = time(() -> {
+            for( String name : names )
+                if( index.find(name) != null ) found[0]++;
+        });
+        report("index.find", found[0], nanos);
+
+        List<?>[] result = new List<?>[1];
+        nanos = time(() -> result[0] = scene.discover(scene, n -> n instanceof Group, false));
+        report("scene.discover(class)", result[0].size(), nanos);
+
+        nanos = time(() -> result[0] = index.findByClass(Group.class));
+        report("index.findByClass", result[0].size(), nanos);
+
+        nanos = time(() -> result[0] = scene.discover(scene, n -> n.getMetadata().containsKey("tagged"), false));
+        report("scene.discover(metadata)", result[0].size(), nanos);
+
+        nanos = time(() -> result[0] = index.findByMetadataKey("tagged"));
+        report("index.findByMetadataKey", result[0].size(), nanos);
+    }
+
+    private static void report(String path, int results, long nanos) {
+        Benchmarks.report(path, "%d results in %.3f ms", results, nanos / 1e6);
+    }
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.Node;
+import graphics.scenery.Scene;
+import org.junit.Test;
+import sc.iview.SceneIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SceneIndexTest {
+
+    private static List<Node> addNodes(Scene scene, SceneIndex index, String name, int count) {
+        List<Node> nodes = new ArrayList<>();
+        for( int k = 0; k < count; k++ ) {
+            Node node = new Node(name);
+            node.getMetadata().put("key", k);
+            scene.addChild(node);
+            index.add(node);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    @Test
+    public void findReturnsEarliestIndexedTest() {
+        Scene scene = new Scene();
+        SceneIndex index = new SceneIndex(scene);
+        List<Node> nodes = addNodes(scene, index, "cell", 100);
+
+        for( int k = 0; k < 100; k++ ) {
+            assertSame(nodes.get(k), index.find("cell"));
+            scene.removeChild(nodes.get(k));
+            index.remove(nodes.get(k));
+        }
+        assertNull(index.find("cell"));
+    }
+
+    @Test
+    public void lookupsKeepInsertionOrderTest() {
+        Scene scene = new Scene();
+        SceneIndex index = new SceneIndex(scene);
+        List<Node> nodes = addNodes(scene, index, "cell", 50);
+
+        assertEquals(nodes, index.findAll("cell"));
+        assertEquals(nodes, index.findByMetadataKey("key"));
+
+        // a renamed node moves to the end of its new name
+        Node renamed = nodes.get(10);
+        renamed.setName("other");
+        index.refresh(renamed);
+        renamed.setName("cell");
+        index.refresh(renamed);
+        List<Node> expected = new ArrayList<>(nodes);
+        expected.remove(renamed);
+        expected.add(renamed);
+        assertEquals(expected, index.findAll("cell"));
+    }
+
+    @Test
+    public void detachedNodesAreSkippedTest() {
+        Scene scene = new Scene();
+        SceneIndex index = new SceneIndex(scene);
+        List<Node> nodes = addNodes(scene, index, "cell", 3);
+
+        // detached without telling the index
+        scene.removeChild(nodes.get(0));
+        assertSame(nodes.get(1), index.find("cell"));
+        assertEquals(Arrays.asList(nodes.get(1), nodes.get(2)), index.findAll("cell"));
+    }
+}
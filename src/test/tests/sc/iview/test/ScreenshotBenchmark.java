@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import sc.iview.SciView;
+
+import static sc.iview.test.Benchmarks.argument;
+import static sc.iview.test.Benchmarks.time;
+
+/**
+ * Measures how many frames per second can be captured through {@link SciView#getScreenshot}
+ * and {@link SciView#getARGBScreenshot}, with and without buffer reuse.
+ */
+public class ScreenshotBenchmark {
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        int frames = argument(args, 0, 100);
+
+        SciView sciView = SciView.create();
+        sciView.addSphere();
+        Thread.sleep(2000);
+
+        report("UnsignedByte", frames, time(() -> {
+            for( int k = 0; k < frames; k++ ) {
+                sciView.getScreenshot(null);
+            }
+        }));
+
+        ArrayImg<UnsignedByteType, ByteArray>[] bytes = new ArrayImg[1];
+        report("UnsignedByte, reused", frames, time(() -> {
+            for( int k = 0; k < frames; k++ ) {
+                bytes[0] = sciView.getScreenshot(bytes[0]);
+            }
+        }));
+
+        ArrayImg<ARGBType, IntArray>[] argb = new ArrayImg[1];
+        report("ARGB, reused", frames, time(() -> {
+            for( int k = 0; k < frames; k++ ) {
+                argb[0] = sciView.getARGBScreenshot(argb[0]);
+            }
+        }));
+
+        sciView.closeWindow();
+    }
+
+    private static void report(String path, int frames, long nanos) {
+        Benchmarks.report(path, "%d frames in %.1f ms, %.1f fps", frames, nanos / 1e6, frames * 1e9 / nanos);
+    }
+}
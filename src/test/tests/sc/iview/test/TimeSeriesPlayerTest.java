@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import org.junit.Test;
+import sc.iview.TimeSeriesPlayer;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesPlayerTest {
+
+    private static void awaitCached(TimeSeriesPlayer player, int... timepoints) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for( int t : timepoints ) {
+            while( !player.isCached(t) ) {
+                assertTrue("time point " + t + " was not prefetched", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    @Test
+    public void prefetchAheadTest() throws InterruptedException {
+        AtomicInteger shown = new AtomicInteger(-1);
+        TimeSeriesPlayer player = new TimeSeriesPlayer(20, shown::set, t -> new TimeSeriesPlayer.Loaded(t, 100));
+        player.setPrefetchCount(4);
+        player.seek(0);
+        awaitCached(player, 0, 1, 2, 3, 4);
+        assertFalse(player.isCached(5));
+
+        for( int t = 1; t <= 4; t++ ) {
+            assertTrue(player.step());
+            assertEquals(t, shown.get());
+        }
+        assertEquals(4, player.getHits());
+        assertEquals(0, player.getMisses());
+        player.close();
+    }
+
+    @Test
+    public void stallOnMissTest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        TimeSeriesPlayer player = new TimeSeriesPlayer(10, t -> {}, t -> {
+            if( t == 1 )
+                release.await();
+            return new TimeSeriesPlayer.Loaded(null, 0);
+        });
+        player.seek(0);
+        awaitCached(player, 0);
+
+        // the playhead waits for the slow time point instead of blocking
+        assertFalse(player.step());
+        assertFalse(player.step());
+        assertEquals(0, player.getCurrentTimepoint());
+        assertEquals(1, player.getMisses());
+        assertEquals(2, player.getStalls());
+
+        release.countDown();
+        awaitCached(player, 1);
+        assertTrue(player.step());
+        assertEquals(1, player.getCurrentTimepoint());
+        assertEquals(0, player.getHits());
+        player.close();
+    }
+
+    @Test
+    public void budgetAndDirectionTest() throws InterruptedException {
+        Set<Integer> loaded = ConcurrentHashMap.newKeySet();
+        TimeSeriesPlayer player = new TimeSeriesPlayer(100, t -> {}, t -> {
+            loaded.add(t);
+            return new TimeSeriesPlayer.Loaded(t, 100);
+        });
+        player.setMaxBytes(550);
+        player.setPrefetchCount(8);
+        player.setLoop(false);
+        player.seek(50);
+        awaitCached(player, 50, 51, 52, 53, 54);
+        Thread.sleep(100);
+        assertTrue(player.getCachedBytes() <= 550);
+        assertTrue(player.isCached(50));
+
+        // reversing prefetches the time points behind the playhead
+        player.setDirection(-1);
+        awaitCached(player, 50, 49, 48, 47, 46);
+        Thread.sleep(100);
+        assertTrue(player.getCachedBytes() <= 550);
+        assertTrue(loaded.contains(46));
+
+        // without looping, playback stops at the first time point
+        player.seek(0);
+        assertFalse(player.step());
+        assertEquals(0, player.getCurrentTimepoint());
+        player.close();
+    }
+
+    @Test
+    public void budgetSmallerThanWindowTest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        Map<Integer, AtomicInteger> loads = new ConcurrentHashMap<>();
+        TimeSeriesPlayer player = new TimeSeriesPlayer(100, t -> {}, t -> {
+            loads.computeIfAbsent(t, k -> new AtomicInteger()).incrementAndGet();
+            if( t == 1 )
+                release.await();
+            return new TimeSeriesPlayer.Loaded(t, 100);
+        });
+        player.setMaxBytes(250);
+        player.setPrefetchCount(8);
+        player.setLoop(false);
+        player.seek(0);
+        awaitCached(player, 0);
+
+        // stalling on the next time point does not load the evicted far end of the window again
+        for( int k = 0; k < 20; k++ )
+            assertFalse(player.step());
+        release.countDown();
+        awaitCached(player, 1);
+        assertTrue(player.step());
+        awaitCached(player, 2);
+        Thread.sleep(100);
+
+        for( Map.Entry<Integer, AtomicInteger> entry : loads.entrySet() )
+            assertTrue("time point " + entry.getKey() + " loaded " + entry.getValue() + " times", entry.getValue().get() <= 2);
+        assertTrue(player.getCachedBytes() <= 250);
+        player.close();
+    }
+}
@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2020 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.test;
+
+import graphics.scenery.Box;
+import graphics.scenery.Group;
+import graphics.scenery.OrientedBoundingBox;
+import graphics.scenery.Scene;
+import org.joml.Vector3f;
+import org.junit.Test;
+import sc.iview.WorldBounds;
+
+import static org.junit.Assert.assertEquals;
+
+public class WorldBoundsTest {
+
+    private static Box box(float x) {
+        Box box = new Box(new Vector3f(2f, 2f, 2f), false);
+        box.setBoundingBox(box.generateBoundingBox());
+        box.setPosition(new Vector3f(x, 0f, 0f));
+        return box;
+    }
+
+    @Test
+    public void boundsFollowMovedNodes() {
+        Scene scene = new Scene();
+        Group group = new Group();
+        Box left = box(-5f);
+        Box right = box(5f);
+        group.addChild(left);
+        group.addChild(right);
+        scene.addChild(group);
+        scene.updateWorld(true, true);
+
+        WorldBounds bounds = new WorldBounds();
+        OrientedBoundingBox bb = bounds.boundingBox(scene);
+        assertEquals(-6f, bb.getMin().x(), 1e-5f);
+        assertEquals(6f, bb.getMax().x(), 1e-5f);
+
+        // nothing changed
+        bounds.update();
+        assertEquals(0, bounds.getChanges());
+
+        right.setPosition(new Vector3f(10f, 3f, 0f));
+        scene.updateWorld(true, true);
+        bounds.update();
+        assertEquals(1, bounds.getChanges());
+        bb = bounds.boundingBox(scene);
+        assertEquals(11f, bb.getMax().x(), 1e-5f);
+        assertEquals(4f, bb.getMax().y(), 1e-5f);
+        assertEquals(-5f, bounds.center(left).x(), 1e-5f);
+
+        // moving the group moves the world boxes of its children
+        group.setPosition(new Vector3f(0f, 0f, 20f));
+        scene.updateWorld(true, true);
+        bounds.update();
+        bb = bounds.boundingBox(scene);
+        assertEquals(19f, bb.getMin().z(), 1e-5f);
+        assertEquals(21f, bb.getMax().z(), 1e-5f);
+
+        group.removeChild(right);
+        bounds.changed(group);
+        bb = bounds.boundingBox(scene);
+        assertEquals(-4f, bb.getMax().x(), 1e-5f);
+    }
+}